@@ -9,24 +9,31 @@ import io.flutter.embedding.engine.plugins.activity.ActivityAware;
 import android.Manifest;
 import android.app.Activity;
 import android.app.ActivityManager;
-import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
+import android.media.Image;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.util.Log;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.core.app.ActivityCompat;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
 import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
@@ -37,19 +44,35 @@ import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
 import io.flutter.plugin.common.MethodChannel.Result;
 import io.flutter.plugin.common.PluginRegistry;
 
+import services.AudioProfile;
+import services.CameraCapabilityCache;
+import services.EncryptedFileReader;
+import services.FrameListener;
+import services.FrameTap;
+import services.QualityProfile;
+import services.RecorderEvent;
+import services.RecorderMetrics;
+import services.RecorderStateListener;
+import services.RecordingCatalog;
+import services.TelemetryReader;
+import services.UploadOptions;
 import services.VideoRecorderService;
 
 /** FlutterBackgroundVideoRecorderPlugin */
-public class FlutterBackgroundVideoRecorderPlugin extends BroadcastReceiver implements FlutterPlugin, MethodCallHandler, ActivityAware, PluginRegistry.RequestPermissionsResultListener, EventChannel.StreamHandler {
+public class FlutterBackgroundVideoRecorderPlugin implements FlutterPlugin, RecorderStateListener, MethodCallHandler, ActivityAware, PluginRegistry.RequestPermissionsResultListener, EventChannel.StreamHandler {
   private static final String TAG = "LightBackgroundVideoRecorder/Plugin";
   private static final int REQUEST_CAMERA_AUDIO_PERMISSION_RESULT = 4415;
   private static final int REQUEST_READ_WRITE_PERMISSION_RESULT = 4416;
 
+  // Action of the state broadcasts the service sends in compatibility mode
   public static final String RECORDING_RECEIVER = "RECORDING_RECEIVER";
   private static final int STATUS_RECORDING = 1;
   private static final int STATUS_STOPPED = 2;
   private static final int STATUS_INITIALIZING = 3;
+  private static final int STATUS_ARMED = 5;
   private static final int STATUS_EXCEPTION = -1;
+  // Largest plaintext range readDecrypted returns at once
+  private static final int MAX_DECRYPT_LENGTH = 8 * 1024 * 1024;
 
   /// The MethodChannel and EventChannel that will the communication between Flutter and native Android
   ///
@@ -58,6 +81,12 @@ public class FlutterBackgroundVideoRecorderPlugin extends BroadcastReceiver impl
   private MethodChannel channel;
   private EventChannel eventChannel;
   private EventChannel.EventSink mEventSink;
+  // Carries recorder events with a payload, such as completed segments, as maps
+  private EventChannel infoEventChannel;
+  private EventChannel.EventSink mInfoEventSink;
+  // Carries downscaled luma of the analysis frames
+  private EventChannel frameEventChannel;
+  private volatile EventChannel.EventSink mFrameSink;
   private VideoRecorderService mVideoRecordingService;
 
   private Context mContext;
@@ -68,6 +97,24 @@ public class FlutterBackgroundVideoRecorderPlugin extends BroadcastReceiver impl
   private int mRecordingStatus = STATUS_STOPPED;
 
   private boolean showInfoToast = true;
+  // Set when the service is started by armRecorder, the recorder is prepared but not started
+  private boolean armOnConnect = false;
+  // Handed to the service over the binder before recording starts, never put in an intent
+  private byte[] mPendingEncryptionKey;
+
+  private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+  private volatile int mDartFrameWidth = 0;
+  // One frame at a time is on its way to Dart, frames that arrive meanwhile are dropped
+  private final AtomicBoolean mDartFrameInFlight = new AtomicBoolean(false);
+  // Reused for every frame, only written while no frame is in flight
+  private byte[] mDartFrame;
+  private final FrameListener mDartFrameListener = this::onAnalysisFrame;
+  // Catalog rescans read the folder and probe new files, so they stay off the main thread
+  private final ExecutorService mCatalogExecutor = Executors.newSingleThreadExecutor();
+  // Decrypted ranges are read and authenticated off the main thread
+  private final ExecutorService mDecryptExecutor = Executors.newSingleThreadExecutor();
+  // Telemetry sidecars are mapped and copied out off the main thread
+  private final ExecutorService mTelemetryExecutor = Executors.newSingleThreadExecutor();
 
   // Handles service connection events
   private final ServiceConnection mConnection = new ServiceConnection() {
@@ -76,7 +123,21 @@ public class FlutterBackgroundVideoRecorderPlugin extends BroadcastReceiver impl
       Log.i(TAG, "Connected to video recording service.");
       VideoRecorderService.LocalBinder binder = (VideoRecorderService.LocalBinder) service;
       mVideoRecordingService = binder.getServerInstance();
-      if (!mVideoRecordingService.getRecordingStatus()) {
+      binder.setStateListener(FlutterBackgroundVideoRecorderPlugin.this);
+      if (mPendingEncryptionKey != null) {
+        binder.setEncryptionKey(mPendingEncryptionKey);
+        Arrays.fill(mPendingEncryptionKey, (byte) 0);
+        mPendingEncryptionKey = null;
+      }
+      mDartFrameWidth = mVideoRecordingService.getDartFrameWidth();
+      if (mDartFrameWidth > 0) {
+        binder.addFrameListener(mDartFrameListener);
+      }
+      if (mVideoRecordingService.getArmedStatus()) {
+        mRecordingStatus = STATUS_ARMED;
+      } else if (armOnConnect) {
+        mVideoRecordingService.armRecorder();
+      } else if (!mVideoRecordingService.getRecordingStatus()) {
         mVideoRecordingService.startVideoRecording();
       } else {
         mRecordingStatus = STATUS_RECORDING;
@@ -105,13 +166,31 @@ public class FlutterBackgroundVideoRecorderPlugin extends BroadcastReceiver impl
     eventChannel = new EventChannel(flutterPluginBinding.getBinaryMessenger(), "flutter_background_video_recorder_event");
     eventChannel.setStreamHandler(this);
 
-    IntentFilter filter = new IntentFilter(RECORDING_RECEIVER);
-    filter.addCategory(Intent.CATEGORY_DEFAULT);
-    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-      mContext.registerReceiver(this, filter, Context.RECEIVER_EXPORTED);
-    } else {
-      mContext.registerReceiver(this, filter);
-    }
+    infoEventChannel = new EventChannel(flutterPluginBinding.getBinaryMessenger(), "flutter_background_video_recorder_info_event");
+    infoEventChannel.setStreamHandler(new EventChannel.StreamHandler() {
+      @Override
+      public void onListen(Object arguments, EventChannel.EventSink events) {
+        mInfoEventSink = events;
+      }
+
+      @Override
+      public void onCancel(Object arguments) {
+        mInfoEventSink = null;
+      }
+    });
+
+    frameEventChannel = new EventChannel(flutterPluginBinding.getBinaryMessenger(), "flutter_background_video_recorder_frames");
+    frameEventChannel.setStreamHandler(new EventChannel.StreamHandler() {
+      @Override
+      public void onListen(Object arguments, EventChannel.EventSink events) {
+        mFrameSink = events;
+      }
+
+      @Override
+      public void onCancel(Object arguments) {
+        mFrameSink = null;
+      }
+    });
   }
 
   @Override
@@ -120,10 +199,15 @@ public class FlutterBackgroundVideoRecorderPlugin extends BroadcastReceiver impl
       case "getRecordingStatus":
         result.success(mRecordingStatus);
         break;
+      case "armRecorder":
       case "startVideoRecording":
-        if (mRecordingStatus == STATUS_STOPPED) {
-          checkPermissions();
-          if (hasRecordingPermissions()) {
+        if (mRecordingStatus == STATUS_ARMED && call.method.equals("startVideoRecording")) {
+          // Recorder is already prepared, only the recorder has to be started
+          mVideoRecordingService.startVideoRecording();
+          result.success(true);
+        } else if (mRecordingStatus == STATUS_STOPPED) {
+          checkPermissions(call);
+          if (hasRecordingPermissions(call)) {
             startVideoRecordingService(call);
             result.success(true);
           } else {
@@ -137,12 +221,17 @@ public class FlutterBackgroundVideoRecorderPlugin extends BroadcastReceiver impl
         break;
       case "stopVideoRecording":
         if (mRecordingStatus == STATUS_RECORDING) {
-          String mVideoFileName = mVideoRecordingService.stopVideoRecording();
-          mActivity.unbindService(mConnection);
-          if (showInfoToast) {
-            showToast("File saved: " + mVideoFileName);
-          }
-          result.success(mVideoFileName);
+          // Recorder is stopped on the service's camera thread, result arrives on the main thread
+          mVideoRecordingService.stopVideoRecording(videoFileName -> {
+            // An armed service keeps running and prepares the recorder for the next recording
+            if (mActivity != null && !armOnConnect) {
+              mActivity.unbindService(mConnection);
+            }
+            if (showInfoToast && videoFileName != null) {
+              showToast("File saved: " + videoFileName);
+            }
+            result.success(videoFileName);
+          });
         } else {
           result.error(
                   Integer.toString(11),
@@ -151,12 +240,196 @@ public class FlutterBackgroundVideoRecorderPlugin extends BroadcastReceiver impl
           );
         }
         break;
+      case "saveClip":
+        if (mRecordingStatus == STATUS_RECORDING) {
+          Integer preSeconds = call.argument("preSeconds");
+          Integer postSeconds = call.argument("postSeconds");
+          mVideoRecordingService.saveClip(
+                  preSeconds != null ? preSeconds : 0,
+                  postSeconds != null ? postSeconds : 0,
+                  clipFileName -> {
+                    if (showInfoToast && clipFileName != null) {
+                      showToast("Clip saved: " + clipFileName);
+                    }
+                    result.success(clipFileName);
+                  }
+          );
+        } else {
+          result.error(
+                  Integer.toString(13),
+                  "Recording stopped",
+                  "Clips can only be saved while buffering"
+          );
+        }
+        break;
+      case "disarmRecorder":
+        if (mRecordingStatus == STATUS_ARMED) {
+          armOnConnect = false;
+          mVideoRecordingService.disarmRecorder();
+          if (mActivity != null) {
+            mActivity.unbindService(mConnection);
+          }
+          result.success(true);
+        } else {
+          result.error(
+                  Integer.toString(12),
+                  "Recorder not armed",
+                  "Recorder is not armed"
+          );
+        }
+        break;
+      case "getCameraSetupTimings":
+        result.success(CameraCapabilityCache.getSetupTimings());
+        break;
+      case "getRecorderMetrics":
+        result.success(RecorderMetrics.getSnapshot());
+        break;
+      case "getStorageForecast":
+        if (mRecordingStatus != STATUS_STOPPED && mVideoRecordingService != null) {
+          mVideoRecordingService.getStorageForecast(result::success);
+        } else {
+          result.success(null);
+        }
+        break;
+      case "listRecordings":
+        listRecordings(call, result);
+        break;
+      case "readDecrypted":
+        readDecrypted(call, result);
+        break;
+      case "readTelemetry":
+        readTelemetry(call, result);
+        break;
       default:
         result.notImplemented();
         break;
     }
   }
 
+  // Works whether or not the service runs, the service adds the files it finishes to the same catalog
+  private void listRecordings(@NonNull MethodCall call, @NonNull Result result) {
+    String folderName = call.argument("videoFolderName");
+    if (folderName == null) {
+      result.error(
+              Integer.toString(14),
+              "Missing folder",
+              "videoFolderName is required"
+      );
+      return;
+    }
+    Integer offset = call.argument("offset");
+    Integer limit = call.argument("limit");
+    mCatalogExecutor.execute(() -> {
+      // Looking the catalog up reads the files directory, kept off the main thread
+      RecordingCatalog catalog = RecordingCatalog.get(mContext, VideoRecorderService.getVideoFolder(folderName));
+      Map<String, Object> page = catalog.list(offset != null ? offset : 0, limit != null ? limit : 100);
+      mMainHandler.post(() -> result.success(page));
+    });
+  }
+
+  // Returns a plaintext range of an encrypted recording with the plaintext length and whether the
+  // file was finished, works whether or not the service runs
+  private void readDecrypted(@NonNull MethodCall call, @NonNull Result result) {
+    String path = call.argument("path");
+    byte[] key = call.argument("key");
+    if (path == null || key == null) {
+      result.error(
+              Integer.toString(15),
+              "Missing file or key",
+              "path and key are required"
+      );
+      return;
+    }
+    long offset = longArgument(call, "offset");
+    long length = longArgument(call, "length");
+    if (offset < 0 || length < 0) {
+      result.error(
+              Integer.toString(19),
+              "Invalid range",
+              "offset and length must not be negative"
+      );
+      return;
+    }
+    mDecryptExecutor.execute(() -> {
+      try (EncryptedFileReader reader = new EncryptedFileReader(new File(path), key)) {
+        // Longer reads return the first MAX_DECRYPT_LENGTH bytes, Dart reads on from there
+        byte[] data = new byte[(int) Math.max(0, Math.min(Math.min(length, MAX_DECRYPT_LENGTH), reader.length() - offset))];
+        int read = data.length > 0 ? reader.read(offset, data, 0, data.length) : 0;
+        Map<String, Object> range = new HashMap<>();
+        range.put("data", read == data.length ? data : Arrays.copyOf(data, Math.max(read, 0)));
+        range.put("length", reader.length());
+        range.put("complete", reader.isComplete());
+        mMainHandler.post(() -> result.success(range));
+      } catch (IOException e) {
+        mMainHandler.post(() -> result.error(Integer.toString(16), "Decryption failed", e.getMessage()));
+      }
+    });
+  }
+
+  // Returns the telemetry of a recording from fromUs up to toUs in video time, per type the record
+  // times in microseconds of video time and their values one record after the other. Works whether
+  // or not the service runs, records still being recorded show up when they are flushed.
+  private void readTelemetry(@NonNull MethodCall call, @NonNull Result result) {
+    String path = call.argument("path");
+    if (path == null) {
+      result.error(
+              Integer.toString(17),
+              "Missing recording",
+              "path is required"
+      );
+      return;
+    }
+    long fromUs = longArgument(call, "fromUs");
+    Number toUs = call.argument("toUs");
+    mTelemetryExecutor.execute(() -> {
+      try {
+        TelemetryReader reader = TelemetryReader.open(TelemetryReader.sidecarFor(new File(path)));
+        long startNanos = reader.getStartNanos();
+        long fromNanos = startNanos + fromUs * 1000;
+        long toNanos = toUs != null ? startNanos + toUs.longValue() * 1000 : Long.MAX_VALUE;
+        Map<String, Object> telemetry = new HashMap<>();
+        telemetry.put("frames", new TelemetryRange(reader, TelemetryReader.TYPE_FRAME, fromNanos, toNanos).toMap());
+        telemetry.put("acceleration", new TelemetryRange(reader, TelemetryReader.TYPE_ACCELERATION, fromNanos, toNanos).toMap());
+        telemetry.put("locations", new TelemetryRange(reader, TelemetryReader.TYPE_LOCATION, fromNanos, toNanos).toMap());
+        mMainHandler.post(() -> result.success(telemetry));
+      } catch (IOException e) {
+        mMainHandler.post(() -> result.error(Integer.toString(18), "Telemetry unreadable", e.getMessage()));
+      }
+    });
+  }
+
+  // Copies the records of one type into arrays the message codec sends as typed lists
+  private static final class TelemetryRange implements TelemetryReader.Visitor {
+    private final long mStartNanos;
+    private long[] mTimes = new long[256];
+    private double[] mValues;
+    private int mCount = 0;
+
+    TelemetryRange(@NonNull TelemetryReader reader, int type, long fromNanos, long toNanos) {
+      mStartNanos = reader.getStartNanos();
+      mValues = new double[mTimes.length * TelemetryReader.valueCount(type)];
+      reader.query(type, fromNanos, toNanos, this);
+    }
+
+    @Override
+    public void onRecord(long timestampNanos, @NonNull double[] values) {
+      if (mCount == mTimes.length) {
+        mTimes = Arrays.copyOf(mTimes, mCount * 2);
+        mValues = Arrays.copyOf(mValues, mValues.length * 2);
+      }
+      mTimes[mCount] = (timestampNanos - mStartNanos) / 1000;
+      System.arraycopy(values, 0, mValues, mCount * values.length, values.length);
+      mCount++;
+    }
+
+    Map<String, Object> toMap() {
+      Map<String, Object> range = new HashMap<>();
+      range.put("timesUs", Arrays.copyOf(mTimes, mCount));
+      range.put("values", Arrays.copyOf(mValues, mCount * (mValues.length / mTimes.length)));
+      return range;
+    }
+  }
+
   private void startVideoRecordingService(MethodCall call) {
     String videoFolderName = call.argument("videoFolderName");
     // Can take values "Rear camera" and "Front camera"
@@ -164,21 +437,88 @@ public class FlutterBackgroundVideoRecorderPlugin extends BroadcastReceiver impl
     String notificationTitle = call.argument("notificationTitle");
     String notificationText = call.argument("notificationText");
     showInfoToast = Objects.equals(call.argument("showToast"), "true");
+    armOnConnect = call.method.equals("armRecorder");
     Intent backgroundServiceStartIntent = new Intent(mContext, VideoRecorderService.class);
     backgroundServiceStartIntent.putExtra("DirectoryName", videoFolderName);
     backgroundServiceStartIntent.putExtra("CameraFacing", cameraFacing);
     backgroundServiceStartIntent.putExtra("NotificationTitle", notificationTitle);
     backgroundServiceStartIntent.putExtra("NotificationText", notificationText);
+    backgroundServiceStartIntent.putExtra("SegmentDurationSeconds", longArgument(call, "segmentDurationSeconds"));
+    backgroundServiceStartIntent.putExtra("SegmentSizeBytes", longArgument(call, "segmentSizeBytes"));
+    backgroundServiceStartIntent.putExtra("DiskQuotaBytes", longArgument(call, "diskQuotaBytes"));
+    backgroundServiceStartIntent.putExtra("PreEventBufferSeconds", (int) longArgument(call, "preEventBufferSeconds"));
+    Map<String, Object> qualityProfile = call.argument("qualityProfile");
+    QualityProfile.fromMap(qualityProfile).writeToIntent(backgroundServiceStartIntent);
+    backgroundServiceStartIntent.putExtra("CaptureMode", (String) call.argument("captureMode"));
+    Map<String, Object> audioProfile = call.argument("audioProfile");
+    AudioProfile.fromMap(audioProfile).writeToIntent(backgroundServiceStartIntent);
+    backgroundServiceStartIntent.putExtra("AdaptiveQuality", Boolean.TRUE.equals(call.argument("adaptiveQuality")));
+    backgroundServiceStartIntent.putExtra("MinFreeBytes", longArgument(call, "minFreeBytes"));
+    backgroundServiceStartIntent.putExtra("LowStorageSeconds", longArgument(call, "lowStorageWarningSeconds"));
+    backgroundServiceStartIntent.putExtra("PreallocateFiles", Boolean.TRUE.equals(call.argument("preallocateFiles")));
+    backgroundServiceStartIntent.putExtra("BroadcastEvents", Boolean.TRUE.equals(call.argument("broadcastEvents")));
+    backgroundServiceStartIntent.putExtra("TraceStages", Boolean.TRUE.equals(call.argument("traceStages")));
+    backgroundServiceStartIntent.putExtra("RecordingEngine", (String) call.argument("recordingEngine"));
+    backgroundServiceStartIntent.putExtra("DualCamera", Boolean.TRUE.equals(call.argument("dualCamera")));
+    backgroundServiceStartIntent.putExtra("FastStart", Boolean.TRUE.equals(call.argument("fastStart")));
+    backgroundServiceStartIntent.putExtra("FragmentDurationMillis", longArgument(call, "fragmentDurationMillis"));
+    backgroundServiceStartIntent.putExtra("HighSpeedFrameRate", (int) longArgument(call, "highSpeedFrameRate"));
+    backgroundServiceStartIntent.putExtra("Telemetry", Boolean.TRUE.equals(call.argument("telemetry")));
+    UploadOptions uploadOptions = UploadOptions.fromMap(call.argument("uploadOptions"));
+    if (uploadOptions != null) {
+      VideoRecorderService.putUploadOptions(backgroundServiceStartIntent, uploadOptions);
+    }
+    Map<String, Object> frameTap = call.argument("frameTap");
+    if (frameTap != null) {
+      backgroundServiceStartIntent.putExtra("FrameTapRate", numberValue(frameTap, "frameRate", 0).doubleValue());
+      backgroundServiceStartIntent.putExtra("FrameTapWidth", numberValue(frameTap, "width", 640).intValue());
+      backgroundServiceStartIntent.putExtra("FrameTapHeight", numberValue(frameTap, "height", 480).intValue());
+      backgroundServiceStartIntent.putExtra("DartFrameWidth", numberValue(frameTap, "dartFrameWidth", 0).intValue());
+    }
+    Map<String, Object> timeLapse = call.argument("timeLapse");
+    if (timeLapse != null) {
+      backgroundServiceStartIntent.putExtra("TimeLapseIntervalMillis", numberValue(timeLapse, "captureIntervalMillis", 0).longValue());
+      backgroundServiceStartIntent.putExtra("TimeLapseFrameRate", numberValue(timeLapse, "playbackFrameRate", 30).intValue());
+    }
+    Map<String, Object> motionTrigger = call.argument("motionTrigger");
+    if (motionTrigger != null) {
+      backgroundServiceStartIntent.putExtra("MotionTrigger", true);
+      backgroundServiceStartIntent.putExtra("MotionSensitivity", numberValue(motionTrigger, "sensitivity", 0.5f).floatValue());
+      backgroundServiceStartIntent.putExtra("MotionPreRollSeconds", numberValue(motionTrigger, "preRollSeconds", 0).intValue());
+      backgroundServiceStartIntent.putExtra("MotionPostRollSeconds", numberValue(motionTrigger, "postRollSeconds", 0).intValue());
+    }
+    // Intents are readable by the system and kept for restarts, so only the intent says the
+    // recording is encrypted and the key follows over the binder
+    mPendingEncryptionKey = call.argument("encryptionKey");
+    backgroundServiceStartIntent.putExtra("Encrypted", mPendingEncryptionKey != null);
     mActivity.startForegroundService(backgroundServiceStartIntent);
     mActivity.bindService(backgroundServiceStartIntent, mConnection, BIND_AUTO_CREATE);
   }
 
+  // Dart integers arrive as Integer or Long depending on their size
+  private static long longArgument(MethodCall call, String key) {
+    Number value = call.argument(key);
+    return value != null ? value.longValue() : 0;
+  }
+
+  // Option maps fall back to the service's defaults for missing keys
+  @NonNull
+  private static Number numberValue(@NonNull Map<String, Object> map, @NonNull String key, @NonNull Number fallback) {
+    Object value = map.get(key);
+    return value instanceof Number ? (Number) value : fallback;
+  }
+
   @Override
   public void onDetachedFromEngine(@NonNull FlutterPluginBinding binding) {
     Log.i(TAG, "Plugin detached from engine");
     channel.setMethodCallHandler(null);
     eventChannel.setStreamHandler(null);
-    mContext.unregisterReceiver(this);
+    infoEventChannel.setStreamHandler(null);
+    frameEventChannel.setStreamHandler(null);
+    // Reads already queued still finish, no new ones arrive without the method channel
+    mCatalogExecutor.shutdown();
+    mDecryptExecutor.shutdown();
+    mTelemetryExecutor.shutdown();
   }
 
   private static boolean hasPermissions(Context context, String... permissions) {
@@ -192,7 +532,7 @@ public class FlutterBackgroundVideoRecorderPlugin extends BroadcastReceiver impl
     return false;
   }
 
-  private void checkPermissions() {
+  private void checkPermissions(@NonNull MethodCall call) {
     Log.i(TAG, "Checking required permissions");
     // Android 28 (P or Pie) and lower versions need WRITE_EXTERNAL_STORAGE and READ_EXTERNAL_STORAGE permission to access file system.
     if (Build.VERSION.SDK_INT <= Build.VERSION_CODES.P) {
@@ -215,37 +555,48 @@ public class FlutterBackgroundVideoRecorderPlugin extends BroadcastReceiver impl
       }
     }
 
-    // Irrespective of Android version, the app needs permissions to CAMERA and RECORD_AUDIO
-    final String[] caPermissions = {
-            Manifest.permission.CAMERA,
-            Manifest.permission.RECORD_AUDIO
-    };
+    // Only the hardware the capture mode uses needs a permission
+    final String[] caPermissions = getCapturePermissions(call);
     if (FlutterBackgroundVideoRecorderPlugin.hasPermissions(mContext, caPermissions)) {
-      if (shouldShowRequestPermissionRationale(mActivity, Manifest.permission.CAMERA)) {
+      if (Arrays.asList(caPermissions).contains(Manifest.permission.CAMERA) && shouldShowRequestPermissionRationale(mActivity, Manifest.permission.CAMERA)) {
         showToast("Camera permission is required to record videos");
       }
-      if (shouldShowRequestPermissionRationale(mActivity, Manifest.permission.RECORD_AUDIO)) {
+      if (Arrays.asList(caPermissions).contains(Manifest.permission.RECORD_AUDIO) && shouldShowRequestPermissionRationale(mActivity, Manifest.permission.RECORD_AUDIO)) {
         showToast("Record audio permission is required to record audio");
       }
       ActivityCompat.requestPermissions(mActivity, caPermissions, REQUEST_CAMERA_AUDIO_PERMISSION_RESULT);
     } else {
-      Log.i(TAG, "Permissions granted: CAMERA, RECORD_AUDIO");
-      permissions.put("CAMERA", true);
-      permissions.put("MIC", true);
+      Log.i(TAG, "Permissions granted: " + Arrays.toString(caPermissions));
+      for (String permission : caPermissions) {
+        permissions.put(permission.equals(Manifest.permission.CAMERA) ? "CAMERA" : "MIC", true);
+      }
     }
     Log.i(TAG, "Permission check complete.");
   }
 
-  private boolean hasRecordingPermissions() {
-    if (Build.VERSION.SDK_INT <= Build.VERSION_CODES.P) {
-      return Boolean.TRUE.equals(permissions.get("WRITE"))
-              && Boolean.TRUE.equals(permissions.get("READ"))
-              && Boolean.TRUE.equals(permissions.get("MIC"))
-              && Boolean.TRUE.equals(permissions.get("CAMERA"));
-    } else {
-      return Boolean.TRUE.equals(permissions.get("MIC"))
-              && Boolean.TRUE.equals(permissions.get("CAMERA"));
+  // Audio-only recordings open no camera, video-only and time-lapse recordings no microphone
+  @NonNull
+  private static String[] getCapturePermissions(@NonNull MethodCall call) {
+    if (VideoRecorderService.CAPTURE_AUDIO_ONLY.equals(call.argument("captureMode"))) {
+      return new String[]{Manifest.permission.RECORD_AUDIO};
     }
+    if (VideoRecorderService.CAPTURE_VIDEO_ONLY.equals(call.argument("captureMode")) || call.argument("timeLapse") != null) {
+      return new String[]{Manifest.permission.CAMERA};
+    }
+    return new String[]{Manifest.permission.CAMERA, Manifest.permission.RECORD_AUDIO};
+  }
+
+  private boolean hasRecordingPermissions(@NonNull MethodCall call) {
+    if (Build.VERSION.SDK_INT <= Build.VERSION_CODES.P
+            && !(Boolean.TRUE.equals(permissions.get("WRITE")) && Boolean.TRUE.equals(permissions.get("READ")))) {
+      return false;
+    }
+    for (String permission : getCapturePermissions(call)) {
+      if (!Boolean.TRUE.equals(permissions.get(permission.equals(Manifest.permission.CAMERA) ? "CAMERA" : "MIC"))) {
+        return false;
+      }
+    }
+    return true;
   }
 
   @Override
@@ -255,15 +606,14 @@ public class FlutterBackgroundVideoRecorderPlugin extends BroadcastReceiver impl
     }
     switch (requestCode) {
       case REQUEST_CAMERA_AUDIO_PERMISSION_RESULT:
-        if (grantResults[0] != PackageManager.PERMISSION_GRANTED) {
-          Toast.makeText(mContext, "Camera permission denied by user", Toast.LENGTH_SHORT).show();
-        } else {
-          this.permissions.put("CAMERA", true);
-        }
-        if (grantResults[1] != PackageManager.PERMISSION_GRANTED) {
-          Toast.makeText(mContext, "Record audio permission denied by user", Toast.LENGTH_SHORT).show();
-        } else {
-          this.permissions.put("MIC", true);
+        // Only the permissions the capture mode needed were requested
+        for (int i = 0; i < permissions.length && i < grantResults.length; i++) {
+          boolean camera = permissions[i].equals(Manifest.permission.CAMERA);
+          if (grantResults[i] != PackageManager.PERMISSION_GRANTED) {
+            Toast.makeText(mContext, camera ? "Camera permission denied by user" : "Record audio permission denied by user", Toast.LENGTH_SHORT).show();
+          } else {
+            this.permissions.put(camera ? "CAMERA" : "MIC", true);
+          }
         }
         break;
       case REQUEST_READ_WRITE_PERMISSION_RESULT:
@@ -278,7 +628,7 @@ public class FlutterBackgroundVideoRecorderPlugin extends BroadcastReceiver impl
           this.permissions.put("READ", true);
         }
     }
-    if (hasRecordingPermissions()) {
+    if (configurationCall != null && hasRecordingPermissions(configurationCall)) {
       startVideoRecordingService(configurationCall);
       configurationCall = null;
     }
@@ -338,18 +688,13 @@ public class FlutterBackgroundVideoRecorderPlugin extends BroadcastReceiver impl
   }
 
   @Override
-  public void onReceive(Context context, Intent intent) {
-    Log.i(TAG, "Broadcast received!");
-    String message = intent.getStringExtra("msg");
-    String code = intent.getStringExtra("code");
+  public void onRecorderEvent(@NonNull RecorderEvent event) {
+    String message = event.message;
+    String code = event.code;
     if (showInfoToast) {
       Toast.makeText(mContext, message, Toast.LENGTH_SHORT).show();
     }
-    Log.i(TAG, "Received code " + code + " with message: " + message);
-    if (code == null) {
-      Toast.makeText(mContext, "Illegal broadcast received", Toast.LENGTH_SHORT).show();
-      return;
-    }
+    Log.i(TAG, "Received event " + event.sequence + " with code " + code + " and message: " + message);
     switch (code) {
       case "RECORDING":
         mRecordingStatus = STATUS_RECORDING;
@@ -363,16 +708,168 @@ public class FlutterBackgroundVideoRecorderPlugin extends BroadcastReceiver impl
         mRecordingStatus = STATUS_INITIALIZING;
         mEventSink.success(STATUS_INITIALIZING);
         break;
+      case "ARMED":
+        mRecordingStatus = STATUS_ARMED;
+        mEventSink.success(STATUS_ARMED);
+        break;
+      case "SEGMENT_COMPLETED":
+        if (mInfoEventSink != null) {
+          Map<String, Object> info = infoEvent("segmentCompleted", event);
+          info.put("path", event.getString("path"));
+          info.put("durationMillis", event.getLong("durationMillis"));
+          info.put("sizeBytes", event.getLong("sizeBytes"));
+          mInfoEventSink.success(info);
+        }
+        break;
+      case "SECONDARY_RECORDING_COMPLETED":
+        if (mInfoEventSink != null) {
+          Map<String, Object> info = infoEvent("secondaryRecordingCompleted", event);
+          info.put("path", event.getString("path"));
+          info.put("cameraId", event.getString("cameraId"));
+          info.put("sizeBytes", event.getLong("sizeBytes"));
+          if (event.getExtras().containsKey("startOffsetNanos")) {
+            info.put("startOffsetNanos", event.getLong("startOffsetNanos"));
+          }
+          mInfoEventSink.success(info);
+        }
+        break;
+      case "FAST_START_COMPLETED":
+        if (mInfoEventSink != null) {
+          Map<String, Object> info = infoEvent("fastStartCompleted", event);
+          info.put("path", event.getString("path"));
+          info.put("relocated", Boolean.TRUE.equals(event.getExtras().get("relocated")));
+          info.put("durationMillis", event.getLong("durationMillis"));
+          mInfoEventSink.success(info);
+        }
+        break;
+      case "RECORDING_RECOVERED":
+        if (mInfoEventSink != null) {
+          Map<String, Object> info = infoEvent("recordingRecovered", event);
+          info.put("path", event.getString("path"));
+          info.put("recovered", Boolean.TRUE.equals(event.getExtras().get("recovered")));
+          mInfoEventSink.success(info);
+        }
+        break;
+      case "RECORDING_INDEX_MISSING":
+        if (mInfoEventSink != null) {
+          Map<String, Object> info = infoEvent("recordingIndexMissing", event);
+          info.put("path", event.getString("path"));
+          info.put("sizeBytes", event.getLong("sizeBytes"));
+          mInfoEventSink.success(info);
+        }
+        break;
+      case "UPLOAD_PROGRESS":
+        if (mInfoEventSink != null) {
+          Map<String, Object> info = infoEvent("uploadProgress", event);
+          info.put("path", event.getString("path"));
+          info.put("bytesSent", event.getLong("bytesSent"));
+          info.put("totalBytes", event.getLong("totalBytes"));
+          mInfoEventSink.success(info);
+        }
+        break;
+      case "UPLOAD_COMPLETED":
+        if (mInfoEventSink != null) {
+          Map<String, Object> info = infoEvent("uploadCompleted", event);
+          info.put("path", event.getString("path"));
+          info.put("uploadUrl", event.getString("uploadUrl"));
+          mInfoEventSink.success(info);
+        }
+        break;
+      case "UPLOAD_FAILED":
+        if (mInfoEventSink != null) {
+          Map<String, Object> info = infoEvent("uploadFailed", event);
+          info.put("path", event.getString("path"));
+          info.put("message", event.getString("message"));
+          info.put("willRetry", Boolean.TRUE.equals(event.getExtras().get("willRetry")));
+          mInfoEventSink.success(info);
+        }
+        break;
+      case "MOTION_STARTED":
+        if (mInfoEventSink != null) {
+          Map<String, Object> info = infoEvent("motionStarted", event);
+          info.put("path", event.getString("path"));
+          mInfoEventSink.success(info);
+        }
+        break;
+      case "MOTION_CLIP_COMPLETED":
+        if (mInfoEventSink != null) {
+          Map<String, Object> info = infoEvent("motionClipCompleted", event);
+          info.put("path", event.getString("path"));
+          info.put("sizeBytes", event.getLong("sizeBytes"));
+          mInfoEventSink.success(info);
+        }
+        break;
+      case "OPTIONS_IGNORED":
+        if (mInfoEventSink != null) {
+          Map<String, Object> info = infoEvent("optionsIgnored", event);
+          info.put("options", event.getExtras().get("options"));
+          mInfoEventSink.success(info);
+        }
+        break;
+      case "LOW_STORAGE":
+      case "STORAGE_FULL":
+        if (code.equals("STORAGE_FULL")) {
+          // The service stops recording and shuts down instead of arming again
+          armOnConnect = false;
+        }
+        if (mInfoEventSink != null) {
+          Map<String, Object> info = infoEvent(code.equals("LOW_STORAGE") ? "lowStorage" : "storageFull", event);
+          info.put("availableBytes", event.getLong("availableBytes"));
+          info.put("remainingSeconds", event.getLong("remainingSeconds"));
+          mInfoEventSink.success(info);
+        }
+        break;
       case "EXCEPTION":
         mRecordingStatus = STATUS_EXCEPTION;
+        armOnConnect = false;
         mEventSink.success(STATUS_EXCEPTION);
+        if (mInfoEventSink != null && event.getString("stage") != null) {
+          Map<String, Object> info = infoEvent("startupFailed", event);
+          info.put("stage", event.getString("stage"));
+          info.put("message", event.getString("message"));
+          mInfoEventSink.success(info);
+        }
         Toast.makeText(mContext, "An exception occurred in recording service", Toast.LENGTH_SHORT).show();
         break;
       default:
-        Toast.makeText(mContext, "Illegal broadcast received", Toast.LENGTH_SHORT).show();
+        Log.w(TAG, "Unknown event code " + code);
     }
   }
 
+  // Runs on the frame tap's thread, the luma is downscaled there and sent from the main thread
+  private void onAnalysisFrame(@NonNull Image image) {
+    if (mFrameSink == null || !mDartFrameInFlight.compareAndSet(false, true)) {
+      return;
+    }
+    int width = Math.min(mDartFrameWidth, image.getWidth());
+    int height = Math.max(1, width * image.getHeight() / image.getWidth());
+    if (mDartFrame == null || mDartFrame.length != width * height) {
+      mDartFrame = new byte[width * height];
+    }
+    FrameTap.downscaleLuma(image, mDartFrame, width, height);
+    Map<String, Object> frame = new HashMap<>();
+    frame.put("width", width);
+    frame.put("height", height);
+    frame.put("timestampNanos", image.getTimestamp());
+    frame.put("luma", mDartFrame);
+    mMainHandler.post(() -> {
+      EventChannel.EventSink frameSink = mFrameSink;
+      if (frameSink != null) {
+        frameSink.success(frame);
+      }
+      mDartFrameInFlight.set(false);
+    });
+  }
+
+  // Info events carry the service's sequence number and time so Dart can order and correlate them
+  private static Map<String, Object> infoEvent(String name, RecorderEvent event) {
+    Map<String, Object> info = new HashMap<>();
+    info.put("event", name);
+    info.put("sequence", event.sequence);
+    info.put("timestampMillis", event.timestampMillis);
+    return info;
+  }
+
   @SuppressWarnings("deprecation")
   private boolean isServiceRunning() {
     ActivityManager manager = (ActivityManager) mContext.getSystemService(Context.ACTIVITY_SERVICE);
@@ -0,0 +1,179 @@
+package services;
+
+import android.content.Intent;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.util.Log;
+import android.util.Range;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Map;
+import java.util.Objects;
+
+// Audio encoding settings requested from Dart and validated against the device's encoders
+public final class AudioProfile {
+    private static final String TAG = "LightAudioProfile";
+
+    public static final String CODEC_AAC = "aac";
+    // Audio-only recordings on Android 10 and later, written to Ogg files
+    public static final String CODEC_OPUS = "opus";
+
+    public static final AudioProfile DEFAULT = new AudioProfile(CODEC_AAC, 44100, 1, 128000);
+
+    // The only rates the Opus encoder accepts
+    private static final int[] OPUS_SAMPLE_RATES = {8000, 12000, 16000, 24000, 48000};
+
+    public final String codec;
+    public final int sampleRate;
+    public final int channelCount;
+    public final int bitRate;
+
+    public AudioProfile(@NonNull String codec, int sampleRate, int channelCount, int bitRate) {
+        this.codec = codec;
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.bitRate = bitRate;
+    }
+
+    // Missing values fall back to the default profile
+    @NonNull
+    public static AudioProfile fromMap(@Nullable Map<String, Object> map) {
+        if (map == null) {
+            return DEFAULT;
+        }
+        return new AudioProfile(
+                map.get("codec") instanceof String ? (String) map.get("codec") : DEFAULT.codec,
+                intValue(map.get("sampleRate"), DEFAULT.sampleRate),
+                intValue(map.get("channelCount"), DEFAULT.channelCount),
+                intValue(map.get("bitRate"), DEFAULT.bitRate)
+        );
+    }
+
+    @NonNull
+    public static AudioProfile fromIntent(@NonNull Intent intent) {
+        String codec = intent.getStringExtra("AudioCodec");
+        return new AudioProfile(
+                codec != null ? codec : DEFAULT.codec,
+                intent.getIntExtra("AudioSampleRate", DEFAULT.sampleRate),
+                intent.getIntExtra("AudioChannelCount", DEFAULT.channelCount),
+                intent.getIntExtra("AudioBitRate", DEFAULT.bitRate)
+        );
+    }
+
+    public void writeToIntent(@NonNull Intent intent) {
+        intent.putExtra("AudioCodec", codec);
+        intent.putExtra("AudioSampleRate", sampleRate);
+        intent.putExtra("AudioChannelCount", channelCount);
+        intent.putExtra("AudioBitRate", bitRate);
+    }
+
+    public boolean isOpus() {
+        return CODEC_OPUS.equals(codec);
+    }
+
+    @NonNull
+    public String getMimeType() {
+        return isOpus() ? MediaFormat.MIMETYPE_AUDIO_OPUS : MediaFormat.MIMETYPE_AUDIO_AAC;
+    }
+
+    public int getMediaRecorderEncoder() {
+        return isOpus() ? MediaRecorder.AudioEncoder.OPUS : MediaRecorder.AudioEncoder.AAC;
+    }
+
+    // Container of an audio-only recording, recordings with video are always MP4
+    public int getMediaRecorderOutputFormat() {
+        return isOpus() ? MediaRecorder.OutputFormat.OGG : MediaRecorder.OutputFormat.MPEG_4;
+    }
+
+    public int getMuxerOutputFormat() {
+        return isOpus() ? MediaMuxer.OutputFormat.MUXER_OUTPUT_OGG : MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4;
+    }
+
+    @NonNull
+    public String getFileExtension() {
+        return isOpus() ? ".ogg" : ".m4a";
+    }
+
+    // Returns a profile the device can encode. Opus needs Android 10 and is only written to
+    // audio-only files, otherwise AAC is used. The sample rate, channel count and bit rate are
+    // kept within what the encoder accepts.
+    @NonNull
+    public AudioProfile validate(boolean audioOnly) {
+        String validCodec = codec;
+        if (isOpus() && (!audioOnly || Build.VERSION.SDK_INT < Build.VERSION_CODES.Q)) {
+            Log.w(TAG, "Opus is only recorded without video on Android 10 and later, using aac");
+            validCodec = CODEC_AAC;
+        } else if (!isOpus() && !CODEC_AAC.equals(codec)) {
+            Log.w(TAG, "Unknown audio codec " + codec + ", using aac");
+            validCodec = CODEC_AAC;
+        }
+        int validSampleRate = sampleRate;
+        if (CODEC_OPUS.equals(validCodec)) {
+            validSampleRate = nearestOpusSampleRate(sampleRate);
+        }
+        int validChannelCount = Math.max(1, Math.min(2, channelCount));
+        int validBitRate = bitRate;
+        MediaCodecInfo.CodecCapabilities codecCapabilities = QualityProfile.findEncoderCapabilities(
+                CODEC_OPUS.equals(validCodec) ? MediaFormat.MIMETYPE_AUDIO_OPUS : MediaFormat.MIMETYPE_AUDIO_AAC);
+        MediaCodecInfo.AudioCapabilities capabilities = codecCapabilities != null ? codecCapabilities.getAudioCapabilities() : null;
+        if (capabilities != null) {
+            Range<Integer> bitRates = capabilities.getBitrateRange();
+            validBitRate = Math.max(bitRates.getLower(), Math.min(bitRates.getUpper(), bitRate));
+            if (!capabilities.isSampleRateSupported(validSampleRate)) {
+                int fallbackSampleRate = CODEC_OPUS.equals(validCodec) ? 48000 : DEFAULT.sampleRate;
+                Log.w(TAG, "Encoder cannot record at " + validSampleRate + " Hz, using " + fallbackSampleRate + " Hz");
+                validSampleRate = fallbackSampleRate;
+            }
+            validChannelCount = Math.min(validChannelCount, capabilities.getMaxInputChannelCount());
+        }
+        AudioProfile validated = new AudioProfile(validCodec, validSampleRate, validChannelCount, validBitRate);
+        if (!validated.equals(this)) {
+            Log.i(TAG, "Requested " + this + ", recording " + validated);
+        }
+        return validated;
+    }
+
+    private static int nearestOpusSampleRate(int sampleRate) {
+        for (int rate : OPUS_SAMPLE_RATES) {
+            if (rate >= sampleRate) {
+                return rate;
+            }
+        }
+        return OPUS_SAMPLE_RATES[OPUS_SAMPLE_RATES.length - 1];
+    }
+
+    private static int intValue(Object value, int fallback) {
+        return value instanceof Number ? ((Number) value).intValue() : fallback;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof AudioProfile)) {
+            return false;
+        }
+        AudioProfile other = (AudioProfile) o;
+        return codec.equals(other.codec)
+                && sampleRate == other.sampleRate
+                && channelCount == other.channelCount
+                && bitRate == other.bitRate;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(codec, sampleRate, channelCount, bitRate);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return codec + " " + sampleRate + "Hz " + channelCount + "ch " + bitRate + "bps";
+    }
+}
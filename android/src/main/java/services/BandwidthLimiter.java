@@ -0,0 +1,33 @@
+package services;
+
+// Token bucket shared by the concurrent uploads, so together they stay under the byte rate.
+// Callers block in acquire() one at a time, which also hands the bandwidth out in turns.
+final class BandwidthLimiter {
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final long mBytesPerSecond;
+    // Bursts after a pause are limited to a quarter second of bytes
+    private final long mMaxBurstBytes;
+    private long mAvailableBytes = 0;
+    private long mLastRefillNanos = System.nanoTime();
+
+    // 0 for no limit
+    BandwidthLimiter(long bytesPerSecond) {
+        mBytesPerSecond = bytesPerSecond;
+        mMaxBurstBytes = Math.max(1, bytesPerSecond / 4);
+    }
+
+    synchronized void acquire(int bytes) throws InterruptedException {
+        if (mBytesPerSecond <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        mAvailableBytes = Math.min(mMaxBurstBytes, mAvailableBytes + (now - mLastRefillNanos) * mBytesPerSecond / NANOS_PER_SECOND);
+        mLastRefillNanos = now;
+        mAvailableBytes -= bytes;
+        if (mAvailableBytes < 0) {
+            long waitNanos = -mAvailableBytes * NANOS_PER_SECOND / mBytesPerSecond;
+            Thread.sleep(waitNanos / 1000000L, (int) (waitNanos % 1000000L));
+        }
+    }
+}
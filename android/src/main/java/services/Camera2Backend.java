@@ -0,0 +1,253 @@
+package services;
+
+import android.content.Context;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraConstrainedHighSpeedCaptureSession;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureFailure;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.os.Handler;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+// CameraBackend on top of Camera2, every callback is delivered on the camera handler's thread
+public class Camera2Backend implements CameraBackend {
+    private static final String TAG = "LightCamera2Backend";
+
+    private final CameraManager mCameraManager;
+    private final Handler mCameraHandler;
+
+    private Listener mListener;
+    private CameraDevice mCameraDevice;
+    private CameraCaptureSession mCaptureSession;
+
+    private final CameraDevice.StateCallback mCameraDeviceStateCallback = new CameraDevice.StateCallback() {
+        @Override
+        public void onOpened(@NonNull CameraDevice camera) {
+            mCameraDevice = camera;
+            mListener.onOpened();
+        }
+
+        @Override
+        public void onDisconnected(@NonNull CameraDevice camera) {
+            onCameraLost(camera);
+        }
+
+        @Override
+        public void onError(@NonNull CameraDevice camera, int error) {
+            Log.e(TAG, "Camera error " + error);
+            onCameraLost(camera);
+        }
+    };
+
+    private final CameraCaptureSession.CaptureCallback mCaptureCallback = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
+            Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+            Long exposureTime = result.get(CaptureResult.SENSOR_EXPOSURE_TIME);
+            Long frameDuration = result.get(CaptureResult.SENSOR_FRAME_DURATION);
+            Integer sensitivity = result.get(CaptureResult.SENSOR_SENSITIVITY);
+            Float focusDistance = result.get(CaptureResult.LENS_FOCUS_DISTANCE);
+            mListener.onFrameCaptured(timestamp != null ? timestamp : 0,
+                    exposureTime != null ? exposureTime : -1,
+                    frameDuration != null ? frameDuration : -1,
+                    sensitivity != null ? sensitivity : -1,
+                    focusDistance != null ? focusDistance : -1);
+        }
+
+        @Override
+        public void onCaptureFailed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureFailure failure) {
+            mListener.onFrameDropped();
+        }
+
+        @Override
+        public void onCaptureBufferLost(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull Surface target, long frameNumber) {
+            mListener.onFrameDropped();
+        }
+    };
+
+    public Camera2Backend(@NonNull Context context, @NonNull Handler cameraHandler) {
+        mCameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        mCameraHandler = cameraHandler;
+    }
+
+    @Nullable
+    @Override
+    public CameraCapabilityCache.Entry queryCapabilities(int lensFacing) throws IOException {
+        try {
+            for (String cameraId: mCameraManager.getCameraIdList()) {
+                CameraCharacteristics cameraCharacteristics = mCameraManager.getCameraCharacteristics(cameraId);
+                Integer lensFacingCameraCharacteristics = cameraCharacteristics.get(CameraCharacteristics.LENS_FACING);
+                if (lensFacingCameraCharacteristics == null || lensFacingCameraCharacteristics != lensFacing) {
+                    continue;
+                }
+                StreamConfigurationMap map = cameraCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+                if (map == null) {
+                    continue;
+                }
+                Integer sensorOrientation = cameraCharacteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+                Integer timestampSource = cameraCharacteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+                Size[] supportedSizes = map.getOutputSizes(MediaRecorder.class);
+                Range<Integer>[] frameRateRanges = cameraCharacteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+                List<Size> highSpeedSizes = new ArrayList<>();
+                List<Range<Integer>> highSpeedFrameRateRanges = new ArrayList<>();
+                if (hasCapability(cameraCharacteristics, CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES_CONSTRAINED_HIGH_SPEED_VIDEO)) {
+                    for (Size size : map.getHighSpeedVideoSizes()) {
+                        for (Range<Integer> range : map.getHighSpeedVideoFpsRangesFor(size)) {
+                            highSpeedSizes.add(size);
+                            highSpeedFrameRateRanges.add(range);
+                        }
+                    }
+                }
+                return new CameraCapabilityCache.Entry(
+                        cameraId,
+                        sensorOrientation != null ? sensorOrientation : -1,
+                        supportedSizes,
+                        QualityProfile.chooseOptimalSize(supportedSizes, QualityProfile.DEFAULT.width, QualityProfile.DEFAULT.height),
+                        timestampSource != null && timestampSource == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME,
+                        frameRateRanges != null ? frameRateRanges : CameraCapabilityCache.newRangeArray(0),
+                        highSpeedSizes.toArray(new Size[0]),
+                        highSpeedFrameRateRanges.toArray(CameraCapabilityCache.newRangeArray(0))
+                );
+            }
+        } catch (CameraAccessException e) {
+            throw new IOException("Camera characteristics not accessible", e);
+        }
+        return null;
+    }
+
+    @Override
+    public boolean supportsConcurrentStreaming(@NonNull String cameraId, @NonNull String otherCameraId) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+            return false;
+        }
+        try {
+            for (Set<String> cameraIds : mCameraManager.getConcurrentCameraIds()) {
+                if (cameraIds.contains(cameraId) && cameraIds.contains(otherCameraId)) {
+                    return true;
+                }
+            }
+        } catch (CameraAccessException e) {
+            Log.w(TAG, "Concurrent cameras not accessible: " + e);
+        }
+        return false;
+    }
+
+    @Override
+    public void open(@NonNull String cameraId, @NonNull Listener listener) throws IOException {
+        mListener = listener;
+        try {
+            mCameraManager.openCamera(cameraId, mCameraDeviceStateCallback, mCameraHandler);
+        } catch (CameraAccessException | SecurityException e) {
+            throw new IOException("Camera " + cameraId + " could not be opened", e);
+        }
+    }
+
+    @Override
+    public void startSession(@NonNull List<Surface> targets, @Nullable Range<Integer> frameRateRange, boolean highSpeed) throws IOException {
+        if (mCameraDevice == null) {
+            throw new IOException("Camera is not open");
+        }
+        try {
+            // High speed requests must use the record template
+            CaptureRequest.Builder captureRequestBuilder = mCameraDevice.createCaptureRequest(highSpeed ? CameraDevice.TEMPLATE_RECORD : CameraDevice.TEMPLATE_PREVIEW);
+            captureRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_VIDEO);
+            if (frameRateRange != null) {
+                captureRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, frameRateRange);
+            }
+            for (Surface target : targets) {
+                captureRequestBuilder.addTarget(target);
+            }
+            CameraCaptureSession.StateCallback callback = new CameraCaptureSession.StateCallback() {
+                @Override
+                public void onConfigured(@NonNull CameraCaptureSession cameraCaptureSession) {
+                    try {
+                        if (highSpeed) {
+                            // The camera delivers several frames per request, the burst covers them
+                            List<CaptureRequest> burst = ((CameraConstrainedHighSpeedCaptureSession) cameraCaptureSession).createHighSpeedRequestList(captureRequestBuilder.build());
+                            cameraCaptureSession.setRepeatingBurst(burst, mCaptureCallback, mCameraHandler);
+                        } else {
+                            cameraCaptureSession.setRepeatingRequest(
+                                    captureRequestBuilder.build(),
+                                    mCaptureCallback,
+                                    mCameraHandler
+                            );
+                        }
+                        mCaptureSession = cameraCaptureSession;
+                        mListener.onSessionConfigured();
+                    } catch (CameraAccessException | IllegalStateException | IllegalArgumentException e) {
+                        Log.e(TAG, e.toString());
+                        mListener.onSessionFailed();
+                    }
+                }
+
+                @Override
+                public void onConfigureFailed(@NonNull CameraCaptureSession cameraCaptureSession) {
+                    mListener.onSessionFailed();
+                }
+            };
+            if (highSpeed) {
+                mCameraDevice.createConstrainedHighSpeedCaptureSession(targets, callback, mCameraHandler);
+            } else {
+                mCameraDevice.createCaptureSession(targets, callback, mCameraHandler);
+            }
+        } catch (CameraAccessException | IllegalArgumentException e) {
+            // High speed sessions reject targets that are not high speed video surfaces
+            throw new IOException("Capture session could not be created", e);
+        }
+    }
+
+    @Override
+    public boolean hasSession() {
+        return mCaptureSession != null;
+    }
+
+    @Override
+    public void close() {
+        if (mCaptureSession != null) {
+            mCaptureSession.close();
+            mCaptureSession = null;
+        }
+        if (mCameraDevice != null) {
+            mCameraDevice.close();
+            mCameraDevice = null;
+        }
+    }
+
+    private static boolean hasCapability(CameraCharacteristics characteristics, int capability) {
+        int[] capabilities = characteristics.get(CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES);
+        if (capabilities != null) {
+            for (int available : capabilities) {
+                if (available == capability) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void onCameraLost(CameraDevice camera) {
+        camera.close();
+        mCameraDevice = null;
+        mCaptureSession = null;
+        mListener.onDisconnected();
+    }
+}
@@ -0,0 +1,55 @@
+package services;
+
+import android.util.Range;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.List;
+
+// Camera the service records from. Camera2Backend drives the device's cameras, the tests'
+// FakeCameraBackend stands in for them with fixed latencies. Methods are called on the camera
+// thread and the listener is called back on it.
+public interface CameraBackend {
+    interface Listener {
+        void onOpened();
+
+        // The camera was disconnected or failed, the backend has already closed it
+        void onDisconnected();
+
+        void onSessionConfigured();
+
+        void onSessionFailed();
+
+        // timestampNanos is the frame's sensor timestamp, followed by the capture result's
+        // exposure time, frame duration, ISO sensitivity and focus distance, -1 when the camera
+        // does not report one
+        void onFrameCaptured(long timestampNanos, long exposureTimeNanos, long frameDurationNanos,
+                             int sensitivity, float focusDistance);
+
+        void onFrameDropped();
+    }
+
+    // Capabilities of the first camera of the lens facing, null when there is none
+    @Nullable
+    CameraCapabilityCache.Entry queryCapabilities(int lensFacing) throws IOException;
+
+    // True when both cameras can stream at the same time, each with its own session
+    boolean supportsConcurrentStreaming(@NonNull String cameraId, @NonNull String otherCameraId);
+
+    void open(@NonNull String cameraId, @NonNull Listener listener) throws IOException;
+
+    // Configures a session that repeats a video request into the targets, only after onOpened().
+    // frameRateRange sets the auto-exposure target frame rates, null keeps the camera's default.
+    // highSpeed configures a constrained high speed session, which takes one or two video targets
+    // of a high speed video size and a fixed frame rate range of that size.
+    void startSession(@NonNull List<Surface> targets, @Nullable Range<Integer> frameRateRange,
+                      boolean highSpeed) throws IOException;
+
+    boolean hasSession();
+
+    // Closes the session and the camera, safe to call at any time
+    void close();
+}
@@ -0,0 +1,199 @@
+package services;
+
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+// Remembers the camera resolved for each lens facing so the recorder does not have to query
+// CameraManager on every start. Entries are kept in memory for the lifetime of the process and
+// persisted to a small binary file in app storage. The whole cache is dropped when the build
+// fingerprint changes, since camera ids and stream configurations can change with an OTA.
+public final class CameraCapabilityCache {
+    private static final String TAG = "LightCameraCache";
+    private static final String CACHE_FILE_NAME = "light_camera_capabilities.bin";
+    private static final int CACHE_VERSION = 4;
+
+    // Capabilities of one camera that the recorder needs before opening it
+    public static final class Entry {
+        public final String cameraId;
+        // -1 when the camera does not report a sensor orientation
+        public final int sensorOrientation;
+        public final Size[] supportedSizes;
+        public final Size videoSize;
+        // True when sensor timestamps use the elapsedRealtimeNanos() time base instead of nanoTime()
+        public final boolean realtimeTimestamps;
+        // Auto-exposure target frame rate ranges, empty when the camera reports none
+        public final Range<Integer>[] frameRateRanges;
+        // Constrained high speed video configurations, a size and a frame rate range at the same
+        // index of both arrays. Empty when the camera has no high speed video.
+        public final Size[] highSpeedSizes;
+        public final Range<Integer>[] highSpeedFrameRateRanges;
+
+        public Entry(@NonNull String cameraId, int sensorOrientation, @NonNull Size[] supportedSizes, @NonNull Size videoSize, boolean realtimeTimestamps, @NonNull Range<Integer>[] frameRateRanges, @NonNull Size[] highSpeedSizes, @NonNull Range<Integer>[] highSpeedFrameRateRanges) {
+            this.cameraId = cameraId;
+            this.sensorOrientation = sensorOrientation;
+            this.supportedSizes = supportedSizes;
+            this.videoSize = videoSize;
+            this.realtimeTimestamps = realtimeTimestamps;
+            this.frameRateRanges = frameRateRanges;
+            this.highSpeedSizes = highSpeedSizes;
+            this.highSpeedFrameRateRanges = highSpeedFrameRateRanges;
+        }
+    }
+
+    private static final Map<Integer, Entry> sEntries = new HashMap<>();
+    private static boolean sLoaded = false;
+
+    // Most recent camera setup durations, -1 until measured
+    private static long sLastColdSetupNanos = -1;
+    private static long sLastWarmSetupNanos = -1;
+
+    private CameraCapabilityCache() {}
+
+    @Nullable
+    public static synchronized Entry get(@NonNull Context context, int lensFacing) {
+        load(context);
+        return sEntries.get(lensFacing);
+    }
+
+    public static synchronized void put(@NonNull Context context, int lensFacing, @NonNull Entry entry) {
+        load(context);
+        sEntries.put(lensFacing, entry);
+        save(context);
+    }
+
+    // Drops every entry, used when a cached camera could not be opened
+    public static synchronized void invalidate(@NonNull Context context) {
+        sEntries.clear();
+        sLoaded = true;
+        File cacheFile = new File(context.getFilesDir(), CACHE_FILE_NAME);
+        if (cacheFile.exists() && !cacheFile.delete()) {
+            Log.w(TAG, "Failed to delete camera capability cache");
+        }
+    }
+
+    public static synchronized void recordSetupTime(boolean warm, long nanos) {
+        if (warm) {
+            sLastWarmSetupNanos = nanos;
+        } else {
+            sLastColdSetupNanos = nanos;
+        }
+    }
+
+    // Durations are reported in microseconds, -1 when that kind of setup has not happened yet
+    @NonNull
+    public static synchronized Map<String, Long> getSetupTimings() {
+        Map<String, Long> timings = new HashMap<>();
+        timings.put("coldSetupMicros", sLastColdSetupNanos < 0 ? -1 : sLastColdSetupNanos / 1000);
+        timings.put("warmSetupMicros", sLastWarmSetupNanos < 0 ? -1 : sLastWarmSetupNanos / 1000);
+        return timings;
+    }
+
+    private static void load(Context context) {
+        if (sLoaded) {
+            return;
+        }
+        sLoaded = true;
+        File cacheFile = new File(context.getFilesDir(), CACHE_FILE_NAME);
+        if (!cacheFile.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+            if (in.readInt() != CACHE_VERSION || !Build.FINGERPRINT.equals(in.readUTF())) {
+                Log.i(TAG, "Camera capability cache is stale, discarding");
+                invalidate(context);
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int lensFacing = in.readInt();
+                String cameraId = in.readUTF();
+                int sensorOrientation = in.readInt();
+                boolean realtimeTimestamps = in.readBoolean();
+                Size videoSize = new Size(in.readInt(), in.readInt());
+                Size[] supportedSizes = new Size[in.readInt()];
+                for (int j = 0; j < supportedSizes.length; j++) {
+                    supportedSizes[j] = new Size(in.readInt(), in.readInt());
+                }
+                Range<Integer>[] frameRateRanges = newRangeArray(in.readInt());
+                for (int j = 0; j < frameRateRanges.length; j++) {
+                    frameRateRanges[j] = new Range<>(in.readInt(), in.readInt());
+                }
+                Size[] highSpeedSizes = new Size[in.readInt()];
+                Range<Integer>[] highSpeedFrameRateRanges = newRangeArray(highSpeedSizes.length);
+                for (int j = 0; j < highSpeedSizes.length; j++) {
+                    highSpeedSizes[j] = new Size(in.readInt(), in.readInt());
+                    highSpeedFrameRateRanges[j] = new Range<>(in.readInt(), in.readInt());
+                }
+                sEntries.put(lensFacing, new Entry(cameraId, sensorOrientation, supportedSizes, videoSize, realtimeTimestamps, frameRateRanges, highSpeedSizes, highSpeedFrameRateRanges));
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read camera capability cache", e);
+            invalidate(context);
+        }
+    }
+
+    private static void save(Context context) {
+        File cacheFile = new File(context.getFilesDir(), CACHE_FILE_NAME);
+        File tempFile = new File(context.getFilesDir(), CACHE_FILE_NAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(CACHE_VERSION);
+            out.writeUTF(Build.FINGERPRINT);
+            out.writeInt(sEntries.size());
+            for (Map.Entry<Integer, Entry> item : sEntries.entrySet()) {
+                Entry entry = item.getValue();
+                out.writeInt(item.getKey());
+                out.writeUTF(entry.cameraId);
+                out.writeInt(entry.sensorOrientation);
+                out.writeBoolean(entry.realtimeTimestamps);
+                out.writeInt(entry.videoSize.getWidth());
+                out.writeInt(entry.videoSize.getHeight());
+                out.writeInt(entry.supportedSizes.length);
+                for (Size size : entry.supportedSizes) {
+                    out.writeInt(size.getWidth());
+                    out.writeInt(size.getHeight());
+                }
+                out.writeInt(entry.frameRateRanges.length);
+                for (Range<Integer> range : entry.frameRateRanges) {
+                    out.writeInt(range.getLower());
+                    out.writeInt(range.getUpper());
+                }
+                out.writeInt(entry.highSpeedSizes.length);
+                for (int i = 0; i < entry.highSpeedSizes.length; i++) {
+                    out.writeInt(entry.highSpeedSizes[i].getWidth());
+                    out.writeInt(entry.highSpeedSizes[i].getHeight());
+                    out.writeInt(entry.highSpeedFrameRateRanges[i].getLower());
+                    out.writeInt(entry.highSpeedFrameRateRanges[i].getUpper());
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write camera capability cache", e);
+            return;
+        }
+        if (!tempFile.renameTo(cacheFile)) {
+            Log.w(TAG, "Failed to replace camera capability cache");
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    @NonNull
+    public static Range<Integer>[] newRangeArray(int length) {
+        return (Range<Integer>[]) new Range[length];
+    }
+}
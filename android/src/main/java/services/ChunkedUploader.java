@@ -0,0 +1,304 @@
+package services;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Uploads finished recordings with the tus 1.0 resumable upload protocol: a POST to the endpoint
+// creates the upload, chunks are sent with their offset and after an interruption a HEAD request
+// asks the server where to continue. Files are streamed from disk in small slices, never held in
+// memory whole. Up to the configured number of files go up at once and a BandwidthLimiter keeps
+// them under the byte rate together. Failed uploads are retried with growing delays, files still
+// failing are left in the queue for the next start. HttpURLConnection cannot send PATCH, so chunks
+// are sent as POST with X-HTTP-Method-Override, which tus servers accept. Listener methods are
+// called on the upload threads.
+public final class ChunkedUploader {
+    private static final String TUS_VERSION = "1.0.0";
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long FIRST_RETRY_DELAY_MILLIS = 2000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 60000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+    private static final int READ_TIMEOUT_MILLIS = 30000;
+    // Bytes written to the connection at a time, the bandwidth limit is applied per slice
+    private static final int SLICE_BYTES = 64 * 1024;
+
+    public interface Listener {
+        void onUploadProgress(@NonNull String path, long bytesSent, long totalBytes);
+
+        void onUploadCompleted(@NonNull String path, @NonNull String uploadUrl);
+
+        void onUploadFailed(@NonNull String path, @NonNull String message, boolean willRetry);
+
+        // Nothing is left to upload in this process
+        void onIdle();
+    }
+
+    private final UploadOptions mOptions;
+    private final Listener mListener;
+    private final BandwidthLimiter mLimiter;
+    private final Object mLock = new Object();
+    // Guarded by mLock
+    private final UploadQueue mQueue;
+    private boolean mIdleReported = false;
+    private ExecutorService mWorkers;
+
+    public ChunkedUploader(@NonNull UploadOptions options, @NonNull File queueFile, @NonNull Listener listener) {
+        mOptions = options;
+        mListener = listener;
+        mLimiter = new BandwidthLimiter(options.maxBytesPerSecond);
+        mQueue = new UploadQueue(queueFile, MAX_ATTEMPTS);
+    }
+
+    // Starts the upload threads, files queued by an earlier process are resumed
+    public void start() {
+        AtomicInteger threadCount = new AtomicInteger();
+        mWorkers = Executors.newFixedThreadPool(mOptions.concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "LightUploader-" + threadCount.incrementAndGet());
+            // Uploads give way to the recorder's threads
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        for (int i = 0; i < mOptions.concurrency; i++) {
+            mWorkers.execute(this::runWorker);
+        }
+    }
+
+    public void enqueue(@NonNull File file) throws IOException {
+        synchronized (mLock) {
+            if (mQueue.add(file.getAbsolutePath())) {
+                mIdleReported = false;
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    // Files queued or being uploaded, including those an earlier process left in the queue
+    @NonNull
+    public List<String> getQueuedPaths() {
+        synchronized (mLock) {
+            return mQueue.getPaths();
+        }
+    }
+
+    public boolean isIdle() {
+        synchronized (mLock) {
+            return mQueue.isIdle();
+        }
+    }
+
+    // Interrupts running uploads, they continue from the server's offset after the next start
+    public void shutdown() {
+        if (mWorkers != null) {
+            mWorkers.shutdownNow();
+            mWorkers = null;
+        }
+    }
+
+    private void runWorker() {
+        ByteBuffer slice = ByteBuffer.allocate(SLICE_BYTES);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                upload(takeItem(), slice);
+            }
+        } catch (InterruptedException e) {
+            // Shut down
+        }
+    }
+
+    private UploadQueue.Item takeItem() throws InterruptedException {
+        while (true) {
+            synchronized (mLock) {
+                long now = System.currentTimeMillis();
+                UploadQueue.Item item = mQueue.claim(now);
+                if (item != null) {
+                    return item;
+                }
+                if (!mQueue.isIdle() || mIdleReported) {
+                    // Woken by enqueue() or when the next retry is due
+                    mLock.wait(mQueue.millisUntilRetry(now));
+                    continue;
+                }
+                mIdleReported = true;
+            }
+            mListener.onIdle();
+        }
+    }
+
+    private void upload(UploadQueue.Item item, ByteBuffer slice) {
+        File file = new File(item.path);
+        String uploadUrl = null;
+        try {
+            if (!file.isFile()) {
+                synchronized (mLock) {
+                    mQueue.remove(item);
+                }
+                mListener.onUploadFailed(item.path, "File no longer exists", false);
+                return;
+            }
+            long totalBytes = file.length();
+            uploadUrl = item.uploadUrl;
+            long offset = uploadUrl != null ? queryOffset(uploadUrl) : -1;
+            if (offset < 0) {
+                // New, or the server no longer knows the upload
+                uploadUrl = createUpload(file, totalBytes);
+                synchronized (mLock) {
+                    mQueue.setUploadUrl(item, uploadUrl);
+                }
+                offset = 0;
+            }
+            try (FileInputStream in = new FileInputStream(file)) {
+                FileChannel channel = in.getChannel();
+                while (offset < totalBytes) {
+                    long length = Math.min(mOptions.chunkSizeBytes, totalBytes - offset);
+                    long confirmed = sendChunk(uploadUrl, channel, offset, length, slice);
+                    if (confirmed <= offset) {
+                        throw new IOException("Upload offset did not advance past " + offset);
+                    }
+                    offset = confirmed;
+                    mListener.onUploadProgress(item.path, offset, totalBytes);
+                }
+            }
+            synchronized (mLock) {
+                mQueue.remove(item);
+            }
+            mListener.onUploadCompleted(item.path, uploadUrl);
+        } catch (IOException | InterruptedException e) {
+            // Interrupted channel reads and socket writes surface as IOExceptions
+            if (e instanceof InterruptedException || Thread.currentThread().isInterrupted()) {
+                synchronized (mLock) {
+                    mQueue.release(item);
+                }
+                Thread.currentThread().interrupt();
+                return;
+            }
+            boolean willRetry;
+            synchronized (mLock) {
+                long delay = Math.min(MAX_RETRY_DELAY_MILLIS, FIRST_RETRY_DELAY_MILLIS << Math.min(item.failures, 16));
+                willRetry = mQueue.fail(item, System.currentTimeMillis() + delay);
+                mLock.notifyAll();
+            }
+            mListener.onUploadFailed(item.path, e.toString(), willRetry);
+        }
+    }
+
+    // Returns the upload URL from the Location header, resolved against the endpoint
+    private String createUpload(File file, long totalBytes) throws IOException {
+        HttpURLConnection connection = open(mOptions.endpoint, "POST");
+        connection.setRequestProperty("Upload-Length", Long.toString(totalBytes));
+        connection.setRequestProperty("Upload-Metadata", "filename " + Base64.getEncoder().encodeToString(file.getName().getBytes(StandardCharsets.UTF_8)));
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(0);
+        connection.getOutputStream().close();
+        int status = finish(connection);
+        String location = connection.getHeaderField("Location");
+        if (status != HttpURLConnection.HTTP_CREATED || location == null) {
+            throw new IOException("Creating the upload failed with HTTP " + status);
+        }
+        return new URL(new URL(mOptions.endpoint), location).toString();
+    }
+
+    // -1 when the server does not know the upload
+    private long queryOffset(String uploadUrl) throws IOException {
+        HttpURLConnection connection = open(uploadUrl, "HEAD");
+        int status = finish(connection);
+        if (status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_GONE || status == HttpURLConnection.HTTP_FORBIDDEN) {
+            return -1;
+        }
+        if (status / 100 != 2) {
+            throw new IOException("Querying the upload offset failed with HTTP " + status);
+        }
+        return offsetHeader(connection);
+    }
+
+    // Returns the offset the server confirmed
+    private long sendChunk(String uploadUrl, FileChannel channel, long offset, long length, ByteBuffer slice) throws IOException, InterruptedException {
+        HttpURLConnection connection = open(uploadUrl, "POST");
+        connection.setRequestProperty("X-HTTP-Method-Override", "PATCH");
+        connection.setRequestProperty("Upload-Offset", Long.toString(offset));
+        connection.setRequestProperty("Content-Type", "application/offset+octet-stream");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(length);
+        try (OutputStream out = connection.getOutputStream()) {
+            long position = offset;
+            long end = offset + length;
+            while (position < end) {
+                slice.clear();
+                slice.limit((int) Math.min(slice.capacity(), end - position));
+                int read = channel.read(slice, position);
+                if (read < 0) {
+                    throw new IOException("File shrank while uploading");
+                }
+                mLimiter.acquire(read);
+                out.write(slice.array(), 0, read);
+                position += read;
+            }
+        }
+        int status = finish(connection);
+        if (status == HttpURLConnection.HTTP_CONFLICT) {
+            // The server has a different offset, continue from there
+            long serverOffset = queryOffset(uploadUrl);
+            if (serverOffset < 0) {
+                throw new IOException("Upload disappeared from the server");
+            }
+            return serverOffset;
+        }
+        if (status / 100 != 2) {
+            throw new IOException("Sending a chunk failed with HTTP " + status);
+        }
+        return offsetHeader(connection);
+    }
+
+    private HttpURLConnection open(String url, String method) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        connection.setRequestMethod(method);
+        connection.setRequestProperty("Tus-Resumable", TUS_VERSION);
+        for (Map.Entry<String, String> header : mOptions.headers.entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        return connection;
+    }
+
+    // Reads the status and drains the body, so the connection can be reused
+    private static int finish(HttpURLConnection connection) throws IOException {
+        int status = connection.getResponseCode();
+        InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (body != null) {
+            try (InputStream in = body) {
+                byte[] buffer = new byte[1024];
+                while (in.read(buffer) >= 0) {
+                    // Discarded
+                }
+            }
+        }
+        return status;
+    }
+
+    private static long offsetHeader(HttpURLConnection connection) throws IOException {
+        String offset = connection.getHeaderField("Upload-Offset");
+        if (offset == null) {
+            throw new IOException("Response has no Upload-Offset");
+        }
+        try {
+            return Long.parseLong(offset.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed Upload-Offset " + offset);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package services;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Muxes a time window of an EncodedSampleRing into an MP4 file. The window may reach into the
+// future, in which case the writer follows the ring as new samples arrive and the end can be pushed
+// further out with extendTo() until the writer has passed it. Runs on the clip executor so neither
+// the camera nor the encoder threads wait for the disk.
+class ClipWriter implements Runnable {
+    // Called on the clip executor with the clip's file name and the time from its first to its last
+    // video frame, or null when nothing could be written
+    interface Callback {
+        void onClipWritten(@Nullable String fileName, long durationMillis);
+    }
+
+    private static final String TAG = "LightClipWriter";
+    private static final long SAMPLE_TIMEOUT_MS = 5000;
+    private static final int INITIAL_BUFFER_SIZE = 1024 * 1024;
+
+    private final EncodedSampleRing mRing;
+    private final File mOutputFile;
+    private final long mStartTimeUs;
+    // Guarded by this
+    private long mEndTimeUs;
+    private boolean mFinished = false;
+    private final int mOrientationHint;
+    private final Callback mCallback;
+
+    ClipWriter(@NonNull EncodedSampleRing ring, @NonNull File outputFile, long startTimeUs, long endTimeUs, int orientationHint, @NonNull Callback callback) {
+        mRing = ring;
+        mOutputFile = outputFile;
+        mStartTimeUs = startTimeUs;
+        mEndTimeUs = endTimeUs;
+        mOrientationHint = orientationHint;
+        mCallback = callback;
+    }
+
+    @Override
+    public void run() {
+        MediaMuxer muxer = null;
+        boolean written = false;
+        long firstVideoTimeUs = -1;
+        long lastVideoTimeUs = -1;
+        try {
+            MediaFormat videoFormat = mRing.awaitFormat(EncodedSampleSink.TRACK_VIDEO, SAMPLE_TIMEOUT_MS);
+            if (videoFormat == null) {
+                throw new IOException("No video was encoded");
+            }
+            MediaFormat audioFormat = mRing.getFormat(EncodedSampleSink.TRACK_AUDIO);
+            muxer = new MediaMuxer(mOutputFile.getAbsolutePath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            muxer.setOrientationHint(mOrientationHint);
+            int[] muxerTracks = {muxer.addTrack(videoFormat), audioFormat != null ? muxer.addTrack(audioFormat) : -1};
+            muxer.start();
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(INITIAL_BUFFER_SIZE, mRing.getLargestSampleSize()));
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            long sequence = mRing.findKeyFrameAtOrBefore(mStartTimeUs);
+            while (true) {
+                int track = mRing.readSample(sequence, buffer, info, SAMPLE_TIMEOUT_MS);
+                if (track == EncodedSampleRing.READ_BUFFER_TOO_SMALL) {
+                    buffer = ByteBuffer.allocateDirect(mRing.getLargestSampleSize());
+                    continue;
+                }
+                if (track < 0) {
+                    // Closed, timed out or fell behind the ring: keep what has been written so far
+                    if (track == EncodedSampleRing.READ_EVICTED) {
+                        Log.w(TAG, "Clip writer fell behind the ring");
+                    }
+                    break;
+                }
+                sequence++;
+                if (track == EncodedSampleSink.TRACK_VIDEO ? finishIfPastEnd(info.presentationTimeUs) : info.presentationTimeUs > getEndTimeUs()) {
+                    if (track == EncodedSampleSink.TRACK_VIDEO) {
+                        break;
+                    }
+                    continue;
+                }
+                if (track == EncodedSampleSink.TRACK_VIDEO && firstVideoTimeUs < 0) {
+                    firstVideoTimeUs = info.presentationTimeUs;
+                }
+                // Audio before the first key frame has no picture to go with
+                if (firstVideoTimeUs < 0 || muxerTracks[track] < 0 || info.presentationTimeUs < firstVideoTimeUs) {
+                    continue;
+                }
+                muxer.writeSampleData(muxerTracks[track], buffer, info);
+                if (track == EncodedSampleSink.TRACK_VIDEO) {
+                    lastVideoTimeUs = info.presentationTimeUs;
+                }
+                written = true;
+            }
+            muxer.stop();
+        } catch (IOException | IllegalStateException e) {
+            Log.e(TAG, "Failed to write clip: " + e);
+            written = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            written = false;
+        } finally {
+            synchronized (this) {
+                mFinished = true;
+            }
+            if (muxer != null) {
+                muxer.release();
+            }
+        }
+        if (!written && mOutputFile.exists() && !mOutputFile.delete()) {
+            Log.w(TAG, "Failed to delete incomplete clip " + mOutputFile.getAbsolutePath());
+        }
+        if (!written) {
+            RecordingJournal.finish(mOutputFile);
+        }
+        mCallback.onClipWritten(written ? mOutputFile.getAbsolutePath() : null, written ? (lastVideoTimeUs - firstVideoTimeUs) / 1000 : 0);
+    }
+
+    // Moves the end of the clip out to endTimeUs, false once the writer has passed the end
+    synchronized boolean extendTo(long endTimeUs) {
+        if (mFinished) {
+            return false;
+        }
+        mEndTimeUs = Math.max(mEndTimeUs, endTimeUs);
+        return true;
+    }
+
+    private synchronized long getEndTimeUs() {
+        return mEndTimeUs;
+    }
+
+    // The first video sample past the end finishes the clip, later extensions start a new one
+    private synchronized boolean finishIfPastEnd(long presentationTimeUs) {
+        if (presentationTimeUs > mEndTimeUs) {
+            mFinished = true;
+        }
+        return mFinished;
+    }
+}
@@ -0,0 +1,202 @@
+package services;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+
+// Bounded in-memory ring of encoded samples for pre-event capture.
+// Sample data lives in one direct buffer and sample metadata in parallel primitive arrays, all
+// allocated up front, so appending a sample never allocates. Each sample is stored contiguously
+// and the oldest samples are evicted to make room, always up to the next video key frame so the
+// ring can be muxed from its first sample. Readers address samples by a running sequence number.
+public class EncodedSampleRing implements EncodedSampleSink {
+    private static final String TAG = "LightSampleRing";
+
+    // Returned by readSample() when the sample was evicted before it could be read
+    public static final int READ_EVICTED = -1;
+    // Returned by readSample() when the ring is closed and the sample will never be written
+    public static final int READ_CLOSED = -2;
+    // Returned by readSample() when the sample did not arrive in time
+    public static final int READ_TIMEOUT = -3;
+    // Returned by readSample() when the target buffer cannot hold the sample
+    public static final int READ_BUFFER_TOO_SMALL = -4;
+
+    private final ByteBuffer mData;
+    private final ByteBuffer mReadView;
+    private final int[] mOffsets;
+    private final int[] mSizes;
+    private final int[] mFlags;
+    private final long[] mPresentationTimesUs;
+    private final byte[] mTracks;
+    private final MediaFormat[] mFormats = new MediaFormat[2];
+
+    // Sequence numbers of the oldest sample and of the next sample to be written
+    private long mHeadSequence = 0;
+    private long mTailSequence = 0;
+    private int mWritePosition = 0;
+    private boolean mClosed = false;
+
+    public EncodedSampleRing(int capacityBytes, int capacitySamples) {
+        mData = ByteBuffer.allocateDirect(capacityBytes);
+        mReadView = mData.duplicate();
+        mOffsets = new int[capacitySamples];
+        mSizes = new int[capacitySamples];
+        mFlags = new int[capacitySamples];
+        mPresentationTimesUs = new long[capacitySamples];
+        mTracks = new byte[capacitySamples];
+    }
+
+    @Override
+    public synchronized void onOutputFormatChanged(int track, @NonNull MediaFormat format) {
+        mFormats[track] = format;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void onEncodedSample(int track, @NonNull ByteBuffer data, @NonNull MediaCodec.BufferInfo info) {
+        if (mClosed) {
+            return;
+        }
+        int capacity = mData.capacity();
+        if (info.size > capacity) {
+            Log.w(TAG, "Dropping a sample larger than the ring");
+            return;
+        }
+        boolean keyFrame = track == TRACK_VIDEO && (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+        int position = mWritePosition + info.size <= capacity ? mWritePosition : 0;
+        while (size() > 0 && (size() == mOffsets.length || overlapsStoredSamples(position, info.size))) {
+            evictOldest();
+        }
+        // Keep the ring starting on a key frame
+        while (size() > 0 && !isKeyFrame(mHeadSequence)) {
+            evictOldest();
+        }
+        if (size() == 0 && !keyFrame) {
+            return;
+        }
+
+        data.position(info.offset);
+        data.limit(info.offset + info.size);
+        mData.clear();
+        mData.position(position);
+        mData.put(data);
+
+        int index = index(mTailSequence);
+        mOffsets[index] = position;
+        mSizes[index] = info.size;
+        mFlags[index] = info.flags;
+        mPresentationTimesUs[index] = info.presentationTimeUs;
+        mTracks[index] = (byte) track;
+        mWritePosition = position + info.size;
+        mTailSequence++;
+        notifyAll();
+    }
+
+    // Wakes up readers waiting for samples that will never arrive
+    public synchronized void close() {
+        mClosed = true;
+        notifyAll();
+    }
+
+    // Waits until the format of the track is known, returns null if the ring closes first
+    @Nullable
+    public synchronized MediaFormat awaitFormat(int track, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (mFormats[track] == null && !mClosed) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            wait(remaining);
+        }
+        return mFormats[track];
+    }
+
+    @Nullable
+    public synchronized MediaFormat getFormat(int track) {
+        return mFormats[track];
+    }
+
+    // Sequence number of the last video key frame at or before presentationTimeUs,
+    // or of the oldest sample when the ring does not reach back that far
+    public synchronized long findKeyFrameAtOrBefore(long presentationTimeUs) {
+        for (long sequence = mTailSequence - 1; sequence >= mHeadSequence; sequence--) {
+            if (isKeyFrame(sequence) && mPresentationTimesUs[index(sequence)] <= presentationTimeUs) {
+                return sequence;
+            }
+        }
+        return mHeadSequence;
+    }
+
+    // Copies a sample into target and fills info, waiting up to timeoutMs for it to be written.
+    // Returns the sample's track or one of the READ_ codes.
+    public synchronized int readSample(long sequence, @NonNull ByteBuffer target, @NonNull MediaCodec.BufferInfo info, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (sequence >= mTailSequence) {
+            if (mClosed) {
+                return READ_CLOSED;
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return READ_TIMEOUT;
+            }
+            wait(remaining);
+        }
+        if (sequence < mHeadSequence) {
+            return READ_EVICTED;
+        }
+        int index = index(sequence);
+        int size = mSizes[index];
+        target.clear();
+        if (target.capacity() < size) {
+            return READ_BUFFER_TOO_SMALL;
+        }
+        mReadView.limit(mOffsets[index] + size);
+        mReadView.position(mOffsets[index]);
+        target.put(mReadView);
+        target.flip();
+        info.set(0, size, mPresentationTimesUs[index], mFlags[index]);
+        return mTracks[index];
+    }
+
+    // Largest sample currently held, used by readers to size their copy buffer
+    public synchronized int getLargestSampleSize() {
+        int largest = 0;
+        for (long sequence = mHeadSequence; sequence < mTailSequence; sequence++) {
+            largest = Math.max(largest, mSizes[index(sequence)]);
+        }
+        return largest;
+    }
+
+    private int size() {
+        return (int) (mTailSequence - mHeadSequence);
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % mOffsets.length);
+    }
+
+    private boolean isKeyFrame(long sequence) {
+        int index = index(sequence);
+        return mTracks[index] == TRACK_VIDEO && (mFlags[index] & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+    }
+
+    private void evictOldest() {
+        mHeadSequence++;
+    }
+
+    // Stored bytes run from the oldest sample to the write position, wrapping at the end of the buffer
+    private boolean overlapsStoredSamples(int position, int size) {
+        int storedStart = mOffsets[index(mHeadSequence)];
+        int end = position + size;
+        if (storedStart < mWritePosition) {
+            return position < mWritePosition && end > storedStart;
+        }
+        return end > storedStart || position < mWritePosition;
+    }
+}
@@ -0,0 +1,20 @@
+package services;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+// Receives the output of the MediaCodec encoders
+public interface EncodedSampleSink {
+    int TRACK_VIDEO = 0;
+    int TRACK_AUDIO = 1;
+
+    // Called once per track before its first sample
+    void onOutputFormatChanged(int track, @NonNull MediaFormat format);
+
+    // Called on the encoder's thread, data is only valid until the call returns
+    void onEncodedSample(int track, @NonNull ByteBuffer data, @NonNull MediaCodec.BufferInfo info);
+}
@@ -0,0 +1,118 @@
+package services;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+// Layout of encrypted recordings. A 32 byte header, the magic LENC, a version byte, the chunk
+// size, a random salt and a random nonce prefix, is followed by chunks of chunk size plaintext
+// bytes, the last one shorter or empty, each encrypted with AES-GCM and followed by its 16 byte
+// tag. The file key is derived from the app's key and the salt with HMAC-SHA256, so no two files
+// share a key. A chunk's nonce is the prefix, the chunk's index and a flag set on the last chunk
+// only, and every chunk authenticates the header: chunks cannot be reordered, moved between files
+// or cut off without failing authentication. Chunks start at fixed offsets, so a plaintext range
+// is decrypted from the chunks that cover it alone.
+final class EncryptedFileFormat {
+    // Appended to the extension of the plaintext the file holds
+    static final String FILE_EXTENSION = ".enc";
+    static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    static final int HEADER_SIZE = 32;
+    static final int NONCE_SIZE = 12;
+    static final int TAG_SIZE = 16;
+    static final int TAG_BITS = TAG_SIZE * 8;
+    static final int CHUNK_SIZE = 64 * 1024;
+    static final int MIN_KEY_SIZE = 16;
+    private static final int MAGIC = 0x4C454E43;
+    private static final int VERSION = 1;
+    private static final int SALT_SIZE = 16;
+    private static final int NONCE_PREFIX_SIZE = 7;
+    private static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+    private static final byte[] KEY_LABEL = "LightRecorder file key".getBytes(StandardCharsets.US_ASCII);
+
+    static final class Header {
+        // Authenticated with every chunk
+        final byte[] bytes;
+        final int chunkSize;
+        final byte[] salt;
+        final byte[] noncePrefix;
+
+        private Header(byte[] bytes, int chunkSize, byte[] salt, byte[] noncePrefix) {
+            this.bytes = bytes;
+            this.chunkSize = chunkSize;
+            this.salt = salt;
+            this.noncePrefix = noncePrefix;
+        }
+
+        // Header of a new file with a fresh salt and nonce prefix
+        static Header create(@NonNull SecureRandom random, int chunkSize) {
+            byte[] salt = new byte[SALT_SIZE];
+            byte[] noncePrefix = new byte[NONCE_PREFIX_SIZE];
+            random.nextBytes(salt);
+            random.nextBytes(noncePrefix);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).put((byte) VERSION).putInt(chunkSize).put(salt).put(noncePrefix);
+            return new Header(header.array(), chunkSize, salt, noncePrefix);
+        }
+
+        static Header parse(@NonNull byte[] bytes) throws IOException {
+            ByteBuffer header = ByteBuffer.wrap(bytes);
+            if (bytes.length != HEADER_SIZE || header.getInt() != MAGIC) {
+                throw new IOException("Not an encrypted recording");
+            }
+            int version = header.get();
+            if (version != VERSION) {
+                throw new IOException("Unsupported encrypted recording version " + version);
+            }
+            int chunkSize = header.getInt();
+            if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) {
+                throw new IOException("Invalid chunk size " + chunkSize);
+            }
+            byte[] salt = new byte[SALT_SIZE];
+            byte[] noncePrefix = new byte[NONCE_PREFIX_SIZE];
+            header.get(salt).get(noncePrefix);
+            return new Header(bytes.clone(), chunkSize, salt, noncePrefix);
+        }
+    }
+
+    private EncryptedFileFormat() {}
+
+    static SecretKeySpec fileKey(@NonNull byte[] key, @NonNull byte[] salt) throws IOException {
+        if (key.length < MIN_KEY_SIZE) {
+            throw new IOException("Encryption keys need at least " + MIN_KEY_SIZE + " bytes");
+        }
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            mac.update(KEY_LABEL);
+            byte[] fileKey = mac.doFinal(salt);
+            SecretKeySpec spec = new SecretKeySpec(fileKey, "AES");
+            Arrays.fill(fileKey, (byte) 0);
+            return spec;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to derive the file key", e);
+        }
+    }
+
+    // Writes the nonce of a chunk into nonce, NONCE_SIZE bytes
+    static void nonce(@NonNull Header header, long chunkIndex, boolean last, @NonNull byte[] nonce) {
+        System.arraycopy(header.noncePrefix, 0, nonce, 0, NONCE_PREFIX_SIZE);
+        nonce[7] = (byte) (chunkIndex >>> 24);
+        nonce[8] = (byte) (chunkIndex >>> 16);
+        nonce[9] = (byte) (chunkIndex >>> 8);
+        nonce[10] = (byte) chunkIndex;
+        nonce[11] = (byte) (last ? 1 : 0);
+    }
+
+    // File offset of a chunk
+    static long chunkOffset(@NonNull Header header, long chunkIndex) {
+        return HEADER_SIZE + chunkIndex * (header.chunkSize + TAG_SIZE);
+    }
+}
@@ -0,0 +1,226 @@
+package services;
+
+import androidx.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+// Decrypts recordings written in the chunked AES-GCM layout of EncryptedFileFormat without reading
+// them whole. read() returns any plaintext range and decrypts only the chunks that cover it,
+// newInputStream() streams the plaintext from a position, for uploads of the plain file or players
+// that read streams. EncryptedMediaDataSource plays a file with the platform's players. A chunk
+// that fails authentication throws an IOException, no unauthenticated byte is returned. The file
+// of a recording that was killed is readable up to its last sealed chunk, isComplete() tells it
+// apart from a finished one. Thread safe.
+public final class EncryptedFileReader implements Closeable {
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final long mFileLength;
+    private final EncryptedFileFormat.Header mHeader;
+    private final SecretKeySpec mKey;
+    private final Cipher mCipher;
+    private final byte[] mNonce = new byte[EncryptedFileFormat.NONCE_SIZE];
+    private final ByteBuffer mSealed;
+    // Plaintext of the chunk decrypted last
+    private final ByteBuffer mPlain;
+    private final long mLength;
+    private final boolean mComplete;
+    private long mCachedChunk = -1;
+    // Set by open() when the chunk was never written
+    private boolean mUnwritten = false;
+
+    public EncryptedFileReader(@NonNull File file, @NonNull byte[] key) throws IOException {
+        mFile = new RandomAccessFile(file, "r");
+        try {
+            mChannel = mFile.getChannel();
+            mFileLength = mChannel.size();
+            byte[] header = new byte[EncryptedFileFormat.HEADER_SIZE];
+            if (mFileLength < header.length) {
+                throw new EOFException("Not an encrypted recording");
+            }
+            mFile.readFully(header);
+            mHeader = EncryptedFileFormat.Header.parse(header);
+            mKey = EncryptedFileFormat.fileKey(key, mHeader.salt);
+            try {
+                mCipher = Cipher.getInstance(EncryptedFileFormat.TRANSFORMATION);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("AES-GCM is not available", e);
+            }
+            int chunkSize = mHeader.chunkSize;
+            mSealed = ByteBuffer.allocate(chunkSize + EncryptedFileFormat.TAG_SIZE);
+            mPlain = ByteBuffer.allocate(chunkSize);
+            long stride = chunkSize + EncryptedFileFormat.TAG_SIZE;
+            long body = mFileLength - EncryptedFileFormat.HEADER_SIZE;
+            long chunks = (body + stride - 1) / stride;
+            long fullChunks = body / stride;
+            if (chunks > 0 && open(chunks - 1, true)) {
+                mComplete = true;
+                mLength = (chunks - 1) * chunkSize + mPlain.remaining();
+            } else {
+                mComplete = false;
+                mLength = fullChunks * chunkSize - findSealedTail(fullChunks) * chunkSize;
+            }
+            mCachedChunk = -1;
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+    }
+
+    // Plaintext bytes that can be read
+    public long length() {
+        return mLength;
+    }
+
+    // False for a file whose recording was killed before it was finished
+    public boolean isComplete() {
+        return mComplete;
+    }
+
+    // Reads up to size plaintext bytes from position, returns -1 at the end
+    public synchronized int read(long position, @NonNull byte[] buffer, int offset, int size) throws IOException {
+        if (position >= mLength) {
+            return -1;
+        }
+        int chunkSize = mHeader.chunkSize;
+        int read = 0;
+        while (read < size && position < mLength) {
+            long chunk = position / chunkSize;
+            loadChunk(chunk);
+            int inChunk = (int) (position - chunk * chunkSize);
+            int count = (int) Math.min(Math.min(size - read, mPlain.limit() - inChunk), mLength - position);
+            System.arraycopy(mPlain.array(), inChunk, buffer, offset + read, count);
+            read += count;
+            position += count;
+        }
+        return read;
+    }
+
+    // Streams the plaintext from position, the stream shares this reader and closing it does not close the reader
+    @NonNull
+    public InputStream newInputStream(long position) {
+        return new InputStream() {
+            private long mPosition = position;
+            private final byte[] mOne = new byte[1];
+
+            @Override
+            public int read() throws IOException {
+                return read(mOne, 0, 1) < 0 ? -1 : mOne[0] & 0xFF;
+            }
+
+            @Override
+            public int read(@NonNull byte[] buffer, int offset, int size) throws IOException {
+                if (size == 0) {
+                    return 0;
+                }
+                int read = EncryptedFileReader.this.read(mPosition, buffer, offset, size);
+                if (read > 0) {
+                    mPosition += read;
+                }
+                return read;
+            }
+
+            @Override
+            public long skip(long count) {
+                long skipped = Math.max(0, Math.min(count, mLength - mPosition));
+                mPosition += skipped;
+                return skipped;
+            }
+
+            @Override
+            public int available() {
+                return (int) Math.min(Integer.MAX_VALUE, Math.max(0, mLength - mPosition));
+            }
+        };
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mFile.close();
+    }
+
+    // Number of full chunks at the end that were not sealed, the tail the recorder was writing or
+    // preallocated. A wrong key fails on the first chunk instead of the whole file being searched.
+    private long findSealedTail(long fullChunks) throws IOException {
+        if (fullChunks == 0) {
+            return 0;
+        }
+        if (!open(0, false)) {
+            if (mUnwritten) {
+                return fullChunks;
+            }
+            throw new IOException("Wrong key or damaged encrypted recording");
+        }
+        long chunk = fullChunks - 1;
+        while (chunk > 0 && !open(chunk, false)) {
+            chunk--;
+        }
+        return fullChunks - 1 - chunk;
+    }
+
+    private void loadChunk(long chunk) throws IOException {
+        if (chunk == mCachedChunk) {
+            return;
+        }
+        boolean last = mComplete && (chunk + 1) * mHeader.chunkSize >= mLength;
+        if (!open(chunk, last)) {
+            throw new IOException("Chunk " + chunk + " failed authentication");
+        }
+    }
+
+    // Decrypts a chunk into mPlain, false when it does not authenticate as the chunk at its index
+    private boolean open(long chunk, boolean last) throws IOException {
+        mCachedChunk = -1;
+        mUnwritten = false;
+        long offset = EncryptedFileFormat.chunkOffset(mHeader, chunk);
+        mSealed.clear();
+        mSealed.limit((int) Math.min(mSealed.capacity(), mFileLength - offset));
+        if (mSealed.remaining() < EncryptedFileFormat.TAG_SIZE) {
+            return false;
+        }
+        while (mSealed.hasRemaining()) {
+            if (mChannel.read(mSealed, offset + mSealed.position()) < 0) {
+                throw new EOFException("Encrypted recording shrank while reading");
+            }
+        }
+        mSealed.flip();
+        if (isZero(mSealed)) {
+            // Preallocated space the recorder never reached
+            mUnwritten = true;
+            return false;
+        }
+        mPlain.clear();
+        EncryptedFileFormat.nonce(mHeader, chunk, last, mNonce);
+        try {
+            mCipher.init(Cipher.DECRYPT_MODE, mKey, new GCMParameterSpec(EncryptedFileFormat.TAG_BITS, mNonce));
+            mCipher.updateAAD(mHeader.bytes);
+            mCipher.doFinal(mSealed, mPlain);
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+        mPlain.flip();
+        mCachedChunk = chunk;
+        return true;
+    }
+
+    private static boolean isZero(ByteBuffer buffer) {
+        byte[] array = buffer.array();
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            if (array[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
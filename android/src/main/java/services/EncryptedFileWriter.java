@@ -0,0 +1,108 @@
+package services;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+// Encrypts a file as it is written, in the chunked AES-GCM layout of EncryptedFileFormat. Bytes
+// are collected into a chunk that is sealed and appended once more bytes follow it, finish() seals
+// the last chunk with the final flag. The plaintext never reaches the disk and is written once,
+// so the writer only suits output that is written in order. A file whose writer never finished
+// has no final chunk, EncryptedFileReader reads it up to the last sealed one. Buffers are
+// allocated once, sealing a chunk does not allocate them again. Not thread safe.
+final class EncryptedFileWriter implements WritableByteChannel {
+    private final WritableByteChannel mOutput;
+    private final EncryptedFileFormat.Header mHeader;
+    private final SecretKeySpec mKey;
+    private final Cipher mCipher;
+    private final byte[] mNonce = new byte[EncryptedFileFormat.NONCE_SIZE];
+    private final ByteBuffer mChunk;
+    private final ByteBuffer mSealed;
+    private long mChunkIndex = 0;
+    private boolean mOpen = true;
+
+    // Writes the header to output, which stays open for its owner
+    EncryptedFileWriter(@NonNull WritableByteChannel output, @NonNull byte[] key) throws IOException {
+        mOutput = output;
+        mHeader = EncryptedFileFormat.Header.create(new SecureRandom(), EncryptedFileFormat.CHUNK_SIZE);
+        mKey = EncryptedFileFormat.fileKey(key, mHeader.salt);
+        try {
+            mCipher = Cipher.getInstance(EncryptedFileFormat.TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("AES-GCM is not available", e);
+        }
+        mChunk = ByteBuffer.allocate(mHeader.chunkSize);
+        mSealed = ByteBuffer.allocate(mHeader.chunkSize + EncryptedFileFormat.TAG_SIZE);
+        writeFully(ByteBuffer.wrap(mHeader.bytes));
+    }
+
+    @Override
+    public int write(ByteBuffer source) throws IOException {
+        if (!mOpen) {
+            throw new ClosedChannelException();
+        }
+        int written = source.remaining();
+        while (source.hasRemaining()) {
+            if (!mChunk.hasRemaining()) {
+                seal(false);
+            }
+            int limit = source.limit();
+            source.limit(source.position() + Math.min(source.remaining(), mChunk.remaining()));
+            mChunk.put(source);
+            source.limit(limit);
+        }
+        return written;
+    }
+
+    // Seals the last chunk, the file is complete afterwards
+    void finish() throws IOException {
+        if (!mOpen) {
+            throw new ClosedChannelException();
+        }
+        seal(true);
+        mOpen = false;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return mOpen;
+    }
+
+    // Leaves the file without its final chunk when finish() was not called
+    @Override
+    public void close() {
+        mOpen = false;
+    }
+
+    private void seal(boolean last) throws IOException {
+        mChunk.flip();
+        mSealed.clear();
+        EncryptedFileFormat.nonce(mHeader, mChunkIndex, last, mNonce);
+        try {
+            mCipher.init(Cipher.ENCRYPT_MODE, mKey, new GCMParameterSpec(EncryptedFileFormat.TAG_BITS, mNonce));
+            mCipher.updateAAD(mHeader.bytes);
+            mCipher.doFinal(mChunk, mSealed);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to encrypt chunk " + mChunkIndex, e);
+        }
+        mSealed.flip();
+        writeFully(mSealed);
+        mChunk.clear();
+        mChunkIndex++;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mOutput.write(buffer);
+        }
+    }
+}
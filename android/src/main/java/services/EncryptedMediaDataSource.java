@@ -0,0 +1,37 @@
+package services;
+
+import android.media.MediaDataSource;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+
+// Plays an encrypted recording with MediaPlayer, or reads it with MediaExtractor and
+// MediaMetadataRetriever, decrypting only the ranges they read. Seeking decrypts the chunks
+// around the new position, the file is never decrypted to disk.
+public final class EncryptedMediaDataSource extends MediaDataSource {
+    private final EncryptedFileReader mReader;
+
+    public EncryptedMediaDataSource(@NonNull File file, @NonNull byte[] key) throws IOException {
+        mReader = new EncryptedFileReader(file, key);
+    }
+
+    @Override
+    public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+        if (size == 0) {
+            return 0;
+        }
+        return mReader.read(position, buffer, offset, size);
+    }
+
+    @Override
+    public long getSize() {
+        return mReader.length();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+}
@@ -0,0 +1,60 @@
+package services;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// Random access index of a fragmented MP4 file, the mfra box at its end. Lists for every track
+// the decode time and moof offset of the fragments that begin with a sync sample, so players can
+// seek without reading every fragment. Shared by the writer and the recovery scan.
+final class FragmentIndex {
+    private static final int TFRA_ENTRY_SIZE = 8 + 8 + 3;
+
+    private final List<Integer> mTrackIds = new ArrayList<>();
+    // Per track: decode time, moof offset
+    private final List<List<long[]>> mEntries = new ArrayList<>();
+
+    void add(int trackId, long decodeTime, long moofOffset) {
+        int track = mTrackIds.indexOf(trackId);
+        if (track < 0) {
+            mTrackIds.add(trackId);
+            mEntries.add(new ArrayList<>());
+            track = mTrackIds.size() - 1;
+        }
+        mEntries.get(track).add(new long[] {decodeTime, moofOffset});
+    }
+
+    boolean isEmpty() {
+        return mTrackIds.isEmpty();
+    }
+
+    // mfra with a version 1 tfra per track and the closing mfro, ready to be appended to the file
+    @NonNull
+    ByteBuffer toMfra() {
+        int size = 8;
+        for (List<long[]> entries : mEntries) {
+            size += 12 + 12 + entries.size() * TFRA_ENTRY_SIZE;
+        }
+        size += 16;
+        ByteBuffer mfra = ByteBuffer.allocate(size);
+        mfra.putInt(size).put(Mp4Recovery.type("mfra"));
+        for (int i = 0; i < mTrackIds.size(); i++) {
+            List<long[]> entries = mEntries.get(i);
+            mfra.putInt(12 + 12 + entries.size() * TFRA_ENTRY_SIZE).put(Mp4Recovery.type("tfra"));
+            mfra.putInt(0x01000000);
+            mfra.putInt(mTrackIds.get(i));
+            // One byte each for the 1-based traf, trun and sample numbers
+            mfra.putInt(0);
+            mfra.putInt(entries.size());
+            for (long[] entry : entries) {
+                mfra.putLong(entry[0]).putLong(entry[1]);
+                mfra.put((byte) 1).put((byte) 1).put((byte) 1);
+            }
+        }
+        mfra.putInt(16).put(Mp4Recovery.type("mfro")).putInt(0).putInt(size);
+        mfra.flip();
+        return mfra;
+    }
+}
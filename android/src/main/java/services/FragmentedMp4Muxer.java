@@ -0,0 +1,765 @@
+package services;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// SampleMuxer that writes fragmented MP4. The file begins with a moov box that describes the
+// tracks without listing samples, then the samples follow in fragments of about the requested
+// duration, each a moof box with the sizes, durations and flags of its samples and an mdat box
+// with the samples themselves. A file cut off by the process dying keeps every fragment written
+// before, and Mp4Recovery trims it to the last complete one. Fragments start at a video key
+// frame, so they are at least as long as the key frame interval. Only the samples of the
+// fragment being collected are held in memory. stop() appends an mfra random access index.
+// The video key frames of every written fragment are appended to a KeyFrameIndex file when one
+// is given. With an encryption key the file is written through an EncryptedFileWriter, which
+// works because the file is only ever appended to. Offsets in the boxes stay plaintext offsets.
+class FragmentedMp4Muxer implements SampleMuxer {
+    private static final String TAG = "LightFragmentedMuxer";
+    private static final int VIDEO_TIMESCALE = 90000;
+    private static final int MAX_TRACKS = 2;
+    private static final int SAMPLE_FLAGS_SYNC = 0x02000000;
+    private static final int SAMPLE_FLAGS_NON_SYNC = 0x01000000 | Mp4Recovery.SAMPLE_IS_NON_SYNC;
+    private static final int TFHD_DEFAULT_BASE_IS_MOOF = 0x020000;
+    // Data offset, sample duration, sample size and sample flags
+    private static final int TRUN_FLAGS = 0x000701;
+    private static final int INITIAL_TRACK_BUFFER_SIZE = 256 * 1024;
+    private static final int[] IDENTITY_MATRIX = {0x00010000, 0, 0, 0, 0x00010000, 0, 0, 0, 0x40000000};
+
+    private static final class Track {
+        final MediaFormat format;
+        final boolean video;
+        final int timescale;
+        // Samples of the fragment being collected
+        ByteBuffer data = ByteBuffer.allocate(INITIAL_TRACK_BUFFER_SIZE);
+        int count = 0;
+        int[] sizes = new int[64];
+        long[] timesUs = new long[64];
+        boolean[] sync = new boolean[64];
+        long lastDurationTicks;
+
+        Track(MediaFormat format, boolean video, int timescale) {
+            this.format = format;
+            this.video = video;
+            this.timescale = timescale;
+            lastDurationTicks = video ? timescale / 30 : 1024;
+        }
+    }
+
+    private final FileOutputStream mOutputStream;
+    private final boolean mOwnsOutput;
+    private final FileChannel mChannel;
+    // mChannel, or the encryption writing to it
+    private final WritableByteChannel mOutput;
+    @Nullable
+    private final EncryptedFileWriter mEncryption;
+    private final long mFragmentDurationUs;
+    private final Track[] mTracks = new Track[MAX_TRACKS];
+    private final BoxBuffer mBoxes = new BoxBuffer();
+    private final FragmentIndex mIndex = new FragmentIndex();
+    @Nullable
+    private final File mKeyFrameIndexFile;
+    private KeyFrameIndexWriter mKeyFrameIndex;
+    private int mTrackCount = 0;
+    private int mLeadTrack = 0;
+    private int mOrientationHint = 0;
+    private boolean mStarted = false;
+    private boolean mClosed = false;
+    private boolean mSamplesWritten = false;
+    private long mPosition = 0;
+    private int mSequence = 0;
+    // First sample of the file, decode times count from it
+    private long mOriginUs = -1;
+    private long mFragmentStartUs = -1;
+
+    // descriptor, when set, is written instead of opening file and stays open for its owner.
+    // encryptionKey, when set, encrypts the file.
+    FragmentedMp4Muxer(@NonNull File file, @Nullable FileDescriptor descriptor, long fragmentDurationUs, @Nullable File keyFrameIndexFile, @Nullable byte[] encryptionKey) throws IOException {
+        mOwnsOutput = descriptor == null;
+        mOutputStream = descriptor != null ? new FileOutputStream(descriptor) : new FileOutputStream(file);
+        mChannel = mOutputStream.getChannel();
+        try {
+            mEncryption = encryptionKey != null ? new EncryptedFileWriter(mChannel, encryptionKey) : null;
+        } catch (IOException e) {
+            if (mOwnsOutput) {
+                mOutputStream.close();
+            }
+            throw e;
+        }
+        mOutput = mEncryption != null ? mEncryption : mChannel;
+        mFragmentDurationUs = fragmentDurationUs;
+        mKeyFrameIndexFile = keyFrameIndexFile;
+    }
+
+    @Override
+    public int addTrack(@NonNull MediaFormat format) {
+        if (mStarted || mTrackCount == MAX_TRACKS) {
+            throw new IllegalStateException("Cannot add a track");
+        }
+        String mimeType = format.getString(MediaFormat.KEY_MIME);
+        boolean video = mimeType != null && mimeType.startsWith("video/");
+        if (!video && !MediaFormat.MIMETYPE_AUDIO_AAC.equals(mimeType)) {
+            throw new IllegalArgumentException("Fragmented output does not support " + mimeType);
+        }
+        int timescale = video ? VIDEO_TIMESCALE : format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        mTracks[mTrackCount] = new Track(format, video, timescale);
+        return mTrackCount++;
+    }
+
+    @Override
+    public void setOrientationHint(int degrees) {
+        mOrientationHint = degrees;
+    }
+
+    @Override
+    public void start() {
+        for (int i = 0; i < mTrackCount; i++) {
+            if (mTracks[i].video) {
+                mLeadTrack = i;
+                break;
+            }
+        }
+        try {
+            writeHeader();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to write the file header", e);
+        }
+        if (mKeyFrameIndexFile != null && mTracks[mLeadTrack].video) {
+            try {
+                mKeyFrameIndex = new KeyFrameIndexWriter(mKeyFrameIndexFile, mPosition);
+            } catch (IOException e) {
+                // The recording does not depend on its index
+                Log.w(TAG, "Failed to create key frame index: " + e);
+            }
+        }
+        mStarted = true;
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, @NonNull ByteBuffer data, @NonNull MediaCodec.BufferInfo info) {
+        if (!mStarted || mClosed) {
+            throw new IllegalStateException("Muxer is not started");
+        }
+        Track track = mTracks[trackIndex];
+        if (info.size <= 0) {
+            return;
+        }
+        long timeUs = info.presentationTimeUs;
+        if (mOriginUs < 0) {
+            mOriginUs = timeUs;
+        }
+        if (timeUs < mOriginUs) {
+            // Audio from before the first key frame
+            return;
+        }
+        boolean sync = !track.video || (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+        if (trackIndex == mLeadTrack && sync && mFragmentStartUs >= 0 && timeUs - mFragmentStartUs >= mFragmentDurationUs) {
+            try {
+                writeFragment();
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to write fragment", e);
+            }
+        }
+        if (trackIndex == mLeadTrack && mFragmentStartUs < 0) {
+            mFragmentStartUs = timeUs;
+        }
+        ByteBuffer sample = data.duplicate();
+        sample.position(info.offset).limit(info.offset + info.size);
+        int start = track.data.position();
+        if (track.video) {
+            appendLengthPrefixed(track, sample);
+        } else {
+            ensureCapacity(track, sample.remaining());
+            track.data.put(sample);
+        }
+        addSample(track, track.data.position() - start, timeUs, sync);
+        mSamplesWritten = true;
+    }
+
+    @Override
+    public void stop() {
+        if (mClosed) {
+            return;
+        }
+        try {
+            if (!mSamplesWritten) {
+                throw new IllegalStateException("No samples were written");
+            }
+            writeFragment();
+            write(mIndex.toMfra());
+            if (mEncryption != null) {
+                mEncryption.finish();
+            }
+            mChannel.force(false);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to finish the file", e);
+        } finally {
+            close();
+        }
+    }
+
+    @Override
+    public void release() {
+        close();
+    }
+
+    private void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        if (mKeyFrameIndex != null) {
+            mKeyFrameIndex.close();
+            mKeyFrameIndex = null;
+        }
+        if (mOwnsOutput) {
+            try {
+                mOutputStream.close();
+            } catch (IOException e) {
+                // Everything that matters has been forced to disk or is lost anyway
+            }
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        BoxBuffer boxes = mBoxes;
+        boxes.clear();
+        int ftyp = boxes.begin("ftyp");
+        boxes.putType("isom").putInt(0x200).putType("isom").putType("iso6").putType("mp41");
+        boxes.end(ftyp);
+
+        int moov = boxes.begin("moov");
+        int mvhd = boxes.beginFull("mvhd", 0, 0);
+        boxes.putInt(0).putInt(0).putInt(1000).putInt(0);
+        boxes.putInt(0x00010000).putShort(0x0100).zeros(10);
+        boxes.putMatrix(IDENTITY_MATRIX);
+        boxes.zeros(24);
+        boxes.putInt(mTrackCount + 1);
+        boxes.end(mvhd);
+        for (int i = 0; i < mTrackCount; i++) {
+            writeTrack(boxes, mTracks[i], i + 1);
+        }
+        int mvex = boxes.begin("mvex");
+        for (int i = 0; i < mTrackCount; i++) {
+            int trex = boxes.beginFull("trex", 0, 0);
+            boxes.putInt(i + 1).putInt(1).putInt(0).putInt(0).putInt(0);
+            boxes.end(trex);
+        }
+        boxes.end(mvex);
+        boxes.end(moov);
+        write(boxes.flip());
+    }
+
+    private void writeTrack(BoxBuffer boxes, Track track, int trackId) throws IOException {
+        int width = track.video ? track.format.getInteger(MediaFormat.KEY_WIDTH) : 0;
+        int height = track.video ? track.format.getInteger(MediaFormat.KEY_HEIGHT) : 0;
+        int trak = boxes.begin("trak");
+        int tkhd = boxes.beginFull("tkhd", 0, 0x3);
+        boxes.putInt(0).putInt(0).putInt(trackId).putInt(0).putInt(0);
+        boxes.zeros(8);
+        boxes.putShort(0).putShort(0).putShort(track.video ? 0 : 0x0100).putShort(0);
+        boxes.putMatrix(track.video ? rotationMatrix(mOrientationHint) : IDENTITY_MATRIX);
+        boxes.putInt(width << 16).putInt(height << 16);
+        boxes.end(tkhd);
+
+        int mdia = boxes.begin("mdia");
+        int mdhd = boxes.beginFull("mdhd", 0, 0);
+        // Language "und"
+        boxes.putInt(0).putInt(0).putInt(track.timescale).putInt(0).putShort(0x55C4).putShort(0);
+        boxes.end(mdhd);
+        int hdlr = boxes.beginFull("hdlr", 0, 0);
+        boxes.putInt(0).putType(track.video ? "vide" : "soun").zeros(12);
+        boxes.putBytes(Mp4Recovery.type(track.video ? "VideoHandle" : "SoundHandle")).putByte(0);
+        boxes.end(hdlr);
+
+        int minf = boxes.begin("minf");
+        if (track.video) {
+            int vmhd = boxes.beginFull("vmhd", 0, 1);
+            boxes.zeros(8);
+            boxes.end(vmhd);
+        } else {
+            int smhd = boxes.beginFull("smhd", 0, 0);
+            boxes.zeros(4);
+            boxes.end(smhd);
+        }
+        int dinf = boxes.begin("dinf");
+        int dref = boxes.beginFull("dref", 0, 0);
+        boxes.putInt(1);
+        int url = boxes.beginFull("url ", 0, 1);
+        boxes.end(url);
+        boxes.end(dref);
+        boxes.end(dinf);
+
+        int stbl = boxes.begin("stbl");
+        int stsd = boxes.beginFull("stsd", 0, 0);
+        boxes.putInt(1);
+        if (track.video) {
+            writeVideoSampleEntry(boxes, track.format, width, height);
+        } else {
+            writeAudioSampleEntry(boxes, track.format);
+        }
+        boxes.end(stsd);
+        for (String empty : new String[] {"stts", "stsc", "stco"}) {
+            int table = boxes.beginFull(empty, 0, 0);
+            boxes.putInt(0);
+            boxes.end(table);
+        }
+        int stsz = boxes.beginFull("stsz", 0, 0);
+        boxes.putInt(0).putInt(0);
+        boxes.end(stsz);
+        boxes.end(stbl);
+        boxes.end(minf);
+        boxes.end(mdia);
+        boxes.end(trak);
+    }
+
+    private void writeVideoSampleEntry(BoxBuffer boxes, MediaFormat format, int width, int height) throws IOException {
+        boolean hevc = MediaFormat.MIMETYPE_VIDEO_HEVC.equals(format.getString(MediaFormat.KEY_MIME));
+        List<byte[]> parameterSets = new ArrayList<>();
+        for (String key : new String[] {"csd-0", "csd-1", "csd-2"}) {
+            ByteBuffer csd = format.containsKey(key) ? format.getByteBuffer(key) : null;
+            if (csd != null) {
+                parameterSets.addAll(splitNalUnits(csd));
+            }
+        }
+        int entry = boxes.begin(hevc ? "hvc1" : "avc1");
+        boxes.zeros(6).putShort(1);
+        boxes.zeros(16);
+        boxes.putShort(width).putShort(height);
+        boxes.putInt(0x00480000).putInt(0x00480000).putInt(0).putShort(1);
+        boxes.zeros(32);
+        boxes.putShort(0x0018).putShort(0xFFFF);
+        if (hevc) {
+            writeHvcC(boxes, parameterSets);
+        } else {
+            writeAvcC(boxes, parameterSets);
+        }
+        boxes.end(entry);
+    }
+
+    private static void writeAvcC(BoxBuffer boxes, List<byte[]> parameterSets) throws IOException {
+        List<byte[]> sps = new ArrayList<>();
+        List<byte[]> pps = new ArrayList<>();
+        for (byte[] nal : parameterSets) {
+            int type = nal[0] & 0x1F;
+            if (type == 7) {
+                sps.add(nal);
+            } else if (type == 8) {
+                pps.add(nal);
+            }
+        }
+        if (sps.isEmpty() || sps.get(0).length < 4 || pps.isEmpty()) {
+            throw new IOException("Video format has no parameter sets");
+        }
+        byte[] first = sps.get(0);
+        int avcC = boxes.begin("avcC");
+        // Version, profile, compatibility, level, 4-byte NAL lengths
+        boxes.putByte(1).putByte(first[1]).putByte(first[2]).putByte(first[3]).putByte(0xFF);
+        boxes.putByte(0xE0 | sps.size());
+        for (byte[] nal : sps) {
+            boxes.putShort(nal.length).putBytes(nal);
+        }
+        boxes.putByte(pps.size());
+        for (byte[] nal : pps) {
+            boxes.putShort(nal.length).putBytes(nal);
+        }
+        boxes.end(avcC);
+    }
+
+    // The profile, tier and level fields are copied from the SPS, 8-bit 4:2:0 is assumed as
+    // that is what the camera encoders produce
+    private static void writeHvcC(BoxBuffer boxes, List<byte[]> parameterSets) throws IOException {
+        List<List<byte[]>> arrays = new ArrayList<>();
+        int[] types = {32, 33, 34};
+        byte[] sps = null;
+        for (int type : types) {
+            List<byte[]> units = new ArrayList<>();
+            for (byte[] nal : parameterSets) {
+                if (((nal[0] >> 1) & 0x3F) == type) {
+                    units.add(nal);
+                }
+            }
+            arrays.add(units);
+            if (type == 33 && !units.isEmpty()) {
+                sps = units.get(0);
+            }
+        }
+        // NAL header, then a byte of layer fields before the 12 bytes of profile_tier_level
+        byte[] rbsp = sps != null ? removeEmulationPrevention(sps) : null;
+        if (rbsp == null || rbsp.length < 15) {
+            throw new IOException("Video format has no parameter sets");
+        }
+        int hvcC = boxes.begin("hvcC");
+        boxes.putByte(1);
+        boxes.putBytes(Arrays.copyOfRange(rbsp, 3, 15));
+        boxes.putShort(0xF000).putByte(0xFC).putByte(0xFD).putByte(0xF8).putByte(0xF8);
+        // No average frame rate, one temporal layer, nested, 4-byte NAL lengths
+        boxes.putShort(0).putByte(0x0F);
+        boxes.putByte(arrays.size());
+        for (int i = 0; i < types.length; i++) {
+            boxes.putByte(0x80 | types[i]).putShort(arrays.get(i).size());
+            for (byte[] nal : arrays.get(i)) {
+                boxes.putShort(nal.length).putBytes(nal);
+            }
+        }
+        boxes.end(hvcC);
+    }
+
+    private static void writeAudioSampleEntry(BoxBuffer boxes, MediaFormat format) throws IOException {
+        ByteBuffer csd = format.containsKey("csd-0") ? format.getByteBuffer("csd-0") : null;
+        if (csd == null) {
+            throw new IOException("Audio format has no codec config");
+        }
+        byte[] config = new byte[csd.remaining()];
+        csd.duplicate().get(config);
+        int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        int entry = boxes.begin("mp4a");
+        boxes.zeros(6).putShort(1).zeros(8);
+        boxes.putShort(format.getInteger(MediaFormat.KEY_CHANNEL_COUNT)).putShort(16).putInt(0);
+        boxes.putInt(sampleRate << 16);
+        int bitRate = format.containsKey(MediaFormat.KEY_BIT_RATE) ? format.getInteger(MediaFormat.KEY_BIT_RATE) : 0;
+        int esds = boxes.beginFull("esds", 0, 0);
+        // ES descriptor holding the decoder config, its AudioSpecificConfig and the SL config
+        boxes.putByte(0x03).putByte(3 + 2 + 13 + 2 + config.length + 3).putShort(0).putByte(0);
+        boxes.putByte(0x04).putByte(13 + 2 + config.length).putByte(0x40).putByte(0x15);
+        boxes.putByte(0).putShort(0).putInt(bitRate).putInt(bitRate);
+        boxes.putByte(0x05).putByte(config.length).putBytes(config);
+        boxes.putByte(0x06).putByte(1).putByte(0x02);
+        boxes.end(esds);
+        boxes.end(entry);
+    }
+
+    // Writes the collected samples of every track as one moof and mdat pair
+    private void writeFragment() throws IOException {
+        int totalSamples = 0;
+        for (int i = 0; i < mTrackCount; i++) {
+            totalSamples += mTracks[i].count;
+        }
+        if (totalSamples == 0) {
+            return;
+        }
+        long moofOffset = mPosition;
+        BoxBuffer boxes = mBoxes;
+        boxes.clear();
+        int moof = boxes.begin("moof");
+        int mfhd = boxes.beginFull("mfhd", 0, 0);
+        boxes.putInt(++mSequence);
+        boxes.end(mfhd);
+        int[] dataOffsetPositions = new int[mTrackCount];
+        long[] decodeTimes = new long[mTrackCount];
+        for (int i = 0; i < mTrackCount; i++) {
+            Track track = mTracks[i];
+            if (track.count == 0) {
+                continue;
+            }
+            decodeTimes[i] = toTicks(track, track.timesUs[0]);
+            int traf = boxes.begin("traf");
+            int tfhd = boxes.beginFull("tfhd", 0, TFHD_DEFAULT_BASE_IS_MOOF);
+            boxes.putInt(i + 1);
+            boxes.end(tfhd);
+            int tfdt = boxes.beginFull("tfdt", 1, 0);
+            boxes.putLong(decodeTimes[i]);
+            boxes.end(tfdt);
+            int trun = boxes.beginFull("trun", 0, TRUN_FLAGS);
+            boxes.putInt(track.count);
+            dataOffsetPositions[i] = boxes.position();
+            boxes.putInt(0);
+            for (int s = 0; s < track.count; s++) {
+                long durationTicks = track.lastDurationTicks;
+                if (s + 1 < track.count) {
+                    durationTicks = Math.max(0, toTicks(track, track.timesUs[s + 1]) - toTicks(track, track.timesUs[s]));
+                    track.lastDurationTicks = durationTicks;
+                }
+                boxes.putInt((int) durationTicks).putInt(track.sizes[s]);
+                boxes.putInt(track.sync[s] ? SAMPLE_FLAGS_SYNC : SAMPLE_FLAGS_NON_SYNC);
+            }
+            boxes.end(trun);
+            boxes.end(traf);
+        }
+        boxes.end(moof);
+        int moofSize = boxes.position();
+        long dataOffset = moofSize + 8;
+        long mdatSize = 8;
+        for (int i = 0; i < mTrackCount; i++) {
+            if (mTracks[i].count == 0) {
+                continue;
+            }
+            boxes.putInt(dataOffsetPositions[i], (int) dataOffset);
+            dataOffset += mTracks[i].data.position();
+            mdatSize += mTracks[i].data.position();
+        }
+        boxes.putInt((int) mdatSize).putType("mdat");
+        write(boxes.flip());
+        long sampleOffset = moofOffset + moofSize + 8;
+        for (int i = 0; i < mTrackCount; i++) {
+            Track track = mTracks[i];
+            if (track.count == 0) {
+                continue;
+            }
+            track.data.flip();
+            write(track.data);
+            if (track.sync[0]) {
+                mIndex.add(i + 1, decodeTimes[i], moofOffset);
+            }
+            if (i == mLeadTrack && mKeyFrameIndex != null) {
+                addKeyFrames(track, sampleOffset, moofOffset);
+            }
+            sampleOffset += track.data.limit();
+            track.data.clear();
+            track.count = 0;
+        }
+        mFragmentStartUs = -1;
+    }
+
+    private void addKeyFrames(Track track, long sampleOffset, long moofOffset) {
+        long offset = sampleOffset;
+        for (int s = 0; s < track.count; s++) {
+            if (track.sync[s]) {
+                mKeyFrameIndex.add(track.timesUs[s] - mOriginUs, offset, moofOffset);
+            }
+            offset += track.sizes[s];
+        }
+        try {
+            mKeyFrameIndex.flush();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write key frame index, dropping it: " + e);
+            mKeyFrameIndex.close();
+            mKeyFrameIndex = null;
+        }
+    }
+
+    private long toTicks(Track track, long timeUs) {
+        return (timeUs - mOriginUs) * track.timescale / 1000000L;
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mPosition += mOutput.write(buffer);
+        }
+    }
+
+    private static void addSample(Track track, int size, long timeUs, boolean sync) {
+        if (track.count == track.sizes.length) {
+            int capacity = track.count * 2;
+            track.sizes = Arrays.copyOf(track.sizes, capacity);
+            track.timesUs = Arrays.copyOf(track.timesUs, capacity);
+            track.sync = Arrays.copyOf(track.sync, capacity);
+        }
+        track.sizes[track.count] = size;
+        track.timesUs[track.count] = timeUs;
+        track.sync[track.count] = sync;
+        track.count++;
+    }
+
+    // Encoders output Annex B start codes, MP4 samples carry 4-byte NAL lengths instead
+    private static void appendLengthPrefixed(Track track, ByteBuffer sample) {
+        List<int[]> units = findNalUnits(sample);
+        if (units.isEmpty()) {
+            // Already length prefixed
+            ensureCapacity(track, sample.remaining());
+            track.data.put(sample);
+            return;
+        }
+        for (int[] unit : units) {
+            int length = unit[1] - unit[0];
+            ensureCapacity(track, 4 + length);
+            track.data.putInt(length);
+            ByteBuffer nal = sample.duplicate();
+            nal.position(unit[0]).limit(unit[1]);
+            track.data.put(nal);
+        }
+    }
+
+    private static void ensureCapacity(Track track, int bytes) {
+        if (track.data.remaining() >= bytes) {
+            return;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(track.data.capacity() * 2, track.data.position() + bytes));
+        track.data.flip();
+        larger.put(track.data);
+        track.data = larger;
+    }
+
+    private static List<byte[]> splitNalUnits(ByteBuffer buffer) {
+        ByteBuffer data = buffer.duplicate();
+        List<byte[]> nals = new ArrayList<>();
+        for (int[] unit : findNalUnits(data)) {
+            byte[] nal = new byte[unit[1] - unit[0]];
+            ByteBuffer source = data.duplicate();
+            source.position(unit[0]);
+            source.get(nal);
+            nals.add(nal);
+        }
+        return nals;
+    }
+
+    // Start and end positions of the NAL units between the 3 or 4-byte start codes of
+    // data[position, limit), empty when data does not begin with a start code
+    private static List<int[]> findNalUnits(ByteBuffer data) {
+        List<int[]> units = new ArrayList<>();
+        int start = data.position();
+        int end = data.limit();
+        int unitStart = -1;
+        int i = start;
+        while (i + 3 <= end) {
+            if (data.get(i) == 0 && data.get(i + 1) == 0 && data.get(i + 2) == 1) {
+                if (unitStart >= 0) {
+                    int unitEnd = i;
+                    // The zero of a 4-byte start code belongs to the start code
+                    if (unitEnd > unitStart && data.get(unitEnd - 1) == 0) {
+                        unitEnd--;
+                    }
+                    units.add(new int[] {unitStart, unitEnd});
+                } else if (i - start > 1 || (i - start == 1 && data.get(start) != 0)) {
+                    return units;
+                }
+                i += 3;
+                unitStart = i;
+            } else {
+                i++;
+            }
+        }
+        if (unitStart >= 0 && unitStart < end) {
+            units.add(new int[] {unitStart, end});
+        }
+        return units;
+    }
+
+    private static byte[] removeEmulationPrevention(byte[] nal) {
+        byte[] rbsp = new byte[nal.length];
+        int length = 0;
+        int zeros = 0;
+        for (byte b : nal) {
+            if (zeros >= 2 && b == 3) {
+                zeros = 0;
+                continue;
+            }
+            rbsp[length++] = b;
+            zeros = b == 0 ? zeros + 1 : 0;
+        }
+        return Arrays.copyOf(rbsp, length);
+    }
+
+    private static int[] rotationMatrix(int degrees) {
+        switch (degrees) {
+            case 90:
+                return new int[] {0, 0x00010000, 0, 0xFFFF0000, 0, 0, 0, 0, 0x40000000};
+            case 180:
+                return new int[] {0xFFFF0000, 0, 0, 0, 0xFFFF0000, 0, 0, 0, 0x40000000};
+            case 270:
+                return new int[] {0, 0xFFFF0000, 0, 0x00010000, 0, 0, 0, 0, 0x40000000};
+            default:
+                return IDENTITY_MATRIX;
+        }
+    }
+
+    // Growable big endian buffer the boxes are assembled in, sizes are filled in by end()
+    private static final class BoxBuffer {
+        private ByteBuffer mBuffer = ByteBuffer.allocate(4096);
+
+        int begin(String type) {
+            int start = mBuffer.position();
+            putInt(0).putType(type);
+            return start;
+        }
+
+        int beginFull(String type, int version, int flags) {
+            int start = begin(type);
+            putInt((version << 24) | flags);
+            return start;
+        }
+
+        void end(int start) {
+            mBuffer.putInt(start, mBuffer.position() - start);
+        }
+
+        int position() {
+            return mBuffer.position();
+        }
+
+        void putInt(int index, int value) {
+            mBuffer.putInt(index, value);
+        }
+
+        BoxBuffer putType(String type) {
+            return putBytes(Mp4Recovery.type(type));
+        }
+
+        BoxBuffer putByte(int value) {
+            ensure(1);
+            mBuffer.put((byte) value);
+            return this;
+        }
+
+        BoxBuffer putShort(int value) {
+            ensure(2);
+            mBuffer.putShort((short) value);
+            return this;
+        }
+
+        BoxBuffer putInt(int value) {
+            ensure(4);
+            mBuffer.putInt(value);
+            return this;
+        }
+
+        BoxBuffer putLong(long value) {
+            ensure(8);
+            mBuffer.putLong(value);
+            return this;
+        }
+
+        BoxBuffer putBytes(byte[] bytes) {
+            ensure(bytes.length);
+            mBuffer.put(bytes);
+            return this;
+        }
+
+        BoxBuffer zeros(int count) {
+            ensure(count);
+            for (int i = 0; i < count; i++) {
+                mBuffer.put((byte) 0);
+            }
+            return this;
+        }
+
+        void putMatrix(int[] matrix) {
+            for (int value : matrix) {
+                putInt(value);
+            }
+        }
+
+        void clear() {
+            mBuffer.clear();
+        }
+
+        ByteBuffer flip() {
+            mBuffer.flip();
+            return mBuffer;
+        }
+
+        private void ensure(int bytes) {
+            if (mBuffer.remaining() >= bytes) {
+                return;
+            }
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(mBuffer.capacity() * 2, mBuffer.position() + bytes));
+            mBuffer.flip();
+            larger.put(mBuffer);
+            mBuffer = larger;
+        }
+    }
+}
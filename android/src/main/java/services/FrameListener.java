@@ -0,0 +1,12 @@
+package services;
+
+import android.media.Image;
+
+import androidx.annotation.NonNull;
+
+// Receives the frames of the analysis tap, added through VideoRecorderService.LocalBinder.
+// Called on the tap's thread. The image is only valid until the call returns and frames that
+// arrive while a listener is still busy are dropped, so copy out what is needed and return.
+public interface FrameListener {
+    void onFrame(@NonNull Image image);
+}
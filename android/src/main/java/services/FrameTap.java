@@ -0,0 +1,107 @@
+package services;
+
+import android.graphics.ImageFormat;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+// Second output of the capture session that hands YUV frames to in-process listeners at a low
+// rate. The reader has a small fixed pool of images: only the newest frame is acquired, at most
+// one is held while the listeners run and frames inside the sampling interval are closed right
+// away. A slow listener therefore drops frames instead of holding buffers the camera needs, and
+// the recorder's stream is never held back.
+public class FrameTap {
+    private static final String TAG = "LightFrameTap";
+    // One held by the listeners, one being filled by the camera and one spare
+    private static final int MAX_IMAGES = 3;
+    // Frames up to this share of the interval early still count, so camera jitter does not halve the rate
+    private static final int INTERVAL_TOLERANCE_PERCENT = 10;
+
+    private final HandlerThread mTapThread;
+    private final Handler mTapHandler;
+    private final ImageReader mImageReader;
+    private final long mIntervalNanos;
+    private final List<FrameListener> mListeners;
+
+    // Tap thread only
+    private long mLastFrameNanos = -1;
+
+    public FrameTap(@NonNull Size size, double frameRate, @NonNull List<FrameListener> listeners) {
+        mListeners = listeners;
+        long intervalNanos = (long) (1000000000L / frameRate);
+        mIntervalNanos = intervalNanos - intervalNanos * INTERVAL_TOLERANCE_PERCENT / 100;
+        mTapThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mTapThread.start();
+        mTapHandler = new Handler(mTapThread.getLooper());
+        mImageReader = ImageReader.newInstance(size.getWidth(), size.getHeight(), ImageFormat.YUV_420_888, MAX_IMAGES);
+        mImageReader.setOnImageAvailableListener(this::onImageAvailable, mTapHandler);
+    }
+
+    // Capture session target, valid until close()
+    @NonNull
+    public Surface getSurface() {
+        return mImageReader.getSurface();
+    }
+
+    // Call once the capture session no longer renders into the surface
+    public void close() {
+        mTapHandler.post(mImageReader::close);
+        mTapThread.quitSafely();
+    }
+
+    private void onImageAvailable(ImageReader reader) {
+        Image image;
+        try {
+            image = reader.acquireLatestImage();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "No image could be acquired: " + e);
+            return;
+        }
+        if (image == null) {
+            return;
+        }
+        try {
+            long timestamp = image.getTimestamp();
+            if (mLastFrameNanos >= 0 && timestamp - mLastFrameNanos < mIntervalNanos) {
+                return;
+            }
+            mLastFrameNanos = timestamp;
+            for (FrameListener listener : mListeners) {
+                try {
+                    listener.onFrame(image);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Frame listener failed", e);
+                }
+            }
+        } finally {
+            image.close();
+        }
+    }
+
+    // Nearest neighbour copy of the image's Y plane into out, which holds width * height bytes
+    public static void downscaleLuma(@NonNull Image image, @NonNull byte[] out, int width, int height) {
+        Image.Plane plane = image.getPlanes()[0];
+        downscaleLuma(plane.getBuffer(), plane.getRowStride(), plane.getPixelStride(), image.getWidth(), image.getHeight(), out, width, height);
+    }
+
+    // The same for a plane given by its buffer and strides
+    static void downscaleLuma(@NonNull ByteBuffer buffer, int rowStride, int pixelStride, int sourceWidth, int sourceHeight, @NonNull byte[] out, int width, int height) {
+        for (int y = 0; y < height; y++) {
+            int rowOffset = (y * sourceHeight / height) * rowStride;
+            int outOffset = y * width;
+            for (int x = 0; x < width; x++) {
+                out[outOffset + x] = buffer.get(rowOffset + (x * sourceWidth / width) * pixelStride);
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package services;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Reader of the key frame index written next to fragmented recordings, a file named like the
+// recording with .kfi appended. After a 16-byte header with the size of the init segment (ftyp
+// and moov) come 24-byte entries in time order: the key frame's presentation time from the start
+// of the file in microseconds, the file offset of its sample and the offset of the moof box of
+// its fragment. A server can clip from a fragment offset by prepending the init segment, without
+// scanning the recording. The file is memory mapped and looked up with binary search. Entries
+// appended after open() are not seen, open it again for those.
+public final class KeyFrameIndex {
+    static final String SUFFIX = ".kfi";
+    // "KFIX"
+    static final int MAGIC = 0x4B464958;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int ENTRY_SIZE = 24;
+
+    private final ByteBuffer mEntries;
+    private final int mSize;
+    private final long mInitSegmentSize;
+
+    private KeyFrameIndex(ByteBuffer entries, int size, long initSegmentSize) {
+        mEntries = entries;
+        mSize = size;
+        mInitSegmentSize = initSegmentSize;
+    }
+
+    @NonNull
+    public static File sidecarFor(@NonNull File recording) {
+        return new File(recording.getParentFile(), recording.getName() + SUFFIX);
+    }
+
+    // A torn last entry of a recording that was killed is ignored
+    @NonNull
+    public static KeyFrameIndex open(@NonNull File sidecar) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(sidecar, "r")) {
+            FileChannel channel = file.getChannel();
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE) {
+                throw new IOException("Key frame index too short: " + sidecar.getAbsolutePath());
+            }
+            long size = (fileSize - HEADER_SIZE) / ENTRY_SIZE;
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Key frame index too large: " + sidecar.getAbsolutePath());
+            }
+            // The mapping stays valid after the channel is closed
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE + size * ENTRY_SIZE);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a key frame index: " + sidecar.getAbsolutePath());
+            }
+            return new KeyFrameIndex(buffer, (int) size, buffer.getLong(8));
+        }
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    // Bytes of ftyp and moov at the start of the recording
+    public long getInitSegmentSize() {
+        return mInitSegmentSize;
+    }
+
+    public long getTimeUs(int index) {
+        return mEntries.getLong(entryOffset(index));
+    }
+
+    public long getSampleOffset(int index) {
+        return mEntries.getLong(entryOffset(index) + 8);
+    }
+
+    public long getFragmentOffset(int index) {
+        return mEntries.getLong(entryOffset(index) + 16);
+    }
+
+    // Index of the last key frame at or before timeUs, -1 when timeUs is before the first one
+    public int floorIndex(long timeUs) {
+        int low = 0;
+        int high = mSize - 1;
+        int found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (getTimeUs(middle) <= timeUs) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    private int entryOffset(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Key frame " + index + " of " + mSize);
+        }
+        return HEADER_SIZE + index * ENTRY_SIZE;
+    }
+}
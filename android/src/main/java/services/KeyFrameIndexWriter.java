@@ -0,0 +1,78 @@
+package services;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Appends entries to a KeyFrameIndex file while the recording is written. Entries are collected
+// per fragment and appended once the fragment is in the recording, so every entry points at data
+// that was written before it.
+final class KeyFrameIndexWriter {
+    private final FileOutputStream mOutputStream;
+    private final FileChannel mChannel;
+    private ByteBuffer mPending = ByteBuffer.allocate(KeyFrameIndex.ENTRY_SIZE * 8);
+
+    KeyFrameIndexWriter(@NonNull File sidecar, long initSegmentSize) throws IOException {
+        mOutputStream = new FileOutputStream(sidecar);
+        mChannel = mOutputStream.getChannel();
+        ByteBuffer header = ByteBuffer.allocate(KeyFrameIndex.HEADER_SIZE);
+        header.putInt(KeyFrameIndex.MAGIC).putInt(KeyFrameIndex.VERSION).putLong(initSegmentSize);
+        header.flip();
+        write(header);
+    }
+
+    void add(long timeUs, long sampleOffset, long fragmentOffset) {
+        if (mPending.remaining() < KeyFrameIndex.ENTRY_SIZE) {
+            ByteBuffer larger = ByteBuffer.allocate(mPending.capacity() * 2);
+            mPending.flip();
+            larger.put(mPending);
+            mPending = larger;
+        }
+        mPending.putLong(timeUs).putLong(sampleOffset).putLong(fragmentOffset);
+    }
+
+    // Appends the entries added since the last call
+    void flush() throws IOException {
+        mPending.flip();
+        try {
+            write(mPending);
+        } finally {
+            mPending.clear();
+        }
+    }
+
+    void close() {
+        try {
+            mOutputStream.close();
+        } catch (IOException e) {
+            // Every entry was written by flush()
+        }
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mChannel.write(buffer);
+        }
+    }
+
+    // Drops the entries of fragments at or past mediaEnd, after a recovery cut the recording short
+    static void truncate(@NonNull File sidecar, long mediaEnd) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(sidecar, "rw")) {
+            long size = (file.length() - KeyFrameIndex.HEADER_SIZE) / KeyFrameIndex.ENTRY_SIZE;
+            long kept = 0;
+            while (kept < size) {
+                file.seek(KeyFrameIndex.HEADER_SIZE + kept * KeyFrameIndex.ENTRY_SIZE + 16);
+                if (file.readLong() >= mediaEnd) {
+                    break;
+                }
+                kept++;
+            }
+            file.setLength(Math.max(0, Math.min(file.length(), KeyFrameIndex.HEADER_SIZE + kept * KeyFrameIndex.ENTRY_SIZE)));
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package services;
+
+import android.media.MediaCodec;
+import android.media.MediaMuxer;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+// RecorderBackend on top of MediaCodec and MediaMuxer. Unlike MediaRecorder it records HEVC with
+// the profile's rate control, and the encoders run asynchronously on threads of their own. The
+// video encoder takes its frames from a persistent input surface, so the capture session
+// survives new encoders for every recording. Create it on the thread that should receive the
+// listener's events. Audio-only recordings mux the microphone alone, into Ogg files for Opus.
+public class MediaCodecRecorderBackend implements RecorderBackend {
+    private static final String TAG = "LightCodecRecorder";
+
+    private final Handler mListenerHandler;
+    private final Surface mInputSurface;
+
+    // Listener thread only, counts prepared recordings so events of earlier ones are dropped
+    private int mGeneration = 0;
+    private MuxingSampleSink mSink;
+    // Read on the encoder threads to request key frames
+    private volatile SurfaceVideoEncoder mVideoEncoder;
+    private MicAudioEncoder mAudioEncoder;
+
+    public MediaCodecRecorderBackend() {
+        mListenerHandler = new Handler(Looper.myLooper());
+        mInputSurface = MediaCodec.createPersistentInputSurface();
+    }
+
+    @NonNull
+    @Override
+    public Surface getInputSurface() {
+        return mInputSurface;
+    }
+
+    @Override
+    public void prepare(@NonNull Config config) throws IOException {
+        reset();
+        boolean audioOnly = config.profile == null;
+        MuxingSampleSink sink = new MuxingSampleSink(
+                config.outputFile,
+                config.outputDescriptor,
+                audioOnly && config.audio != null ? config.audio.getMuxerOutputFormat() : MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4,
+                config.orientationHint,
+                config.maxFileSizeBytes,
+                config.fragmentDurationMillis * 1000,
+                config.encryptionKey,
+                new SinkCallback(config.listener, mGeneration)
+        );
+        if (audioOnly) {
+            sink.setVideoExpected(false);
+        } else {
+            try {
+                mVideoEncoder = new SurfaceVideoEncoder(SurfaceVideoEncoder.createFormat(config.profile), sink, mInputSurface);
+            } catch (IOException e) {
+                sink.finish();
+                throw e;
+            }
+        }
+        if (config.audio == null) {
+            sink.setAudioExpected(false);
+        } else {
+            try {
+                mAudioEncoder = new MicAudioEncoder(config.audio, config.realtimeTimestamps, sink);
+            } catch (IOException e) {
+                if (audioOnly) {
+                    sink.finish();
+                    throw e;
+                }
+                Log.e(TAG, "Recording without audio: " + e);
+                sink.setAudioExpected(false);
+            }
+        }
+        mSink = sink;
+    }
+
+    @Override
+    public void start() {
+        if (mVideoEncoder != null) {
+            mVideoEncoder.start();
+        }
+        if (mAudioEncoder != null) {
+            mAudioEncoder.start();
+        }
+    }
+
+    // Drains both encoders into the file before it is finished
+    @Override
+    public void stop() {
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        mGeneration++;
+        if (mVideoEncoder != null) {
+            mVideoEncoder.stop();
+            mVideoEncoder = null;
+        }
+        if (mAudioEncoder != null) {
+            mAudioEncoder.stop();
+            mAudioEncoder = null;
+        }
+        if (mSink != null) {
+            mSink.finish();
+            mSink = null;
+        }
+    }
+
+    @Override
+    public void setNextOutputFile(@NonNull File file, @Nullable FileDescriptor descriptor) {
+        if (mSink != null) {
+            mSink.setNextOutputFile(file, descriptor);
+        }
+    }
+
+    @Override
+    public void release() {
+        reset();
+        mInputSurface.release();
+    }
+
+    // Moves the sink's events to the listener's thread and drops those of a sink that was replaced
+    private class SinkCallback implements MuxingSampleSink.Callback {
+        @Nullable
+        private final Listener mListener;
+        private final int mSinkGeneration;
+
+        SinkCallback(@Nullable Listener listener, int generation) {
+            mListener = listener;
+            mSinkGeneration = generation;
+        }
+
+        @Override
+        public void onKeyFrameNeeded() {
+            SurfaceVideoEncoder videoEncoder = mVideoEncoder;
+            if (videoEncoder != null) {
+                videoEncoder.requestSyncFrame();
+            }
+        }
+
+        @Override
+        public void onMaxFileSizeApproaching() {
+            post(() -> mListener.onMaxFileSizeApproaching());
+        }
+
+        @Override
+        public void onNextOutputFileStarted() {
+            post(() -> mListener.onNextOutputFileStarted());
+        }
+
+        @Override
+        public void onMaxFileSizeReached() {
+            post(() -> mListener.onMaxFileSizeReached());
+        }
+
+        private void post(Runnable event) {
+            if (mListener == null) {
+                return;
+            }
+            mListenerHandler.post(() -> {
+                if (mGeneration == mSinkGeneration) {
+                    event.run();
+                }
+            });
+        }
+    }
+}
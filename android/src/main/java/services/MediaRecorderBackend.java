@@ -0,0 +1,133 @@
+package services;
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+// RecorderBackend on top of MediaRecorder. The recorder records from a persistent input surface,
+// so preparing it again does not invalidate the camera session that renders into it. Create it
+// on the thread that should receive the recorder's info events.
+public class MediaRecorderBackend implements RecorderBackend {
+    private static final String TAG = "LightMediaRecorder";
+
+    private final MediaRecorder mMediaRecorder;
+    private final Surface mInputSurface;
+
+    public MediaRecorderBackend(@NonNull Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            mMediaRecorder = new MediaRecorder(context);
+        } else {
+            mMediaRecorder = new MediaRecorder();
+        }
+        mInputSurface = MediaCodec.createPersistentInputSurface();
+    }
+
+    @NonNull
+    @Override
+    public Surface getInputSurface() {
+        return mInputSurface;
+    }
+
+    @Override
+    public void prepare(@NonNull Config config) throws IOException {
+        QualityProfile profile = config.profile;
+        AudioProfile audio = config.audio;
+        if (config.encryptionKey != null) {
+            // MediaRecorder seeks back into its files to finish them
+            throw new IOException("MediaRecorder cannot encrypt its output");
+        }
+        if (profile != null && !QualityProfile.BIT_RATE_MODE_VBR.equals(profile.bitRateMode)) {
+            Log.w(TAG, "MediaRecorder has no " + profile.bitRateMode + " rate control, recording with the encoder's default");
+        }
+        if (profile != null) {
+            mMediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
+        }
+        if (audio != null) {
+            mMediaRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
+        }
+        mMediaRecorder.setOutputFormat(profile != null || audio == null ? MediaRecorder.OutputFormat.MPEG_4 : audio.getMediaRecorderOutputFormat());
+        if (config.outputDescriptor != null) {
+            mMediaRecorder.setOutputFile(config.outputDescriptor);
+        } else {
+            mMediaRecorder.setOutputFile(config.outputFile.getAbsolutePath());
+        }
+        if (profile != null) {
+            mMediaRecorder.setVideoEncodingBitRate(profile.bitRate);
+            mMediaRecorder.setVideoFrameRate(profile.frameRate);
+            if (config.captureRate > 0) {
+                // The recorder drops the frames between captures before they reach the encoder
+                mMediaRecorder.setCaptureRate(config.captureRate);
+            }
+            mMediaRecorder.setVideoSize(profile.width, profile.height);
+            mMediaRecorder.setVideoEncoder(profile.getMediaRecorderEncoder());
+        }
+        if (audio != null) {
+            mMediaRecorder.setAudioEncoder(audio.getMediaRecorderEncoder());
+            mMediaRecorder.setAudioSamplingRate(audio.sampleRate);
+            mMediaRecorder.setAudioChannels(audio.channelCount);
+            mMediaRecorder.setAudioEncodingBitRate(audio.bitRate);
+        }
+        if (profile != null) {
+            mMediaRecorder.setOrientationHint(config.orientationHint);
+            mMediaRecorder.setInputSurface(mInputSurface);
+        }
+        if (config.maxFileSizeBytes > 0) {
+            mMediaRecorder.setMaxFileSize(config.maxFileSizeBytes);
+        }
+        Listener listener = config.listener;
+        mMediaRecorder.setOnInfoListener(listener == null ? null : (mediaRecorder, what, extra) -> {
+            switch (what) {
+                case MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_APPROACHING:
+                    listener.onMaxFileSizeApproaching();
+                    break;
+                case MediaRecorder.MEDIA_RECORDER_INFO_NEXT_OUTPUT_FILE_STARTED:
+                    listener.onNextOutputFileStarted();
+                    break;
+                case MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_REACHED:
+                    listener.onMaxFileSizeReached();
+                    break;
+            }
+        });
+        mMediaRecorder.prepare();
+    }
+
+    @Override
+    public void start() {
+        mMediaRecorder.start();
+    }
+
+    @Override
+    public void stop() {
+        mMediaRecorder.stop();
+    }
+
+    @Override
+    public void reset() {
+        mMediaRecorder.reset();
+    }
+
+    @Override
+    public void setNextOutputFile(@NonNull File file, @Nullable FileDescriptor descriptor) throws IOException {
+        if (descriptor != null) {
+            mMediaRecorder.setNextOutputFile(descriptor);
+        } else {
+            mMediaRecorder.setNextOutputFile(file);
+        }
+    }
+
+    @Override
+    public void release() {
+        mMediaRecorder.release();
+        mInputSurface.release();
+    }
+}
@@ -0,0 +1,174 @@
+package services;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.AudioTimestamp;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaRecorder;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// AAC or Opus encoder fed from the microphone. Microphone reads block, so the codec callbacks run on a
+// dedicated audio thread. Timestamps are derived from the frames read and anchored to the same
+// clock the camera stamps its frames with, so both tracks line up when muxed.
+public class MicAudioEncoder {
+    private static final String TAG = "LightAudioEncoder";
+    private static final long DRAIN_TIMEOUT_MS = 2000;
+    private static final int MAX_INPUT_SIZE = 16384;
+
+    private final HandlerThread mEncoderThread;
+    private final AudioRecord mAudioRecord;
+    private final MediaCodec mCodec;
+    private final EncodedSampleSink mSink;
+    private final int mSampleRate;
+    private final int mBytesPerFrame;
+    private final boolean mRealtimeTimestamps;
+    private final AudioTimestamp mAudioTimestamp = new AudioTimestamp();
+    private final CountDownLatch mDrained = new CountDownLatch(1);
+    private boolean mStarted = false;
+
+    // Encoder thread only
+    private long mFramesQueued = 0;
+    private long mBaseTimeUs = -1;
+    private volatile boolean mStopping = false;
+
+    public MicAudioEncoder(@NonNull AudioProfile profile, boolean realtimeTimestamps, @NonNull EncodedSampleSink sink) throws IOException {
+        int sampleRate = profile.sampleRate;
+        int channelCount = profile.channelCount;
+        mSink = sink;
+        mSampleRate = sampleRate;
+        mBytesPerFrame = 2 * channelCount;
+        mRealtimeTimestamps = realtimeTimestamps;
+        int channelMask = channelCount == 2 ? AudioFormat.CHANNEL_IN_STEREO : AudioFormat.CHANNEL_IN_MONO;
+        int minBufferSize = AudioRecord.getMinBufferSize(sampleRate, channelMask, AudioFormat.ENCODING_PCM_16BIT);
+        try {
+            mAudioRecord = new AudioRecord(
+                    MediaRecorder.AudioSource.MIC,
+                    sampleRate,
+                    channelMask,
+                    AudioFormat.ENCODING_PCM_16BIT,
+                    Math.max(minBufferSize * 4, MAX_INPUT_SIZE * 2)
+            );
+        } catch (SecurityException e) {
+            throw new IOException("Microphone permission missing", e);
+        }
+        if (mAudioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+            mAudioRecord.release();
+            throw new IOException("Microphone could not be opened");
+        }
+
+        MediaFormat format = MediaFormat.createAudioFormat(profile.getMimeType(), sampleRate, channelCount);
+        if (!profile.isOpus()) {
+            format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        }
+        format.setInteger(MediaFormat.KEY_BIT_RATE, profile.bitRate);
+        format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, MAX_INPUT_SIZE);
+
+        mEncoderThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_AUDIO);
+        mEncoderThread.start();
+        mCodec = MediaCodec.createEncoderByType(profile.getMimeType());
+        mCodec.setCallback(new MediaCodec.Callback() {
+            @Override
+            public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+                ByteBuffer buffer = codec.getInputBuffer(index);
+                if (buffer == null) {
+                    return;
+                }
+                long presentationTimeUs = getPresentationTimeUs();
+                if (mStopping) {
+                    codec.queueInputBuffer(index, 0, 0, presentationTimeUs, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                    return;
+                }
+                int read = mAudioRecord.read(buffer, buffer.remaining());
+                if (read < 0) {
+                    Log.w(TAG, "Microphone read failed with " + read);
+                    read = 0;
+                }
+                mFramesQueued += read / mBytesPerFrame;
+                codec.queueInputBuffer(index, 0, read, presentationTimeUs, 0);
+            }
+
+            @Override
+            public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index, @NonNull MediaCodec.BufferInfo info) {
+                ByteBuffer data = codec.getOutputBuffer(index);
+                if (data != null && info.size > 0 && (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0) {
+                    mSink.onEncodedSample(EncodedSampleSink.TRACK_AUDIO, data, info);
+                }
+                codec.releaseOutputBuffer(index, false);
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    mDrained.countDown();
+                }
+            }
+
+            @Override
+            public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
+                Log.e(TAG, "Audio encoder failed: " + e.getDiagnosticInfo());
+                mDrained.countDown();
+            }
+
+            @Override
+            public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
+                mSink.onOutputFormatChanged(EncodedSampleSink.TRACK_AUDIO, format);
+            }
+        }, new Handler(mEncoderThread.getLooper()));
+        try {
+            mCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            mCodec.release();
+            mAudioRecord.release();
+            mEncoderThread.quitSafely();
+            throw new IOException("Audio encoder rejected the format " + format, e);
+        }
+    }
+
+    public void start() {
+        mAudioRecord.startRecording();
+        mCodec.start();
+        mStarted = true;
+    }
+
+    public void stop() {
+        mStopping = true;
+        try {
+            // An encoder that never started has nothing to drain
+            if (mStarted && !mDrained.await(DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Audio encoder did not drain in time");
+            }
+            mCodec.stop();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Audio encoder stopped in a bad state", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mCodec.release();
+        mAudioRecord.stop();
+        mAudioRecord.release();
+        mEncoderThread.quitSafely();
+    }
+
+    // Anchors the first buffer to the time the microphone captured it, later buffers follow from the frame count
+    private long getPresentationTimeUs() {
+        if (mBaseTimeUs < 0) {
+            int timebase = mRealtimeTimestamps ? AudioTimestamp.TIMEBASE_BOOTTIME : AudioTimestamp.TIMEBASE_MONOTONIC;
+            if (mAudioRecord.getTimestamp(mAudioTimestamp, timebase) == 0) {
+                mBaseTimeUs = mAudioTimestamp.nanoTime / 1000
+                        - mAudioTimestamp.framePosition * 1000000L / mSampleRate;
+            } else {
+                mBaseTimeUs = (mRealtimeTimestamps ? SystemClock.elapsedRealtimeNanos() : System.nanoTime()) / 1000;
+            }
+        }
+        return mBaseTimeUs + mFramesQueued * 1000000L / mSampleRate;
+    }
+}
@@ -0,0 +1,97 @@
+package services;
+
+import androidx.annotation.NonNull;
+
+// Detects motion by differencing consecutive downsampled luma frames. A pixel counts as changed
+// when it moved by more than the pixel threshold after the difference of the two frames' mean
+// brightness is taken out, so exposure changes and lights switching do not count as motion. A
+// frame shows motion when enough pixels changed, and motion starts after a few such frames in a
+// row so single noisy frames are ignored. The previous frame is kept in a buffer allocated once,
+// processing a frame never allocates. Not thread safe, frames are processed on the tap thread.
+public final class MotionDetector {
+    // Consecutive frames with changes that start motion
+    private static final int TRIGGER_FRAMES = 2;
+    // Per-pixel luma difference at sensitivity 0 and 1
+    private static final int LEAST_SENSITIVE_PIXEL_THRESHOLD = 40;
+    private static final int MOST_SENSITIVE_PIXEL_THRESHOLD = 10;
+    // Share of changed pixels in a frame with motion at sensitivity 0 and 1
+    private static final float LEAST_SENSITIVE_AREA = 0.02f;
+    private static final float MOST_SENSITIVE_AREA = 0.001f;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mPixelThreshold;
+    private final int mMinChangedPixels;
+    private final byte[] mPrevious;
+    private long mPreviousSum;
+    private boolean mHasPrevious = false;
+    private int mChangedFrames = 0;
+    private float mLastScore = 0;
+
+    // sensitivity from 0, large changes only, to 1, the smallest changes
+    public MotionDetector(int width, int height, float sensitivity) {
+        float clamped = Math.max(0, Math.min(1, sensitivity));
+        mWidth = width;
+        mHeight = height;
+        mPixelThreshold = Math.round(LEAST_SENSITIVE_PIXEL_THRESHOLD + (MOST_SENSITIVE_PIXEL_THRESHOLD - LEAST_SENSITIVE_PIXEL_THRESHOLD) * clamped);
+        float area = LEAST_SENSITIVE_AREA + (MOST_SENSITIVE_AREA - LEAST_SENSITIVE_AREA) * clamped;
+        mMinChangedPixels = Math.max(1, Math.round(width * height * area));
+        mPrevious = new byte[width * height];
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    // Compares luma, width * height bytes row by row, with the previous frame and keeps it for the
+    // next one. Returns true while motion is seen.
+    public boolean process(@NonNull byte[] luma) {
+        int pixels = mPrevious.length;
+        long sum = 0;
+        for (int i = 0; i < pixels; i++) {
+            sum += luma[i] & 0xFF;
+        }
+        if (!mHasPrevious) {
+            System.arraycopy(luma, 0, mPrevious, 0, pixels);
+            mPreviousSum = sum;
+            mHasPrevious = true;
+            return false;
+        }
+        int brightnessShift = (int) ((sum - mPreviousSum) / pixels);
+        int changed = 0;
+        for (int i = 0; i < pixels; i++) {
+            int current = luma[i] & 0xFF;
+            int difference = current - (mPrevious[i] & 0xFF) - brightnessShift;
+            if (difference > mPixelThreshold || difference < -mPixelThreshold) {
+                changed++;
+            }
+            mPrevious[i] = (byte) current;
+        }
+        mPreviousSum = sum;
+        mLastScore = (float) changed / pixels;
+        if (changed < mMinChangedPixels) {
+            mChangedFrames = 0;
+            return false;
+        }
+        if (mChangedFrames < TRIGGER_FRAMES) {
+            mChangedFrames++;
+        }
+        return mChangedFrames >= TRIGGER_FRAMES;
+    }
+
+    // Share of changed pixels in the last processed frame
+    public float getLastScore() {
+        return mLastScore;
+    }
+
+    // Forgets the previous frame, the next frame is compared with nothing
+    public void reset() {
+        mHasPrevious = false;
+        mChangedFrames = 0;
+        mLastScore = 0;
+    }
+}
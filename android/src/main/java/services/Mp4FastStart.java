@@ -0,0 +1,260 @@
+package services;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+// Rewrites an MP4 file with its moov box in front of the media data, so players and servers can
+// start before the whole file has arrived. MediaRecorder and MediaMuxer write moov last. Only the
+// moov box is held in memory: its stco and co64 chunk offsets are moved past the relocated box
+// and everything else is copied between the file channels with transferTo.
+public final class Mp4FastStart {
+    private static final int HEADER_SIZE = 8;
+    private static final int LARGE_HEADER_SIZE = 16;
+    // Larger moov boxes are left where they are rather than read into memory
+    private static final long MAX_MOOV_SIZE = 64L * 1024 * 1024;
+    private static final String SUFFIX = ".faststart";
+
+    private Mp4FastStart() {}
+
+    // Top level box, size includes the header
+    private static final class Box {
+        final String type;
+        final long offset;
+        final long size;
+
+        Box(String type, long offset, long size) {
+            this.type = type;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+
+    // Rewrites file in place through a temporary file next to it. Returns false and leaves the file
+    // untouched when moov already comes first or the file cannot be relocated.
+    public static boolean process(@NonNull File file) throws IOException {
+        File tempFile = new File(file.getParentFile(), file.getName() + SUFFIX);
+        boolean rewritten = false;
+        try {
+            rewritten = process(file, tempFile);
+            if (rewritten && !tempFile.renameTo(file)) {
+                rewritten = false;
+                throw new IOException("Cannot replace " + file.getAbsolutePath());
+            }
+            return rewritten;
+        } finally {
+            if (!rewritten && tempFile.exists()) {
+                // Best effort, a stale temporary file does not count as a recording
+                tempFile.delete();
+            }
+        }
+    }
+
+    // Writes input to output with moov in front of the first mdat box. Returns false without
+    // finishing output when moov already comes first or the file cannot be relocated: moov is
+    // missing, too large, or a shifted offset no longer fits an stco entry.
+    public static boolean process(@NonNull File input, @NonNull File output) throws IOException {
+        try (RandomAccessFile inputFile = new RandomAccessFile(input, "r")) {
+            FileChannel in = inputFile.getChannel();
+            List<Box> boxes = readTopLevelBoxes(in);
+            if (boxes == null) {
+                return false;
+            }
+            Box moov = null;
+            int firstMdat = -1;
+            for (int i = 0; i < boxes.size(); i++) {
+                Box box = boxes.get(i);
+                if (box.type.equals("moov") && moov == null) {
+                    moov = box;
+                } else if (box.type.equals("mdat") && firstMdat < 0) {
+                    firstMdat = i;
+                }
+            }
+            if (moov == null || firstMdat < 0 || moov.offset < boxes.get(firstMdat).offset || moov.size > MAX_MOOV_SIZE) {
+                return false;
+            }
+
+            ByteBuffer moovData = ByteBuffer.allocate((int) moov.size);
+            readFully(in, moovData, moov.offset);
+            moovData.flip();
+            // Data between the first mdat and the old moov position moves back by the size of moov,
+            // data after the old position stays where it was
+            long insertOffset = boxes.get(firstMdat).offset;
+            if (!patchChunkOffsets(moovData, 0, moovData.limit(), insertOffset, moov.offset, moov.size)) {
+                return false;
+            }
+
+            try (FileOutputStream outputStream = new FileOutputStream(output)) {
+                FileChannel out = outputStream.getChannel();
+                for (int i = 0; i < firstMdat; i++) {
+                    transferFully(in, boxes.get(i), out);
+                }
+                moovData.rewind();
+                while (moovData.hasRemaining()) {
+                    out.write(moovData);
+                }
+                for (int i = firstMdat; i < boxes.size(); i++) {
+                    if (boxes.get(i) != moov) {
+                        transferFully(in, boxes.get(i), out);
+                    }
+                }
+                out.force(false);
+            }
+            return true;
+        }
+    }
+
+    // Null when the boxes do not tile the file, which happens to truncated recordings
+    private static List<Box> readTopLevelBoxes(FileChannel in) throws IOException {
+        List<Box> boxes = new ArrayList<>();
+        long fileSize = in.size();
+        ByteBuffer header = ByteBuffer.allocate(LARGE_HEADER_SIZE);
+        long offset = 0;
+        while (offset < fileSize) {
+            if (fileSize - offset < HEADER_SIZE) {
+                return null;
+            }
+            header.clear();
+            header.limit(HEADER_SIZE);
+            readFully(in, header, offset);
+            long size = header.getInt(0) & 0xFFFFFFFFL;
+            String type = boxType(header, 4);
+            if (size == 1) {
+                if (fileSize - offset < LARGE_HEADER_SIZE) {
+                    return null;
+                }
+                header.limit(LARGE_HEADER_SIZE);
+                header.position(HEADER_SIZE);
+                readFully(in, header, offset + HEADER_SIZE);
+                size = header.getLong(HEADER_SIZE);
+            } else if (size == 0) {
+                // The last box runs to the end of the file
+                size = fileSize - offset;
+            }
+            if (size < HEADER_SIZE || size > fileSize - offset) {
+                return null;
+            }
+            boxes.add(new Box(type, offset, size));
+            offset += size;
+        }
+        return boxes;
+    }
+
+    // Walks the boxes in data[start, end) and shifts every chunk offset that points between
+    // insertOffset and moovOffset by moovSize. False when a 32-bit offset would overflow.
+    private static boolean patchChunkOffsets(ByteBuffer data, int start, int end, long insertOffset, long moovOffset, long moovSize) throws IOException {
+        int offset = start;
+        while (offset + HEADER_SIZE <= end) {
+            long size = data.getInt(offset) & 0xFFFFFFFFL;
+            String type = boxType(data, offset + 4);
+            int headerSize = HEADER_SIZE;
+            if (size == 1) {
+                if (offset + LARGE_HEADER_SIZE > end) {
+                    throw new IOException("Malformed " + type + " box");
+                }
+                size = data.getLong(offset + HEADER_SIZE);
+                headerSize = LARGE_HEADER_SIZE;
+            } else if (size == 0) {
+                size = end - offset;
+            }
+            if (size < headerSize || size > end - offset) {
+                throw new IOException("Malformed " + type + " box");
+            }
+            int boxEnd = offset + (int) size;
+            int payload = offset + headerSize;
+            switch (type) {
+                case "moov":
+                case "trak":
+                case "mdia":
+                case "minf":
+                case "stbl":
+                    if (!patchChunkOffsets(data, payload, boxEnd, insertOffset, moovOffset, moovSize)) {
+                        return false;
+                    }
+                    break;
+                case "stco":
+                case "co64":
+                    if (!patchOffsetTable(data, payload, boxEnd, type.equals("co64"), insertOffset, moovOffset, moovSize)) {
+                        return false;
+                    }
+                    break;
+            }
+            offset = boxEnd;
+        }
+        return true;
+    }
+
+    // Full box: version and flags, entry count, then 32 or 64-bit offsets
+    private static boolean patchOffsetTable(ByteBuffer data, int payload, int end, boolean wide, long insertOffset, long moovOffset, long moovSize) throws IOException {
+        if (payload + 8 > end) {
+            throw new IOException("Malformed chunk offset box");
+        }
+        long entries = data.getInt(payload + 4) & 0xFFFFFFFFL;
+        int entrySize = wide ? 8 : 4;
+        if (payload + 8 + entries * entrySize > end) {
+            throw new IOException("Malformed chunk offset box");
+        }
+        int position = payload + 8;
+        // Checked before anything is written, so a failed patch leaves no half-shifted table behind
+        if (!wide) {
+            for (int i = 0; i < entries; i++) {
+                long chunkOffset = data.getInt(position + i * 4) & 0xFFFFFFFFL;
+                if (shift(chunkOffset, insertOffset, moovOffset, moovSize) > 0xFFFFFFFFL) {
+                    return false;
+                }
+            }
+        }
+        for (int i = 0; i < entries; i++) {
+            if (wide) {
+                data.putLong(position, shift(data.getLong(position), insertOffset, moovOffset, moovSize));
+            } else {
+                data.putInt(position, (int) shift(data.getInt(position) & 0xFFFFFFFFL, insertOffset, moovOffset, moovSize));
+            }
+            position += entrySize;
+        }
+        return true;
+    }
+
+    private static long shift(long chunkOffset, long insertOffset, long moovOffset, long moovSize) {
+        return chunkOffset >= insertOffset && chunkOffset < moovOffset ? chunkOffset + moovSize : chunkOffset;
+    }
+
+    private static String boxType(ByteBuffer data, int offset) {
+        char[] type = new char[4];
+        for (int i = 0; i < 4; i++) {
+            type[i] = (char) (data.get(offset + i) & 0xFF);
+        }
+        return new String(type);
+    }
+
+    private static void readFully(FileChannel in, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = in.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+            position += read;
+        }
+    }
+
+    // transferTo may move fewer bytes than asked for, so it is repeated until the box is copied
+    private static void transferFully(FileChannel in, Box box, FileChannel out) throws IOException {
+        long position = box.offset;
+        long remaining = box.size;
+        while (remaining > 0) {
+            long transferred = in.transferTo(position, remaining, out);
+            if (transferred <= 0) {
+                throw new IOException("Copy of " + box.type + " stopped at " + position);
+            }
+            position += transferred;
+            remaining -= transferred;
+        }
+    }
+}
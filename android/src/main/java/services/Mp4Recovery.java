@@ -0,0 +1,259 @@
+package services;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+// Repairs recordings that were cut off because the process died while writing them. Fragmented
+// files are scanned box by box from the start: whatever follows the last complete moof and mdat
+// pair is cut off and a fresh random access index is appended, so all complete fragments play
+// and seek again. Only box headers and moof boxes are read. Plain MP4 files keep their index in
+// the moov box written at the end, without it the samples in mdat cannot be told apart, so they
+// are reported as missing their index and left as they are.
+public final class Mp4Recovery {
+    public static final int RESULT_COMPLETE = 0;
+    public static final int RESULT_RECOVERED = 1;
+    public static final int RESULT_UNRECOVERABLE = 2;
+    // A plain MP4 file cut off before its moov box was written
+    public static final int RESULT_NO_INDEX = 3;
+
+    private static final int HEADER_SIZE = 8;
+    private static final int LARGE_HEADER_SIZE = 16;
+    // moof boxes are small, anything larger is treated as damage
+    private static final int MAX_MOOF_SIZE = 4 * 1024 * 1024;
+    private static final int TRUN_DATA_OFFSET = 0x1;
+    private static final int TRUN_FIRST_SAMPLE_FLAGS = 0x4;
+    private static final int TRUN_SAMPLE_DURATION = 0x100;
+    private static final int TRUN_SAMPLE_SIZE = 0x200;
+    private static final int TRUN_SAMPLE_FLAGS = 0x400;
+    private static final int TFHD_BASE_DATA_OFFSET = 0x1;
+    private static final int TFHD_SAMPLE_DESCRIPTION_INDEX = 0x2;
+    private static final int TFHD_DEFAULT_SAMPLE_DURATION = 0x8;
+    private static final int TFHD_DEFAULT_SAMPLE_SIZE = 0x10;
+    private static final int TFHD_DEFAULT_SAMPLE_FLAGS = 0x20;
+    static final int SAMPLE_IS_NON_SYNC = 0x00010000;
+
+    private Mp4Recovery() {}
+
+    // Returns one of the RESULT_ constants. RESULT_RECOVERED files have been shortened in place.
+    public static int recover(@NonNull File file) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            if (hasRandomAccessIndex(channel)) {
+                return RESULT_COMPLETE;
+            }
+            long fileSize = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(LARGE_HEADER_SIZE);
+            FragmentIndex index = new FragmentIndex();
+            boolean hasMoov = false;
+            boolean fragmented = false;
+            boolean hasMoof = false;
+            long offset = 0;
+            // End of the last box that completes the file or a fragment
+            long validEnd = 0;
+            // moof waiting for its mdat, indexed once the fragment is complete
+            long pendingMoofOffset = -1;
+            ByteBuffer pendingMoof = null;
+            int pendingMoofHeaderSize = 0;
+            scan:
+            while (offset + HEADER_SIZE <= fileSize) {
+                header.clear();
+                header.limit(HEADER_SIZE);
+                readFully(channel, header, offset);
+                long size = header.getInt(0) & 0xFFFFFFFFL;
+                String type = new String(header.array(), 4, 4, StandardCharsets.ISO_8859_1);
+                int headerSize = HEADER_SIZE;
+                if (size == 1) {
+                    if (offset + LARGE_HEADER_SIZE > fileSize) {
+                        break;
+                    }
+                    header.limit(LARGE_HEADER_SIZE);
+                    readFully(channel, header, offset + HEADER_SIZE);
+                    size = header.getLong(HEADER_SIZE);
+                    headerSize = LARGE_HEADER_SIZE;
+                }
+                // A zero size or type is unwritten or preallocated space
+                if (size < headerSize || header.getInt(4) == 0 || offset + size > fileSize) {
+                    break;
+                }
+                switch (type) {
+                    case "moov":
+                        hasMoov = true;
+                        fragmented = containsBox(channel, offset + headerSize, offset + size, "mvex");
+                        validEnd = offset + size;
+                        break;
+                    case "moof":
+                        hasMoof = true;
+                        if (size > MAX_MOOF_SIZE) {
+                            break scan;
+                        }
+                        pendingMoofOffset = offset;
+                        pendingMoof = ByteBuffer.allocate((int) size);
+                        pendingMoofHeaderSize = headerSize;
+                        readFully(channel, pendingMoof, offset);
+                        break;
+                    case "mdat":
+                        if (pendingMoof != null) {
+                            indexFragment(pendingMoof, pendingMoofHeaderSize, pendingMoof.capacity(), pendingMoofOffset, index);
+                            validEnd = offset + size;
+                        } else if (!fragmented) {
+                            validEnd = offset + size;
+                        }
+                        pendingMoofOffset = -1;
+                        pendingMoof = null;
+                        break;
+                    case "mfra":
+                        // Complete but the mfro at the end was damaged, rebuilt below
+                        break;
+                    default:
+                        if (pendingMoofOffset < 0) {
+                            validEnd = offset + size;
+                        }
+                        break;
+                }
+                offset += size;
+            }
+            if (!hasMoov) {
+                // Fragmented files start with moov, fragments without one were damaged
+                return hasMoof ? RESULT_UNRECOVERABLE : RESULT_NO_INDEX;
+            }
+            if (!fragmented) {
+                // The index was written, whatever damage follows it is not played
+                return RESULT_COMPLETE;
+            }
+            channel.truncate(validEnd);
+            ByteBuffer mfra = index.toMfra();
+            long position = validEnd;
+            while (mfra.hasRemaining()) {
+                position += channel.write(mfra, position);
+            }
+            channel.force(false);
+            return RESULT_RECOVERED;
+        }
+    }
+
+    // Files closed normally end with an mfro box that gives the size of the mfra box before it
+    private static boolean hasRandomAccessIndex(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < 16) {
+            return false;
+        }
+        ByteBuffer mfro = ByteBuffer.allocate(16);
+        readFully(channel, mfro, fileSize - 16);
+        if (mfro.getInt(0) != 16 || !"mfro".equals(new String(mfro.array(), 4, 4, StandardCharsets.ISO_8859_1))) {
+            return false;
+        }
+        long mfraSize = mfro.getInt(12) & 0xFFFFFFFFL;
+        if (mfraSize < 16 + HEADER_SIZE || mfraSize > fileSize) {
+            return false;
+        }
+        ByteBuffer mfra = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, mfra, fileSize - mfraSize);
+        return (mfra.getInt(0) & 0xFFFFFFFFL) == mfraSize
+                && "mfra".equals(new String(mfra.array(), 4, 4, StandardCharsets.ISO_8859_1));
+    }
+
+    private static boolean containsBox(FileChannel channel, long start, long end, String wanted) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        long offset = start;
+        while (offset + HEADER_SIZE <= end) {
+            header.clear();
+            readFully(channel, header, offset);
+            long size = header.getInt(0) & 0xFFFFFFFFL;
+            if (wanted.equals(new String(header.array(), 4, 4, StandardCharsets.ISO_8859_1))) {
+                return true;
+            }
+            if (size < HEADER_SIZE) {
+                return false;
+            }
+            offset += size;
+        }
+        return false;
+    }
+
+    // Adds the tracks of a moof whose first sample is a sync sample to the index
+    private static void indexFragment(ByteBuffer moof, int start, int end, long moofOffset, FragmentIndex index) {
+        int offset = start;
+        while (offset + HEADER_SIZE <= end) {
+            int size = moof.getInt(offset);
+            if (size < HEADER_SIZE || size > end - offset) {
+                return;
+            }
+            if ("traf".equals(boxType(moof, offset + 4))) {
+                indexTrack(moof, offset + HEADER_SIZE, offset + size, moofOffset, index);
+            }
+            offset += size;
+        }
+    }
+
+    private static void indexTrack(ByteBuffer moof, int start, int end, long moofOffset, FragmentIndex index) {
+        int trackId = -1;
+        long decodeTime = -1;
+        int defaultFlags = 0;
+        int firstSampleFlags = -1;
+        int offset = start;
+        while (offset + HEADER_SIZE + 4 <= end) {
+            int size = moof.getInt(offset);
+            if (size < HEADER_SIZE + 4 || size > end - offset) {
+                return;
+            }
+            String type = boxType(moof, offset + 4);
+            int version = moof.get(offset + HEADER_SIZE) & 0xFF;
+            int flags = moof.getInt(offset + HEADER_SIZE) & 0xFFFFFF;
+            int payload = offset + HEADER_SIZE + 4;
+            if (type.equals("tfhd") && payload + 4 <= offset + size) {
+                trackId = moof.getInt(payload);
+                int field = payload + 4;
+                field += (flags & TFHD_BASE_DATA_OFFSET) != 0 ? 8 : 0;
+                field += (flags & TFHD_SAMPLE_DESCRIPTION_INDEX) != 0 ? 4 : 0;
+                field += (flags & TFHD_DEFAULT_SAMPLE_DURATION) != 0 ? 4 : 0;
+                field += (flags & TFHD_DEFAULT_SAMPLE_SIZE) != 0 ? 4 : 0;
+                if ((flags & TFHD_DEFAULT_SAMPLE_FLAGS) != 0 && field + 4 <= offset + size) {
+                    defaultFlags = moof.getInt(field);
+                }
+            } else if (type.equals("tfdt")) {
+                decodeTime = version == 1 ? moof.getLong(payload) : moof.getInt(payload) & 0xFFFFFFFFL;
+            } else if (type.equals("trun") && firstSampleFlags < 0 && payload + 4 <= offset + size) {
+                int field = payload + 4;
+                field += (flags & TRUN_DATA_OFFSET) != 0 ? 4 : 0;
+                if ((flags & TRUN_FIRST_SAMPLE_FLAGS) != 0) {
+                    firstSampleFlags = moof.getInt(field);
+                } else if ((flags & TRUN_SAMPLE_FLAGS) != 0) {
+                    field += (flags & TRUN_SAMPLE_DURATION) != 0 ? 4 : 0;
+                    field += (flags & TRUN_SAMPLE_SIZE) != 0 ? 4 : 0;
+                    if (field + 4 <= offset + size) {
+                        firstSampleFlags = moof.getInt(field);
+                    }
+                }
+            }
+            offset += size;
+        }
+        int sampleFlags = firstSampleFlags >= 0 ? firstSampleFlags : defaultFlags;
+        if (trackId > 0 && decodeTime >= 0 && (sampleFlags & SAMPLE_IS_NON_SYNC) == 0) {
+            index.add(trackId, decodeTime, moofOffset);
+        }
+    }
+
+    static byte[] type(String type) {
+        return type.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static String boxType(ByteBuffer data, int offset) {
+        return new String(new byte[] {data.get(offset), data.get(offset + 1), data.get(offset + 2), data.get(offset + 3)}, StandardCharsets.ISO_8859_1);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+            position += read;
+        }
+    }
+}
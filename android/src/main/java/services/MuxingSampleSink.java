@@ -0,0 +1,229 @@
+package services;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Muxes the output of the encoders into files as it is produced. The muxer starts once every
+// expected track reported its format and the file always begins with a video key frame. When the
+// size limit is reached the output moves to the queued next file at the following key frame, or
+// the file is finished when none was queued, like MediaRecorder does. Without a video track every
+// audio sample counts as a key frame. MPEG-4 output is written as fragments by FragmentedMp4Muxer
+// when a fragment duration is given, with a KeyFrameIndex file next to each video file.
+// Encrypted output is always fragmented MPEG-4, the only output written in order, and gets no
+// key frame index, which would give the frame times of the recording away.
+class MuxingSampleSink implements EncodedSampleSink {
+    private static final String TAG = "LightMuxingSink";
+    // Share of the size limit at which the next file is asked for
+    private static final int APPROACHING_PERCENT = 90;
+
+    // Called on the encoder threads
+    interface Callback {
+        void onKeyFrameNeeded();
+
+        void onMaxFileSizeApproaching();
+
+        void onNextOutputFileStarted();
+
+        void onMaxFileSizeReached();
+    }
+
+    private final Object mLock = new Object();
+    private final int mOutputFormat;
+    private final int mOrientationHint;
+    private final long mMaxFileSizeBytes;
+    private final long mFragmentDurationUs;
+    @Nullable
+    private final byte[] mEncryptionKey;
+    private final Callback mCallback;
+    private final MediaFormat[] mFormats = new MediaFormat[2];
+    private final int[] mTracks = {-1, -1};
+
+    // Guarded by mLock
+    private SampleMuxer mMuxer;
+    private boolean mVideoExpected = true;
+    private boolean mAudioExpected = true;
+    private boolean mStarted = false;
+    private boolean mFinished = false;
+    private boolean mWaitingForKeyFrame = true;
+    private boolean mApproachingReported = false;
+    private boolean mRollOverPending = false;
+    private long mBytesWritten = 0;
+    private File mNextFile;
+    private FileDescriptor mNextDescriptor;
+
+    // outputFormat is one of the MediaMuxer.OutputFormat constants, fragmentDurationUs 0 for plain
+    // files, encryptionKey null for plain output
+    MuxingSampleSink(@NonNull File outputFile, @Nullable FileDescriptor outputDescriptor, int outputFormat, int orientationHint, long maxFileSizeBytes, long fragmentDurationUs, @Nullable byte[] encryptionKey, @NonNull Callback callback) throws IOException {
+        mOutputFormat = outputFormat;
+        mOrientationHint = orientationHint;
+        mMaxFileSizeBytes = maxFileSizeBytes;
+        mFragmentDurationUs = fragmentDurationUs;
+        mEncryptionKey = encryptionKey;
+        mCallback = callback;
+        mMuxer = openMuxer(outputFile, outputDescriptor);
+    }
+
+    // Called before the encoders start when there is no video track
+    void setVideoExpected(boolean videoExpected) {
+        synchronized (mLock) {
+            mVideoExpected = videoExpected;
+        }
+    }
+
+    // Called before the encoders start when there is no audio track
+    void setAudioExpected(boolean audioExpected) {
+        synchronized (mLock) {
+            mAudioExpected = audioExpected;
+        }
+    }
+
+    void setNextOutputFile(@NonNull File file, @Nullable FileDescriptor descriptor) {
+        synchronized (mLock) {
+            mNextFile = file;
+            mNextDescriptor = descriptor;
+        }
+    }
+
+    @Override
+    public void onOutputFormatChanged(int track, @NonNull MediaFormat format) {
+        synchronized (mLock) {
+            mFormats[track] = format;
+            if (mStarted || mFinished || (mVideoExpected && mFormats[TRACK_VIDEO] == null) || (mAudioExpected && mFormats[TRACK_AUDIO] == null)) {
+                return;
+            }
+            startMuxer();
+        }
+        // Video samples may have been dropped while the audio format was pending
+        mCallback.onKeyFrameNeeded();
+    }
+
+    @Override
+    public void onEncodedSample(int track, @NonNull ByteBuffer data, @NonNull MediaCodec.BufferInfo info) {
+        synchronized (mLock) {
+            if (!mStarted || mFinished || mTracks[track] < 0) {
+                return;
+            }
+            boolean keyFrame = (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0 || !mVideoExpected;
+            if (track == TRACK_VIDEO || !mVideoExpected) {
+                if (mWaitingForKeyFrame && !keyFrame) {
+                    return;
+                }
+                mWaitingForKeyFrame = false;
+                if (mRollOverPending && keyFrame && !rollOver()) {
+                    return;
+                }
+            } else if (mWaitingForKeyFrame) {
+                return;
+            }
+            try {
+                mMuxer.writeSampleData(mTracks[track], data, info);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                Log.e(TAG, "Failed to write sample: " + e);
+                return;
+            }
+            mBytesWritten += info.size;
+            checkSizeLimit();
+        }
+    }
+
+    // Finishes the current file, safe to call more than once
+    void finish() {
+        synchronized (mLock) {
+            mFinished = true;
+            closeMuxer();
+        }
+    }
+
+    private void checkSizeLimit() {
+        if (mMaxFileSizeBytes <= 0) {
+            return;
+        }
+        if (!mApproachingReported && mBytesWritten >= mMaxFileSizeBytes * APPROACHING_PERCENT / 100) {
+            mApproachingReported = true;
+            mCallback.onMaxFileSizeApproaching();
+        }
+        if (mBytesWritten < mMaxFileSizeBytes || mRollOverPending) {
+            return;
+        }
+        if (mNextFile != null) {
+            mRollOverPending = true;
+            mCallback.onKeyFrameNeeded();
+        } else {
+            mFinished = true;
+            closeMuxer();
+            mCallback.onMaxFileSizeReached();
+        }
+    }
+
+    // Moves to the next file before a key frame is written to it, false when that file cannot be opened
+    private boolean rollOver() {
+        closeMuxer();
+        mRollOverPending = false;
+        mApproachingReported = false;
+        mBytesWritten = 0;
+        File nextFile = mNextFile;
+        FileDescriptor nextDescriptor = mNextDescriptor;
+        mNextFile = null;
+        mNextDescriptor = null;
+        try {
+            mMuxer = openMuxer(nextFile, nextDescriptor);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open next file: " + e);
+            mFinished = true;
+            mCallback.onMaxFileSizeReached();
+            return false;
+        }
+        startMuxer();
+        mCallback.onNextOutputFileStarted();
+        return true;
+    }
+
+    private SampleMuxer openMuxer(File file, @Nullable FileDescriptor descriptor) throws IOException {
+        if (mEncryptionKey != null) {
+            if (mOutputFormat != MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4 || mFragmentDurationUs <= 0) {
+                throw new IOException("Encrypted recordings are written as fragmented MPEG-4 only");
+            }
+            return new FragmentedMp4Muxer(file, descriptor, mFragmentDurationUs, null, mEncryptionKey);
+        }
+        if (mFragmentDurationUs > 0 && mOutputFormat == MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4) {
+            return new FragmentedMp4Muxer(file, descriptor, mFragmentDurationUs, KeyFrameIndex.sidecarFor(file), null);
+        }
+        return new PlatformSampleMuxer(file, descriptor, mOutputFormat);
+    }
+
+    private void startMuxer() {
+        if (mVideoExpected) {
+            mMuxer.setOrientationHint(mOrientationHint);
+        }
+        mTracks[TRACK_VIDEO] = mVideoExpected ? mMuxer.addTrack(mFormats[TRACK_VIDEO]) : -1;
+        mTracks[TRACK_AUDIO] = mFormats[TRACK_AUDIO] != null && mAudioExpected ? mMuxer.addTrack(mFormats[TRACK_AUDIO]) : -1;
+        mMuxer.start();
+        mStarted = true;
+    }
+
+    private void closeMuxer() {
+        if (mMuxer == null) {
+            return;
+        }
+        try {
+            if (mStarted) {
+                mMuxer.stop();
+            }
+        } catch (IllegalStateException e) {
+            // Thrown when no sample was written
+            Log.w(TAG, "Muxer stopped without samples");
+        }
+        mMuxer.release();
+        mMuxer = null;
+    }
+}
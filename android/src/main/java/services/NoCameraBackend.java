@@ -0,0 +1,72 @@
+package services;
+
+import android.os.Handler;
+import android.util.Range;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.List;
+
+// CameraBackend for audio-only recordings. Opening and configuring a session complete right away
+// without touching camera hardware and no frames are captured, so the service arms, starts and
+// segments audio-only recordings the same way as video ones.
+class NoCameraBackend implements CameraBackend {
+    static final String CAMERA_ID = "none";
+
+    private final Handler mCameraHandler;
+
+    private Listener mListener;
+    private boolean mOpen = false;
+    private boolean mSession = false;
+
+    NoCameraBackend(@NonNull Handler cameraHandler) {
+        mCameraHandler = cameraHandler;
+    }
+
+    @Nullable
+    @Override
+    public CameraCapabilityCache.Entry queryCapabilities(int lensFacing) {
+        return null;
+    }
+
+    @Override
+    public boolean supportsConcurrentStreaming(@NonNull String cameraId, @NonNull String otherCameraId) {
+        return false;
+    }
+
+    // Listener calls are posted like a camera's, so the service is never re-entered
+    @Override
+    public void open(@NonNull String cameraId, @NonNull Listener listener) {
+        mListener = listener;
+        mOpen = true;
+        mCameraHandler.post(() -> {
+            if (mOpen) {
+                mListener.onOpened();
+            }
+        });
+    }
+
+    @Override
+    public void startSession(@NonNull List<Surface> targets, @Nullable Range<Integer> frameRateRange, boolean highSpeed) {
+        mCameraHandler.post(() -> {
+            if (!mOpen) {
+                return;
+            }
+            mSession = true;
+            mListener.onSessionConfigured();
+        });
+    }
+
+    @Override
+    public boolean hasSession() {
+        return mSession;
+    }
+
+    @Override
+    public void close() {
+        mSession = false;
+        mOpen = false;
+    }
+}
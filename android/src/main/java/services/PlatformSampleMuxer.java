@@ -0,0 +1,55 @@
+package services;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// SampleMuxer on top of MediaMuxer, which writes the index into a moov box when it stops
+class PlatformSampleMuxer implements SampleMuxer {
+    private final MediaMuxer mMuxer;
+
+    // outputFormat is one of the MediaMuxer.OutputFormat constants
+    PlatformSampleMuxer(@NonNull File file, @Nullable FileDescriptor descriptor, int outputFormat) throws IOException {
+        mMuxer = descriptor != null
+                ? new MediaMuxer(descriptor, outputFormat)
+                : new MediaMuxer(file.getAbsolutePath(), outputFormat);
+    }
+
+    @Override
+    public int addTrack(@NonNull MediaFormat format) {
+        return mMuxer.addTrack(format);
+    }
+
+    @Override
+    public void setOrientationHint(int degrees) {
+        mMuxer.setOrientationHint(degrees);
+    }
+
+    @Override
+    public void start() {
+        mMuxer.start();
+    }
+
+    @Override
+    public void writeSampleData(int track, @NonNull ByteBuffer data, @NonNull MediaCodec.BufferInfo info) {
+        mMuxer.writeSampleData(track, data, info);
+    }
+
+    @Override
+    public void stop() {
+        mMuxer.stop();
+    }
+
+    @Override
+    public void release() {
+        mMuxer.release();
+    }
+}
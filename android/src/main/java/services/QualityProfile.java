@@ -0,0 +1,374 @@
+package services;
+
+import android.content.Intent;
+import android.media.CamcorderProfile;
+import android.media.EncoderProfiles;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.os.PowerManager;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+// Video encoding settings requested from Dart, validated against what the camera and the
+// device's encoders support, and stepped down when the device heats up
+public final class QualityProfile {
+    private static final String TAG = "LightQualityProfile";
+
+    public static final String ENCODER_H264 = "h264";
+    public static final String ENCODER_HEVC = "hevc";
+
+    // Rate control of the MediaCodec engine, MediaRecorder always uses the encoder's default
+    public static final String BIT_RATE_MODE_VBR = "vbr";
+    public static final String BIT_RATE_MODE_CBR = "cbr";
+    // Constant quality, the bit rate only sizes segments and storage forecasts
+    public static final String BIT_RATE_MODE_CQ = "cq";
+
+    public static final QualityProfile DEFAULT = new QualityProfile(1920, 1080, 30, 10000000, ENCODER_H264, 1, BIT_RATE_MODE_VBR);
+
+    // Thermal downgrade steps, indexed by level
+    private static final float[] BIT_RATE_FACTORS = {1f, 0.7f, 0.5f, 0.35f};
+    private static final int[] MAX_FRAME_RATES = {Integer.MAX_VALUE, Integer.MAX_VALUE, 24, 15};
+    public static final int MAX_THERMAL_LEVEL = BIT_RATE_FACTORS.length - 1;
+
+    public final int width;
+    public final int height;
+    public final int frameRate;
+    public final int bitRate;
+    public final String encoder;
+    public final int iFrameInterval;
+    public final String bitRateMode;
+
+    public QualityProfile(int width, int height, int frameRate, int bitRate, @NonNull String encoder, int iFrameInterval, @NonNull String bitRateMode) {
+        this.width = width;
+        this.height = height;
+        this.frameRate = frameRate;
+        this.bitRate = bitRate;
+        this.encoder = encoder;
+        this.iFrameInterval = iFrameInterval;
+        this.bitRateMode = bitRateMode;
+    }
+
+    // Missing values fall back to the default profile
+    @NonNull
+    public static QualityProfile fromMap(@Nullable Map<String, Object> map) {
+        if (map == null) {
+            return DEFAULT;
+        }
+        return new QualityProfile(
+                intValue(map.get("width"), DEFAULT.width),
+                intValue(map.get("height"), DEFAULT.height),
+                intValue(map.get("frameRate"), DEFAULT.frameRate),
+                intValue(map.get("bitRate"), DEFAULT.bitRate),
+                map.get("encoder") instanceof String ? (String) map.get("encoder") : DEFAULT.encoder,
+                intValue(map.get("iFrameInterval"), DEFAULT.iFrameInterval),
+                map.get("bitRateMode") instanceof String ? (String) map.get("bitRateMode") : DEFAULT.bitRateMode
+        );
+    }
+
+    @NonNull
+    public static QualityProfile fromIntent(@NonNull Intent intent) {
+        String encoder = intent.getStringExtra("VideoEncoder");
+        String bitRateMode = intent.getStringExtra("VideoBitRateMode");
+        return new QualityProfile(
+                intent.getIntExtra("VideoWidth", DEFAULT.width),
+                intent.getIntExtra("VideoHeight", DEFAULT.height),
+                intent.getIntExtra("VideoFrameRate", DEFAULT.frameRate),
+                intent.getIntExtra("VideoBitRate", DEFAULT.bitRate),
+                encoder != null ? encoder : DEFAULT.encoder,
+                intent.getIntExtra("IFrameInterval", DEFAULT.iFrameInterval),
+                bitRateMode != null ? bitRateMode : DEFAULT.bitRateMode
+        );
+    }
+
+    public void writeToIntent(@NonNull Intent intent) {
+        intent.putExtra("VideoWidth", width);
+        intent.putExtra("VideoHeight", height);
+        intent.putExtra("VideoFrameRate", frameRate);
+        intent.putExtra("VideoBitRate", bitRate);
+        intent.putExtra("VideoEncoder", encoder);
+        intent.putExtra("IFrameInterval", iFrameInterval);
+        intent.putExtra("VideoBitRateMode", bitRateMode);
+    }
+
+    public int getMediaRecorderEncoder() {
+        return ENCODER_HEVC.equals(encoder) ? MediaRecorder.VideoEncoder.HEVC : MediaRecorder.VideoEncoder.H264;
+    }
+
+    @NonNull
+    public String getMimeType() {
+        return ENCODER_HEVC.equals(encoder) ? MediaFormat.MIMETYPE_VIDEO_HEVC : MediaFormat.MIMETYPE_VIDEO_AVC;
+    }
+
+    public int getBitRateModeConstant() {
+        switch (bitRateMode) {
+            case BIT_RATE_MODE_CBR:
+                return MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR;
+            case BIT_RATE_MODE_CQ:
+                return MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CQ;
+            default:
+                return MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR;
+        }
+    }
+
+    @NonNull
+    public Size getSize() {
+        return new Size(width, height);
+    }
+
+    @NonNull
+    public QualityProfile withSize(@NonNull Size size) {
+        return new QualityProfile(size.getWidth(), size.getHeight(), frameRate, bitRate, encoder, iFrameInterval, bitRateMode);
+    }
+
+    @NonNull
+    public QualityProfile withFrameRate(int frameRate) {
+        return new QualityProfile(width, height, frameRate, bitRate, encoder, iFrameInterval, bitRateMode);
+    }
+
+    // Returns a profile the camera and encoder can record: the size is snapped to a camera output
+    // size, the frame rate is capped by the camera's highest recording profile and the encoder and
+    // bit rate and its mode are checked against the device's encoders. defaultSize is the size already chosen
+    // for the default profile, reused when the requested size matches it.
+    @NonNull
+    public QualityProfile validate(@NonNull String cameraId, @NonNull Size[] supportedSizes, @Nullable Size defaultSize) {
+        Size size = width == DEFAULT.width && height == DEFAULT.height && defaultSize != null
+                ? defaultSize
+                : chooseOptimalSize(supportedSizes, width, height);
+        return validate(size, Math.min(frameRate, getMaxRecordingFrameRate(cameraId)));
+    }
+
+    // Returns a profile for a constrained high speed session, null when the camera has no high
+    // speed video. sizes and frameRateRanges are the camera's high speed configurations, a pair at
+    // each index. The frame rate is the lowest fixed high speed rate of at least the requested one,
+    // or the highest there is, and the size is chosen among the sizes offered at that rate. The
+    // camcorder profiles that cap regular recording do not cover high speed rates.
+    @Nullable
+    public QualityProfile validateHighSpeed(@NonNull Size[] sizes, @NonNull Range<Integer>[] frameRateRanges) {
+        int chosenRate = -1;
+        int highestRate = -1;
+        for (Range<Integer> range : frameRateRanges) {
+            // Variable ranges are for previews, recordings need a fixed rate
+            if (!range.getLower().equals(range.getUpper())) {
+                continue;
+            }
+            int rate = range.getUpper();
+            highestRate = Math.max(highestRate, rate);
+            if (rate >= frameRate && (chosenRate < 0 || rate < chosenRate)) {
+                chosenRate = rate;
+            }
+        }
+        if (highestRate < 0) {
+            return null;
+        }
+        if (chosenRate < 0) {
+            chosenRate = highestRate;
+        }
+        List<Size> rateSizes = new ArrayList<>();
+        for (int i = 0; i < sizes.length; i++) {
+            if (frameRateRanges[i].getLower() == chosenRate && frameRateRanges[i].getUpper() == chosenRate) {
+                rateSizes.add(sizes[i]);
+            }
+        }
+        return validate(chooseOptimalSize(rateSizes.toArray(new Size[0]), width, height), chosenRate);
+    }
+
+    // Checks the encoder, bit rate and its mode for a size and frame rate the camera records
+    private QualityProfile validate(Size size, int validFrameRate) {
+        String validEncoder = encoder;
+        MediaCodecInfo.CodecCapabilities codecCapabilities = findEncoderCapabilities(getMimeType());
+        if (codecCapabilities == null && !ENCODER_H264.equals(encoder)) {
+            Log.w(TAG, "No " + encoder + " encoder on this device, using h264");
+            validEncoder = ENCODER_H264;
+            codecCapabilities = findEncoderCapabilities(MediaFormat.MIMETYPE_VIDEO_AVC);
+        }
+        MediaCodecInfo.VideoCapabilities capabilities = codecCapabilities != null ? codecCapabilities.getVideoCapabilities() : null;
+
+        String validBitRateMode = bitRateMode;
+        if (codecCapabilities != null && !BIT_RATE_MODE_VBR.equals(bitRateMode)) {
+            MediaCodecInfo.EncoderCapabilities encoderCapabilities = codecCapabilities.getEncoderCapabilities();
+            if (encoderCapabilities == null || !encoderCapabilities.isBitrateModeSupported(getBitRateModeConstant())) {
+                Log.w(TAG, "Encoder does not support " + bitRateMode + " rate control, using vbr");
+                validBitRateMode = BIT_RATE_MODE_VBR;
+            }
+        }
+
+        int validBitRate = bitRate;
+        if (capabilities != null) {
+            Range<Integer> bitRates = capabilities.getBitrateRange();
+            validBitRate = Math.max(bitRates.getLower(), Math.min(bitRates.getUpper(), bitRate));
+            if (!capabilities.areSizeAndRateSupported(size.getWidth(), size.getHeight(), validFrameRate)) {
+                Log.w(TAG, "Encoder cannot record " + size.getWidth() + "x" + size.getHeight() + " at " + validFrameRate + " fps");
+            }
+        }
+        QualityProfile validated = new QualityProfile(size.getWidth(), size.getHeight(), validFrameRate, validBitRate, validEncoder, Math.max(1, iFrameInterval), validBitRateMode);
+        if (!validated.equals(this)) {
+            Log.i(TAG, "Requested " + this + ", recording " + validated);
+        }
+        return validated;
+    }
+
+    // Steps the profile down for a thermal level: the bit rate first, then the frame rate,
+    // and at the highest level the next smaller size of the same aspect ratio
+    @NonNull
+    public QualityProfile degrade(int level, @NonNull Size[] supportedSizes) {
+        level = Math.max(0, Math.min(MAX_THERMAL_LEVEL, level));
+        if (level == 0) {
+            return this;
+        }
+        Size size = getSize();
+        if (level == MAX_THERMAL_LEVEL) {
+            Size smaller = findNextSmallerSize(supportedSizes, size);
+            if (smaller != null) {
+                size = smaller;
+            }
+        }
+        return new QualityProfile(
+                size.getWidth(),
+                size.getHeight(),
+                Math.min(frameRate, MAX_FRAME_RATES[level]),
+                (int) (bitRate * BIT_RATE_FACTORS[level]),
+                encoder,
+                iFrameInterval,
+                bitRateMode
+        );
+    }
+
+    public static int getThermalLevel(int thermalStatus) {
+        switch (thermalStatus) {
+            case PowerManager.THERMAL_STATUS_NONE:
+            case PowerManager.THERMAL_STATUS_LIGHT:
+                return 0;
+            case PowerManager.THERMAL_STATUS_MODERATE:
+                return 1;
+            case PowerManager.THERMAL_STATUS_SEVERE:
+                return 2;
+            default:
+                return MAX_THERMAL_LEVEL;
+        }
+    }
+
+    // Smallest size of the requested aspect ratio that is at least as large as requested
+    @NonNull
+    public static Size chooseOptimalSize(@NonNull Size[] choices, int width, int height) {
+        List<Size> sizes = new ArrayList<>();
+        for (Size option: choices) {
+            if (option.getHeight() == option.getWidth() * height / width
+                    && option.getWidth() >= width
+                    && option.getHeight() >= height) {
+                sizes.add(option);
+            }
+        }
+        if (!sizes.isEmpty()) {
+            return Collections.min(sizes, new CompareSizeByArea());
+        } else {
+            return choices[0];
+        }
+    }
+
+    @Nullable
+    private static Size findNextSmallerSize(Size[] choices, Size current) {
+        Size best = null;
+        CompareSizeByArea comparator = new CompareSizeByArea();
+        for (Size option : choices) {
+            boolean sameAspect = (long) option.getWidth() * current.getHeight() == (long) option.getHeight() * current.getWidth();
+            if (sameAspect && comparator.compare(option, current) < 0 && (best == null || comparator.compare(option, best) > 0)) {
+                best = option;
+            }
+        }
+        return best;
+    }
+
+    private static int getMaxRecordingFrameRate(String cameraId) {
+        int maxFrameRate = 0;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            EncoderProfiles profiles = CamcorderProfile.getAll(cameraId, CamcorderProfile.QUALITY_HIGH);
+            if (profiles != null) {
+                for (EncoderProfiles.VideoProfile profile : profiles.getVideoProfiles()) {
+                    if (profile != null) {
+                        maxFrameRate = Math.max(maxFrameRate, profile.getFrameRate());
+                    }
+                }
+            }
+        } else {
+            try {
+                int id = Integer.parseInt(cameraId);
+                if (CamcorderProfile.hasProfile(id, CamcorderProfile.QUALITY_HIGH)) {
+                    maxFrameRate = CamcorderProfile.get(id, CamcorderProfile.QUALITY_HIGH).videoFrameRate;
+                }
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Camera id " + cameraId + " has no camcorder profile");
+            }
+        }
+        return maxFrameRate > 0 ? maxFrameRate : Integer.MAX_VALUE;
+    }
+
+    @Nullable
+    static MediaCodecInfo.CodecCapabilities findEncoderCapabilities(String mimeType) {
+        for (MediaCodecInfo info : new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos()) {
+            if (!info.isEncoder()) {
+                continue;
+            }
+            for (String type : info.getSupportedTypes()) {
+                if (type.equalsIgnoreCase(mimeType)) {
+                    return info.getCapabilitiesForType(type);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int intValue(Object value, int fallback) {
+        return value instanceof Number ? ((Number) value).intValue() : fallback;
+    }
+
+    private static class CompareSizeByArea implements Comparator<Size> {
+        @Override
+        public int compare(Size lhs, Size rhs) {
+            return Long.signum((long) lhs.getWidth() * lhs.getHeight() -
+                    (long) rhs.getWidth() * rhs.getHeight());
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof QualityProfile)) {
+            return false;
+        }
+        QualityProfile other = (QualityProfile) o;
+        return width == other.width
+                && height == other.height
+                && frameRate == other.frameRate
+                && bitRate == other.bitRate
+                && encoder.equals(other.encoder)
+                && iFrameInterval == other.iFrameInterval
+                && bitRateMode.equals(other.bitRateMode);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(width, height, frameRate, bitRate, encoder, iFrameInterval, bitRateMode);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return width + "x" + height + "@" + frameRate + " " + encoder + " " + bitRate + "bps " + bitRateMode;
+    }
+}
@@ -0,0 +1,90 @@
+package services;
+
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+// Encoder that records the camera's frames into files. MediaRecorderBackend wraps MediaRecorder,
+// MediaCodecRecorderBackend drives MediaCodec and MediaMuxer directly, the tests'
+// FakeRecorderBackend stands in for them with fixed latencies. One instance is reused for every
+// recording of the service: prepare, start, stop and reset, in that order.
+public interface RecorderBackend {
+    interface Listener {
+        void onMaxFileSizeApproaching();
+
+        void onNextOutputFileStarted();
+
+        // The recorder stopped itself because no next file was queued in time
+        void onMaxFileSizeReached();
+    }
+
+    // What to record and where. outputDescriptor, when set, is written instead of opening outputFile.
+    final class Config {
+        public final File outputFile;
+        @Nullable
+        public final FileDescriptor outputDescriptor;
+        // Null records the audio track only
+        @Nullable
+        public final QualityProfile profile;
+        // Null records the video track only
+        @Nullable
+        public final AudioProfile audio;
+        public final int orientationHint;
+        // True when the camera stamps frames with elapsedRealtimeNanos(), for encoders that stamp
+        // audio themselves
+        public final boolean realtimeTimestamps;
+        // 0 for no limit
+        public final long maxFileSizeBytes;
+        // Fragment length of crash-safe fragmented MP4 output, 0 for plain files
+        public final long fragmentDurationMillis;
+        // Frames per second kept from the camera for time-lapse, played back at the profile's frame
+        // rate. MediaRecorder only, 0 records every frame.
+        public final double captureRate;
+        // Key the output is encrypted with, see EncryptedFileFormat. MediaCodec engine only, null
+        // records plain files.
+        @Nullable
+        public final byte[] encryptionKey;
+        @Nullable
+        public final Listener listener;
+
+        public Config(@NonNull File outputFile, @Nullable FileDescriptor outputDescriptor,
+                      @Nullable QualityProfile profile, @Nullable AudioProfile audio, int orientationHint,
+                      boolean realtimeTimestamps, long maxFileSizeBytes, long fragmentDurationMillis,
+                      double captureRate, @Nullable byte[] encryptionKey, @Nullable Listener listener) {
+            this.outputFile = outputFile;
+            this.outputDescriptor = outputDescriptor;
+            this.profile = profile;
+            this.audio = audio;
+            this.orientationHint = orientationHint;
+            this.realtimeTimestamps = realtimeTimestamps;
+            this.maxFileSizeBytes = maxFileSizeBytes;
+            this.fragmentDurationMillis = fragmentDurationMillis;
+            this.captureRate = captureRate;
+            this.encryptionKey = encryptionKey;
+            this.listener = listener;
+        }
+    }
+
+    // Surface the camera renders into. It stays the same across recordings, so a running
+    // capture session can feed every recording of the service. Unused by audio-only recordings.
+    @NonNull
+    Surface getInputSurface();
+
+    void prepare(@NonNull Config config) throws IOException;
+
+    void start();
+
+    void stop();
+
+    void reset();
+
+    // Continues in the next file once the current one reaches its maximum size
+    void setNextOutputFile(@NonNull File file, @Nullable FileDescriptor descriptor) throws IOException;
+
+    void release();
+}
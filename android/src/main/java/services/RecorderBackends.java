@@ -0,0 +1,67 @@
+package services;
+
+import android.content.Context;
+import android.os.Handler;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+// Chooses the backends VideoRecorderService records with. The device backends are used unless a
+// test or benchmark harness installs its own factory before the service starts.
+public final class RecorderBackends {
+    // Recording engines selectable from Dart
+    public static final String ENGINE_MEDIA_RECORDER = "mediaRecorder";
+    public static final String ENGINE_MEDIA_CODEC = "mediaCodec";
+
+    public interface Factory {
+        // Called on the camera thread, cameraHandler runs on it
+        @NonNull
+        CameraBackend createCamera(@NonNull Context context, @NonNull Handler cameraHandler);
+
+        // Called on the camera thread with one of the ENGINE_ constants
+        @NonNull
+        RecorderBackend createRecorder(@NonNull Context context, @NonNull String engine);
+
+        @NonNull
+        StorageBackend createStorage(@NonNull Context context);
+    }
+
+    public static final Factory DEVICE = new Factory() {
+        @NonNull
+        @Override
+        public CameraBackend createCamera(@NonNull Context context, @NonNull Handler cameraHandler) {
+            return new Camera2Backend(context, cameraHandler);
+        }
+
+        @NonNull
+        @Override
+        public RecorderBackend createRecorder(@NonNull Context context, @NonNull String engine) {
+            if (ENGINE_MEDIA_CODEC.equals(engine)) {
+                return new MediaCodecRecorderBackend();
+            }
+            return new MediaRecorderBackend(context);
+        }
+
+        @NonNull
+        @Override
+        public StorageBackend createStorage(@NonNull Context context) {
+            return new StatFsStorageBackend();
+        }
+    };
+
+    private static Factory sFactory = DEVICE;
+
+    private RecorderBackends() {}
+
+    // Null restores the device backends
+    @VisibleForTesting
+    public static synchronized void install(@Nullable Factory factory) {
+        sFactory = factory != null ? factory : DEVICE;
+    }
+
+    @NonNull
+    public static synchronized Factory get() {
+        return sFactory;
+    }
+}
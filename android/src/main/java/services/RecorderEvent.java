@@ -0,0 +1,70 @@
+package services;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.Map;
+
+// A state change of the recording service. Sequence numbers increase by one per event,
+// so a listener can tell that it missed events or received them out of order.
+public final class RecorderEvent {
+    public static final String RECORDING = "RECORDING";
+    public static final String STOPPED = "STOPPED";
+    public static final String INITIALIZING = "INITIALIZING";
+    public static final String ARMED = "ARMED";
+    public static final String EXCEPTION = "EXCEPTION";
+    public static final String SEGMENT_COMPLETED = "SEGMENT_COMPLETED";
+    public static final String LOW_STORAGE = "LOW_STORAGE";
+    public static final String STORAGE_FULL = "STORAGE_FULL";
+    public static final String SECONDARY_RECORDING_COMPLETED = "SECONDARY_RECORDING_COMPLETED";
+    public static final String FAST_START_COMPLETED = "FAST_START_COMPLETED";
+    public static final String RECORDING_RECOVERED = "RECORDING_RECOVERED";
+    public static final String RECORDING_INDEX_MISSING = "RECORDING_INDEX_MISSING";
+    public static final String UPLOAD_PROGRESS = "UPLOAD_PROGRESS";
+    public static final String UPLOAD_COMPLETED = "UPLOAD_COMPLETED";
+    public static final String UPLOAD_FAILED = "UPLOAD_FAILED";
+    public static final String MOTION_STARTED = "MOTION_STARTED";
+    public static final String MOTION_CLIP_COMPLETED = "MOTION_CLIP_COMPLETED";
+    // Options turned off because other options rule them out, named by the options extra
+    public static final String OPTIONS_IGNORED = "OPTIONS_IGNORED";
+
+    // Startup stages named by the stage extra of EXCEPTION events
+    public static final String STAGE_QUERY_CAMERA = "queryCamera";
+    public static final String STAGE_CREATE_FOLDER = "createFolder";
+    public static final String STAGE_CREATE_FILE = "createFile";
+    public static final String STAGE_PREPARE_RECORDER = "prepareRecorder";
+    public static final String STAGE_OPEN_CAMERA = "openCamera";
+    public static final String STAGE_CONFIGURE_SESSION = "configureSession";
+
+    public final long sequence;
+    // SystemClock.elapsedRealtime() when the service raised the event
+    public final long timestampMillis;
+    public final String code;
+    public final String message;
+    private final Map<String, Object> mExtras;
+
+    RecorderEvent(long sequence, long timestampMillis, @NonNull String code, @NonNull String message, @Nullable Map<String, Object> extras) {
+        this.sequence = sequence;
+        this.timestampMillis = timestampMillis;
+        this.code = code;
+        this.message = message;
+        mExtras = extras != null ? Collections.unmodifiableMap(extras) : Collections.emptyMap();
+    }
+
+    @NonNull
+    public Map<String, Object> getExtras() {
+        return mExtras;
+    }
+
+    @Nullable
+    public String getString(@NonNull String key) {
+        Object value = mExtras.get(key);
+        return value instanceof String ? (String) value : null;
+    }
+
+    public long getLong(@NonNull String key) {
+        Object value = mExtras.get(key);
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+}
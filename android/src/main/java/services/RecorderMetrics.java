@@ -0,0 +1,164 @@
+package services;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.os.Trace;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Process wide registry of recorder performance figures. It outlives the service so the numbers
+// of a finished recording can still be read. Stage durations and write rates go into fixed bucket
+// histograms, frame counts into plain counters, nothing allocates on the per-frame path.
+public final class RecorderMetrics {
+    // Camera open requested until onOpened
+    public static final int STAGE_OPEN_CAMERA = 0;
+    // onOpened until the capture session is configured
+    public static final int STAGE_CONFIGURE_SESSION = 1;
+    // Session configured until the first frame is captured
+    public static final int STAGE_FIRST_FRAME = 2;
+    // startVideoRecording() until the recorder runs
+    public static final int STAGE_START = 3;
+    // stopVideoRecording() until the file is finished
+    public static final int STAGE_STOP = 4;
+    private static final String[] STAGE_NAMES = {"openCamera", "configureSession", "firstFrame", "start", "stop"};
+
+    private static final long[] DURATION_BOUNDS_MICROS = {
+            1000, 2000, 5000, 10000, 20000, 50000, 100000, 200000, 500000, 1000000, 2000000, 5000000, 10000000
+    };
+    private static final long[] RATE_BOUNDS_BYTES_PER_SECOND = {
+            64 * 1024, 128 * 1024, 256 * 1024, 512 * 1024, 1024 * 1024, 2 * 1024 * 1024, 4 * 1024 * 1024, 8 * 1024 * 1024
+    };
+
+    private static final Histogram[] sStageHistograms = new Histogram[STAGE_NAMES.length];
+    private static final long[] sStageStartNanos = new long[STAGE_NAMES.length];
+    private static final boolean[] sStageTraced = new boolean[STAGE_NAMES.length];
+    private static final Histogram sWriteRates = new Histogram(RATE_BOUNDS_BYTES_PER_SECOND);
+    private static long sFramesCaptured = 0;
+    private static long sFramesDropped = 0;
+    private static long sBytesWritten = 0;
+    private static boolean sTracingEnabled = false;
+
+    static {
+        for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+            sStageHistograms[stage] = new Histogram(DURATION_BOUNDS_MICROS);
+            sStageStartNanos[stage] = -1;
+        }
+    }
+
+    private RecorderMetrics() {}
+
+    // Emits an async android.os.Trace section per stage, visible in system traces
+    public static synchronized void setTracingEnabled(boolean enabled) {
+        sTracingEnabled = enabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q;
+    }
+
+    public static synchronized void beginStage(int stage) {
+        if (sStageTraced[stage]) {
+            Trace.endAsyncSection(traceName(stage), stage);
+        }
+        sStageStartNanos[stage] = SystemClock.elapsedRealtimeNanos();
+        sStageTraced[stage] = sTracingEnabled;
+        if (sTracingEnabled) {
+            Trace.beginAsyncSection(traceName(stage), stage);
+        }
+    }
+
+    // Records the stage's duration if it was begun, otherwise does nothing
+    public static synchronized void endStage(int stage) {
+        if (sStageStartNanos[stage] < 0) {
+            return;
+        }
+        sStageHistograms[stage].record((SystemClock.elapsedRealtimeNanos() - sStageStartNanos[stage]) / 1000);
+        sStageStartNanos[stage] = -1;
+        if (sStageTraced[stage]) {
+            Trace.endAsyncSection(traceName(stage), stage);
+            sStageTraced[stage] = false;
+        }
+    }
+
+    public static synchronized void onFrameCaptured() {
+        sFramesCaptured++;
+    }
+
+    public static synchronized void onFrameDropped() {
+        sFramesDropped++;
+    }
+
+    public static synchronized void onFileWritten(long bytes, long durationMillis) {
+        sBytesWritten += bytes;
+        if (durationMillis > 0) {
+            sWriteRates.record(bytes * 1000 / durationMillis);
+        }
+    }
+
+    // Durations are in microseconds, rates in bytes per second. Every histogram has one more
+    // count than bounds, the last one counts values above the highest bound.
+    @NonNull
+    public static synchronized Map<String, Object> getSnapshot() {
+        Map<String, Object> stages = new HashMap<>();
+        for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+            stages.put(STAGE_NAMES[stage], sStageHistograms[stage].toMap());
+        }
+        Map<String, Object> snapshot = new HashMap<>();
+        snapshot.put("stages", stages);
+        snapshot.put("framesCaptured", sFramesCaptured);
+        snapshot.put("framesDropped", sFramesDropped);
+        snapshot.put("bytesWritten", sBytesWritten);
+        snapshot.put("bytesPerSecond", sWriteRates.toMap());
+        return snapshot;
+    }
+
+    private static String traceName(int stage) {
+        return "LightRecorder." + STAGE_NAMES[stage];
+    }
+
+    private static final class Histogram {
+        private final long[] mBounds;
+        private final long[] mCounts;
+        private long mCount = 0;
+        private long mSum = 0;
+        private long mMin = Long.MAX_VALUE;
+        private long mMax = Long.MIN_VALUE;
+
+        Histogram(long[] bounds) {
+            mBounds = bounds;
+            mCounts = new long[bounds.length + 1];
+        }
+
+        void record(long value) {
+            int bucket = 0;
+            while (bucket < mBounds.length && value > mBounds[bucket]) {
+                bucket++;
+            }
+            mCounts[bucket]++;
+            mCount++;
+            mSum += value;
+            mMin = Math.min(mMin, value);
+            mMax = Math.max(mMax, value);
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("count", mCount);
+            map.put("sum", mSum);
+            map.put("min", mCount > 0 ? mMin : 0);
+            map.put("max", mCount > 0 ? mMax : 0);
+            map.put("bounds", toList(mBounds));
+            map.put("counts", toList(mCounts));
+            return map;
+        }
+
+        private static List<Long> toList(long[] values) {
+            List<Long> list = new ArrayList<>(values.length);
+            for (long value : values) {
+                list.add(value);
+            }
+            return list;
+        }
+    }
+}
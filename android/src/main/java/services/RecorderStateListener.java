@@ -0,0 +1,9 @@
+package services;
+
+import androidx.annotation.NonNull;
+
+// Receives the service's state changes in process, set through VideoRecorderService.LocalBinder.
+// Always called on the main thread, in sequence order.
+public interface RecorderStateListener {
+    void onRecorderEvent(@NonNull RecorderEvent event);
+}
@@ -0,0 +1,306 @@
+package services;
+
+import android.content.Context;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Metadata of the recordings in one video folder, so listing them does not open every file. The
+// catalog is an append-only log in app storage: every change appends a record, loading replays
+// them and the log is rewritten once most of its records are outdated. The service adds the files
+// it finishes with the metadata it recorded them with. A rescan only probes files that are new or
+// whose size or modification time changed, and drops files that are gone. Files that cannot be
+// probed, such as the one being recorded, are listed with a duration of -1.
+public final class RecordingCatalog {
+    private static final String TAG = "LightRecordingCatalog";
+    private static final String CATALOG_DIRECTORY = "light_recording_catalogs";
+    private static final int LOG_VERSION = 1;
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_REMOVE = 2;
+    // The log is rewritten when it holds this many records more than twice the entries
+    private static final int COMPACTION_SLACK = 64;
+
+    public static final class Entry {
+        public final String name;
+        public final long sizeBytes;
+        public final long lastModified;
+        // -1 when the file could not be probed
+        public final long durationMillis;
+        // 0 for audio-only recordings
+        public final int width;
+        public final int height;
+        // MIME type of the video track, or of the audio track of audio-only recordings, empty when unknown
+        public final String codec;
+        public final long createdMillis;
+
+        public Entry(@NonNull String name, long sizeBytes, long lastModified, long durationMillis, int width, int height, @NonNull String codec, long createdMillis) {
+            this.name = name;
+            this.sizeBytes = sizeBytes;
+            this.lastModified = lastModified;
+            this.durationMillis = durationMillis;
+            this.width = width;
+            this.height = height;
+            this.codec = codec;
+            this.createdMillis = createdMillis;
+        }
+    }
+
+    private static final Map<String, RecordingCatalog> sCatalogs = new HashMap<>();
+
+    private final File mFolder;
+    private final File mLogFile;
+    private final Map<String, Entry> mEntries = new LinkedHashMap<>();
+    private boolean mLoaded = false;
+    private int mLogRecords = 0;
+
+    private RecordingCatalog(File folder, File logFile) {
+        mFolder = folder;
+        mLogFile = logFile;
+    }
+
+    // One catalog per folder and process
+    @NonNull
+    public static synchronized RecordingCatalog get(@NonNull Context context, @NonNull File folder) {
+        String key = folder.getAbsolutePath();
+        RecordingCatalog catalog = sCatalogs.get(key);
+        if (catalog == null) {
+            File directory = new File(context.getFilesDir(), CATALOG_DIRECTORY);
+            String logName = key.replaceAll("[^A-Za-z0-9._-]", "_") + ".log";
+            catalog = new RecordingCatalog(folder, new File(directory, logName));
+            sCatalogs.put(key, catalog);
+        }
+        return catalog;
+    }
+
+    // Records a finished file with the metadata it was recorded with
+    public synchronized void put(@NonNull File file, long durationMillis, int width, int height, @NonNull String codec, long createdMillis) {
+        load();
+        Entry entry = new Entry(file.getName(), file.length(), file.lastModified(), durationMillis, width, height, codec, createdMillis);
+        mEntries.put(entry.name, entry);
+        append(Collections.singletonList(entry), Collections.emptyList());
+    }
+
+    // Brings the catalog up to date with the folder, returns the number of files that were probed
+    public synchronized int rescan() {
+        load();
+        File[] files = mFolder.listFiles(VideoFolderQuota.RECORDINGS);
+        if (files == null) {
+            files = new File[0];
+        }
+        List<Entry> changed = new ArrayList<>();
+        Set<String> present = new HashSet<>();
+        for (File file : files) {
+            present.add(file.getName());
+            Entry entry = mEntries.get(file.getName());
+            if (entry != null && entry.sizeBytes == file.length() && entry.lastModified == file.lastModified()) {
+                continue;
+            }
+            entry = probe(file);
+            mEntries.put(entry.name, entry);
+            changed.add(entry);
+        }
+        List<String> removed = new ArrayList<>();
+        for (String name : mEntries.keySet()) {
+            if (!present.contains(name)) {
+                removed.add(name);
+            }
+        }
+        for (String name : removed) {
+            mEntries.remove(name);
+        }
+        if (!changed.isEmpty() || !removed.isEmpty()) {
+            append(changed, removed);
+        }
+        return changed.size();
+    }
+
+    // Rescans, then returns up to limit recordings from offset, newest first, as maps for the
+    // method channel: total and recordings, each with path, name, sizeBytes, durationMillis,
+    // width, height, codec and createdMillis
+    @NonNull
+    public synchronized Map<String, Object> list(int offset, int limit) {
+        rescan();
+        List<Entry> entries = new ArrayList<>(mEntries.values());
+        Collections.sort(entries, Comparator.comparingLong((Entry entry) -> entry.createdMillis).reversed());
+        int from = Math.min(Math.max(offset, 0), entries.size());
+        int to = Math.min(from + Math.max(limit, 0), entries.size());
+        List<Map<String, Object>> recordings = new ArrayList<>();
+        for (Entry entry : entries.subList(from, to)) {
+            Map<String, Object> recording = new HashMap<>();
+            recording.put("path", new File(mFolder, entry.name).getAbsolutePath());
+            recording.put("name", entry.name);
+            recording.put("sizeBytes", entry.sizeBytes);
+            recording.put("durationMillis", entry.durationMillis);
+            recording.put("width", entry.width);
+            recording.put("height", entry.height);
+            recording.put("codec", entry.codec);
+            recording.put("createdMillis", entry.createdMillis);
+            recordings.add(recording);
+        }
+        Map<String, Object> page = new HashMap<>();
+        page.put("total", entries.size());
+        page.put("recordings", recordings);
+        return page;
+    }
+
+    // Reads the track formats only, the file's media is not decoded
+    private static Entry probe(File file) {
+        if (file.getName().endsWith(EncryptedFileFormat.FILE_EXTENSION)) {
+            // Unreadable without the key, known by what the service catalogued
+            return new Entry(file.getName(), file.length(), file.lastModified(), -1, 0, 0, "", file.lastModified());
+        }
+        long durationUs = -1;
+        int width = 0;
+        int height = 0;
+        String videoCodec = null;
+        String audioCodec = null;
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(file.getAbsolutePath());
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat format = extractor.getTrackFormat(i);
+                String mimeType = format.getString(MediaFormat.KEY_MIME);
+                if (format.containsKey(MediaFormat.KEY_DURATION)) {
+                    durationUs = Math.max(durationUs, format.getLong(MediaFormat.KEY_DURATION));
+                }
+                if (mimeType != null && mimeType.startsWith("video/") && videoCodec == null) {
+                    videoCodec = mimeType;
+                    width = format.getInteger(MediaFormat.KEY_WIDTH);
+                    height = format.getInteger(MediaFormat.KEY_HEIGHT);
+                } else if (mimeType != null && mimeType.startsWith("audio/") && audioCodec == null) {
+                    audioCodec = mimeType;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Unfinished or damaged, probed again once it changes
+            Log.w(TAG, "Failed to probe " + file.getName() + ": " + e);
+        } finally {
+            extractor.release();
+        }
+        long durationMillis = durationUs >= 0 ? durationUs / 1000 : -1;
+        String codec = videoCodec != null ? videoCodec : audioCodec != null ? audioCodec : "";
+        // Files are modified for the last time when their recording ends
+        long createdMillis = file.lastModified() - Math.max(durationMillis, 0);
+        return new Entry(file.getName(), file.length(), file.lastModified(), durationMillis, width, height, codec, createdMillis);
+    }
+
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        if (!mLogFile.exists()) {
+            return;
+        }
+        boolean torn = false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mLogFile)))) {
+            if (in.readInt() != LOG_VERSION) {
+                Log.i(TAG, "Recording catalog is outdated, rebuilding it");
+                mEntries.clear();
+                compact();
+                return;
+            }
+            while (true) {
+                byte record;
+                try {
+                    record = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                String name = in.readUTF();
+                if (record == RECORD_PUT) {
+                    mEntries.put(name, new Entry(name, in.readLong(), in.readLong(), in.readLong(), in.readInt(), in.readInt(), in.readUTF(), in.readLong()));
+                } else {
+                    mEntries.remove(name);
+                }
+                mLogRecords++;
+            }
+        } catch (EOFException e) {
+            // The process died while appending, the records before are intact
+            torn = true;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read recording catalog", e);
+            mEntries.clear();
+            torn = true;
+        }
+        if (torn) {
+            compact();
+        }
+    }
+
+    private void append(List<Entry> changed, List<String> removed) {
+        if (mLogRecords + changed.size() + removed.size() > 2 * mEntries.size() + COMPACTION_SLACK || !mLogFile.exists()) {
+            compact();
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mLogFile, true)))) {
+            for (Entry entry : changed) {
+                writePut(out, entry);
+            }
+            for (String name : removed) {
+                out.writeByte(RECORD_REMOVE);
+                out.writeUTF(name);
+            }
+            mLogRecords += changed.size() + removed.size();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to append to recording catalog", e);
+        }
+    }
+
+    // Rewrites the log with one record per entry
+    private void compact() {
+        File directory = mLogFile.getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs()) {
+            Log.w(TAG, "Failed to create " + directory.getAbsolutePath());
+            return;
+        }
+        File tempFile = new File(directory, mLogFile.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(LOG_VERSION);
+            for (Entry entry : mEntries.values()) {
+                writePut(out, entry);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write recording catalog", e);
+            return;
+        }
+        if (!tempFile.renameTo(mLogFile)) {
+            Log.w(TAG, "Failed to replace recording catalog");
+            return;
+        }
+        mLogRecords = mEntries.size();
+    }
+
+    private static void writePut(DataOutputStream out, Entry entry) throws IOException {
+        out.writeByte(RECORD_PUT);
+        out.writeUTF(entry.name);
+        out.writeLong(entry.sizeBytes);
+        out.writeLong(entry.lastModified);
+        out.writeLong(entry.durationMillis);
+        out.writeInt(entry.width);
+        out.writeInt(entry.height);
+        out.writeUTF(entry.codec);
+        out.writeLong(entry.createdMillis);
+    }
+}
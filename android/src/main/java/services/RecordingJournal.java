@@ -0,0 +1,71 @@
+package services;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Tracks the files the recorder is writing. Every file gets an empty marker next to it, named like
+// the file with .recording appended, from its creation until it is finished, post-processed or
+// deleted. Markers left behind name the files of a process that was killed, so recovery only
+// touches those and never a finished file. Files this process still writes are kept in memory as
+// well, so a service started again while clips or uploads of the last one finish skips them.
+final class RecordingJournal {
+    private static final String TAG = "LightRecordingJournal";
+    static final String SUFFIX = ".recording";
+
+    private static final Set<String> sActive = ConcurrentHashMap.newKeySet();
+
+    private RecordingJournal() {}
+
+    // Any thread, before the first byte is written to file
+    static void begin(@NonNull File file) throws IOException {
+        sActive.add(file.getAbsolutePath());
+        File marker = markerFor(file);
+        if (!marker.exists() && !marker.createNewFile()) {
+            throw new IOException("Cannot create " + marker.getAbsolutePath());
+        }
+    }
+
+    // Any thread, once file is complete or was deleted
+    static void finish(@NonNull File file) {
+        File marker = markerFor(file);
+        if (marker.exists() && !marker.delete()) {
+            Log.w(TAG, "Failed to delete " + marker.getAbsolutePath());
+        }
+        sActive.remove(file.getAbsolutePath());
+    }
+
+    static boolean isActive(@NonNull File file) {
+        return sActive.contains(file.getAbsolutePath());
+    }
+
+    // Files in folder that were being written when their process died, whether or not they still exist
+    @NonNull
+    static List<File> interrupted(@NonNull File folder) {
+        List<File> files = new ArrayList<>();
+        File[] markers = folder.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (markers == null) {
+            return files;
+        }
+        for (File marker : markers) {
+            String name = marker.getName();
+            File file = new File(folder, name.substring(0, name.length() - SUFFIX.length()));
+            if (!isActive(file)) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    @NonNull
+    static File markerFor(@NonNull File file) {
+        return new File(file.getParentFile(), file.getName() + SUFFIX);
+    }
+}
@@ -0,0 +1,26 @@
+package services;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+// Writes encoded samples into one file, called in MediaMuxer's order: addTrack and
+// setOrientationHint, start, writeSampleData, stop, release. PlatformSampleMuxer wraps MediaMuxer,
+// FragmentedMp4Muxer writes fragmented MP4 files that survive the process being killed.
+interface SampleMuxer {
+    int addTrack(@NonNull MediaFormat format);
+
+    void setOrientationHint(int degrees);
+
+    void start();
+
+    void writeSampleData(int track, @NonNull ByteBuffer data, @NonNull MediaCodec.BufferInfo info);
+
+    // Throws IllegalStateException when nothing was written
+    void stop();
+
+    void release();
+}
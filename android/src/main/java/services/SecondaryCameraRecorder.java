@@ -0,0 +1,229 @@
+package services;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+// Records a second camera next to the service's main one on devices that can stream both at
+// the same time. It has its own camera session, recorder and file but runs on the service's
+// camera thread, and it keeps the sensor timestamp of its first recorded frame so the file can
+// be lined up with the main recording. Video only, the main recording carries the audio.
+// Camera thread only.
+class SecondaryCameraRecorder implements CameraBackend.Listener {
+    private static final String TAG = "LightSecondaryCamera";
+
+    private final CameraBackend mCamera;
+    private final RecorderBackend mRecorder;
+    private final String mCameraId;
+    private final QualityProfile mProfile;
+    private final int mOrientationHint;
+    private final boolean mRealtimeTimestamps;
+
+    private File mOutputFile;
+    private boolean mOpening = false;
+    private boolean mSessionReady = false;
+    private boolean mStartPending = false;
+    private boolean mStarted = false;
+    private boolean mAwaitingFirstFrame = false;
+    private long mFirstFrameNanos = -1;
+    private long mStartMillis;
+    private long mDurationMillis;
+
+    SecondaryCameraRecorder(@NonNull CameraBackend camera, @NonNull RecorderBackend recorder, @NonNull String cameraId, @NonNull QualityProfile profile, int orientationHint, boolean realtimeTimestamps) {
+        mCamera = camera;
+        mRecorder = recorder;
+        mCameraId = cameraId;
+        mProfile = profile;
+        mOrientationHint = orientationHint;
+        mRealtimeTimestamps = realtimeTimestamps;
+    }
+
+    @NonNull
+    String getCameraId() {
+        return mCameraId;
+    }
+
+    @NonNull
+    QualityProfile getProfile() {
+        return mProfile;
+    }
+
+    // Length of the file stop() returned last
+    long getDurationMillis() {
+        return mDurationMillis;
+    }
+
+    // Sensor timestamp of the first frame captured after start(), -1 until there is one
+    long getFirstFrameNanos() {
+        return mFirstFrameNanos;
+    }
+
+    // Opens the camera and prepares the recorder into outputFile
+    void open(@NonNull File outputFile) {
+        if (mOpening || mSessionReady) {
+            return;
+        }
+        mOutputFile = outputFile;
+        mOpening = true;
+        try {
+            mCamera.open(mCameraId, this);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open camera " + mCameraId + ": " + e);
+            close();
+        }
+    }
+
+    boolean isRecording() {
+        return mStarted || mStartPending;
+    }
+
+    // Starts recording as soon as the session is configured
+    void start() {
+        if (isRecording()) {
+            return;
+        }
+        if (mSessionReady) {
+            startRecorder();
+        } else {
+            mStartPending = true;
+        }
+    }
+
+    // Returns the recorded file, or null when nothing was recorded
+    @Nullable
+    File stop() {
+        mStartPending = false;
+        if (!mStarted) {
+            return null;
+        }
+        mStarted = false;
+        mDurationMillis = SystemClock.elapsedRealtime() - mStartMillis;
+        File outputFile = mOutputFile;
+        mOutputFile = null;
+        try {
+            mRecorder.stop();
+        } catch (RuntimeException e) {
+            // MediaRecorder throws when no frame arrived, the file is unusable
+            Log.e(TAG, "Second camera recorded nothing: " + e);
+            deleteFile(outputFile);
+            outputFile = null;
+        }
+        mRecorder.reset();
+        return outputFile;
+    }
+
+    // Prepares the recorder into the next file while the session keeps running
+    void prepareNext(@NonNull File outputFile) {
+        mOutputFile = outputFile;
+        try {
+            prepareRecorder();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to prepare second camera: " + e);
+        }
+    }
+
+    void close() {
+        if (mStarted) {
+            stop();
+        }
+        mCamera.close();
+        mRecorder.reset();
+        deleteFile(mOutputFile);
+        mOutputFile = null;
+        mOpening = false;
+        mSessionReady = false;
+        mStartPending = false;
+    }
+
+    void release() {
+        close();
+        mRecorder.release();
+    }
+
+    @Override
+    public void onOpened() {
+        try {
+            prepareRecorder();
+            mCamera.startSession(Collections.singletonList(mRecorder.getInputSurface()), null, false);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to start second camera session: " + e);
+            close();
+        }
+    }
+
+    @Override
+    public void onDisconnected() {
+        Log.w(TAG, "Camera " + mCameraId + " disconnected");
+        mOpening = false;
+        mSessionReady = false;
+    }
+
+    @Override
+    public void onSessionConfigured() {
+        mOpening = false;
+        mSessionReady = true;
+        if (mStartPending) {
+            startRecorder();
+        }
+    }
+
+    @Override
+    public void onSessionFailed() {
+        Log.e(TAG, "Second camera session could not be configured");
+        close();
+    }
+
+    @Override
+    public void onFrameCaptured(long timestampNanos, long exposureTimeNanos, long frameDurationNanos, int sensitivity, float focusDistance) {
+        if (mAwaitingFirstFrame) {
+            mAwaitingFirstFrame = false;
+            mFirstFrameNanos = timestampNanos;
+        }
+    }
+
+    @Override
+    public void onFrameDropped() {
+        // Only the main camera's drops are counted
+    }
+
+    private void prepareRecorder() throws IOException {
+        mRecorder.prepare(new RecorderBackend.Config(
+                mOutputFile,
+                null,
+                mProfile,
+                null,
+                mOrientationHint,
+                mRealtimeTimestamps,
+                0,
+                0,
+                0,
+                null,
+                null
+        ));
+    }
+
+    private void startRecorder() {
+        mStartPending = false;
+        mFirstFrameNanos = -1;
+        mAwaitingFirstFrame = true;
+        mRecorder.start();
+        mStartMillis = SystemClock.elapsedRealtime();
+        mStarted = true;
+    }
+
+    private static void deleteFile(@Nullable File file) {
+        if (file == null) {
+            return;
+        }
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Failed to delete unused file " + file.getAbsolutePath());
+        }
+        RecordingJournal.finish(file);
+    }
+}
@@ -0,0 +1,16 @@
+package services;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+// Failure of one recorder startup stage. The stage is one of the RecorderEvent.STAGE_ names and
+// is reported with the EXCEPTION event, so the app can tell a missing camera permission from a
+// full disk or an encoder that rejected the profile.
+final class StartupException extends Exception {
+    final String stage;
+
+    StartupException(@NonNull String stage, @NonNull String message, @Nullable Throwable cause) {
+        super(message, cause);
+        this.stage = stage;
+    }
+}
@@ -0,0 +1,36 @@
+package services;
+
+import android.os.StatFs;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+public class StatFsStorageBackend implements StorageBackend {
+    private static final String TAG = "LightStatFsStorage";
+
+    // Long.MAX_VALUE when the volume cannot be queried, so recording is not blocked by a failed query
+    @Override
+    public long getAvailableBytes(@NonNull File folder) {
+        try {
+            return new StatFs(folder.getAbsolutePath()).getAvailableBytes();
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Cannot query free space of " + folder.getAbsolutePath());
+            return Long.MAX_VALUE;
+        }
+    }
+
+    @Override
+    public void allocate(@NonNull FileDescriptor descriptor, long bytes) throws IOException {
+        try {
+            Os.posix_fallocate(descriptor, 0, bytes);
+        } catch (ErrnoException e) {
+            throw new IOException("posix_fallocate failed", e);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package services;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+// Volume the recordings are written to. StatFsStorageBackend queries the device,
+// the tests' FakeStorageBackend reports a configurable amount of free space.
+public interface StorageBackend {
+    long getAvailableBytes(@NonNull File folder);
+
+    // Reserves bytes for the open file, from its start
+    void allocate(@NonNull FileDescriptor descriptor, long bytes) throws IOException;
+}
@@ -0,0 +1,129 @@
+package services;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+// Watches the free space of the volume recordings are written to. It forecasts how long
+// recording can go on and preallocates output files, so the recorder writes into a few large
+// extents instead of growing the file block by block.
+public final class StorageGuard {
+    private static final String TAG = "LightStorageGuard";
+
+    public static final long DEFAULT_MIN_FREE_BYTES = 100L * 1024 * 1024;
+    public static final long DEFAULT_LOW_STORAGE_SECONDS = 300;
+
+    private final StorageBackend mBackend;
+    private final File mFolder;
+    private final long mMinFreeBytes;
+    private final long mLowStorageSeconds;
+
+    public StorageGuard(@NonNull StorageBackend backend, @NonNull File folder, long minFreeBytes, long lowStorageSeconds) {
+        mBackend = backend;
+        mFolder = folder;
+        mMinFreeBytes = minFreeBytes > 0 ? minFreeBytes : DEFAULT_MIN_FREE_BYTES;
+        mLowStorageSeconds = lowStorageSeconds > 0 ? lowStorageSeconds : DEFAULT_LOW_STORAGE_SECONDS;
+    }
+
+    // Free bytes on the volume, or Long.MAX_VALUE when the volume cannot be queried
+    public long getAvailableBytes() {
+        return mBackend.getAvailableBytes(mFolder);
+    }
+
+    // Bytes that can be recorded before the free space drops to the threshold
+    public long getUsableBytes() {
+        return Math.max(0, getAvailableBytes() - mMinFreeBytes);
+    }
+
+    // Bytes that have to be freed to get back above the threshold
+    public long getShortfallBytes() {
+        return Math.max(0, mMinFreeBytes - getAvailableBytes());
+    }
+
+    public boolean isFull() {
+        return getAvailableBytes() < mMinFreeBytes;
+    }
+
+    public long forecastRemainingSeconds(long bytesPerSecond) {
+        return bytesPerSecond > 0 ? getUsableBytes() / bytesPerSecond : Long.MAX_VALUE;
+    }
+
+    public boolean isLow(long remainingSeconds) {
+        return remainingSeconds < mLowStorageSeconds;
+    }
+
+    // Opens the file for the recorder with up to bytes allocated on disk, never eating into the
+    // free space threshold. Returns null when the file cannot be opened, preallocation itself is
+    // best effort. Close it with closeOutput() once the recorder is done with it.
+    @Nullable
+    public RandomAccessFile openOutput(@NonNull File file, long bytes) {
+        RandomAccessFile output;
+        try {
+            output = new RandomAccessFile(file, "rw");
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open " + file.getAbsolutePath() + ": " + e);
+            return null;
+        }
+        long allocation = Math.min(bytes, getUsableBytes());
+        if (allocation > 0) {
+            try {
+                mBackend.allocate(output.getFD(), allocation);
+            } catch (IOException e) {
+                Log.w(TAG, "Preallocation of " + allocation + " bytes failed: " + e);
+            }
+        }
+        return output;
+    }
+
+    // Cuts the unused preallocated tail off a finished recording and closes the file
+    public static void closeOutput(@Nullable RandomAccessFile output) {
+        if (output == null) {
+            return;
+        }
+        try {
+            long mediaEnd = findMediaEnd(output);
+            if (mediaEnd < output.length()) {
+                output.setLength(mediaEnd);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to trim preallocated file: " + e);
+        }
+        try {
+            output.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to close output file: " + e);
+        }
+    }
+
+    // Walks the top level MP4 boxes, the first one that is zero filled or runs past the end
+    // of the file marks where the written media ends and the preallocated space begins
+    private static long findMediaEnd(RandomAccessFile file) throws IOException {
+        long length = file.length();
+        long offset = 0;
+        byte[] header = new byte[16];
+        ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+        while (offset + 8 <= length) {
+            file.seek(offset);
+            file.readFully(header, 0, 8);
+            long size = headerBuffer.getInt(0) & 0xFFFFFFFFL;
+            if (size == 1) {
+                if (offset + 16 > length) {
+                    break;
+                }
+                file.readFully(header, 8, 8);
+                size = headerBuffer.getLong(8);
+            }
+            if (size < 8 || headerBuffer.getInt(4) == 0 || offset + size > length) {
+                break;
+            }
+            offset += size;
+        }
+        return offset;
+    }
+}
@@ -0,0 +1,181 @@
+package services;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+import android.util.Range;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// Video encoder fed by the camera through its input surface. The codec runs in asynchronous
+// mode and its callbacks are delivered on a thread of their own, never on the camera thread.
+public class SurfaceVideoEncoder {
+    private static final String TAG = "LightVideoEncoder";
+    private static final long DRAIN_TIMEOUT_MS = 2000;
+    // Frame rates above this come from high speed sessions
+    private static final int MAX_REGULAR_FRAME_RATE = 60;
+
+    private final HandlerThread mEncoderThread;
+    private final MediaCodec mCodec;
+    private final Surface mInputSurface;
+    // False when the input surface is a persistent one owned by the caller
+    private final boolean mOwnsInputSurface;
+    private final EncodedSampleSink mSink;
+    private final CountDownLatch mDrained = new CountDownLatch(1);
+    private boolean mStarted = false;
+
+    public SurfaceVideoEncoder(@NonNull MediaFormat format, @NonNull EncodedSampleSink sink) throws IOException {
+        this(format, sink, null);
+    }
+
+    // persistentSurface, when set, is used as the input surface and stays valid after stop(),
+    // so a capture session rendering into it does not have to be rebuilt for the next encoder
+    public SurfaceVideoEncoder(@NonNull MediaFormat format, @NonNull EncodedSampleSink sink, @Nullable Surface persistentSurface) throws IOException {
+        mSink = sink;
+        mOwnsInputSurface = persistentSurface == null;
+        mEncoderThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_VIDEO);
+        mEncoderThread.start();
+        mCodec = MediaCodec.createEncoderByType(format.getString(MediaFormat.KEY_MIME));
+        mCodec.setCallback(new MediaCodec.Callback() {
+            @Override
+            public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+                // Input comes from the surface
+            }
+
+            @Override
+            public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index, @NonNull MediaCodec.BufferInfo info) {
+                ByteBuffer data = codec.getOutputBuffer(index);
+                if (data != null && info.size > 0 && (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0) {
+                    mSink.onEncodedSample(EncodedSampleSink.TRACK_VIDEO, data, info);
+                }
+                codec.releaseOutputBuffer(index, false);
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    mDrained.countDown();
+                }
+            }
+
+            @Override
+            public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
+                Log.e(TAG, "Video encoder failed: " + e.getDiagnosticInfo());
+                mDrained.countDown();
+            }
+
+            @Override
+            public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
+                mSink.onOutputFormatChanged(EncodedSampleSink.TRACK_VIDEO, format);
+            }
+        }, new Handler(mEncoderThread.getLooper()));
+        try {
+            mCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            if (persistentSurface != null) {
+                mCodec.setInputSurface(persistentSurface);
+                mInputSurface = persistentSurface;
+            } else {
+                mInputSurface = mCodec.createInputSurface();
+            }
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            mCodec.release();
+            mEncoderThread.quitSafely();
+            throw new IOException("Video encoder rejected the format " + format, e);
+        }
+    }
+
+    @NonNull
+    public static MediaFormat createFormat(@NonNull String mimeType, int width, int height, int bitRate, int frameRate, int iFrameInterval) {
+        MediaFormat format = MediaFormat.createVideoFormat(mimeType, width, height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, iFrameInterval);
+        return format;
+    }
+
+    // Format for the profile including its rate control. Constant quality uses the middle of the
+    // encoder's quality range.
+    @NonNull
+    public static MediaFormat createFormat(@NonNull QualityProfile profile) {
+        MediaFormat format = createFormat(profile.getMimeType(), profile.width, profile.height, profile.bitRate, profile.frameRate, profile.iFrameInterval);
+        format.setInteger(MediaFormat.KEY_BITRATE_MODE, profile.getBitRateModeConstant());
+        if (profile.frameRate > MAX_REGULAR_FRAME_RATE) {
+            // Encoders size their real-time budget for playback rates unless told how fast frames arrive
+            format.setInteger(MediaFormat.KEY_OPERATING_RATE, profile.frameRate);
+            format.setInteger(MediaFormat.KEY_PRIORITY, 0);
+        }
+        if (QualityProfile.BIT_RATE_MODE_CQ.equals(profile.bitRateMode)) {
+            MediaCodecInfo.CodecCapabilities capabilities = QualityProfile.findEncoderCapabilities(profile.getMimeType());
+            if (capabilities != null && capabilities.getEncoderCapabilities() != null) {
+                Range<Integer> qualities = capabilities.getEncoderCapabilities().getQualityRange();
+                format.setInteger(MediaFormat.KEY_QUALITY, (qualities.getLower() + qualities.getUpper()) / 2);
+            }
+        }
+        return format;
+    }
+
+    // Camera output target, valid until stop()
+    @NonNull
+    public Surface getInputSurface() {
+        return mInputSurface;
+    }
+
+    public void start() {
+        mCodec.start();
+        mStarted = true;
+    }
+
+    // Takes effect from the next frames without restarting the encoder
+    public void setBitRate(int bitRate) {
+        Bundle parameters = new Bundle();
+        parameters.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitRate);
+        try {
+            mCodec.setParameters(parameters);
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Video encoder rejected the bit rate " + bitRate, e);
+        }
+    }
+
+    // The next frame is encoded as a key frame
+    public void requestSyncFrame() {
+        Bundle parameters = new Bundle();
+        parameters.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        try {
+            mCodec.setParameters(parameters);
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Video encoder rejected the sync frame request", e);
+        }
+    }
+
+    // Unless the input surface is persistent, the camera must no longer render into it when this is called
+    public void stop() {
+        try {
+            // An encoder that never started has nothing to drain
+            if (mStarted) {
+                mCodec.signalEndOfInputStream();
+                if (!mDrained.await(DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    Log.w(TAG, "Video encoder did not drain in time");
+                }
+            }
+            mCodec.stop();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Video encoder stopped in a bad state", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mCodec.release();
+        if (mOwnsInputSurface) {
+            mInputSurface.release();
+        }
+        mEncoderThread.quitSafely();
+    }
+}
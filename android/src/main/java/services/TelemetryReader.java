@@ -0,0 +1,190 @@
+package services;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+// Reader of the telemetry written next to recordings, a file named like the recording with .tlm
+// appended. A 24-byte header holds the camera clock time the recording started at, so a record's
+// time in the video is its timestamp minus the start. Blocks follow, each a 24-byte header with the
+// record type, the record count and the first and last timestamp, then the records of that type in
+// time order. A record is a timestamp in the camera clock in nanoseconds and the values of its
+// type, doubles for locations and floats otherwise. Blocks of one type follow each other in time
+// order, so a time range is found by binary search over the blocks and within them. The file is
+// memory mapped, blocks appended after open() are not seen.
+public final class TelemetryReader {
+    // Exposure time and frame duration in nanoseconds, ISO sensitivity and focus distance in
+    // diopters, -1 when the camera does not report one
+    public static final int TYPE_FRAME = 0;
+    // Acceleration along x, y and z in meters per second squared, gravity included
+    public static final int TYPE_ACCELERATION = 1;
+    // Latitude, longitude, altitude in meters and horizontal accuracy in meters, NaN when unknown
+    public static final int TYPE_LOCATION = 2;
+    static final int TYPE_COUNT = 3;
+
+    static final String SUFFIX = ".tlm";
+    // "LTLM"
+    static final int MAGIC = 0x4C544C4D;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    static final int BLOCK_HEADER_SIZE = 24;
+    private static final int[] VALUE_COUNTS = {4, 3, 4};
+
+    public interface Visitor {
+        // values holds valueCount(type) values and is reused for the next record
+        void onRecord(long timestampNanos, @NonNull double[] values);
+    }
+
+    private final ByteBuffer mBuffer;
+    private final long mStartNanos;
+    // Per type, the offsets and the first and last timestamps of its blocks in file order
+    private final int[][] mBlockOffsets = new int[TYPE_COUNT][];
+    private final long[][] mBlockFirst = new long[TYPE_COUNT][];
+    private final long[][] mBlockLast = new long[TYPE_COUNT][];
+    private final int[] mBlockCounts = new int[TYPE_COUNT];
+
+    private TelemetryReader(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer;
+        mStartNanos = buffer.getLong(8);
+        for (int type = 0; type < TYPE_COUNT; type++) {
+            mBlockOffsets[type] = new int[16];
+            mBlockFirst[type] = new long[16];
+            mBlockLast[type] = new long[16];
+        }
+        int offset = HEADER_SIZE;
+        while (offset + BLOCK_HEADER_SIZE <= buffer.limit()) {
+            int type = buffer.getInt(offset);
+            int count = buffer.getInt(offset + 4);
+            if (type < 0 || type >= TYPE_COUNT || count <= 0) {
+                throw new IOException("Damaged telemetry block at " + offset);
+            }
+            long end = offset + BLOCK_HEADER_SIZE + (long) count * recordSize(type);
+            if (end > buffer.limit()) {
+                // A torn last block of a recording that was killed
+                break;
+            }
+            addBlock(type, offset, buffer.getLong(offset + 8), buffer.getLong(offset + 16));
+            offset = (int) end;
+        }
+    }
+
+    @NonNull
+    public static File sidecarFor(@NonNull File recording) {
+        return new File(recording.getParentFile(), recording.getName() + SUFFIX);
+    }
+
+    @NonNull
+    public static TelemetryReader open(@NonNull File sidecar) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(sidecar, "r")) {
+            FileChannel channel = file.getChannel();
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE) {
+                throw new IOException("Telemetry too short: " + sidecar.getAbsolutePath());
+            }
+            if (fileSize > Integer.MAX_VALUE) {
+                throw new IOException("Telemetry too large: " + sidecar.getAbsolutePath());
+            }
+            // The mapping stays valid after the channel is closed
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a telemetry file: " + sidecar.getAbsolutePath());
+            }
+            return new TelemetryReader(buffer);
+        }
+    }
+
+    public static int valueCount(int type) {
+        return VALUE_COUNTS[type];
+    }
+
+    // Camera clock time in nanoseconds the recording started at
+    public long getStartNanos() {
+        return mStartNanos;
+    }
+
+    // Calls visitor with the records of type from fromNanos up to but excluding toNanos, in time
+    // order, and returns their number
+    public int query(int type, long fromNanos, long toNanos, @NonNull Visitor visitor) {
+        if (type < 0 || type >= TYPE_COUNT) {
+            throw new IllegalArgumentException("Unknown telemetry type " + type);
+        }
+        int recordSize = recordSize(type);
+        double[] values = new double[VALUE_COUNTS[type]];
+        int visited = 0;
+        for (int block = firstBlockEndingAtOrAfter(type, fromNanos); block < mBlockCounts[type]; block++) {
+            if (mBlockFirst[type][block] >= toNanos) {
+                break;
+            }
+            int records = mBlockOffsets[type][block] + BLOCK_HEADER_SIZE;
+            int count = mBuffer.getInt(mBlockOffsets[type][block] + 4);
+            for (int index = firstRecordAtOrAfter(records, count, recordSize, fromNanos); index < count; index++) {
+                int offset = records + index * recordSize;
+                long timestamp = mBuffer.getLong(offset);
+                if (timestamp >= toNanos) {
+                    return visited;
+                }
+                readValues(type, offset + 8, values);
+                visitor.onRecord(timestamp, values);
+                visited++;
+            }
+        }
+        return visited;
+    }
+
+    static int recordSize(int type) {
+        return 8 + VALUE_COUNTS[type] * (type == TYPE_LOCATION ? 8 : 4);
+    }
+
+    private void addBlock(int type, int offset, long first, long last) {
+        int count = mBlockCounts[type];
+        if (count == mBlockOffsets[type].length) {
+            mBlockOffsets[type] = Arrays.copyOf(mBlockOffsets[type], count * 2);
+            mBlockFirst[type] = Arrays.copyOf(mBlockFirst[type], count * 2);
+            mBlockLast[type] = Arrays.copyOf(mBlockLast[type], count * 2);
+        }
+        mBlockOffsets[type][count] = offset;
+        mBlockFirst[type][count] = first;
+        mBlockLast[type][count] = last;
+        mBlockCounts[type] = count + 1;
+    }
+
+    private int firstBlockEndingAtOrAfter(int type, long timeNanos) {
+        long[] last = mBlockLast[type];
+        int low = 0;
+        int high = mBlockCounts[type];
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (last[middle] < timeNanos) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int firstRecordAtOrAfter(int records, int count, int recordSize, long timeNanos) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mBuffer.getLong(records + middle * recordSize) < timeNanos) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void readValues(int type, int offset, double[] values) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = type == TYPE_LOCATION ? mBuffer.getDouble(offset + i * 8) : mBuffer.getFloat(offset + i * 4);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package services;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+// Feeds the accelerometer and GPS fixes into a TelemetryWriter on a thread of their own. Sensor
+// events are batched by the sensor hub and both clocks are elapsed realtime. Locations are only
+// recorded when the app holds the fine location permission, the plugin does not request it, and
+// only while the app is visible unless the service runs with the location foreground type.
+final class TelemetrySensors implements SensorEventListener, LocationListener {
+    private static final String TAG = "LightTelemetrySensors";
+    private static final int ACCELERATION_PERIOD_US = 10_000;
+    private static final int MAX_REPORT_LATENCY_US = 200_000;
+    private static final long LOCATION_INTERVAL_MILLIS = 1000;
+
+    private final Context mContext;
+    private final TelemetryWriter mWriter;
+    private HandlerThread mThread;
+
+    TelemetrySensors(@NonNull Context context, @NonNull TelemetryWriter writer) {
+        mContext = context;
+        mWriter = writer;
+    }
+
+    // Does nothing while the sensors are already running
+    void start() {
+        if (mThread != null) {
+            return;
+        }
+        mThread = new HandlerThread("LightTelemetrySensors");
+        mThread.start();
+        SensorManager sensorManager = (SensorManager) mContext.getSystemService(Context.SENSOR_SERVICE);
+        Sensor accelerometer = sensorManager != null ? sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER) : null;
+        if (accelerometer != null) {
+            sensorManager.registerListener(this, accelerometer, ACCELERATION_PERIOD_US, MAX_REPORT_LATENCY_US, new Handler(mThread.getLooper()));
+        } else {
+            Log.w(TAG, "No accelerometer, recording telemetry without motion");
+        }
+        LocationManager locationManager = (LocationManager) mContext.getSystemService(Context.LOCATION_SERVICE);
+        if (locationManager == null || mContext.checkSelfPermission(Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
+            Log.i(TAG, "No location permission, recording telemetry without locations");
+            return;
+        }
+        try {
+            locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, LOCATION_INTERVAL_MILLIS, 0, this, mThread.getLooper());
+        } catch (IllegalArgumentException | SecurityException e) {
+            Log.w(TAG, "GPS unavailable, recording telemetry without locations: " + e);
+        }
+    }
+
+    void stop() {
+        if (mThread == null) {
+            return;
+        }
+        SensorManager sensorManager = (SensorManager) mContext.getSystemService(Context.SENSOR_SERVICE);
+        if (sensorManager != null) {
+            sensorManager.unregisterListener(this);
+        }
+        LocationManager locationManager = (LocationManager) mContext.getSystemService(Context.LOCATION_SERVICE);
+        if (locationManager != null) {
+            locationManager.removeUpdates(this);
+        }
+        mThread.quitSafely();
+        mThread = null;
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        mWriter.addAcceleration(event.timestamp, event.values[0], event.values[1], event.values[2]);
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        // Not recorded
+    }
+
+    @Override
+    public void onLocationChanged(@NonNull Location location) {
+        mWriter.addLocation(location.getElapsedRealtimeNanos(), location.getLatitude(), location.getLongitude(),
+                location.hasAltitude() ? location.getAltitude() : Double.NaN,
+                location.hasAccuracy() ? location.getAccuracy() : Double.NaN);
+    }
+
+    // Needed until API 30
+    @Override
+    public void onStatusChanged(String provider, int status, Bundle extras) {
+    }
+
+    @Override
+    public void onProviderEnabled(@NonNull String provider) {
+    }
+
+    @Override
+    public void onProviderDisabled(@NonNull String provider) {
+    }
+}
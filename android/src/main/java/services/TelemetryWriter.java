@@ -0,0 +1,222 @@
+package services;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Writes the TelemetryReader sidecar of the file being recorded. Frames, motion and locations are
+// added from their own threads into preallocated rings of primitives, one per type with a single
+// producer each, so adding a record neither locks nor allocates. The flush thread appends what the
+// rings hold as one block per type twice a second, the camera and sensor threads never touch the
+// disk. Records that arrive while a ring is full are dropped and counted. start() moves on to the
+// sidecar of the next segment, the records added before it go into the previous one.
+final class TelemetryWriter {
+    private static final String TAG = "LightTelemetry";
+    private static final long FLUSH_INTERVAL_MILLIS = 500;
+    // Several seconds of frames at high speed rates, of motion at 200 Hz and of locations at 1 Hz
+    private static final int[] RING_CAPACITIES = {2048, 4096, 64};
+
+    // Single producer, single consumer ring of records. The producer publishes a record with the
+    // volatile write of mWritten, the consumer frees its slot with the volatile write of mRead.
+    private static final class Ring {
+        final long[] timestamps;
+        final double[] values;
+        final int valueCount;
+        volatile long mWritten = 0;
+        volatile long mRead = 0;
+        // Producer only
+        private long mLastTimestamp = Long.MIN_VALUE;
+        private int mDropped = 0;
+
+        Ring(int capacity, int valueCount) {
+            timestamps = new long[capacity];
+            values = new double[capacity * valueCount];
+            this.valueCount = valueCount;
+        }
+
+        void add(long timestampNanos, double first, double second, double third, double fourth) {
+            long written = mWritten;
+            if (written - mRead == timestamps.length) {
+                mDropped++;
+                return;
+            }
+            if (timestampNanos <= mLastTimestamp) {
+                // Blocks stay in time order for the reader's binary search
+                return;
+            }
+            mLastTimestamp = timestampNanos;
+            int slot = (int) (written % timestamps.length);
+            timestamps[slot] = timestampNanos;
+            int base = slot * valueCount;
+            values[base] = first;
+            values[base + 1] = second;
+            values[base + 2] = third;
+            if (valueCount > 3) {
+                values[base + 3] = fourth;
+            }
+            mWritten = written + 1;
+        }
+    }
+
+    private final Ring[] mRings = new Ring[TelemetryReader.TYPE_COUNT];
+    private final ScheduledExecutorService mFlusher = Executors.newSingleThreadScheduledExecutor();
+    // Holds every record of the largest ring
+    private final ByteBuffer mBlock;
+    // Records are only added between start() and stop()
+    private volatile boolean mRecording = false;
+    // Added to elapsed realtime timestamps to get the camera clock
+    private volatile long mRealtimeOffsetNanos = 0;
+
+    // Flush thread only
+    private FileOutputStream mOutputStream;
+    private FileChannel mChannel;
+
+    TelemetryWriter() {
+        int blockSize = 0;
+        for (int type = 0; type < TelemetryReader.TYPE_COUNT; type++) {
+            mRings[type] = new Ring(RING_CAPACITIES[type], TelemetryReader.valueCount(type));
+            blockSize = Math.max(blockSize, TelemetryReader.BLOCK_HEADER_SIZE + RING_CAPACITIES[type] * TelemetryReader.recordSize(type));
+        }
+        mBlock = ByteBuffer.allocate(blockSize);
+        mFlusher.scheduleWithFixedDelay(this::flushQuietly, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // Starts the sidecar of a recording that started at startNanos in the camera clock, closing
+    // the previous one. realtimeOffsetNanos converts sensor and location timestamps to that clock.
+    void start(@NonNull File sidecar, long startNanos, long realtimeOffsetNanos) {
+        mRealtimeOffsetNanos = realtimeOffsetNanos;
+        mRecording = true;
+        mFlusher.execute(() -> {
+            flushQuietly();
+            closeOutput();
+            try {
+                mOutputStream = new FileOutputStream(sidecar);
+                mChannel = mOutputStream.getChannel();
+                ByteBuffer header = ByteBuffer.allocate(TelemetryReader.HEADER_SIZE);
+                header.putInt(TelemetryReader.MAGIC).putInt(TelemetryReader.VERSION).putLong(startNanos);
+                header.rewind();
+                write(header);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to create " + sidecar.getName() + ": " + e);
+                closeOutput();
+            }
+        });
+    }
+
+    // Writes what was added and closes the sidecar
+    void stop() {
+        mRecording = false;
+        mFlusher.execute(() -> {
+            flushQuietly();
+            closeOutput();
+        });
+    }
+
+    void release() {
+        stop();
+        mFlusher.shutdown();
+    }
+
+    // Camera thread, timestampNanos is the frame's sensor timestamp
+    void addFrame(long timestampNanos, long exposureTimeNanos, long frameDurationNanos, int sensitivity, float focusDistance) {
+        if (mRecording) {
+            mRings[TelemetryReader.TYPE_FRAME].add(timestampNanos, exposureTimeNanos, frameDurationNanos, sensitivity, focusDistance);
+        }
+    }
+
+    // Sensor thread, timestampNanos is in the elapsed realtime clock
+    void addAcceleration(long timestampNanos, float x, float y, float z) {
+        if (mRecording) {
+            mRings[TelemetryReader.TYPE_ACCELERATION].add(timestampNanos + mRealtimeOffsetNanos, x, y, z, 0);
+        }
+    }
+
+    // Sensor thread, timestampNanos is in the elapsed realtime clock
+    void addLocation(long timestampNanos, double latitude, double longitude, double altitude, double accuracy) {
+        if (mRecording) {
+            mRings[TelemetryReader.TYPE_LOCATION].add(timestampNanos + mRealtimeOffsetNanos, latitude, longitude, altitude, accuracy);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            // The recording goes on without the rest of its telemetry
+            Log.w(TAG, "Failed to write telemetry: " + e);
+            closeOutput();
+        }
+    }
+
+    // Appends the records of each ring as one block, or drops them when no sidecar is open
+    private void flush() throws IOException {
+        for (int type = 0; type < mRings.length; type++) {
+            Ring ring = mRings[type];
+            long read = ring.mRead;
+            long written = ring.mWritten;
+            if (read == written) {
+                continue;
+            }
+            if (mChannel != null) {
+                int capacity = ring.timestamps.length;
+                mBlock.clear();
+                mBlock.putInt(type).putInt((int) (written - read));
+                mBlock.putLong(ring.timestamps[(int) (read % capacity)]);
+                mBlock.putLong(ring.timestamps[(int) ((written - 1) % capacity)]);
+                for (long index = read; index < written; index++) {
+                    int slot = (int) (index % capacity);
+                    mBlock.putLong(ring.timestamps[slot]);
+                    int base = slot * ring.valueCount;
+                    for (int i = 0; i < ring.valueCount; i++) {
+                        if (type == TelemetryReader.TYPE_LOCATION) {
+                            mBlock.putDouble(ring.values[base + i]);
+                        } else {
+                            mBlock.putFloat((float) ring.values[base + i]);
+                        }
+                    }
+                }
+                mBlock.flip();
+            }
+            // The slots are copied out, the producer may reuse them
+            ring.mRead = written;
+            if (mChannel != null) {
+                write(mBlock);
+            }
+        }
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mChannel.write(buffer);
+        }
+    }
+
+    private void closeOutput() {
+        if (mOutputStream == null) {
+            return;
+        }
+        try {
+            mOutputStream.close();
+        } catch (IOException e) {
+            // Every block was written by flush()
+        }
+        mOutputStream = null;
+        mChannel = null;
+        int dropped = 0;
+        for (Ring ring : mRings) {
+            dropped += ring.mDropped;
+        }
+        if (dropped > 0) {
+            Log.w(TAG, dropped + " telemetry records dropped so far, the flush thread fell behind");
+        }
+    }
+}
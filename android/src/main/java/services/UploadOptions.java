@@ -0,0 +1,54 @@
+package services;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Where and how fast finished recordings are uploaded, requested from Dart. The service carries
+// them in its start intent, see VideoRecorderService.putUploadOptions.
+public final class UploadOptions {
+    public static final int DEFAULT_CONCURRENCY = 2;
+    public static final int DEFAULT_CHUNK_SIZE_BYTES = 4 * 1024 * 1024;
+    private static final int MIN_CHUNK_SIZE_BYTES = 64 * 1024;
+
+    // tus creation endpoint
+    public final String endpoint;
+    // Sent with every request, such as authorization
+    public final Map<String, String> headers;
+    public final int concurrency;
+    // 0 for no limit, shared by all concurrent uploads
+    public final long maxBytesPerSecond;
+    public final int chunkSizeBytes;
+
+    public UploadOptions(@NonNull String endpoint, @NonNull Map<String, String> headers, int concurrency, long maxBytesPerSecond, int chunkSizeBytes) {
+        this.endpoint = endpoint;
+        this.headers = Collections.unmodifiableMap(new LinkedHashMap<>(headers));
+        this.concurrency = Math.max(1, concurrency);
+        this.maxBytesPerSecond = Math.max(0, maxBytesPerSecond);
+        this.chunkSizeBytes = Math.max(MIN_CHUNK_SIZE_BYTES, chunkSizeBytes);
+    }
+
+    // Null when no endpoint is given, recordings are then not uploaded
+    @Nullable
+    public static UploadOptions fromMap(@Nullable Map<String, Object> map) {
+        if (map == null || !(map.get("endpoint") instanceof String)) {
+            return null;
+        }
+        Map<String, String> headers = new LinkedHashMap<>();
+        if (map.get("headers") instanceof Map) {
+            for (Map.Entry<?, ?> header : ((Map<?, ?>) map.get("headers")).entrySet()) {
+                headers.put(String.valueOf(header.getKey()), String.valueOf(header.getValue()));
+            }
+        }
+        return new UploadOptions(
+                (String) map.get("endpoint"),
+                headers,
+                map.get("concurrency") instanceof Number ? ((Number) map.get("concurrency")).intValue() : DEFAULT_CONCURRENCY,
+                map.get("maxBytesPerSecond") instanceof Number ? ((Number) map.get("maxBytesPerSecond")).longValue() : 0,
+                map.get("chunkSizeBytes") instanceof Number ? ((Number) map.get("chunkSizeBytes")).intValue() : DEFAULT_CHUNK_SIZE_BYTES
+        );
+    }
+}
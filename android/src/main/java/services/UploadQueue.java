@@ -0,0 +1,158 @@
+package services;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Files waiting for ChunkedUploader, persisted with the upload URL the server assigned so an
+// upload continues where it stopped after the process restarts. The queue holds a handful of
+// entries and is rewritten through a temporary file on every change. Not thread safe, the
+// uploader guards it with its lock.
+final class UploadQueue {
+    private static final int QUEUE_VERSION = 1;
+
+    static final class Item {
+        final String path;
+        // Null until the server created the upload
+        @Nullable
+        String uploadUrl;
+        // Failures in a row, reset when the queue is loaded by a new process
+        int failures;
+        boolean active;
+        long notBeforeMillis;
+
+        Item(String path, @Nullable String uploadUrl) {
+            this.path = path;
+            this.uploadUrl = uploadUrl;
+        }
+    }
+
+    private final File mFile;
+    private final int mMaxAttempts;
+    private final List<Item> mItems = new ArrayList<>();
+
+    // A queue that cannot be read starts empty, its files are not uploaded again
+    UploadQueue(@NonNull File file, int maxAttempts) {
+        mFile = file;
+        mMaxAttempts = maxAttempts;
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != QUEUE_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                String uploadUrl = in.readUTF();
+                mItems.add(new Item(path, uploadUrl.isEmpty() ? null : uploadUrl));
+            }
+        } catch (IOException e) {
+            mItems.clear();
+        }
+    }
+
+    // False when the file is already queued
+    boolean add(@NonNull String path) throws IOException {
+        for (Item item : mItems) {
+            if (item.path.equals(path)) {
+                return false;
+            }
+        }
+        mItems.add(new Item(path, null));
+        save();
+        return true;
+    }
+
+    // Oldest item that is neither being uploaded, waiting for a retry nor out of attempts
+    @Nullable
+    Item claim(long nowMillis) {
+        for (Item item : mItems) {
+            if (!item.active && item.failures < mMaxAttempts && item.notBeforeMillis <= nowMillis) {
+                item.active = true;
+                return item;
+            }
+        }
+        return null;
+    }
+
+    // Milliseconds until an item waiting for a retry can be claimed, 0 when none is waiting
+    long millisUntilRetry(long nowMillis) {
+        long wait = 0;
+        for (Item item : mItems) {
+            if (!item.active && item.failures < mMaxAttempts && item.notBeforeMillis > nowMillis) {
+                long itemWait = item.notBeforeMillis - nowMillis;
+                wait = wait == 0 ? itemWait : Math.min(wait, itemWait);
+            }
+        }
+        return wait;
+    }
+
+    @NonNull
+    List<String> getPaths() {
+        List<String> paths = new ArrayList<>();
+        for (Item item : mItems) {
+            paths.add(item.path);
+        }
+        return paths;
+    }
+
+    // True when nothing is being uploaded and nothing can be retried in this process
+    boolean isIdle() {
+        for (Item item : mItems) {
+            if (item.active || item.failures < mMaxAttempts) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void setUploadUrl(@NonNull Item item, @Nullable String uploadUrl) throws IOException {
+        item.uploadUrl = uploadUrl;
+        save();
+    }
+
+    // Returns the item to the queue without counting a failure, used when the uploader shuts down
+    void release(@NonNull Item item) {
+        item.active = false;
+    }
+
+    // True when the item will be retried after notBeforeMillis
+    boolean fail(@NonNull Item item, long notBeforeMillis) {
+        item.active = false;
+        item.failures++;
+        item.notBeforeMillis = notBeforeMillis;
+        return item.failures < mMaxAttempts;
+    }
+
+    void remove(@NonNull Item item) throws IOException {
+        mItems.remove(item);
+        save();
+    }
+
+    private void save() throws IOException {
+        File tempFile = new File(mFile.getParentFile(), mFile.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(QUEUE_VERSION);
+            out.writeInt(mItems.size());
+            for (Item item : mItems) {
+                out.writeUTF(item.path);
+                out.writeUTF(item.uploadUrl != null ? item.uploadUrl : "");
+            }
+        }
+        if (!tempFile.renameTo(mFile)) {
+            throw new IOException("Cannot replace " + mFile.getAbsolutePath());
+        }
+    }
+}
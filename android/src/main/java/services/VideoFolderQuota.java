@@ -0,0 +1,85 @@
+package services;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Keeps the recordings of a video folder under a byte quota by deleting the oldest files first
+public final class VideoFolderQuota {
+    private static final String TAG = "LightVideoFolderQuota";
+    // Video recordings, the files of audio-only ones and encrypted recordings
+    static final FilenameFilter RECORDINGS = (dir, name) -> name.endsWith(".mp4") || name.endsWith(".m4a") || name.endsWith(".ogg") || name.endsWith(EncryptedFileFormat.FILE_EXTENSION);
+
+    private VideoFolderQuota() {}
+
+    // Deletes the oldest recordings until the folder fits in quotaBytes.
+    // Files in keep (the segment being written, the one queued next and files waiting for upload)
+    // and files the recorder is still writing or post-processing are never deleted.
+    // Returns the number of bytes freed.
+    public static long enforce(@NonNull File folder, long quotaBytes, String... keep) {
+        Set<String> keepPaths = new HashSet<>();
+        for (String path : keep) {
+            if (path != null) {
+                keepPaths.add(path);
+            }
+        }
+        File[] files = folder.listFiles(RECORDINGS);
+        if (files == null || quotaBytes <= 0) {
+            return 0;
+        }
+        long totalBytes = 0;
+        List<File> candidates = new ArrayList<>();
+        for (File file : files) {
+            totalBytes += file.length();
+            if (!keepPaths.contains(file.getAbsolutePath()) && !RecordingJournal.isActive(file)) {
+                candidates.add(file);
+            }
+        }
+        Collections.sort(candidates, Comparator.comparingLong(File::lastModified));
+        long freedBytes = 0;
+        for (File file : candidates) {
+            if (totalBytes <= quotaBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                totalBytes -= length;
+                freedBytes += length;
+                Log.i(TAG, "Deleted " + file.getName() + " to stay within quota");
+                // The key frame index and the telemetry go with their recording
+                for (File sidecar : new File[]{KeyFrameIndex.sidecarFor(file), TelemetryReader.sidecarFor(file)}) {
+                    long sidecarLength = sidecar.length();
+                    if (sidecar.delete()) {
+                        freedBytes += sidecarLength;
+                    }
+                }
+            } else {
+                Log.w(TAG, "Failed to delete " + file.getAbsolutePath());
+            }
+        }
+        return freedBytes;
+    }
+
+    // Deletes the oldest recordings until bytesNeeded have been freed or only the kept files are left.
+    // Returns the number of bytes freed.
+    public static long free(@NonNull File folder, long bytesNeeded, String... keep) {
+        File[] files = folder.listFiles(RECORDINGS);
+        if (files == null || bytesNeeded <= 0) {
+            return 0;
+        }
+        long totalBytes = 0;
+        for (File file : files) {
+            totalBytes += file.length();
+        }
+        return enforce(folder, Math.max(1, totalBytes - bytesNeeded), keep);
+    }
+}
@@ -3,24 +3,27 @@ package services;
 import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
+import android.Manifest;
 import android.app.Service;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.pm.PackageManager;
 import android.content.pm.ServiceInfo;
-import android.hardware.camera2.CameraAccessException;
-import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
-import android.hardware.camera2.CameraDevice;
-import android.hardware.camera2.CameraManager;
-import android.hardware.camera2.CaptureRequest;
-import android.hardware.camera2.params.StreamConfigurationMap;
 import android.hardware.display.DisplayManager;
-import android.media.MediaRecorder;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.Range;
 import android.util.Size;
 import android.util.SparseIntArray;
 import android.view.Display;
@@ -29,18 +32,31 @@ import android.view.WindowManager;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.lightsoftware.flutter_background_video_recorder.plugin.FlutterBackgroundVideoRecorderPlugin;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class VideoRecorderService extends Service {
     // Class constants
@@ -48,56 +64,325 @@ public class VideoRecorderService extends Service {
     public static final String TAG = "LightRecordingService";
     public static final String NOTIFICATION_CHANNEL_ID = "LightRecordingServiceNotification";
 
+    // Capture modes selectable from Dart
+    public static final String CAPTURE_AUDIO_VIDEO = "audioVideo";
+    public static final String CAPTURE_VIDEO_ONLY = "videoOnly";
+    // Records the microphone without opening a camera
+    public static final String CAPTURE_AUDIO_ONLY = "audioOnly";
+
+    private static final long STORAGE_CHECK_INTERVAL_MS = 5000;
+    // Preallocation extent for recordings without a segment size
+    private static final long PREALLOCATION_SECONDS = 300;
+    // Size of the second camera's recording, within what concurrent cameras are guaranteed to stream
+    private static final int SECONDARY_WIDTH = 1280;
+    private static final int SECONDARY_HEIGHT = 720;
+    private static final String UPLOAD_QUEUE_FILE_NAME = "light_upload_queue.bin";
+    // Analysis stream of motion-triggered recording when no frame tap is requested
+    private static final double MOTION_ANALYSIS_RATE = 5;
+    private static final int MOTION_ANALYSIS_WIDTH = 320;
+    private static final int MOTION_ANALYSIS_HEIGHT = 240;
+    // Luma the motion detector compares, downscaled from the analysis frames
+    private static final int MOTION_LUMA_WIDTH = 64;
+    private static final int MOTION_LUMA_HEIGHT = 48;
+    // Fragment length of encrypted recordings when no fragment duration is requested
+    private static final long ENCRYPTED_FRAGMENT_MILLIS = 2000;
+
     private WindowManager mWindowManager;
 
-    // Handles the camera events
-    private CameraDevice mCameraDevice;
-    private final CameraDevice.StateCallback mCameraDeviceStateCallback
-            = new CameraDevice.StateCallback() {
+    // Camera thread, every camera backend callback and recorder call runs on it
+    private HandlerThread mCameraThread;
+    private Handler mCameraHandler;
+    private Handler mMainHandler;
+
+    // Backends from RecorderBackends, the camera and recorder are created on the camera thread
+    private RecorderBackends.Factory mBackends;
+    private String mRecordingEngine = RecorderBackends.ENGINE_MEDIA_RECORDER;
+    private CameraBackend mCamera;
+    private StorageBackend mStorage;
+    // Handles the camera events, runs on the camera thread
+    private final CameraBackend.Listener mCameraListener = new CameraBackend.Listener() {
         @Override
-        public void onOpened(@NonNull CameraDevice camera) {
-            mCameraDevice = camera;
-            startRecord();
-            mMediaRecorder.start();
-            Log.i(TAG, "Recording started");
-            Intent broadcastIntent = new Intent();
-            broadcastIntent.setAction(FlutterBackgroundVideoRecorderPlugin.RECORDING_RECEIVER);
-            broadcastIntent.addCategory(Intent.CATEGORY_DEFAULT);
-            broadcastIntent.putExtra("msg", "Recording started");
-            broadcastIntent.putExtra("code", "RECORDING");
-            sendBroadcast(broadcastIntent);
-            Log.i(TAG, "Broadcast sent!");
+        public void onOpened() {
+            RecorderMetrics.endStage(RecorderMetrics.STAGE_OPEN_CAMERA);
+            if (mCameraOpened != null) {
+                mCameraOpened.complete(null);
+            }
         }
 
         @Override
-        public void onDisconnected(@NonNull CameraDevice camera) {
-            camera.close();
-            mCameraDevice = null;
+        public void onDisconnected() {
+            if (mCameraOpened != null && mCameraOpened.completeExceptionally(new StartupException(RecorderEvent.STAGE_OPEN_CAMERA, "Camera disconnected while opening", null))) {
+                return;
+            }
+            mCameraOpening = false;
         }
 
         @Override
-        public void onError(@NonNull CameraDevice camera, int error) {
-            camera.close();
-            mCameraDevice = null;
+        public void onSessionConfigured() {
+            RecorderMetrics.endStage(RecorderMetrics.STAGE_CONFIGURE_SESSION);
+            RecorderMetrics.beginStage(RecorderMetrics.STAGE_FIRST_FRAME);
+            mAwaitingFirstFrame = true;
+            mCameraOpening = false;
+            if (mStartRequested) {
+                startCapture();
+            } else {
+                onRecorderArmed();
+            }
+        }
+
+        @Override
+        public void onSessionFailed() {
+            failStartup(new StartupException(RecorderEvent.STAGE_CONFIGURE_SESSION, "Capture session could not be configured", null));
+        }
+
+        // Counts frames for the metrics and adds their capture results to the telemetry
+        @Override
+        public void onFrameCaptured(long timestampNanos, long exposureTimeNanos, long frameDurationNanos, int sensitivity, float focusDistance) {
+            if (mTelemetry != null) {
+                mTelemetry.addFrame(timestampNanos, exposureTimeNanos, frameDurationNanos, sensitivity, focusDistance);
+            }
+            if (mAwaitingRecordingFrame) {
+                mAwaitingRecordingFrame = false;
+                mRecordingFirstFrameNanos = timestampNanos;
+            }
+            if (mAwaitingFirstFrame) {
+                mAwaitingFirstFrame = false;
+                RecorderMetrics.endStage(RecorderMetrics.STAGE_FIRST_FRAME);
+            }
+            RecorderMetrics.onFrameCaptured();
+        }
+
+        @Override
+        public void onFrameDropped() {
+            RecorderMetrics.onFrameDropped();
         }
     };
+    // Disk and codec work of the startup, run while the camera opens
+    private ExecutorService mStartupExecutor;
+    private CompletableFuture<PreparedFolder> mFolderReady;
+    // Camera thread only, the session's camera stage and the generation of its startup
+    private CompletableFuture<Void> mCameraOpened;
+    private int mStartupGeneration = 0;
+
+    // Result of the folder stage
+    private static final class PreparedFolder {
+        final File folder;
+        final StorageGuard storageGuard;
+
+        PreparedFolder(File folder, StorageGuard storageGuard) {
+            this.folder = folder;
+            this.storageGuard = storageGuard;
+        }
+    }
+
+    // Result of the output stage, the file and its preallocated output or the buffered encoders
+    private static final class PreparedOutput {
+        final File file;
+        final RandomAccessFile output;
+        final EncodedSampleRing sampleRing;
+        final SurfaceVideoEncoder videoEncoder;
+        final MicAudioEncoder audioEncoder;
+        final QualityProfile profile;
+
+        PreparedOutput(File file, RandomAccessFile output, EncodedSampleRing sampleRing, SurfaceVideoEncoder videoEncoder, MicAudioEncoder audioEncoder, QualityProfile profile) {
+            this.file = file;
+            this.output = output;
+            this.sampleRing = sampleRing;
+            this.videoEncoder = videoEncoder;
+            this.audioEncoder = audioEncoder;
+            this.profile = profile;
+        }
+
+        // Frees what was made for a startup that was abandoned
+        void release() {
+            if (videoEncoder != null) {
+                videoEncoder.stop();
+            }
+            if (audioEncoder != null) {
+                audioEncoder.stop();
+            }
+            if (sampleRing != null) {
+                sampleRing.close();
+            }
+            StorageGuard.closeOutput(output);
+            if (file != null) {
+                if (!file.delete()) {
+                    Log.w(TAG, "Failed to delete unused file " + file.getAbsolutePath());
+                }
+                RecordingJournal.finish(file);
+            }
+        }
+    }
+    // Camera thread only, true until the first frame of a new session is captured
+    private boolean mAwaitingFirstFrame = false;
+    // Camera thread only, true between openCamera() and the capture session being configured
+    private boolean mCameraOpening = false;
 
     // Camera variables
     private String mCameraId;
     private Size mVideoSize;
     private int mTotalRotation;
     private String mCameraFacing = "Rear Camera";
-    private CaptureRequest.Builder mCaptureRequestBuilder;
+    private boolean mRealtimeTimestamps = false;
+    private Size[] mSupportedSizes;
+
+    // Quality requested from Dart, the validated base profile and the one the running recorder uses
+    private QualityProfile mRequestedProfile = QualityProfile.DEFAULT;
+    private QualityProfile mBaseProfile = QualityProfile.DEFAULT;
+    private QualityProfile mActiveProfile = QualityProfile.DEFAULT;
+    // Tracks to record, and the audio encoding requested from Dart and validated on the camera thread
+    private String mCaptureMode = CAPTURE_AUDIO_VIDEO;
+    private AudioProfile mRequestedAudioProfile = AudioProfile.DEFAULT;
+    private AudioProfile mAudioProfile = AudioProfile.DEFAULT;
+    // Adaptive quality steps the profile down while the device is hot, camera thread only
+    private boolean mAdaptiveQuality = false;
+    private int mThermalLevel = 0;
+    private PowerManager.OnThermalStatusChangedListener mThermalListener;
 
     // Media recorder variables
-    private MediaRecorder mMediaRecorder;
+    private RecorderBackend mRecorder;
+    private boolean mRecorderStarted = false;
+    // Camera thread only, true when the recorder should start as soon as the session is configured
+    private boolean mStartRequested = false;
 
-    // Output file/folder variables
+    // Output file/folder variables, the folder and file are assigned on the camera thread only
     private String mVideoFolderName;
     private File mVideoFolder;
     private String mVideoFileName;
 
-    private boolean isRecording = false;
+    // Segmented recording, 0 disables the limit
+    private long mSegmentDurationSeconds = 0;
+    private long mSegmentSizeBytes = 0;
+    private long mDiskQuotaBytes = 0;
+    // Camera thread only, the segment queued with setNextOutputFile() and when the current one began
+    private String mNextVideoFileName;
+    private long mSegmentStartMillis;
+
+    // Storage guard, recording stops or rolls over segments when free space runs out
+    private long mMinFreeBytes = 0;
+    private long mLowStorageSeconds = 0;
+    private boolean mPreallocateFiles = false;
+    private StorageGuard mStorageGuard;
+    // Camera thread only, preallocated outputs of the current and next file, null when not preallocated
+    private RandomAccessFile mVideoOutput;
+    private RandomAccessFile mNextVideoOutput;
+    private boolean mLowStorageReported = false;
+    private final Runnable mStorageCheck = this::checkStorage;
+
+    // Pre-event buffering, encoded samples stay in memory and only clips from saveClip() reach the disk
+    private int mPreEventBufferSeconds = 0;
+    private EncodedSampleRing mSampleRing;
+    private SurfaceVideoEncoder mVideoEncoder;
+    private MicAudioEncoder mAudioEncoder;
+    private ExecutorService mClipExecutor;
+
+    // Time-lapse capture interval, 0 records every frame
+    private long mTimeLapseIntervalMillis = 0;
+    private int mTimeLapseFrameRate = 0;
+    private Range<Integer>[] mFrameRateRanges = CameraCapabilityCache.newRangeArray(0);
+
+    // 0 records at the profile's frame rate
+    private int mHighSpeedFrameRate = 0;
+
+    // Encryption key, only kept in memory
+    private boolean mEncrypted = false;
+    @Nullable
+    private byte[] mEncryptionKey;
+
+    // Telemetry sidecar writer, created by the first start that asks for it
+    private boolean mTelemetryEnabled = false;
+    private TelemetryWriter mTelemetry;
+    private TelemetrySensors mTelemetrySensors;
+
+    // Motion-triggered recording
+    private boolean mMotionTrigger = false;
+    private float mMotionSensitivity = 0.5f;
+    private int mMotionPreRollSeconds = 0;
+    private int mMotionPostRollSeconds = 0;
+    private FrameListener mMotionListener;
+    // Camera thread only, the clip being written or the last one
+    private ClipWriter mMotionClip;
+
+    // Finished MP4 files are rewritten with moov first on their own executor, after the stop returned
+    private boolean mFastStart = false;
+    private ExecutorService mPostProcessExecutor;
+
+    // Fragmented MP4 output keeps all but the last fragment when the process dies, 0 for plain files
+    private long mFragmentDurationMillis = 0;
+
+    // Null without an upload endpoint
+    private boolean mUploadsEnabled = false;
+    private volatile ChunkedUploader mUploader;
+    // Files queued or being uploaded, left alone by the disk quota
+    private final Set<String> mUploadingFiles = ConcurrentHashMap.newKeySet();
+    // Main thread only
+    private boolean mStopWhenUploadsDone = false;
+    private final ChunkedUploader.Listener mUploadListener = new ChunkedUploader.Listener() {
+        @Override
+        public void onUploadProgress(@NonNull String path, long bytesSent, long totalBytes) {
+            Map<String, Object> extras = new HashMap<>();
+            extras.put("path", path);
+            extras.put("bytesSent", bytesSent);
+            extras.put("totalBytes", totalBytes);
+            sendStateEvent(RecorderEvent.UPLOAD_PROGRESS, "Upload in progress.", extras);
+        }
+
+        @Override
+        public void onUploadCompleted(@NonNull String path, @NonNull String uploadUrl) {
+            Map<String, Object> extras = new HashMap<>();
+            extras.put("path", path);
+            extras.put("uploadUrl", uploadUrl);
+            mUploadingFiles.remove(path);
+            sendStateEvent(RecorderEvent.UPLOAD_COMPLETED, "Upload completed.", extras);
+        }
+
+        @Override
+        public void onUploadFailed(@NonNull String path, @NonNull String message, boolean willRetry) {
+            Log.w(TAG, "Upload of " + path + " failed: " + message);
+            if (!new File(path).isFile()) {
+                mUploadingFiles.remove(path);
+            }
+            Map<String, Object> extras = new HashMap<>();
+            extras.put("path", path);
+            extras.put("message", message);
+            extras.put("willRetry", willRetry);
+            sendStateEvent(RecorderEvent.UPLOAD_FAILED, "Upload failed.", extras);
+        }
+
+        @Override
+        public void onIdle() {
+            mMainHandler.post(VideoRecorderService.this::stopIfUploadsDone);
+        }
+    };
+
+    // Analysis frame tap next to the recorder's surface, disabled while the rate is 0
+    private double mFrameTapRate = 0;
+    private Size mFrameTapSize;
+    private int mDartFrameWidth = 0;
+    private FrameTap mFrameTap;
+    private final CopyOnWriteArrayList<FrameListener> mFrameListeners = new CopyOnWriteArrayList<>();
+
+    // Second camera recorded next to the main one, null unless requested and supported
+    private boolean mDualCamera = false;
+    private SecondaryCameraRecorder mSecondaryRecorder;
+    // Camera thread only, true when both cameras stamp frames with the same clock
+    private boolean mSecondaryClockShared = false;
+    private boolean mAwaitingRecordingFrame = false;
+    private long mRecordingFirstFrameNanos = -1;
+
+    // State events for the bound plugin, broadcast as well in compatibility mode
+    private static final int MAX_PENDING_EVENTS = 64;
+    private final Object mEventLock = new Object();
+    private long mEventSequence = 0;
+    private volatile boolean mBroadcastEvents = false;
+    // Main thread only
+    private RecorderStateListener mStateListener;
+    private final ArrayDeque<RecorderEvent> mPendingEvents = new ArrayDeque<>();
+
+    private volatile boolean isRecording = false;
+    // Armed mode keeps the camera open and the recorder prepared between recordings
+    private volatile boolean mArmedMode = false;
+    private volatile boolean isArmed = false;
 
     private static final SparseIntArray ORIENTATIONS = new SparseIntArray();
     static {
@@ -110,24 +395,218 @@ public class VideoRecorderService extends Service {
     @Override
     public void onCreate() {
         super.onCreate();
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-            mMediaRecorder = new MediaRecorder(getApplicationContext());
-        } else {
-            mMediaRecorder = new MediaRecorder();
-        }
         mWindowManager = (WindowManager) this.getSystemService(Context.WINDOW_SERVICE);
+        mMainHandler = new Handler(Looper.getMainLooper());
+        startCameraThread();
+        mClipExecutor = Executors.newSingleThreadExecutor();
+        mPostProcessExecutor = Executors.newSingleThreadExecutor();
+        mStartupExecutor = Executors.newSingleThreadExecutor();
+        mBackends = RecorderBackends.get();
+        mStorage = mBackends.createStorage(getApplicationContext());
+        mCameraHandler.post(() -> mCamera = mBackends.createCamera(getApplicationContext(), mCameraHandler));
     }
 
     @Override
     public void onDestroy() {
         Log.i(TAG, "Service being destroyed");
+        unregisterThermalListener();
+        stopCameraThread();
+        if (mEncryptionKey != null) {
+            Arrays.fill(mEncryptionKey, (byte) 0);
+        }
+        if (mTelemetry != null) {
+            mTelemetrySensors.stop();
+            mTelemetry.release();
+        }
+        // Clips that are still being written finish with what the ring holds
+        mClipExecutor.shutdown();
+        mStartupExecutor.shutdown();
+        // Behind the task that creates the uploader
+        mPostProcessExecutor.execute(() -> {
+            if (mUploader != null) {
+                mUploader.shutdown();
+                mUploader = null;
+            }
+        });
+        mPostProcessExecutor.shutdown();
         super.onDestroy();
     }
 
+    private void startCameraThread() {
+        mCameraThread = new HandlerThread("LightRecordingCamera", Process.THREAD_PRIORITY_DISPLAY);
+        mCameraThread.start();
+        mCameraHandler = new Handler(mCameraThread.getLooper());
+    }
+
+    // Releases the camera and recorder on the camera thread, then waits for it to finish
+    private void stopCameraThread() {
+        if (mCameraThread == null) {
+            return;
+        }
+        mCameraHandler.post(() -> {
+            closeCamera();
+            releaseBufferedEncoders();
+            if (mSecondaryRecorder != null) {
+                mSecondaryRecorder.release();
+                mSecondaryRecorder = null;
+            }
+            if (mRecorder != null) {
+                mRecorder.release();
+                mRecorder = null;
+            }
+            closeVideoOutputs();
+        });
+        mCameraThread.quitSafely();
+        try {
+            mCameraThread.join();
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupted while stopping camera thread");
+            Thread.currentThread().interrupt();
+        }
+        mCameraThread = null;
+        mCameraHandler = null;
+    }
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         mVideoFolderName = intent.getStringExtra("DirectoryName");
         mCameraFacing = intent.getStringExtra("CameraFacing");
+        mSegmentDurationSeconds = intent.getLongExtra("SegmentDurationSeconds", 0);
+        mSegmentSizeBytes = intent.getLongExtra("SegmentSizeBytes", 0);
+        mDiskQuotaBytes = intent.getLongExtra("DiskQuotaBytes", 0);
+        mPreEventBufferSeconds = intent.getIntExtra("PreEventBufferSeconds", 0);
+        mFrameTapRate = intent.getDoubleExtra("FrameTapRate", 0);
+        mFrameTapSize = new Size(intent.getIntExtra("FrameTapWidth", 640), intent.getIntExtra("FrameTapHeight", 480));
+        mDartFrameWidth = intent.getIntExtra("DartFrameWidth", 0);
+        mDualCamera = intent.getBooleanExtra("DualCamera", false);
+        mFastStart = intent.getBooleanExtra("FastStart", false);
+        mFragmentDurationMillis = intent.getLongExtra("FragmentDurationMillis", 0);
+        mMotionTrigger = intent.getBooleanExtra("MotionTrigger", false);
+        mMotionSensitivity = intent.getFloatExtra("MotionSensitivity", 0.5f);
+        mMotionPreRollSeconds = intent.getIntExtra("MotionPreRollSeconds", 0);
+        mMotionPostRollSeconds = intent.getIntExtra("MotionPostRollSeconds", 0);
+        mTimeLapseIntervalMillis = intent.getLongExtra("TimeLapseIntervalMillis", 0);
+        mTimeLapseFrameRate = intent.getIntExtra("TimeLapseFrameRate", 30);
+        mEncrypted = intent.getBooleanExtra("Encrypted", false);
+        mHighSpeedFrameRate = intent.getIntExtra("HighSpeedFrameRate", 0);
+        mTelemetryEnabled = intent.getBooleanExtra("Telemetry", false);
+        UploadOptions uploadOptions = getUploadOptions(intent);
+        mStopWhenUploadsDone = false;
+        if (uploadOptions != null && !mUploadsEnabled) {
+            mUploadsEnabled = true;
+            // The queue is read from disk, ahead of the files the executor queues for upload
+            mPostProcessExecutor.execute(() -> {
+                mUploader = new ChunkedUploader(uploadOptions, new File(getFilesDir(), UPLOAD_QUEUE_FILE_NAME), mUploadListener);
+                mUploadingFiles.addAll(mUploader.getQueuedPaths());
+                mUploader.start();
+            });
+        }
+        String recordingEngine = intent.getStringExtra("RecordingEngine");
+        mRecordingEngine = recordingEngine != null ? recordingEngine : RecorderBackends.ENGINE_MEDIA_RECORDER;
+        mRequestedProfile = QualityProfile.fromIntent(intent);
+        mAdaptiveQuality = intent.getBooleanExtra("AdaptiveQuality", false);
+        String captureMode = intent.getStringExtra("CaptureMode");
+        mCaptureMode = captureMode != null ? captureMode : CAPTURE_AUDIO_VIDEO;
+        mRequestedAudioProfile = AudioProfile.fromIntent(intent);
+        List<String> ignoredOptions = new ArrayList<>();
+        if (mFragmentDurationMillis > 0 && RecorderBackends.ENGINE_MEDIA_RECORDER.equals(mRecordingEngine)) {
+            // MediaRecorder cannot write fragments
+            ignoreOption(ignoredOptions, recordingEngine != null, "recordingEngine");
+            mRecordingEngine = RecorderBackends.ENGINE_MEDIA_CODEC;
+        }
+        if (isAudioOnly()) {
+            ignoreOption(ignoredOptions, mPreEventBufferSeconds > 0, "preEventBufferSeconds");
+            ignoreOption(ignoredOptions, mMotionTrigger, "motionTrigger");
+            ignoreOption(ignoredOptions, mFrameTapRate > 0, "frameTap");
+            ignoreOption(ignoredOptions, mDualCamera, "dualCamera");
+            ignoreOption(ignoredOptions, mAdaptiveQuality, "adaptiveQuality");
+            ignoreOption(ignoredOptions, mTimeLapseIntervalMillis > 0, "timeLapse");
+            ignoreOption(ignoredOptions, mHighSpeedFrameRate > 0, "highSpeedFrameRate");
+            mPreEventBufferSeconds = 0;
+            mMotionTrigger = false;
+            mFrameTapRate = 0;
+            mDualCamera = false;
+            mAdaptiveQuality = false;
+            mTimeLapseIntervalMillis = 0;
+            mHighSpeedFrameRate = 0;
+        }
+        if (isHighSpeed()) {
+            // High speed sessions take a fixed size and rate and no analysis frames
+            ignoreOption(ignoredOptions, mFrameTapRate > 0, "frameTap");
+            ignoreOption(ignoredOptions, mMotionTrigger, "motionTrigger");
+            ignoreOption(ignoredOptions, mDualCamera, "dualCamera");
+            ignoreOption(ignoredOptions, mTimeLapseIntervalMillis > 0, "timeLapse");
+            ignoreOption(ignoredOptions, mAdaptiveQuality, "adaptiveQuality");
+            mFrameTapRate = 0;
+            mMotionTrigger = false;
+            mDualCamera = false;
+            mTimeLapseIntervalMillis = 0;
+            mAdaptiveQuality = false;
+        }
+        if (mEncrypted) {
+            // Only the fragmented muxer writes files in order, so they can be encrypted as written
+            ignoreOption(ignoredOptions, recordingEngine != null && !RecorderBackends.ENGINE_MEDIA_CODEC.equals(recordingEngine), "recordingEngine");
+            ignoreOption(ignoredOptions, mPreEventBufferSeconds > 0, "preEventBufferSeconds");
+            ignoreOption(ignoredOptions, mMotionTrigger, "motionTrigger");
+            ignoreOption(ignoredOptions, mDualCamera, "dualCamera");
+            ignoreOption(ignoredOptions, mTimeLapseIntervalMillis > 0, "timeLapse");
+            mRecordingEngine = RecorderBackends.ENGINE_MEDIA_CODEC;
+            mPreEventBufferSeconds = 0;
+            mMotionTrigger = false;
+            mDualCamera = false;
+            mTimeLapseIntervalMillis = 0;
+            if (mFragmentDurationMillis <= 0) {
+                mFragmentDurationMillis = ENCRYPTED_FRAGMENT_MILLIS;
+            }
+        }
+        if (mTimeLapseIntervalMillis > 0 && getTimeLapseCaptureRate() >= mTimeLapseFrameRate) {
+            // An interval shorter than a playback frame keeps every frame
+            ignoreOption(ignoredOptions, true, "timeLapse");
+            mTimeLapseIntervalMillis = 0;
+        }
+        if (isTimeLapse()) {
+            // MediaRecorder drops the frames between captures and records no audio
+            ignoreOption(ignoredOptions, recordingEngine != null && !RecorderBackends.ENGINE_MEDIA_RECORDER.equals(recordingEngine), "recordingEngine");
+            ignoreOption(ignoredOptions, CAPTURE_AUDIO_VIDEO.equals(mCaptureMode) && captureMode != null, "captureMode");
+            ignoreOption(ignoredOptions, mPreEventBufferSeconds > 0, "preEventBufferSeconds");
+            ignoreOption(ignoredOptions, mMotionTrigger, "motionTrigger");
+            ignoreOption(ignoredOptions, mDualCamera, "dualCamera");
+            ignoreOption(ignoredOptions, mFragmentDurationMillis > 0, "fragmentDuration");
+            mRecordingEngine = RecorderBackends.ENGINE_MEDIA_RECORDER;
+            mCaptureMode = CAPTURE_VIDEO_ONLY;
+            mPreEventBufferSeconds = 0;
+            mMotionTrigger = false;
+            mDualCamera = false;
+            mFragmentDurationMillis = 0;
+            mRequestedProfile = mRequestedProfile.withFrameRate(mTimeLapseFrameRate);
+        }
+        if (mMotionTrigger && mFrameTapRate <= 0) {
+            mFrameTapRate = MOTION_ANALYSIS_RATE;
+            mFrameTapSize = new Size(MOTION_ANALYSIS_WIDTH, MOTION_ANALYSIS_HEIGHT);
+        }
+        if (mTelemetryEnabled && (isAudioOnly() || isBuffered() || isTimeLapse() || mEncrypted)) {
+            // Telemetry needs plain video files written in real time
+            ignoreOption(ignoredOptions, true, "telemetry");
+            mTelemetryEnabled = false;
+        }
+        if (!ignoredOptions.isEmpty()) {
+            Log.w(TAG, "Ignoring options that conflict with the others: " + ignoredOptions);
+            Map<String, Object> extras = new HashMap<>();
+            extras.put("options", ignoredOptions);
+            sendStateEvent(RecorderEvent.OPTIONS_IGNORED, "Conflicting options ignored: " + String.join(", ", ignoredOptions) + ".", extras);
+        }
+        if (mTelemetryEnabled && mTelemetry == null) {
+            mTelemetry = new TelemetryWriter();
+            mTelemetrySensors = new TelemetrySensors(getApplicationContext(), mTelemetry);
+        }
+        mMinFreeBytes = intent.getLongExtra("MinFreeBytes", 0);
+        mLowStorageSeconds = intent.getLongExtra("LowStorageSeconds", 0);
+        mPreallocateFiles = intent.getBooleanExtra("PreallocateFiles", false);
+        RecorderMetrics.setTracingEnabled(intent.getBooleanExtra("TraceStages", false));
+        mBroadcastEvents = intent.getBooleanExtra("BroadcastEvents", false);
+        if (mAdaptiveQuality) {
+            registerThermalListener();
+        }
 
         String notificationTitle = intent.getStringExtra("NotificationTitle");
         String notificationText = intent.getStringExtra("NotificationText");
@@ -148,85 +627,415 @@ public class VideoRecorderService extends Service {
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU) {
             startForeground(SERVICE_ID, notification);
         } else {
-            startForeground(SERVICE_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_MICROPHONE);
+            startForeground(SERVICE_ID, notification, getForegroundServiceType());
         }
-        setupCameraAndTargetFolder();
+        mCameraHandler.post(this::setupCameraAndTargetFolder);
         Log.i(TAG, "Recording service started in foreground");
         return super.onStartCommand(intent, flags, startId);
     }
 
     public void setupCameraAndTargetFolder() {
-        createVideoFolder();
-        setupCamera();
+        // Created on the camera thread so the recorder's info events are delivered on it
+        if (mRecorder == null) {
+            mRecorder = mBackends.createRecorder(getApplicationContext(), mRecordingEngine);
+        }
+        mAudioProfile = mRequestedAudioProfile.validate(isAudioOnly());
+        // The folder is created and checked for interrupted recordings while the camera is queried
+        File folder = getVideoFolder(mVideoFolderName);
+        StorageGuard storageGuard = new StorageGuard(mStorage, folder, mMinFreeBytes, mLowStorageSeconds);
+        mFolderReady = CompletableFuture.supplyAsync(() -> {
+            createVideoFolder(folder);
+            recoverOrphanedRecordings(folder);
+            return new PreparedFolder(folder, storageGuard);
+        }, mStartupExecutor);
+        mFolderReady.thenAcceptAsync(prepared -> {
+            mVideoFolder = prepared.folder;
+            mStorageGuard = prepared.storageGuard;
+        }, mCameraHandler::post);
+        if (isAudioOnly()) {
+            setupWithoutCamera();
+        } else {
+            if (mCamera instanceof NoCameraBackend) {
+                mCamera = mBackends.createCamera(getApplicationContext(), mCameraHandler);
+            }
+            setupCamera();
+        }
+    }
+
+    private boolean isAudioOnly() {
+        return CAPTURE_AUDIO_ONLY.equals(mCaptureMode);
+    }
+
+    private boolean isVideoOnly() {
+        return CAPTURE_VIDEO_ONLY.equals(mCaptureMode);
+    }
+
+    // Only the hardware the capture mode uses is declared
+    private int getForegroundServiceType() {
+        if (isAudioOnly()) {
+            return ServiceInfo.FOREGROUND_SERVICE_TYPE_MICROPHONE;
+        }
+        int type = isVideoOnly() ? ServiceInfo.FOREGROUND_SERVICE_TYPE_CAMERA
+                : ServiceInfo.FOREGROUND_SERVICE_TYPE_CAMERA | ServiceInfo.FOREGROUND_SERVICE_TYPE_MICROPHONE;
+        if (mTelemetryEnabled && canRecordLocationInBackground()) {
+            type |= ServiceInfo.FOREGROUND_SERVICE_TYPE_LOCATION;
+        }
+        return type;
+    }
+
+    // Needs the location permission and the location type declared for the service
+    private boolean canRecordLocationInBackground() {
+        if (checkSelfPermission(Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
+            return false;
+        }
+        try {
+            ServiceInfo info = getPackageManager().getServiceInfo(new ComponentName(this, VideoRecorderService.class), 0);
+            if ((info.getForegroundServiceType() & ServiceInfo.FOREGROUND_SERVICE_TYPE_LOCATION) != 0) {
+                return true;
+            }
+        } catch (PackageManager.NameNotFoundException e) {
+            // Not declared, which cannot happen while it runs
+        }
+        Log.w(TAG, "Service is not declared with the location type, locations are only recorded while the app is visible");
+        return false;
+    }
+
+    // Audio-only recordings run on a camera backend that opens nothing
+    private void setupWithoutCamera() {
+        if (!(mCamera instanceof NoCameraBackend)) {
+            mCamera.close();
+            mCamera = new NoCameraBackend(mCameraHandler);
+        }
+        mCameraId = NoCameraBackend.CAMERA_ID;
+        mTotalRotation = 0;
+        mRealtimeTimestamps = true;
     }
 
     public void startVideoRecording() {
         isRecording = true;
+        RecorderMetrics.beginStage(RecorderMetrics.STAGE_START);
         Log.i(TAG, "Recorder initializing");
-        Intent broadcastIntent = new Intent();
-        broadcastIntent.setAction(FlutterBackgroundVideoRecorderPlugin.RECORDING_RECEIVER);
-        broadcastIntent.addCategory(Intent.CATEGORY_DEFAULT);
-        broadcastIntent.putExtra("msg", "Initializing recorder");
-        broadcastIntent.putExtra("code", "INITIALIZING");
-        sendBroadcast(broadcastIntent);
-        createVideoFile();
-        connectCamera();
+        sendStateEvent(RecorderEvent.INITIALIZING, "Initializing recorder");
+        mCameraHandler.post(() -> {
+            mStartRequested = true;
+            if (mCamera.hasSession()) {
+                // Armed, the session is already running into the prepared recorder
+                startCapture();
+            } else if (!mCameraOpening) {
+                openCameraSession();
+            }
+        });
     }
 
-    public String stopVideoRecording() {
-        mMediaRecorder.stop();
-        mMediaRecorder.reset();
-        mMediaRecorder = null;
-        closeCamera();
-        isRecording = false;
-        Log.i(TAG, "Recording stopped");
-        Intent broadcastIntent = new Intent();
-        broadcastIntent.setAction(FlutterBackgroundVideoRecorderPlugin.RECORDING_RECEIVER);
-        broadcastIntent.addCategory(Intent.CATEGORY_DEFAULT);
-        broadcastIntent.putExtra("msg", "Recording stopped.");
-        broadcastIntent.putExtra("code", "STOPPED");
-        sendBroadcast(broadcastIntent);
-        stopForeground(STOP_FOREGROUND_REMOVE);
-        stopSelf();
-        return mVideoFileName;
+    // Prepares everything but the recorder's start, until disarmRecorder() is called
+    public void armRecorder() {
+        mArmedMode = true;
+        Log.i(TAG, "Arming recorder");
+        mCameraHandler.post(() -> {
+            mStartRequested = false;
+            if (!mCamera.hasSession() && !mCameraOpening) {
+                openCameraSession();
+            }
+        });
     }
 
-    private static class CompareSizeByArea implements Comparator<Size> {
-        @Override
-        public int compare(Size lhs, Size rhs) {
-            return Long.signum((long) lhs.getWidth() * lhs.getHeight() /
-                    (long) rhs.getWidth() * rhs.getHeight());
-        }
+    // Releases an armed recorder that was never started and stops the service
+    public void disarmRecorder() {
+        mArmedMode = false;
+        mCameraHandler.post(() -> {
+            if (mRecorderStarted) {
+                return;
+            }
+            cancelStartup();
+            mRecorder.reset();
+            closeCamera();
+            deleteUnusedVideoFile();
+            isArmed = false;
+            Log.i(TAG, "Recorder disarmed");
+            sendStateEvent(RecorderEvent.STOPPED, "Recorder disarmed.");
+            mMainHandler.post(() -> {
+                stopForeground(STOP_FOREGROUND_REMOVE);
+                stopSelf();
+            });
+        });
+    }
+
+    // Callback receives the file name on the main thread, armed mode prepares the recorder again
+    public void stopVideoRecording(@NonNull ResultCallback<String> callback) {
+        RecorderMetrics.beginStage(RecorderMetrics.STAGE_STOP);
+        mCameraHandler.post(() -> {
+            cancelStartup();
+            String videoFileName = null;
+            if (isBuffered()) {
+                // Only clips saved with saveClip() are written, the camera stops feeding the encoder first
+                closeCamera();
+                releaseBufferedEncoders();
+                mRecorderStarted = false;
+            } else if (mRecorderStarted) {
+                videoFileName = mVideoFileName;
+                mRecorder.stop();
+                mRecorderStarted = false;
+                stopTelemetry();
+                stopSecondaryCamera();
+                StorageGuard.closeOutput(mVideoOutput);
+                mVideoOutput = null;
+                if (isSegmented()) {
+                    onSegmentCompleted(mVideoFileName);
+                } else {
+                    long durationMillis = SystemClock.elapsedRealtime() - mSegmentStartMillis;
+                    RecorderMetrics.onFileWritten(new File(mVideoFileName).length(), durationMillis);
+                    postProcessRecording(mVideoFileName);
+                    uploadRecording(mVideoFileName);
+                    catalogRecording(mVideoFileName, durationMillis);
+                }
+            } else {
+                deleteUnusedVideoFile();
+            }
+            deleteNextVideoFile();
+            mRecorder.reset();
+            mStartRequested = false;
+            isRecording = false;
+            Log.i(TAG, "Recording stopped");
+            sendStateEvent(RecorderEvent.STOPPED, "Recording stopped.");
+            RecorderMetrics.endStage(RecorderMetrics.STAGE_STOP);
+            final String stoppedFileName = videoFileName;
+            if (mArmedMode && mCamera.hasSession()) {
+                rearmRecorder();
+                mMainHandler.post(() -> callback.onResult(stoppedFileName));
+                return;
+            }
+            closeCamera();
+            mMainHandler.post(() -> {
+                stopServiceAfterUploads();
+                callback.onResult(stoppedFileName);
+            });
+        });
+    }
+
+    // Callback receives the clip's file name on the main thread, or null when no clip was written
+    public void saveClip(int preSeconds, int postSeconds, @NonNull ResultCallback<String> callback) {
+        mCameraHandler.post(() -> {
+            if (mSampleRing == null || mStorageGuard.isFull()) {
+                mMainHandler.post(() -> callback.onResult(null));
+                return;
+            }
+            File clipFile;
+            try {
+                clipFile = newVideoFile();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to create clip file.");
+                mMainHandler.post(() -> callback.onResult(null));
+                return;
+            }
+            long nowUs = getCameraClockUs();
+            int width = mVideoSize.getWidth();
+            int height = mVideoSize.getHeight();
+            String codec = mActiveProfile.getMimeType();
+            mClipExecutor.execute(new ClipWriter(
+                    mSampleRing,
+                    clipFile,
+                    nowUs - preSeconds * 1000000L,
+                    nowUs + postSeconds * 1000000L,
+                    mTotalRotation,
+                    (clipFileName, durationMillis) -> {
+                        if (clipFileName != null) {
+                            postProcessRecording(clipFileName);
+                            uploadRecording(clipFileName);
+                            catalogRecording(clipFileName, durationMillis, width, height, codec);
+                        }
+                        mMainHandler.post(() -> callback.onResult(clipFileName));
+                    }
+            ));
+        });
+    }
+
+    public boolean getArmedStatus() {
+        return isArmed;
+    }
+
+    // Free space and how many seconds can still be recorded at the current bit rates
+    public void getStorageForecast(@NonNull ResultCallback<Map<String, Long>> callback) {
+        mCameraHandler.post(() -> {
+            Map<String, Long> forecast = null;
+            if (mStorageGuard != null) {
+                forecast = new HashMap<>();
+                forecast.put("availableBytes", mStorageGuard.getAvailableBytes());
+                forecast.put("remainingSeconds", mStorageGuard.forecastRemainingSeconds(getBytesPerSecond()));
+            }
+            final Map<String, Long> result = forecast;
+            mMainHandler.post(() -> callback.onResult(result));
+        });
     }
 
     private void setupCamera() {
-        CameraManager cameraManager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
+        long setupStartNanos = SystemClock.elapsedRealtimeNanos();
         int lensFacing;
         if (mCameraFacing.equals("Front Camera")) {
             lensFacing = CameraCharacteristics.LENS_FACING_FRONT;
         } else {
             lensFacing = CameraCharacteristics.LENS_FACING_BACK;
         }
+        CameraCapabilityCache.Entry cachedEntry = CameraCapabilityCache.get(getApplicationContext(), lensFacing);
+        if (cachedEntry != null) {
+            applyCameraCapabilities(cachedEntry);
+            CameraCapabilityCache.recordSetupTime(true, SystemClock.elapsedRealtimeNanos() - setupStartNanos);
+            return;
+        }
         try {
-            for (String cameraId: cameraManager.getCameraIdList()) {
-                CameraCharacteristics cameraCharacteristics = cameraManager.getCameraCharacteristics(cameraId);
-                if (cameraCharacteristics.get(CameraCharacteristics.LENS_FACING) != null) {
-                    Integer lensFacingCameraCharacteristics = cameraCharacteristics.get(CameraCharacteristics.LENS_FACING);
-                    if (lensFacingCameraCharacteristics != null && lensFacingCameraCharacteristics == lensFacing) {
-                        StreamConfigurationMap map = cameraCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-                        if (map != null) {
-                            int deviceOrientation = getDeviceOrientation();
-                            mTotalRotation = sensorToDeviceRotation(cameraCharacteristics, deviceOrientation);
-                            mVideoSize = chooseOptimalSize(map.getOutputSizes(MediaRecorder.class));
-                            mCameraId = cameraId;
-                            return;
-                        }
-                    }
-                }
+            CameraCapabilityCache.Entry entry = mCamera.queryCapabilities(lensFacing);
+            if (entry == null) {
+                throw new StartupException(RecorderEvent.STAGE_QUERY_CAMERA, "No " + mCameraFacing + " on this device", null);
             }
-        } catch (CameraAccessException e) {
+            CameraCapabilityCache.put(getApplicationContext(), lensFacing, entry);
+            applyCameraCapabilities(entry);
+            CameraCapabilityCache.recordSetupTime(false, SystemClock.elapsedRealtimeNanos() - setupStartNanos);
+        } catch (IOException e) {
             Log.e(TAG, "Camera setup failed.  Make sure you have granted camera permissions and try again.");
-            destroyServiceOnException();
+            failStartup(new StartupException(RecorderEvent.STAGE_QUERY_CAMERA, "Camera characteristics not accessible", e));
+        } catch (StartupException e) {
+            failStartup(e);
+        }
+    }
+
+    private void applyCameraCapabilities(CameraCapabilityCache.Entry entry) {
+        mCameraId = entry.cameraId;
+        mTotalRotation = sensorToDeviceRotation(entry.sensorOrientation, getDeviceOrientation());
+        mSupportedSizes = entry.supportedSizes;
+        mBaseProfile = null;
+        if (isHighSpeed()) {
+            mBaseProfile = mRequestedProfile.withFrameRate(mHighSpeedFrameRate).validateHighSpeed(entry.highSpeedSizes, entry.highSpeedFrameRateRanges);
+            if (mBaseProfile == null) {
+                Log.w(TAG, "Camera " + entry.cameraId + " has no high speed video, recording at regular frame rates");
+                mHighSpeedFrameRate = 0;
+            }
+        }
+        if (mBaseProfile == null) {
+            mBaseProfile = mRequestedProfile.validate(entry.cameraId, entry.supportedSizes, entry.videoSize);
+        }
+        mActiveProfile = mBaseProfile;
+        mVideoSize = mBaseProfile.getSize();
+        mRealtimeTimestamps = entry.realtimeTimestamps;
+        mFrameRateRanges = entry.frameRateRanges;
+        setupSecondaryCamera(entry);
+    }
+
+    // The first camera of the other lens facing that can stream at the same time
+    private void setupSecondaryCamera(CameraCapabilityCache.Entry mainEntry) {
+        if (!mDualCamera || isBuffered() || mSecondaryRecorder != null) {
+            return;
+        }
+        int lensFacing = mCameraFacing.equals("Front Camera") ? CameraCharacteristics.LENS_FACING_BACK : CameraCharacteristics.LENS_FACING_FRONT;
+        CameraCapabilityCache.Entry entry = CameraCapabilityCache.get(getApplicationContext(), lensFacing);
+        if (entry == null) {
+            try {
+                entry = mCamera.queryCapabilities(lensFacing);
+            } catch (IOException e) {
+                Log.w(TAG, "Second camera not accessible: " + e);
+            }
+            if (entry != null) {
+                CameraCapabilityCache.put(getApplicationContext(), lensFacing, entry);
+            }
+        }
+        if (entry == null || !mCamera.supportsConcurrentStreaming(mainEntry.cameraId, entry.cameraId)) {
+            Log.w(TAG, "Cameras cannot stream concurrently, recording the main camera only");
+            return;
+        }
+        mSecondaryClockShared = entry.realtimeTimestamps == mainEntry.realtimeTimestamps;
+        if (!mSecondaryClockShared) {
+            Log.w(TAG, "Cameras stamp frames with different clocks, no start offset is reported");
+        }
+        Size size = QualityProfile.chooseOptimalSize(entry.supportedSizes, SECONDARY_WIDTH, SECONDARY_HEIGHT);
+        // Same bits per pixel as the main recording
+        long bitRate = (long) mBaseProfile.bitRate * size.getWidth() * size.getHeight() / ((long) mBaseProfile.width * mBaseProfile.height);
+        QualityProfile profile = new QualityProfile(
+                size.getWidth(),
+                size.getHeight(),
+                mBaseProfile.frameRate,
+                (int) Math.min(bitRate, mBaseProfile.bitRate),
+                mBaseProfile.encoder,
+                mBaseProfile.iFrameInterval,
+                mBaseProfile.bitRateMode
+        );
+        mSecondaryRecorder = new SecondaryCameraRecorder(
+                mBackends.createCamera(getApplicationContext(), mCameraHandler),
+                mBackends.createRecorder(getApplicationContext(), mRecordingEngine),
+                entry.cameraId,
+                profile,
+                sensorToDeviceRotation(entry.sensorOrientation, getDeviceOrientation()),
+                entry.realtimeTimestamps
+        );
+        Log.i(TAG, "Recording camera " + entry.cameraId + " alongside camera " + mainEntry.cameraId);
+    }
+
+    private void openSecondaryCamera() {
+        if (mSecondaryRecorder == null) {
+            return;
+        }
+        try {
+            mSecondaryRecorder.open(newVideoFile());
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to create second camera file.");
+        }
+    }
+
+    // The second file's start offset is only known when both cameras share a clock
+    private void stopSecondaryCamera() {
+        if (mSecondaryRecorder == null) {
+            return;
+        }
+        File secondaryFile = mSecondaryRecorder.stop();
+        if (secondaryFile == null) {
+            return;
+        }
+        Map<String, Object> extras = new HashMap<>();
+        extras.put("path", secondaryFile.getAbsolutePath());
+        extras.put("cameraId", mSecondaryRecorder.getCameraId());
+        extras.put("sizeBytes", secondaryFile.length());
+        long secondaryFirstFrameNanos = mSecondaryRecorder.getFirstFrameNanos();
+        if (mSecondaryClockShared && secondaryFirstFrameNanos >= 0 && mRecordingFirstFrameNanos >= 0) {
+            extras.put("startOffsetNanos", secondaryFirstFrameNanos - mRecordingFirstFrameNanos);
+        }
+        sendStateEvent(RecorderEvent.SECONDARY_RECORDING_COMPLETED, "Second camera recording saved.", extras);
+        postProcessRecording(secondaryFile.getAbsolutePath());
+        uploadRecording(secondaryFile.getAbsolutePath());
+        QualityProfile secondaryProfile = mSecondaryRecorder.getProfile();
+        catalogRecording(secondaryFile.getAbsolutePath(), mSecondaryRecorder.getDurationMillis(), secondaryProfile.width, secondaryProfile.height, secondaryProfile.getMimeType());
+    }
+
+    // A thermal downgrade of the resolution waits for the next session
+    private QualityProfile getTargetProfile() {
+        QualityProfile profile = mAdaptiveQuality ? mBaseProfile.degrade(mThermalLevel, mSupportedSizes) : mBaseProfile;
+        if (mCamera.hasSession()) {
+            profile = profile.withSize(mVideoSize);
+        }
+        return profile;
+    }
+
+    private void registerThermalListener() {
+        if (mThermalListener != null || Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return;
+        }
+        mThermalListener = this::onThermalStatusChanged;
+        getSystemService(PowerManager.class).addThermalStatusListener(mCameraHandler::post, mThermalListener);
+    }
+
+    private void unregisterThermalListener() {
+        if (mThermalListener != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            getSystemService(PowerManager.class).removeThermalStatusListener(mThermalListener);
+            mThermalListener = null;
+        }
+    }
+
+    // Camera thread, MediaRecorder picks the new profile up at the next segment
+    private void onThermalStatusChanged(int status) {
+        int level = QualityProfile.getThermalLevel(status);
+        if (level == mThermalLevel) {
+            return;
+        }
+        mThermalLevel = level;
+        Log.i(TAG, "Thermal status " + status + ", quality level " + level);
+        if (mVideoEncoder != null) {
+            mVideoEncoder.setBitRate(getTargetProfile().bitRate);
         }
     }
 
@@ -242,157 +1051,982 @@ public class VideoRecorderService extends Service {
     }
 
     private void connectCamera() {
-        CameraManager cameraManager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
         try {
-            cameraManager.openCamera(mCameraId, mCameraDeviceStateCallback, null);
-        } catch (CameraAccessException | SecurityException e) {
+            mCamera.open(mCameraId, mCameraListener);
+        } catch (IOException e) {
             Log.e(TAG, "Failed to connect to camera.");
-            Toast.makeText(
-                    getApplicationContext(),
-                    "Connection to camera failed. Make sure you have granted camera permissions to the app or the camera is not in use.",
-                    Toast.LENGTH_SHORT
-            ).show();
+            // The cached camera id may no longer be valid, resolve it again next time
+            CameraCapabilityCache.invalidate(getApplicationContext());
+            showToast("Connection to camera failed. Make sure you have granted camera permissions to the app or the camera is not in use.");
+            mCameraOpened.completeExceptionally(new StartupException(RecorderEvent.STAGE_OPEN_CAMERA, "Camera " + mCameraId + " could not be opened", e));
+        }
+    }
+
+    // A stage that fails stops the service with an EXCEPTION event naming it
+    private void openCameraSession() {
+        mCameraOpening = true;
+        int generation = ++mStartupGeneration;
+        RecorderMetrics.beginStage(RecorderMetrics.STAGE_OPEN_CAMERA);
+        CompletableFuture<Void> cameraOpened = new CompletableFuture<>();
+        mCameraOpened = cameraOpened;
+        // Read on the camera thread, the startup thread only gets values
+        boolean buffered = isBuffered();
+        QualityProfile profile = getTargetProfile();
+        int bufferSeconds = getBufferSeconds();
+        QualityProfile baseProfile = mBaseProfile;
+        AudioProfile audioProfile = isVideoOnly() ? null : mAudioProfile;
+        boolean realtimeTimestamps = mRealtimeTimestamps;
+        String fileBaseName = getVideoFileBaseName();
+        String extension = getVideoFileExtension();
+        long preallocationBytes = mPreallocateFiles ? getPreallocationBytes() : 0;
+        CompletableFuture<Surface> recordSurface = mFolderReady
+                .thenApplyAsync(folder -> buffered
+                        ? createBufferedEncoders(profile, baseProfile, audioProfile, bufferSeconds, realtimeTimestamps)
+                        : createOutputFile(folder, fileBaseName, extension, preallocationBytes), mStartupExecutor)
+                .thenApplyAsync(output -> adoptOutput(generation, output), mCameraHandler::post);
+        connectCamera();
+        openSecondaryCamera();
+        // Completes once both stages are done, so a failed camera never resets a recorder that is still being prepared
+        CompletableFuture.allOf(cameraOpened, recordSurface)
+                .whenCompleteAsync((done, error) -> {
+                    if (generation != mStartupGeneration) {
+                        // Stopped or closed in the meantime, which released what was adopted
+                        return;
+                    }
+                    mCameraOpened = null;
+                    if (error != null) {
+                        failStartup(error);
+                    } else {
+                        startRecord(recordSurface.join());
+                    }
+                }, mCameraHandler::post);
+    }
+
+    // Startup thread, creates the recording's file and preallocates it
+    private static PreparedOutput createOutputFile(@NonNull PreparedFolder folder, @NonNull String fileBaseName, @NonNull String extension, long preallocationBytes) {
+        File file;
+        try {
+            file = newVideoFile(folder.folder, fileBaseName, extension);
+        } catch (IOException e) {
+            throw new CompletionException(new StartupException(RecorderEvent.STAGE_CREATE_FILE, "Recording file could not be created", e));
+        }
+        RandomAccessFile output = preallocationBytes > 0 ? folder.storageGuard.openOutput(file, preallocationBytes) : null;
+        return new PreparedOutput(file, output, null, null, null, null);
+    }
+
+    // Startup thread, creates and starts the encoders of the pre-event buffer
+    private static PreparedOutput createBufferedEncoders(@NonNull QualityProfile profile, @NonNull QualityProfile baseProfile, @Nullable AudioProfile audioProfile, int bufferSeconds, boolean realtimeTimestamps) {
+        int audioBitRate = audioProfile != null ? audioProfile.bitRate : 0;
+        int audioSamplesPerSecond = audioProfile != null ? audioProfile.sampleRate / 1024 + 1 : 0;
+        long ringBytes = (long) bufferSeconds * (baseProfile.bitRate + audioBitRate) / 8 * 5 / 4;
+        int ringSamples = bufferSeconds * (baseProfile.frameRate + audioSamplesPerSecond) * 2;
+        EncodedSampleRing sampleRing = new EncodedSampleRing((int) Math.min(ringBytes, Integer.MAX_VALUE), ringSamples);
+        SurfaceVideoEncoder videoEncoder;
+        try {
+            videoEncoder = new SurfaceVideoEncoder(SurfaceVideoEncoder.createFormat(profile), sampleRing);
+            videoEncoder.start();
+        } catch (IOException | RuntimeException e) {
+            sampleRing.close();
+            throw new CompletionException(new StartupException(RecorderEvent.STAGE_PREPARE_RECORDER, "Recorder could not be prepared", e));
+        }
+        MicAudioEncoder audioEncoder = null;
+        if (audioProfile != null) {
+            try {
+                audioEncoder = new MicAudioEncoder(audioProfile, realtimeTimestamps, sampleRing);
+                audioEncoder.start();
+            } catch (IOException e) {
+                Log.e(TAG, "Buffering without audio: " + e);
+                audioEncoder = null;
+            }
+        }
+        return new PreparedOutput(null, null, sampleRing, videoEncoder, audioEncoder, profile);
+    }
+
+    // Camera thread, prepares the recorder into the file the startup thread made
+    private Surface adoptOutput(int generation, @NonNull PreparedOutput output) {
+        if (generation != mStartupGeneration) {
+            output.release();
+            throw new CancellationException("Startup abandoned");
+        }
+        if (output.videoEncoder != null) {
+            mSampleRing = output.sampleRing;
+            mVideoEncoder = output.videoEncoder;
+            mAudioEncoder = output.audioEncoder;
+            mActiveProfile = output.profile;
+            mVideoSize = mActiveProfile.getSize();
+            return mVideoEncoder.getInputSurface();
+        }
+        mVideoFileName = output.file.getAbsolutePath();
+        StorageGuard.closeOutput(mVideoOutput);
+        mVideoOutput = output.output;
+        try {
+            setupMediaRecorder();
+            return mRecorder.getInputSurface();
+        } catch (IOException | RuntimeException e) {
+            throw new CompletionException(new StartupException(RecorderEvent.STAGE_PREPARE_RECORDER, "Recorder could not be prepared", e));
+        }
+    }
+
+    // Stages still running release what they made when they see the generation changed
+    private void cancelStartup() {
+        mStartupGeneration++;
+        mCameraOpened = null;
+    }
+
+    // Camera thread, releases what the startup built and stops the service
+    private void failStartup(@NonNull Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        String stage = cause instanceof StartupException ? ((StartupException) cause).stage : RecorderEvent.STAGE_CONFIGURE_SESSION;
+        String message = cause.getCause() != null ? cause.getMessage() + ": " + cause.getCause() : String.valueOf(cause.getMessage());
+        Log.e(TAG, "Recorder startup failed in stage " + stage + ": " + message);
+        closeCamera();
+        if (isBuffered()) {
+            releaseBufferedEncoders();
+        } else {
+            mRecorder.reset();
+        }
+        deleteUnusedVideoFile();
+        destroyServiceOnException(stage, message);
+    }
+
+    private void startRecord(@NonNull Surface recordSurface) {
+        RecorderMetrics.beginStage(RecorderMetrics.STAGE_CONFIGURE_SESSION);
+        try {
+            List<Surface> targets = new ArrayList<>();
+            targets.add(recordSurface);
+            if (mFrameTapRate > 0) {
+                mFrameTap = new FrameTap(QualityProfile.chooseOptimalSize(mSupportedSizes, mFrameTapSize.getWidth(), mFrameTapSize.getHeight()), mFrameTapRate, mFrameListeners);
+                targets.add(mFrameTap.getSurface());
+                if (mMotionTrigger) {
+                    addMotionListener();
+                }
+            }
+            mCamera.startSession(targets, getSessionFrameRateRange(), isHighSpeed());
+        } catch (IOException e) {
+            failStartup(new StartupException(RecorderEvent.STAGE_CONFIGURE_SESSION, "Capture session could not be created", e));
+        }
+    }
+
+    private void startCapture() {
+        if (!isBuffered() && mStorageGuard.isFull()) {
+            Log.e(TAG, "Not enough free storage to start recording");
+            showToast("Not enough free storage to record.");
+            sendStorageEvent(RecorderEvent.STORAGE_FULL, "Storage full.");
+            mRecorder.reset();
+            closeCamera();
+            deleteUnusedVideoFile();
             destroyServiceOnException();
+            return;
         }
+        if (isBuffered()) {
+            // Encoders have been running into the ring since the session was built
+            mRecorderStarted = true;
+            isArmed = false;
+            RecorderMetrics.endStage(RecorderMetrics.STAGE_START);
+            Log.i(TAG, "Pre-event buffering started");
+            sendStateEvent(RecorderEvent.RECORDING, "Buffering started");
+        } else {
+            startMediaRecorder();
+        }
+    }
+
+    private boolean isTimeLapse() {
+        return mTimeLapseIntervalMillis > 0;
+    }
+
+    private double getTimeLapseCaptureRate() {
+        return 1000.0 / mTimeLapseIntervalMillis;
+    }
+
+    private boolean isHighSpeed() {
+        return mHighSpeedFrameRate > 0;
+    }
+
+    private static void ignoreOption(List<String> ignoredOptions, boolean requested, String option) {
+        if (requested && !ignoredOptions.contains(option)) {
+            ignoredOptions.add(option);
+        }
+    }
+
+    // Auto-exposure target of the capture session, null keeps the camera's default
+    @Nullable
+    private Range<Integer> getSessionFrameRateRange() {
+        if (isHighSpeed()) {
+            // The fixed high speed rate the profile was validated with
+            return new Range<>(mActiveProfile.frameRate, mActiveProfile.frameRate);
+        }
+        return isTimeLapse() ? getTimeLapseFrameRateRange() : null;
+    }
+
+    // Lowest auto-exposure frame rates that still deliver a frame per interval
+    @Nullable
+    private Range<Integer> getTimeLapseFrameRateRange() {
+        Range<Integer> chosen = null;
+        for (Range<Integer> range : mFrameRateRanges) {
+            if (range.getUpper() < getTimeLapseCaptureRate()) {
+                continue;
+            }
+            if (chosen == null || range.getUpper() < chosen.getUpper()
+                    || (range.getUpper().equals(chosen.getUpper()) && range.getLower() < chosen.getLower())) {
+                chosen = range;
+            }
+        }
+        return chosen;
+    }
+
+    private boolean isBuffered() {
+        return mPreEventBufferSeconds > 0 || mMotionTrigger;
+    }
+
+    // Motion-triggered buffers also hold the key frame before the pre-roll
+    private int getBufferSeconds() {
+        if (!mMotionTrigger) {
+            return mPreEventBufferSeconds;
+        }
+        return Math.max(mPreEventBufferSeconds, mMotionPreRollSeconds + mBaseProfile.iFrameInterval + 1);
+    }
+
+    private void releaseBufferedEncoders() {
+        if (mVideoEncoder != null) {
+            mVideoEncoder.stop();
+            mVideoEncoder = null;
+        }
+        if (mAudioEncoder != null) {
+            mAudioEncoder.stop();
+            mAudioEncoder = null;
+        }
+        if (mSampleRing != null) {
+            // A motion clip being written keeps what reached it
+            mSampleRing.close();
+            mSampleRing = null;
+        }
+        mMotionClip = null;
+    }
+
+    // Runs the motion detector on the analysis frames, frames with motion are handed to the camera thread
+    private void addMotionListener() {
+        MotionDetector detector = new MotionDetector(MOTION_LUMA_WIDTH, MOTION_LUMA_HEIGHT, mMotionSensitivity);
+        byte[] luma = new byte[MOTION_LUMA_WIDTH * MOTION_LUMA_HEIGHT];
+        Handler cameraHandler = mCameraHandler;
+        mMotionListener = image -> {
+            FrameTap.downscaleLuma(image, luma, MOTION_LUMA_WIDTH, MOTION_LUMA_HEIGHT);
+            if (detector.process(luma)) {
+                long timestampUs = image.getTimestamp() / 1000;
+                cameraHandler.post(() -> onMotion(timestampUs));
+            }
+        };
+        mFrameListeners.add(mMotionListener);
+    }
+
+    // Motion extends the current clip, or starts a new one once it passed its end
+    private void onMotion(long timestampUs) {
+        if (mSampleRing == null || !mRecorderStarted) {
+            return;
+        }
+        long endUs = timestampUs + mMotionPostRollSeconds * 1000000L;
+        if (mMotionClip != null && mMotionClip.extendTo(endUs)) {
+            return;
+        }
+        if (mStorageGuard.isFull()) {
+            return;
+        }
+        File clipFile;
+        try {
+            clipFile = newVideoFile();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to create motion clip file.");
+            return;
+        }
+        VideoFolderQuota.enforce(mVideoFolder, mDiskQuotaBytes, getQuotaKeptFiles(clipFile.getAbsolutePath()));
+        int width = mVideoSize.getWidth();
+        int height = mVideoSize.getHeight();
+        String codec = mActiveProfile.getMimeType();
+        mMotionClip = new ClipWriter(
+                mSampleRing,
+                clipFile,
+                timestampUs - mMotionPreRollSeconds * 1000000L,
+                endUs,
+                mTotalRotation,
+                (fileName, durationMillis) -> onMotionClipCompleted(fileName, durationMillis, width, height, codec)
+        );
+        mClipExecutor.execute(mMotionClip);
+        Log.i(TAG, "Motion detected, writing " + clipFile.getAbsolutePath());
+        Map<String, Object> extras = new HashMap<>();
+        extras.put("path", clipFile.getAbsolutePath());
+        sendStateEvent(RecorderEvent.MOTION_STARTED, "Motion detected.", extras);
+    }
+
+    // Clip executor, fileName is null when nothing could be written
+    private void onMotionClipCompleted(@Nullable String fileName, long durationMillis, int width, int height, @NonNull String codec) {
+        if (fileName == null) {
+            return;
+        }
+        postProcessRecording(fileName);
+        uploadRecording(fileName);
+        catalogRecording(fileName, durationMillis, width, height, codec);
+        Map<String, Object> extras = new HashMap<>();
+        extras.put("path", fileName);
+        extras.put("sizeBytes", new File(fileName).length());
+        sendStateEvent(RecorderEvent.MOTION_CLIP_COMPLETED, "Motion clip saved.", extras);
+    }
+
+    // Current time in the clock the camera stamps its frames with
+    private long getCameraClockUs() {
+        return (mRealtimeTimestamps ? SystemClock.elapsedRealtimeNanos() : System.nanoTime()) / 1000;
+    }
+
+    private void startMediaRecorder() {
+        if (isSegmented()) {
+            VideoFolderQuota.enforce(mVideoFolder, mDiskQuotaBytes, getQuotaKeptFiles(mVideoFileName));
+        }
+        mRecorder.start();
+        startTelemetry();
+        if (mSecondaryRecorder != null && !mSecondaryRecorder.isRecording()) {
+            mRecordingFirstFrameNanos = -1;
+            mAwaitingRecordingFrame = true;
+            mSecondaryRecorder.start();
+        }
+        mSegmentStartMillis = SystemClock.elapsedRealtime();
+        mRecorderStarted = true;
+        isArmed = false;
+        RecorderMetrics.endStage(RecorderMetrics.STAGE_START);
+        mLowStorageReported = false;
+        mCameraHandler.removeCallbacks(mStorageCheck);
+        mCameraHandler.post(mStorageCheck);
+        Log.i(TAG, "Recording started");
+        sendStateEvent(RecorderEvent.RECORDING, "Recording started");
+    }
+
+    // Moves the telemetry on to the sidecar of the file the recorder just started
+    private void startTelemetry() {
+        if (!mTelemetryEnabled) {
+            return;
+        }
+        long realtimeOffsetNanos = mRealtimeTimestamps ? 0 : System.nanoTime() - SystemClock.elapsedRealtimeNanos();
+        mTelemetry.start(TelemetryReader.sidecarFor(new File(mVideoFileName)), getCameraClockUs() * 1000, realtimeOffsetNanos);
+        mTelemetrySensors.start();
+    }
+
+    private void stopTelemetry() {
+        if (mTelemetry == null) {
+            return;
+        }
+        mTelemetrySensors.stop();
+        mTelemetry.stop();
+    }
+
+    private void onRecorderArmed() {
+        isArmed = true;
+        Log.i(TAG, "Recorder armed");
+        sendStateEvent(RecorderEvent.ARMED, "Recorder armed");
     }
 
-    private void startRecord() {
+    // Prepares the reset recorder with a new file, the capture session keeps feeding the persistent surface
+    private void rearmRecorder() {
+        createVideoFile();
+        if (mSecondaryRecorder != null) {
+            try {
+                mSecondaryRecorder.prepareNext(newVideoFile());
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to create second camera file.");
+            }
+        }
         try {
             setupMediaRecorder();
-            Surface recordSurface = mMediaRecorder.getSurface();
-            mCaptureRequestBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
-            mCaptureRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_VIDEO);
-            mCaptureRequestBuilder.addTarget(recordSurface);
-            mCameraDevice.createCaptureSession(
-                    Collections.singletonList(recordSurface),
-                    new CameraCaptureSession.StateCallback() {
-                        @Override
-                        public void onConfigured(@NonNull CameraCaptureSession cameraCaptureSession) {
-                            try {
-                                cameraCaptureSession.setRepeatingRequest(
-                                        mCaptureRequestBuilder.build(),
-                                        null,
-                                        null
-                                );
-                            } catch (CameraAccessException e) {
-                                Log.e(TAG, e.toString());
-                            }
-                        }
+            onRecorderArmed();
+        } catch (IOException e) {
+            Log.e(TAG, e.toString());
+            closeCamera();
+            destroyServiceOnException(RecorderEvent.STAGE_PREPARE_RECORDER, e.toString());
+        }
+    }
 
-                        @Override
-                        public void onConfigureFailed(@NonNull CameraCaptureSession cameraCaptureSession) {
-                            Toast.makeText(
-                                    getApplicationContext(),
-                                    "Failed to create capture session",
-                                    Toast.LENGTH_SHORT
-                            ).show();
-                        }
-                    },
-                    null
-            );
-        } catch (IOException | CameraAccessException e) {
+    private boolean isSegmented() {
+        return mSegmentDurationSeconds > 0 || mSegmentSizeBytes > 0;
+    }
+
+    // MediaRecorder only switches files without a gap at its size limit
+    private long getSegmentByteLimit() {
+        long limit = Long.MAX_VALUE;
+        if (mSegmentDurationSeconds > 0) {
+            limit = mSegmentDurationSeconds * getBitRate() / 8;
+        }
+        if (mSegmentSizeBytes > 0) {
+            limit = Math.min(limit, mSegmentSizeBytes);
+        }
+        return limit;
+    }
+
+    private final RecorderBackend.Listener mRecorderListener = new RecorderBackend.Listener() {
+        @Override
+        public void onMaxFileSizeApproaching() {
+            if (getTargetProfile().equals(mActiveProfile)) {
+                queueNextSegment();
+            } else {
+                // The recorder cannot change its encoding on the fly
+                Log.i(TAG, "Changing quality to " + getTargetProfile() + " at the segment boundary");
+            }
+        }
+
+        @Override
+        public void onNextOutputFileStarted() {
+            String completedFileName = mVideoFileName;
+            StorageGuard.closeOutput(mVideoOutput);
+            mVideoOutput = mNextVideoOutput;
+            mNextVideoOutput = null;
+            mVideoFileName = mNextVideoFileName;
+            mNextVideoFileName = null;
+            startTelemetry();
+            onSegmentCompleted(completedFileName);
+            mSegmentStartMillis = SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void onMaxFileSizeReached() {
+            // The next file was not queued in time or the quality is changing
+            if (mNextVideoFileName == null && getTargetProfile().equals(mActiveProfile)) {
+                Log.w(TAG, "Segment size reached before the next segment was queued");
+            }
+            restartSegment();
+        }
+    };
+
+    private void queueNextSegment() {
+        if (mNextVideoFileName != null) {
+            return;
+        }
+        try {
+            File nextFile = newVideoFile();
+            RandomAccessFile nextOutput = mPreallocateFiles ? mStorageGuard.openOutput(nextFile, getPreallocationBytes()) : null;
+            try {
+                mRecorder.setNextOutputFile(nextFile, nextOutput != null ? nextOutput.getFD() : null);
+            } catch (IOException e) {
+                StorageGuard.closeOutput(nextOutput);
+                throw e;
+            }
+            mNextVideoOutput = nextOutput;
+            mNextVideoFileName = nextFile.getAbsolutePath();
+            Log.i(TAG, "Next segment queued at " + mNextVideoFileName);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to queue next segment: " + e);
+        }
+    }
+
+    // Starts a fresh recorder file after the recorder stopped on its own, the capture session is kept
+    private void restartSegment() {
+        StorageGuard.closeOutput(mVideoOutput);
+        mVideoOutput = null;
+        onSegmentCompleted(mVideoFileName);
+        mRecorderStarted = false;
+        deleteNextVideoFile();
+        mRecorder.reset();
+        createVideoFile();
+        try {
+            setupMediaRecorder();
+            startMediaRecorder();
+        } catch (IOException e) {
             Log.e(TAG, e.toString());
+            closeCamera();
+            destroyServiceOnException(RecorderEvent.STAGE_PREPARE_RECORDER, e.toString());
+        }
+    }
+
+    private void onSegmentCompleted(String fileName) {
+        File segmentFile = new File(fileName);
+        long durationMillis = SystemClock.elapsedRealtime() - mSegmentStartMillis;
+        Log.i(TAG, "Segment completed " + fileName);
+        RecorderMetrics.onFileWritten(segmentFile.length(), durationMillis);
+        Map<String, Object> extras = new HashMap<>();
+        extras.put("path", fileName);
+        extras.put("durationMillis", durationMillis);
+        extras.put("sizeBytes", segmentFile.length());
+        sendStateEvent(RecorderEvent.SEGMENT_COMPLETED, "Segment saved.", extras);
+        postProcessRecording(fileName);
+        catalogRecording(fileName, durationMillis);
+        uploadRecording(fileName);
+        VideoFolderQuota.enforce(mVideoFolder, mDiskQuotaBytes, getQuotaKeptFiles(mVideoFileName, mNextVideoFileName));
+    }
+
+    // Combined bit rate of the recorded tracks
+    private long getBitRate() {
+        long videoBitRate = isAudioOnly() ? 0 : mActiveProfile.bitRate;
+        if (isTimeLapse()) {
+            // The frames of a second of playback take many seconds to capture
+            videoBitRate = (long) (videoBitRate * getTimeLapseCaptureRate() / mActiveProfile.frameRate);
+        }
+        long audioBitRate = isVideoOnly() ? 0 : mAudioProfile.bitRate;
+        return videoBitRate + audioBitRate;
+    }
+
+    // Every finished file passes through here and leaves the journal once it is final
+    private void postProcessRecording(@Nullable String fileName) {
+        if (fileName == null) {
+            return;
+        }
+        if (!mFastStart || fileName.endsWith(".ogg") || isFragmentedRecording(fileName)) {
+            RecordingJournal.finish(new File(fileName));
+            return;
+        }
+        mPostProcessExecutor.execute(() -> {
+            File file = new File(fileName);
+            if (!file.exists()) {
+                // Deleted by the disk quota in the meantime
+                RecordingJournal.finish(file);
+                return;
+            }
+            long startMillis = SystemClock.elapsedRealtime();
+            boolean relocated = false;
+            try {
+                relocated = Mp4FastStart.process(file);
+            } catch (IOException e) {
+                Log.e(TAG, "Fast start rewrite of " + fileName + " failed: " + e);
+            }
+            RecordingJournal.finish(file);
+            Map<String, Object> extras = new HashMap<>();
+            extras.put("path", fileName);
+            extras.put("relocated", relocated);
+            extras.put("durationMillis", SystemClock.elapsedRealtime() - startMillis);
+            sendStateEvent(RecorderEvent.FAST_START_COMPLETED, "Fast start processing finished.", extras);
+        });
+    }
+
+    // Queues a finished file for upload behind its post-processing, so the final file goes up
+    private void uploadRecording(@Nullable String fileName) {
+        if (!mUploadsEnabled || fileName == null) {
+            return;
+        }
+        // Kept from here on, the quota may run before the executor queues the file
+        mUploadingFiles.add(fileName);
+        mPostProcessExecutor.execute(() -> {
+            ChunkedUploader uploader = mUploader;
+            if (uploader == null) {
+                return;
+            }
+            try {
+                uploader.enqueue(new File(fileName));
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to queue " + fileName + " for upload: " + e);
+            }
+        });
+    }
+
+    // The files the disk quota must not delete: those given and those waiting for upload
+    private String[] getQuotaKeptFiles(String... files) {
+        List<String> kept = new ArrayList<>(mUploadingFiles);
+        kept.addAll(Arrays.asList(files));
+        return kept.toArray(new String[0]);
+    }
+
+    @Nullable
+    private static UploadOptions getUploadOptions(@NonNull Intent intent) {
+        String endpoint = intent.getStringExtra("UploadEndpoint");
+        if (endpoint == null) {
+            return null;
+        }
+        Map<String, String> headers = new LinkedHashMap<>();
+        String[] names = intent.getStringArrayExtra("UploadHeaderNames");
+        String[] values = intent.getStringArrayExtra("UploadHeaderValues");
+        if (names != null && values != null) {
+            for (int i = 0; i < Math.min(names.length, values.length); i++) {
+                headers.put(names[i], values[i]);
+            }
+        }
+        return new UploadOptions(
+                endpoint,
+                headers,
+                intent.getIntExtra("UploadConcurrency", UploadOptions.DEFAULT_CONCURRENCY),
+                intent.getLongExtra("UploadMaxBytesPerSecond", 0),
+                intent.getIntExtra("UploadChunkSizeBytes", UploadOptions.DEFAULT_CHUNK_SIZE_BYTES)
+        );
+    }
+
+    // Adds the extras the service reads its upload options from to its start intent
+    public static void putUploadOptions(@NonNull Intent intent, @NonNull UploadOptions options) {
+        intent.putExtra("UploadEndpoint", options.endpoint);
+        intent.putExtra("UploadHeaderNames", options.headers.keySet().toArray(new String[0]));
+        intent.putExtra("UploadHeaderValues", options.headers.values().toArray(new String[0]));
+        intent.putExtra("UploadConcurrency", options.concurrency);
+        intent.putExtra("UploadMaxBytesPerSecond", options.maxBytesPerSecond);
+        intent.putExtra("UploadChunkSizeBytes", options.chunkSizeBytes);
+    }
+
+    // Waits for the upload queue when uploads are on
+    private void stopServiceAfterUploads() {
+        if (!mUploadsEnabled) {
+            stopForeground(STOP_FOREGROUND_REMOVE);
+            stopSelf();
+            return;
+        }
+        mStopWhenUploadsDone = true;
+        mPostProcessExecutor.execute(() -> mMainHandler.post(this::stopIfUploadsDone));
+    }
+
+    private void stopIfUploadsDone() {
+        if (!mStopWhenUploadsDone || isRecording || mUploader == null || !mUploader.isIdle()) {
+            return;
+        }
+        Log.i(TAG, "Uploads done, stopping service");
+        mStopWhenUploadsDone = false;
+        stopForeground(STOP_FOREGROUND_REMOVE);
+        stopSelf();
+    }
+
+    // Queued behind the file's post-processing
+    private void catalogRecording(@NonNull String fileName, long durationMillis) {
+        int width = isAudioOnly() ? 0 : mVideoSize.getWidth();
+        int height = isAudioOnly() ? 0 : mVideoSize.getHeight();
+        String codec = isAudioOnly() ? mAudioProfile.getMimeType() : mActiveProfile.getMimeType();
+        // Time-lapse files play back faster than they were recorded
+        long mediaDurationMillis = isTimeLapse() ? (long) (durationMillis * getTimeLapseCaptureRate() / mActiveProfile.frameRate) : durationMillis;
+        catalogRecording(fileName, mediaDurationMillis, width, height, codec);
+    }
+
+    // Any thread, for clips and the second camera's files
+    private void catalogRecording(@NonNull String fileName, long mediaDurationMillis, int width, int height, @NonNull String codec) {
+        File folder = mVideoFolder;
+        long createdMillis = System.currentTimeMillis() - mediaDurationMillis;
+        mPostProcessExecutor.execute(() -> {
+            File file = new File(fileName);
+            if (file.exists()) {
+                RecordingCatalog.get(getApplicationContext(), folder).put(file, mediaDurationMillis, width, height, codec, createdMillis);
+            }
+        });
+    }
+
+    // Fragmented files already begin with moov, clips from the pre-event buffer are never fragmented
+    private boolean isFragmentedRecording(@NonNull String fileName) {
+        return mFragmentDurationMillis > 0 && !isBuffered() && !fileName.endsWith(".ogg");
+    }
+
+    // Repairs the files a killed process left in the journal, encrypted and Ogg files are left alone
+    private void recoverOrphanedRecordings(@NonNull File folder) {
+        List<File> files = RecordingJournal.interrupted(folder);
+        if (files.isEmpty()) {
+            return;
+        }
+        mPostProcessExecutor.execute(() -> {
+            for (File file : files) {
+                recoverOrphanedRecording(file);
+                RecordingJournal.finish(file);
+            }
+        });
+    }
+
+    private void recoverOrphanedRecording(@NonNull File file) {
+        // Half written fast start copy, the file it was made from is intact
+        File fastStartCopy = new File(file.getParentFile(), file.getName() + ".faststart");
+        if (fastStartCopy.exists() && !fastStartCopy.delete()) {
+            Log.w(TAG, "Failed to delete " + fastStartCopy.getAbsolutePath());
+        }
+        if (!file.exists()) {
+            return;
+        }
+        if (file.length() == 0) {
+            // The recorder never wrote to it
+            if (!file.delete()) {
+                Log.w(TAG, "Failed to delete " + file.getAbsolutePath());
+            }
+            return;
+        }
+        if (!file.getName().endsWith(".mp4") && !file.getName().endsWith(".m4a")) {
+            return;
+        }
+        int result;
+        try {
+            result = Mp4Recovery.recover(file);
+        } catch (IOException e) {
+            Log.e(TAG, "Recovery of " + file.getAbsolutePath() + " failed: " + e);
+            result = Mp4Recovery.RESULT_UNRECOVERABLE;
+        }
+        if (result == Mp4Recovery.RESULT_COMPLETE) {
+            return;
+        }
+        Log.i(TAG, "Recovery of " + file.getAbsolutePath() + " finished with result " + result);
+        Map<String, Object> extras = new HashMap<>();
+        extras.put("path", file.getAbsolutePath());
+        if (result == Mp4Recovery.RESULT_NO_INDEX) {
+            extras.put("sizeBytes", file.length());
+            sendStateEvent(RecorderEvent.RECORDING_INDEX_MISSING, "Interrupted recording has no index.", extras);
+            return;
+        }
+        File keyFrameIndex = KeyFrameIndex.sidecarFor(file);
+        if (result == Mp4Recovery.RESULT_RECOVERED && keyFrameIndex.exists()) {
+            try {
+                KeyFrameIndexWriter.truncate(keyFrameIndex, file.length());
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to trim " + keyFrameIndex.getAbsolutePath() + ": " + e);
+            }
+        }
+        extras.put("recovered", result == Mp4Recovery.RESULT_RECOVERED);
+        sendStateEvent(RecorderEvent.RECORDING_RECOVERED, "Interrupted recording checked.", extras);
+    }
+
+    // Rate the recorder writes at, used to forecast and preallocate storage
+    private long getBytesPerSecond() {
+        return getBitRate() / 8;
+    }
+
+    private long getPreallocationBytes() {
+        long limit = isSegmented() ? getSegmentByteLimit() : Long.MAX_VALUE;
+        return Math.min(limit, PREALLOCATION_SECONDS * getBytesPerSecond());
+    }
+
+    // Camera thread, segmented recordings delete their oldest segments before recording stops
+    private void checkStorage() {
+        if (!mRecorderStarted || isBuffered()) {
+            return;
+        }
+        if (mStorageGuard.isFull()) {
+            if (isSegmented()) {
+                VideoFolderQuota.free(mVideoFolder, mStorageGuard.getShortfallBytes(), getQuotaKeptFiles(mVideoFileName, mNextVideoFileName));
+            }
+            if (mStorageGuard.isFull()) {
+                Log.w(TAG, "Storage full, stopping recording");
+                sendStorageEvent(RecorderEvent.STORAGE_FULL, "Storage full, recording stopped.");
+                mArmedMode = false;
+                stopVideoRecording(fileName -> {});
+                return;
+            }
+        }
+        boolean low = mStorageGuard.isLow(mStorageGuard.forecastRemainingSeconds(getBytesPerSecond()));
+        if (low && !mLowStorageReported) {
+            Log.w(TAG, "Storage running low");
+            sendStorageEvent(RecorderEvent.LOW_STORAGE, "Storage running low.");
+        }
+        mLowStorageReported = low;
+        mCameraHandler.postDelayed(mStorageCheck, STORAGE_CHECK_INTERVAL_MS);
+    }
+
+    private void closeVideoOutputs() {
+        StorageGuard.closeOutput(mVideoOutput);
+        mVideoOutput = null;
+        StorageGuard.closeOutput(mNextVideoOutput);
+        mNextVideoOutput = null;
+    }
+
+    private void deleteNextVideoFile() {
+        StorageGuard.closeOutput(mNextVideoOutput);
+        mNextVideoOutput = null;
+        if (mNextVideoFileName != null) {
+            File nextFile = new File(mNextVideoFileName);
+            if (nextFile.exists() && !nextFile.delete()) {
+                Log.w(TAG, "Failed to delete unused segment " + mNextVideoFileName);
+            }
+            RecordingJournal.finish(nextFile);
+            mNextVideoFileName = null;
         }
     }
 
     private void closeCamera() {
-        if (mCameraDevice != null) {
-            mCameraDevice.close();
-            mCameraDevice = null;
+        cancelStartup();
+        mCamera.close();
+        if (mSecondaryRecorder != null) {
+            mSecondaryRecorder.close();
+        }
+        if (mFrameTap != null) {
+            mFrameTap.close();
+            mFrameTap = null;
         }
+        if (mMotionListener != null) {
+            mFrameListeners.remove(mMotionListener);
+            mMotionListener = null;
+        }
+        mCameraOpening = false;
     }
 
     private void setupMediaRecorder() throws IOException {
-        mMediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
-        mMediaRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
-        mMediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
-        mMediaRecorder.setOutputFile(mVideoFileName);
-        mMediaRecorder.setVideoEncodingBitRate(10000000);
-        mMediaRecorder.setVideoFrameRate(30);
-        mMediaRecorder.setVideoSize(mVideoSize.getWidth(), mVideoSize.getHeight());
-        mMediaRecorder.setVideoEncoder(MediaRecorder.VideoEncoder.H264);
-        mMediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
-        mMediaRecorder.setOrientationHint(mTotalRotation);
-        mMediaRecorder.prepare();
-    }
-
-    private void createVideoFolder() {
-        File videoFile = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MOVIES);
-        mVideoFolder = new File(videoFile, mVideoFolderName);
-        if (!mVideoFolder.exists()) {
-            if (!mVideoFolder.mkdirs()) {
+        if (mEncrypted && mEncryptionKey == null) {
+            // The key only arrives over the binder, a service started without the plugin has none
+            throw new IOException("Encrypted recording without a key");
+        }
+        mActiveProfile = getTargetProfile();
+        if (mPreallocateFiles && mVideoOutput == null) {
+            mVideoOutput = mStorageGuard.openOutput(new File(mVideoFileName), getPreallocationBytes());
+        }
+        mVideoSize = mActiveProfile.getSize();
+        mRecorder.prepare(new RecorderBackend.Config(
+                new File(mVideoFileName),
+                mVideoOutput != null ? mVideoOutput.getFD() : null,
+                isAudioOnly() ? null : mActiveProfile,
+                isVideoOnly() ? null : mAudioProfile,
+                mTotalRotation,
+                mRealtimeTimestamps,
+                isSegmented() ? getSegmentByteLimit() : 0,
+                mFragmentDurationMillis,
+                isTimeLapse() ? getTimeLapseCaptureRate() : 0,
+                mEncryptionKey,
+                isSegmented() ? mRecorderListener : null
+        ));
+    }
+
+    // Folder the recordings of folderName are written to
+    @NonNull
+    public static File getVideoFolder(@NonNull String folderName) {
+        return new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MOVIES), folderName);
+    }
+
+    // Startup thread, the camera thread takes the folder over once this stage completed
+    private void createVideoFolder(@NonNull File folder) {
+        if (!folder.exists()) {
+            if (!folder.mkdirs()) {
                 Log.e(TAG, "Failed to create target folder.");
-                Toast.makeText(
-                        getApplicationContext(),
-                        "Failed to create target folder. Make sure you have granted file permissions and try again.",
-                        Toast.LENGTH_SHORT
-                ).show();
-            } else {
-                Log.i(TAG, "Target folder created successfully at " + mVideoFolder.getAbsolutePath());
+                showToast("Failed to create target folder. Make sure you have granted file permissions and try again.");
+                throw new CompletionException(new StartupException(RecorderEvent.STAGE_CREATE_FOLDER, "Folder " + folder.getAbsolutePath() + " could not be created", null));
             }
+            Log.i(TAG, "Target folder created successfully at " + folder.getAbsolutePath());
         } else {
-            Log.i(TAG, "Target folder exists at " + mVideoFolder.getAbsolutePath());
+            Log.i(TAG, "Target folder exists at " + folder.getAbsolutePath());
         }
     }
 
+    private File newVideoFile() throws IOException {
+        return newVideoFile(mVideoFolder, getVideoFileBaseName(), getVideoFileExtension());
+    }
+
+    private static File newVideoFile(@NonNull File folder, @NonNull String fileBaseName, @NonNull String extension) throws IOException {
+        String timeStamp = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss", Locale.US).format(new Date());
+        File file = File.createTempFile(fileBaseName + "_" + timeStamp, extension, folder);
+        RecordingJournal.begin(file);
+        return file;
+    }
+
+    private String getVideoFileBaseName() {
+        return mVideoFolderName.replace(" ", "");
+    }
+
+    private String getVideoFileExtension() {
+        String extension = isAudioOnly() ? mAudioProfile.getFileExtension() : ".mp4";
+        if (mEncrypted) {
+            extension += EncryptedFileFormat.FILE_EXTENSION;
+        }
+        return extension;
+    }
+
     private void createVideoFile() {
         try {
-            String timeStamp = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss", Locale.US).format(new Date());
-            String fileBaseName = mVideoFolderName.replace(" ", "");
-            String prepend = fileBaseName + "_" + timeStamp;
-            File videoFile = File.createTempFile(prepend, ".mp4", mVideoFolder);
-            mVideoFileName = videoFile.getAbsolutePath();
+            mVideoFileName = newVideoFile().getAbsolutePath();
         } catch (IOException e) {
             Log.e(TAG, "Failed to create target file.");
-            Toast.makeText(
-                    getApplicationContext(),
-                    "Failed to create target file. Make sure you have granted file permissions and try again.",
-                    Toast.LENGTH_SHORT
-            ).show();
+            showToast("Failed to create target file. Make sure you have granted file permissions and try again.");
             destroyServiceOnException();
         }
     }
 
-    private static int sensorToDeviceRotation(CameraCharacteristics cameraCharacteristics, int deviceOrientation) {
-        if (cameraCharacteristics != null) {
-            Integer sensorOrientation = cameraCharacteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
-            if (sensorOrientation != null) {
-                deviceOrientation = ORIENTATIONS.get(deviceOrientation);
-                return (sensorOrientation + deviceOrientation + 360) % 360;
+    // Removes the file created for a recorder that was armed but never started
+    private void deleteUnusedVideoFile() {
+        StorageGuard.closeOutput(mVideoOutput);
+        mVideoOutput = null;
+        if (mVideoFileName != null) {
+            File videoFile = new File(mVideoFileName);
+            if (videoFile.exists() && !videoFile.delete()) {
+                Log.w(TAG, "Failed to delete unused file " + mVideoFileName);
             }
+            RecordingJournal.finish(videoFile);
+            mVideoFileName = null;
         }
-        return 0;
     }
 
-    private static Size chooseOptimalSize(Size[] choices) {
-        List<Size> sizes = new ArrayList<>();
-        for (Size option: choices) {
-            if (option.getHeight() == option.getWidth() * 1080 / 1920
-                    && option.getWidth() >= 1920
-                    && option.getHeight() >= 1080) {
-                sizes.add(option);
-            }
-        }
-        if (!sizes.isEmpty()) {
-            return Collections.min(sizes, new CompareSizeByArea());
-        } else {
-            return choices[0];
+    private static int sensorToDeviceRotation(int sensorOrientation, int deviceOrientation) {
+        if (sensorOrientation >= 0) {
+            deviceOrientation = ORIENTATIONS.get(deviceOrientation);
+            return (sensorOrientation + deviceOrientation + 360) % 360;
         }
+        return 0;
     }
 
     public boolean getRecordingStatus() {
         return isRecording;
     }
 
+    // Width of the analysis frames requested for Dart, 0 when none are sent
+    public int getDartFrameWidth() {
+        return mFrameTapRate > 0 ? mDartFrameWidth : 0;
+    }
+
     private void destroyServiceOnException() {
+        destroyServiceOnException(null, null);
+    }
+
+    // stage names the startup stage that failed, see RecorderEvent
+    private void destroyServiceOnException(@Nullable String stage, @Nullable String message) {
+        isRecording = false;
+        isArmed = false;
+        mArmedMode = false;
+        Map<String, Object> extras = null;
+        if (stage != null) {
+            extras = new HashMap<>();
+            extras.put("stage", stage);
+            extras.put("message", message != null ? message : "");
+        }
+        sendStateEvent(RecorderEvent.EXCEPTION, "An exception occurred in the recording service.", extras);
+        mMainHandler.post(() -> {
+            this.stopForeground(STOP_FOREGROUND_REMOVE);
+            this.stopSelf();
+        });
+    }
+
+    private void sendStateEvent(String code, String message) {
+        sendStateEvent(code, message, null);
+    }
+
+    // Numbered and posted under one lock, so they are delivered in sequence order
+    private void sendStateEvent(String code, String message, @Nullable Map<String, Object> extras) {
+        RecorderEvent event;
+        synchronized (mEventLock) {
+            event = new RecorderEvent(++mEventSequence, SystemClock.elapsedRealtime(), code, message, extras);
+            mMainHandler.post(() -> deliverStateEvent(event));
+        }
+        if (mBroadcastEvents) {
+            sendStateBroadcast(event);
+        }
+    }
+
+    // Main thread only. Events raised before a listener is set are kept for it, the oldest are dropped
+    private void deliverStateEvent(RecorderEvent event) {
+        if (mStateListener != null) {
+            mStateListener.onRecorderEvent(event);
+            return;
+        }
+        if (mPendingEvents.size() == MAX_PENDING_EVENTS) {
+            mPendingEvents.poll();
+        }
+        mPendingEvents.add(event);
+    }
+
+    // Compatibility mode for receivers of the RECORDING_RECEIVER broadcast
+    private void sendStateBroadcast(RecorderEvent event) {
         Intent broadcastIntent = new Intent();
         broadcastIntent.setAction(FlutterBackgroundVideoRecorderPlugin.RECORDING_RECEIVER);
         broadcastIntent.addCategory(Intent.CATEGORY_DEFAULT);
-        broadcastIntent.putExtra("msg", "An exception occurred in the recording service.");
-        broadcastIntent.putExtra("code", "EXCEPTION");
+        broadcastIntent.putExtra("msg", event.message);
+        broadcastIntent.putExtra("code", event.code);
+        broadcastIntent.putExtra("sequence", event.sequence);
+        broadcastIntent.putExtra("timestampMillis", event.timestampMillis);
+        for (Map.Entry<String, Object> extra : event.getExtras().entrySet()) {
+            if (extra.getValue() instanceof Long) {
+                broadcastIntent.putExtra(extra.getKey(), (Long) extra.getValue());
+            } else if (extra.getValue() != null) {
+                broadcastIntent.putExtra(extra.getKey(), extra.getValue().toString());
+            }
+        }
         sendBroadcast(broadcastIntent);
-        this.stopForeground(STOP_FOREGROUND_REMOVE);
-        this.stopSelf();
+    }
+
+    private void sendStorageEvent(String code, String message) {
+        Map<String, Object> extras = new HashMap<>();
+        extras.put("availableBytes", mStorageGuard.getAvailableBytes());
+        extras.put("remainingSeconds", mStorageGuard.forecastRemainingSeconds(getBytesPerSecond()));
+        sendStateEvent(code, message, extras);
+    }
+
+    // Toasts must be shown from the main thread
+    private void showToast(@NonNull String content) {
+        mMainHandler.post(() -> Toast.makeText(getApplicationContext(), content, Toast.LENGTH_SHORT).show());
+    }
+
+    // Delivers the result of work done on the camera thread, always invoked on the main thread
+    public interface ResultCallback<T> {
+        void onResult(@Nullable T result);
     }
 
     IBinder mBinder = new LocalBinder();
@@ -401,6 +2035,29 @@ public class VideoRecorderService extends Service {
         public VideoRecorderService getServerInstance() {
             return VideoRecorderService.this;
         }
+
+        // Must be called on the main thread. Events raised before the listener was set are delivered first.
+        public void setStateListener(@Nullable RecorderStateListener listener) {
+            mStateListener = listener;
+            while (listener != null && !mPendingEvents.isEmpty()) {
+                listener.onRecorderEvent(mPendingEvents.poll());
+            }
+        }
+
+        // Must be called on the main thread before the recording is started or armed
+        public void setEncryptionKey(@NonNull byte[] key) {
+            byte[] copy = key.clone();
+            mCameraHandler.post(() -> mEncryptionKey = copy);
+        }
+
+        // Listeners receive frames while the analysis tap is enabled, adding one twice has no effect
+        public void addFrameListener(@NonNull FrameListener listener) {
+            mFrameListeners.addIfAbsent(listener);
+        }
+
+        public void removeFrameListener(@NonNull FrameListener listener) {
+            mFrameListeners.remove(listener);
+        }
     }
 
     @Override
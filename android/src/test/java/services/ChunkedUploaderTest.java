@@ -0,0 +1,329 @@
+package services;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.NonNull;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Uploads files to a tus server stand-in on the loopback interface. The server keeps uploads in
+// memory, answers creation, offset and chunk requests the way tus 1.0 servers do and counts what
+// it received, so resuming and the byte rate limit can be checked from the server's side.
+public class ChunkedUploaderTest {
+    private static final int CHUNK_SIZE_BYTES = 64 * 1024;
+    private static final long TIMEOUT_SECONDS = 20;
+
+    private File mFolder;
+    private TusServer mServer;
+    private ChunkedUploader mUploader;
+    private final RecordingListener mListener = new RecordingListener();
+
+    @Before
+    public void startServer() throws IOException {
+        mFolder = Files.createTempDirectory("uploads").toFile();
+        mServer = new TusServer();
+    }
+
+    @After
+    public void stopServer() {
+        if (mUploader != null) {
+            mUploader.shutdown();
+        }
+        mServer.stop();
+        File[] files = mFolder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mFolder.delete();
+    }
+
+    @Test
+    public void uploadsFileInChunks() throws Exception {
+        byte[] data = randomBytes(3 * CHUNK_SIZE_BYTES + 1000);
+        File file = write("recording.mp4", data);
+        start(0);
+        mUploader.enqueue(file);
+
+        String uploadUrl = mListener.awaitCompleted(file);
+        assertArrayEquals(data, mServer.contents(uploadUrl));
+        assertEquals(1, mServer.mCreated.get());
+        assertEquals(4, mServer.mChunks.get());
+        assertEquals("Bearer token", mServer.mAuthorization);
+        assertEquals(data.length, mListener.mLastBytesSent.get());
+        mListener.awaitIdle();
+        assertTrue(mUploader.isIdle());
+        assertEquals(Collections.emptyList(), mUploader.getQueuedPaths());
+    }
+
+    @Test
+    public void resumesFromTheServerOffsetAfterRestart() throws Exception {
+        byte[] data = randomBytes(2 * CHUNK_SIZE_BYTES + 500);
+        File file = write("interrupted.mp4", data);
+        // An earlier process created the upload and sent the first chunk before it died
+        String uploadUrl = mServer.createUpload(data.length, Arrays.copyOf(data, CHUNK_SIZE_BYTES));
+        File queueFile = new File(mFolder, "queue");
+        UploadQueue queue = new UploadQueue(queueFile, 5);
+        queue.add(file.getAbsolutePath());
+        queue.setUploadUrl(queue.claim(0), uploadUrl);
+
+        mUploader = new ChunkedUploader(options(0), queueFile, mListener);
+        assertEquals(Collections.singletonList(file.getAbsolutePath()), mUploader.getQueuedPaths());
+        mUploader.start();
+
+        assertEquals(uploadUrl, mListener.awaitCompleted(file));
+        assertArrayEquals(data, mServer.contents(uploadUrl));
+        assertEquals(0, mServer.mCreated.get());
+        assertEquals(data.length - CHUNK_SIZE_BYTES, mServer.mBytesReceived.get());
+    }
+
+    @Test
+    public void createsTheUploadAgainWhenTheServerForgotIt() throws Exception {
+        byte[] data = randomBytes(CHUNK_SIZE_BYTES / 2);
+        File file = write("forgotten.mp4", data);
+        File queueFile = new File(mFolder, "queue");
+        UploadQueue queue = new UploadQueue(queueFile, 5);
+        queue.add(file.getAbsolutePath());
+        queue.setUploadUrl(queue.claim(0), mServer.mEndpoint + "/expired");
+
+        mUploader = new ChunkedUploader(options(0), queueFile, mListener);
+        mUploader.start();
+
+        String uploadUrl = mListener.awaitCompleted(file);
+        assertArrayEquals(data, mServer.contents(uploadUrl));
+        assertEquals(1, mServer.mCreated.get());
+    }
+
+    @Test
+    public void staysUnderTheByteRate() throws Exception {
+        long bytesPerSecond = 256 * 1024;
+        byte[] data = randomBytes(2 * CHUNK_SIZE_BYTES);
+        File file = write("limited.mp4", data);
+        start(bytesPerSecond);
+        long startNanos = System.nanoTime();
+        mUploader.enqueue(file);
+
+        mListener.awaitCompleted(file);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        // The bucket starts empty, so every byte waits for its share of the rate
+        long expectedMillis = data.length * 1000L / bytesPerSecond;
+        assertTrue("Uploaded " + data.length + " bytes in " + elapsedMillis + " ms", elapsedMillis >= expectedMillis * 9 / 10);
+    }
+
+    private void start(long maxBytesPerSecond) {
+        mUploader = new ChunkedUploader(options(maxBytesPerSecond), new File(mFolder, "queue"), mListener);
+        mUploader.start();
+    }
+
+    private UploadOptions options(long maxBytesPerSecond) {
+        return new UploadOptions(mServer.mEndpoint, Collections.singletonMap("Authorization", "Bearer token"), 2, maxBytesPerSecond, CHUNK_SIZE_BYTES);
+    }
+
+    private File write(String name, byte[] data) throws IOException {
+        File file = new File(mFolder, name);
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private static final class RecordingListener implements ChunkedUploader.Listener {
+        final Map<String, String> mCompleted = new ConcurrentHashMap<>();
+        final List<String> mFailures = new CopyOnWriteArrayList<>();
+        final AtomicLong mLastBytesSent = new AtomicLong();
+        final CountDownLatch mIdle = new CountDownLatch(1);
+        private final Object mLock = new Object();
+
+        @Override
+        public void onUploadProgress(@NonNull String path, long bytesSent, long totalBytes) {
+            mLastBytesSent.set(bytesSent);
+        }
+
+        @Override
+        public void onUploadCompleted(@NonNull String path, @NonNull String uploadUrl) {
+            synchronized (mLock) {
+                mCompleted.put(path, uploadUrl);
+                mLock.notifyAll();
+            }
+        }
+
+        @Override
+        public void onUploadFailed(@NonNull String path, @NonNull String message, boolean willRetry) {
+            mFailures.add(path + ": " + message);
+        }
+
+        @Override
+        public void onIdle() {
+            mIdle.countDown();
+        }
+
+        String awaitCompleted(File file) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+            synchronized (mLock) {
+                while (!mCompleted.containsKey(file.getAbsolutePath())) {
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0) {
+                        throw new AssertionError("Upload of " + file.getName() + " did not complete, failures " + mFailures);
+                    }
+                    mLock.wait(remaining);
+                }
+            }
+            String uploadUrl = mCompleted.get(file.getAbsolutePath());
+            assertNotNull(uploadUrl);
+            return uploadUrl;
+        }
+
+        void awaitIdle() throws InterruptedException {
+            assertTrue("Uploader never became idle", mIdle.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+    }
+
+    // In-memory tus 1.0 server with creation, HEAD offsets and chunks sent as POST with
+    // X-HTTP-Method-Override: PATCH
+    private static final class TusServer {
+        final String mEndpoint;
+        final AtomicInteger mCreated = new AtomicInteger();
+        final AtomicInteger mChunks = new AtomicInteger();
+        final AtomicLong mBytesReceived = new AtomicLong();
+        volatile String mAuthorization;
+
+        private final HttpServer mServer;
+        private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+        private final Map<String, ByteArrayOutputStream> mUploads = new ConcurrentHashMap<>();
+        private final Map<String, Long> mLengths = new ConcurrentHashMap<>();
+        private final AtomicInteger mNextId = new AtomicInteger();
+
+        TusServer() throws IOException {
+            mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            mServer.createContext("/files", this::handle);
+            mServer.setExecutor(mExecutor);
+            mServer.start();
+            mEndpoint = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/files";
+        }
+
+        void stop() {
+            mServer.stop(0);
+            mExecutor.shutdownNow();
+        }
+
+        // Returns the upload URL
+        String createUpload(long length, byte[] received) {
+            String id = Integer.toString(mNextId.incrementAndGet());
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            data.write(received, 0, received.length);
+            mUploads.put(id, data);
+            mLengths.put(id, length);
+            return mEndpoint + "/" + id;
+        }
+
+        byte[] contents(String uploadUrl) {
+            ByteArrayOutputStream data = mUploads.get(uploadUrl.substring(uploadUrl.lastIndexOf('/') + 1));
+            synchronized (data) {
+                return data.toByteArray();
+            }
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (!"1.0.0".equals(exchange.getRequestHeaders().getFirst("Tus-Resumable"))) {
+                    respond(exchange, 412);
+                    return;
+                }
+                mAuthorization = exchange.getRequestHeaders().getFirst("Authorization");
+                String path = exchange.getRequestURI().getPath();
+                String id = path.equals("/files") ? null : path.substring("/files/".length());
+                String method = exchange.getRequestHeaders().getFirst("X-HTTP-Method-Override");
+                if (method == null) {
+                    method = exchange.getRequestMethod();
+                }
+                if (id == null && method.equals("POST")) {
+                    long length = Long.parseLong(exchange.getRequestHeaders().getFirst("Upload-Length"));
+                    drain(exchange.getRequestBody());
+                    mCreated.incrementAndGet();
+                    String uploadUrl = createUpload(length, new byte[0]);
+                    exchange.getResponseHeaders().set("Location", uploadUrl.substring(uploadUrl.indexOf("/files")));
+                    respond(exchange, 201);
+                    return;
+                }
+                ByteArrayOutputStream data = id != null ? mUploads.get(id) : null;
+                if (data == null) {
+                    drain(exchange.getRequestBody());
+                    respond(exchange, 404);
+                    return;
+                }
+                synchronized (data) {
+                    if (method.equals("HEAD")) {
+                        exchange.getResponseHeaders().set("Upload-Offset", Integer.toString(data.size()));
+                        exchange.getResponseHeaders().set("Upload-Length", Long.toString(mLengths.get(id)));
+                        respond(exchange, 200);
+                    } else if (method.equals("PATCH")) {
+                        long offset = Long.parseLong(exchange.getRequestHeaders().getFirst("Upload-Offset"));
+                        if (offset != data.size()) {
+                            drain(exchange.getRequestBody());
+                            respond(exchange, 409);
+                            return;
+                        }
+                        byte[] chunk = drain(exchange.getRequestBody());
+                        data.write(chunk, 0, chunk.length);
+                        mChunks.incrementAndGet();
+                        mBytesReceived.addAndGet(chunk.length);
+                        exchange.getResponseHeaders().set("Upload-Offset", Integer.toString(data.size()));
+                        respond(exchange, 204);
+                    } else {
+                        respond(exchange, 405);
+                    }
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private static byte[] drain(InputStream in) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+
+        // Every response of the protocol is headers only
+        private static void respond(HttpExchange exchange, int status) throws IOException {
+            exchange.sendResponseHeaders(status, -1);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package services;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+// Writes files with EncryptedFileWriter and reads them back with EncryptedFileReader: round trips
+// around the chunk size, tampered and reordered chunks, wrong keys, and the files a killed
+// recording leaves, unfinished, cut off mid-chunk or followed by preallocated zeros.
+public class EncryptedFileTest {
+    private static final int CHUNK_SIZE = EncryptedFileFormat.CHUNK_SIZE;
+    private static final int STRIDE = CHUNK_SIZE + EncryptedFileFormat.TAG_SIZE;
+    private static final byte[] KEY = "0123456789abcdef0123456789abcdef".getBytes();
+
+    private File mFolder;
+
+    @Before
+    public void createFolder() throws IOException {
+        mFolder = Files.createTempDirectory("encrypted").toFile();
+    }
+
+    @After
+    public void deleteFolder() {
+        File[] files = mFolder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mFolder.delete();
+    }
+
+    @Test
+    public void roundTripsAroundTheChunkSize() throws IOException {
+        for (int size : new int[]{0, 1, CHUNK_SIZE, 3 * CHUNK_SIZE + 5}) {
+            byte[] plain = plaintext(size);
+            File file = write("round" + size + ".mp4.enc", plain, true);
+            // The last chunk is the one finish() sealed, empty only for an empty file
+            int chunks = Math.max(1, (size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+            assertEquals(EncryptedFileFormat.HEADER_SIZE + size + chunks * EncryptedFileFormat.TAG_SIZE, file.length());
+            try (EncryptedFileReader reader = new EncryptedFileReader(file, KEY)) {
+                assertTrue(reader.isComplete());
+                assertEquals(size, reader.length());
+                assertArrayEquals(plain, readAll(reader));
+            }
+        }
+    }
+
+    @Test
+    public void flippedCiphertextByteFailsTheRead() throws IOException {
+        byte[] plain = plaintext(3 * CHUNK_SIZE + 5);
+        File file = write("flipped.mp4.enc", plain, true);
+        long offset = EncryptedFileFormat.HEADER_SIZE + STRIDE + 100;
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            output.seek(offset);
+            int value = output.read();
+            output.seek(offset);
+            output.write(value ^ 1);
+        }
+        try (EncryptedFileReader reader = new EncryptedFileReader(file, KEY)) {
+            byte[] buffer = new byte[10];
+            assertEquals(10, reader.read(0, buffer, 0, 10));
+            assertReadFails(reader, CHUNK_SIZE + 50);
+        }
+    }
+
+    @Test
+    public void wrongKeyFailsToOpen() throws IOException {
+        File file = write("key.mp4.enc", plaintext(3 * CHUNK_SIZE + 5), true);
+        byte[] wrongKey = KEY.clone();
+        wrongKey[0] ^= 1;
+        try {
+            new EncryptedFileReader(file, wrongKey).close();
+            fail("Opened with the wrong key");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void swappedChunksFailAuthentication() throws IOException {
+        byte[] plain = plaintext(3 * CHUNK_SIZE + 5);
+        File file = write("swapped.mp4.enc", plain, true);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        int first = EncryptedFileFormat.HEADER_SIZE;
+        byte[] chunk = Arrays.copyOfRange(bytes, first, first + STRIDE);
+        System.arraycopy(bytes, first + STRIDE, bytes, first, STRIDE);
+        System.arraycopy(chunk, 0, bytes, first + STRIDE, STRIDE);
+        Files.write(file.toPath(), bytes);
+        try (EncryptedFileReader reader = new EncryptedFileReader(file, KEY)) {
+            assertReadFails(reader, 0);
+            assertReadFails(reader, CHUNK_SIZE);
+            // Chunks still at their own index read as before
+            byte[] buffer = new byte[CHUNK_SIZE];
+            assertEquals(CHUNK_SIZE, reader.read(2L * CHUNK_SIZE, buffer, 0, CHUNK_SIZE));
+            assertArrayEquals(Arrays.copyOfRange(plain, 2 * CHUNK_SIZE, 3 * CHUNK_SIZE), buffer);
+        }
+    }
+
+    @Test
+    public void unfinishedFileIsIncomplete() throws IOException {
+        byte[] plain = plaintext(3 * CHUNK_SIZE + 5);
+        File file = write("killed.mp4.enc", plain, false);
+        try (EncryptedFileReader reader = new EncryptedFileReader(file, KEY)) {
+            assertFalse(reader.isComplete());
+            // The five bytes after the last full chunk were never sealed
+            assertEquals(3 * CHUNK_SIZE, reader.length());
+            assertArrayEquals(Arrays.copyOf(plain, 3 * CHUNK_SIZE), readAll(reader));
+        }
+    }
+
+    @Test
+    public void truncatedFileReadsUpToItsLastSealedChunk() throws IOException {
+        byte[] plain = plaintext(3 * CHUNK_SIZE + 5);
+        File file = write("truncated.mp4.enc", plain, true);
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            output.setLength(EncryptedFileFormat.HEADER_SIZE + 2L * STRIDE + 100);
+        }
+        try (EncryptedFileReader reader = new EncryptedFileReader(file, KEY)) {
+            assertFalse(reader.isComplete());
+            assertEquals(2 * CHUNK_SIZE, reader.length());
+            assertArrayEquals(Arrays.copyOf(plain, 2 * CHUNK_SIZE), readAll(reader));
+        }
+    }
+
+    @Test
+    public void preallocatedZeroTailIsIgnored() throws IOException {
+        byte[] plain = plaintext(3 * CHUNK_SIZE + 5);
+        File file = write("preallocated.mp4.enc", plain, false);
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            output.setLength(file.length() + 2L * STRIDE + 1000);
+        }
+        try (EncryptedFileReader reader = new EncryptedFileReader(file, KEY)) {
+            assertFalse(reader.isComplete());
+            assertEquals(3 * CHUNK_SIZE, reader.length());
+            assertArrayEquals(Arrays.copyOf(plain, 3 * CHUNK_SIZE), readAll(reader));
+        }
+    }
+
+    @Test
+    public void inputStreamStartsAtPositionAndSkips() throws IOException {
+        byte[] plain = plaintext(3 * CHUNK_SIZE + 5);
+        File file = write("stream.mp4.enc", plain, true);
+        try (EncryptedFileReader reader = new EncryptedFileReader(file, KEY)) {
+            InputStream stream = reader.newInputStream(CHUNK_SIZE - 10);
+            assertEquals(plain[CHUNK_SIZE - 10] & 0xFF, stream.read());
+            // Skips across the chunk boundary
+            assertEquals(20, stream.skip(20));
+            byte[] rest = readStream(stream);
+            assertArrayEquals(Arrays.copyOfRange(plain, CHUNK_SIZE + 11, plain.length), rest);
+            assertEquals(0, stream.skip(10));
+            assertEquals(-1, stream.read());
+
+            InputStream nearEnd = reader.newInputStream(plain.length - 3);
+            assertEquals(3, nearEnd.skip(10));
+            assertEquals(-1, nearEnd.read());
+        }
+    }
+
+    private File write(String name, byte[] plain, boolean finish) throws IOException {
+        File file = new File(mFolder, name);
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            EncryptedFileWriter writer = new EncryptedFileWriter(output.getChannel(), KEY);
+            // Uneven writes, like an encoder's samples
+            int position = 0;
+            int step = 1;
+            while (position < plain.length) {
+                int count = Math.min(step, plain.length - position);
+                writer.write(ByteBuffer.wrap(plain, position, count));
+                position += count;
+                step = step * 3 + 7;
+            }
+            if (finish) {
+                writer.finish();
+            } else {
+                writer.close();
+            }
+        }
+        return file;
+    }
+
+    private static byte[] plaintext(int size) {
+        byte[] plain = new byte[size];
+        new Random(size).nextBytes(plain);
+        return plain;
+    }
+
+    private static byte[] readAll(EncryptedFileReader reader) throws IOException {
+        byte[] plain = new byte[(int) reader.length()];
+        int position = 0;
+        while (position < plain.length) {
+            // Reads that straddle chunks
+            int read = reader.read(position, plain, position, Math.min(7777, plain.length - position));
+            assertTrue(read > 0);
+            position += read;
+        }
+        assertEquals(-1, reader.read(plain.length, new byte[1], 0, 1));
+        return plain;
+    }
+
+    private static byte[] readStream(InputStream stream) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[5000];
+        int read;
+        while ((read = stream.read(buffer, 0, buffer.length)) > 0) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    private static void assertReadFails(EncryptedFileReader reader, long position) {
+        try {
+            reader.read(position, new byte[10], 0, 10);
+            fail("Read at " + position + " was not authenticated");
+        } catch (IOException expected) {
+        }
+    }
+}
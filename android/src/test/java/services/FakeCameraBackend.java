@@ -0,0 +1,123 @@
+package services;
+
+import android.hardware.camera2.CameraCharacteristics;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Range;
+import android.util.Size;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.List;
+
+// CameraBackend without a camera. Opening and configuring a session complete after fixed
+// latencies and a configured session reports a captured frame at a fixed interval, so startup
+// can be measured and exercised on the JVM, see StartupBenchmark.
+public class FakeCameraBackend implements CameraBackend {
+    private static final Size[] SUPPORTED_SIZES = {
+            new Size(3840, 2160),
+            new Size(1920, 1080),
+            new Size(1280, 720),
+            new Size(640, 480)
+    };
+    private static final Range<Integer>[] FRAME_RATE_RANGES = CameraCapabilityCache.newRangeArray(3);
+    static {
+        FRAME_RATE_RANGES[0] = new Range<>(7, 15);
+        FRAME_RATE_RANGES[1] = new Range<>(15, 30);
+        FRAME_RATE_RANGES[2] = new Range<>(30, 30);
+    }
+    private static final Size[] HIGH_SPEED_SIZES = {
+            new Size(1920, 1080),
+            new Size(1280, 720),
+            new Size(1280, 720)
+    };
+    private static final Range<Integer>[] HIGH_SPEED_FRAME_RATE_RANGES = CameraCapabilityCache.newRangeArray(3);
+    static {
+        HIGH_SPEED_FRAME_RATE_RANGES[0] = new Range<>(120, 120);
+        HIGH_SPEED_FRAME_RATE_RANGES[1] = new Range<>(120, 120);
+        HIGH_SPEED_FRAME_RATE_RANGES[2] = new Range<>(240, 240);
+    }
+
+    private final Handler mCameraHandler;
+    private final long mOpenLatencyMillis;
+    private final long mSessionLatencyMillis;
+    private final long mFrameIntervalMillis;
+
+    private Listener mListener;
+    private boolean mOpen = false;
+    private boolean mSession = false;
+
+    private final Runnable mFrame = new Runnable() {
+        @Override
+        public void run() {
+            mListener.onFrameCaptured(SystemClock.elapsedRealtimeNanos(), -1, mFrameIntervalMillis * 1_000_000, -1, -1);
+            mCameraHandler.postDelayed(this, mFrameIntervalMillis);
+        }
+    };
+
+    public FakeCameraBackend(@NonNull Handler cameraHandler, long openLatencyMillis, long sessionLatencyMillis, long frameIntervalMillis) {
+        mCameraHandler = cameraHandler;
+        mOpenLatencyMillis = openLatencyMillis;
+        mSessionLatencyMillis = sessionLatencyMillis;
+        mFrameIntervalMillis = Math.max(1, frameIntervalMillis);
+    }
+
+    @Nullable
+    @Override
+    public CameraCapabilityCache.Entry queryCapabilities(int lensFacing) {
+        return new CameraCapabilityCache.Entry(
+                lensFacing == CameraCharacteristics.LENS_FACING_FRONT ? "fake-front" : "fake-back",
+                lensFacing == CameraCharacteristics.LENS_FACING_FRONT ? 270 : 90,
+                SUPPORTED_SIZES,
+                QualityProfile.chooseOptimalSize(SUPPORTED_SIZES, QualityProfile.DEFAULT.width, QualityProfile.DEFAULT.height),
+                true,
+                FRAME_RATE_RANGES,
+                HIGH_SPEED_SIZES,
+                HIGH_SPEED_FRAME_RATE_RANGES
+        );
+    }
+
+    @Override
+    public boolean supportsConcurrentStreaming(@NonNull String cameraId, @NonNull String otherCameraId) {
+        return true;
+    }
+
+    @Override
+    public void open(@NonNull String cameraId, @NonNull Listener listener) {
+        mListener = listener;
+        mCameraHandler.postDelayed(() -> {
+            mOpen = true;
+            mListener.onOpened();
+        }, mOpenLatencyMillis);
+    }
+
+    @Override
+    public void startSession(@NonNull List<Surface> targets, @Nullable Range<Integer> frameRateRange, boolean highSpeed) throws IOException {
+        if (!mOpen) {
+            throw new IOException("Camera is not open");
+        }
+        mCameraHandler.postDelayed(() -> {
+            if (!mOpen) {
+                return;
+            }
+            mSession = true;
+            mListener.onSessionConfigured();
+            mCameraHandler.postDelayed(mFrame, mFrameIntervalMillis);
+        }, mSessionLatencyMillis);
+    }
+
+    @Override
+    public boolean hasSession() {
+        return mSession;
+    }
+
+    @Override
+    public void close() {
+        mCameraHandler.removeCallbacks(mFrame);
+        mSession = false;
+        mOpen = false;
+    }
+}
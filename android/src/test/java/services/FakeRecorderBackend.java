@@ -0,0 +1,95 @@
+package services;
+
+import android.graphics.SurfaceTexture;
+import android.os.SystemClock;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+// RecorderBackend without an encoder. prepare(), start() and stop() block for fixed latencies
+// like their MediaRecorder counterparts and leave the output files empty. Frames rendered into
+// the input surface are discarded.
+public class FakeRecorderBackend implements RecorderBackend {
+    private final long mPrepareLatencyMillis;
+    private final long mStartLatencyMillis;
+    private final long mStopLatencyMillis;
+    private final SurfaceTexture mSurfaceTexture;
+    private final Surface mInputSurface;
+
+    private boolean mPrepared = false;
+    private boolean mStarted = false;
+    private volatile long mStartedNanos = -1;
+
+    public FakeRecorderBackend(long prepareLatencyMillis, long startLatencyMillis, long stopLatencyMillis) {
+        mPrepareLatencyMillis = prepareLatencyMillis;
+        mStartLatencyMillis = startLatencyMillis;
+        mStopLatencyMillis = stopLatencyMillis;
+        mSurfaceTexture = new SurfaceTexture(false);
+        mInputSurface = new Surface(mSurfaceTexture);
+    }
+
+    @NonNull
+    @Override
+    public Surface getInputSurface() {
+        return mInputSurface;
+    }
+
+    @Override
+    public void prepare(@NonNull Config config) throws IOException {
+        if (config.profile != null) {
+            mSurfaceTexture.setDefaultBufferSize(config.profile.width, config.profile.height);
+        }
+        if (config.outputDescriptor == null && !config.outputFile.exists() && !config.outputFile.createNewFile()) {
+            throw new IOException("Cannot create " + config.outputFile.getAbsolutePath());
+        }
+        SystemClock.sleep(mPrepareLatencyMillis);
+        mPrepared = true;
+    }
+
+    @Override
+    public void start() {
+        if (!mPrepared) {
+            throw new IllegalStateException("start() called before prepare()");
+        }
+        SystemClock.sleep(mStartLatencyMillis);
+        mStarted = true;
+        mStartedNanos = System.nanoTime();
+    }
+
+    // System.nanoTime() when start() last returned, -1 before that
+    public long getStartedNanos() {
+        return mStartedNanos;
+    }
+
+    @Override
+    public void stop() {
+        if (!mStarted) {
+            throw new IllegalStateException("stop() called before start()");
+        }
+        SystemClock.sleep(mStopLatencyMillis);
+        mStarted = false;
+        mPrepared = false;
+    }
+
+    @Override
+    public void reset() {
+        mStarted = false;
+        mPrepared = false;
+    }
+
+    @Override
+    public void setNextOutputFile(@NonNull File file, @Nullable FileDescriptor descriptor) {
+        // Files never fill up, the next file is never switched to
+    }
+
+    @Override
+    public void release() {
+        mInputSurface.release();
+        mSurfaceTexture.release();
+    }
+}
@@ -0,0 +1,34 @@
+package services;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+// StorageBackend with a fixed amount of free space. Allocations are taken off it,
+// so a test can run the volume down to the storage guard's thresholds.
+public class FakeStorageBackend implements StorageBackend {
+    private long mAvailableBytes;
+
+    public FakeStorageBackend(long availableBytes) {
+        mAvailableBytes = availableBytes;
+    }
+
+    public synchronized void setAvailableBytes(long availableBytes) {
+        mAvailableBytes = availableBytes;
+    }
+
+    @Override
+    public synchronized long getAvailableBytes(@NonNull File folder) {
+        return mAvailableBytes;
+    }
+
+    @Override
+    public synchronized void allocate(@NonNull FileDescriptor descriptor, long bytes) throws IOException {
+        if (bytes > mAvailableBytes) {
+            throw new IOException("No space left for " + bytes + " bytes");
+        }
+        mAvailableBytes -= bytes;
+    }
+}
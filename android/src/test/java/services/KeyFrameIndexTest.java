@@ -0,0 +1,140 @@
+package services;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+// Writes sidecars with KeyFrameIndexWriter and reads them back with KeyFrameIndex. The index has
+// two fragments with two key frames each, like a recording with one second fragments and a key
+// frame every half second.
+public class KeyFrameIndexTest {
+    private static final long INIT_SEGMENT_SIZE = 800;
+    private static final long[] TIMES_US = {100000, 600000, 1100000, 1600000};
+    private static final long[] FRAGMENT_OFFSETS = {1000, 1000, 5000, 5000};
+    private static final long[] SAMPLE_OFFSETS = {1100, 3000, 5100, 7000};
+
+    private File mFolder;
+
+    @Before
+    public void createFolder() throws IOException {
+        mFolder = Files.createTempDirectory("keyframes").toFile();
+    }
+
+    @After
+    public void deleteFolder() {
+        File[] files = mFolder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mFolder.delete();
+    }
+
+    @Test
+    public void readsWhatTheWriterAppended() throws IOException {
+        KeyFrameIndex index = KeyFrameIndex.open(write());
+
+        assertEquals(INIT_SEGMENT_SIZE, index.getInitSegmentSize());
+        assertEquals(TIMES_US.length, index.size());
+        for (int i = 0; i < TIMES_US.length; i++) {
+            assertEquals(TIMES_US[i], index.getTimeUs(i));
+            assertEquals(SAMPLE_OFFSETS[i], index.getSampleOffset(i));
+            assertEquals(FRAGMENT_OFFSETS[i], index.getFragmentOffset(i));
+        }
+    }
+
+    @Test
+    public void floorIndexFindsTheLastKeyFrameAtOrBeforeATime() throws IOException {
+        KeyFrameIndex index = KeyFrameIndex.open(write());
+
+        assertEquals(-1, index.floorIndex(0));
+        assertEquals(-1, index.floorIndex(TIMES_US[0] - 1));
+        for (int i = 0; i < TIMES_US.length; i++) {
+            assertEquals(i, index.floorIndex(TIMES_US[i]));
+        }
+        assertEquals(1, index.floorIndex(TIMES_US[1] + 1));
+        assertEquals(2, index.floorIndex(TIMES_US[3] - 1));
+        assertEquals(TIMES_US.length - 1, index.floorIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void emptyIndexHasNoFloor() throws IOException {
+        File sidecar = new File(mFolder, "empty.mp4" + KeyFrameIndex.SUFFIX);
+        new KeyFrameIndexWriter(sidecar, INIT_SEGMENT_SIZE).close();
+        KeyFrameIndex index = KeyFrameIndex.open(sidecar);
+
+        assertEquals(0, index.size());
+        assertEquals(-1, index.floorIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void ignoresTornLastEntry() throws IOException {
+        File sidecar = write();
+        appendTornEntry(sidecar);
+
+        KeyFrameIndex index = KeyFrameIndex.open(sidecar);
+        assertEquals(TIMES_US.length, index.size());
+        assertEquals(TIMES_US.length - 1, index.floorIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void truncateDropsFragmentsAtOrPastMediaEnd() throws IOException {
+        File sidecar = write();
+
+        KeyFrameIndexWriter.truncate(sidecar, FRAGMENT_OFFSETS[2] + 1);
+        assertEquals(TIMES_US.length, KeyFrameIndex.open(sidecar).size());
+
+        KeyFrameIndexWriter.truncate(sidecar, FRAGMENT_OFFSETS[2]);
+        KeyFrameIndex index = KeyFrameIndex.open(sidecar);
+        assertEquals(2, index.size());
+        assertEquals(FRAGMENT_OFFSETS[1], index.getFragmentOffset(1));
+        assertEquals(INIT_SEGMENT_SIZE, index.getInitSegmentSize());
+
+        KeyFrameIndexWriter.truncate(sidecar, FRAGMENT_OFFSETS[0]);
+        assertEquals(0, KeyFrameIndex.open(sidecar).size());
+    }
+
+    @Test
+    public void truncateDropsTornLastEntry() throws IOException {
+        File sidecar = write();
+        appendTornEntry(sidecar);
+
+        KeyFrameIndexWriter.truncate(sidecar, Long.MAX_VALUE);
+        assertEquals(KeyFrameIndex.HEADER_SIZE + TIMES_US.length * KeyFrameIndex.ENTRY_SIZE, sidecar.length());
+    }
+
+    @Test
+    public void sidecarIsNamedAfterTheRecording() {
+        File recording = new File(mFolder, "video.mp4");
+        assertEquals(new File(mFolder, "video.mp4.kfi"), KeyFrameIndex.sidecarFor(recording));
+    }
+
+    // Appends each fragment's entries with its own flush, like the muxer does
+    private File write() throws IOException {
+        File sidecar = KeyFrameIndex.sidecarFor(new File(mFolder, "video.mp4"));
+        KeyFrameIndexWriter writer = new KeyFrameIndexWriter(sidecar, INIT_SEGMENT_SIZE);
+        for (int i = 0; i < TIMES_US.length; i++) {
+            writer.add(TIMES_US[i], SAMPLE_OFFSETS[i], FRAGMENT_OFFSETS[i]);
+            if (i == TIMES_US.length - 1 || FRAGMENT_OFFSETS[i + 1] != FRAGMENT_OFFSETS[i]) {
+                writer.flush();
+            }
+        }
+        writer.close();
+        return sidecar;
+    }
+
+    // Part of an entry, as left by a recording killed while appending
+    private static void appendTornEntry(File sidecar) throws IOException {
+        try (FileOutputStream output = new FileOutputStream(sidecar, true)) {
+            output.write(new byte[KeyFrameIndex.ENTRY_SIZE / 2]);
+        }
+    }
+}
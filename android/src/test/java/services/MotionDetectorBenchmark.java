@@ -0,0 +1,51 @@
+package services;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+// Times MotionDetector on 64x48 frames with a block moving across a flat scene, the size the
+// service downscales analysis frames to. Runs with the benchmark task, a median past the budget
+// fails it.
+public class MotionDetectorBenchmark {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int BLOCK = 8;
+    private static final int WARMUP_FRAMES = 20000;
+    private static final int MEASURED_FRAMES = 1000;
+    // Loose against the JIT and shared machines, a frame is a few thousand byte comparisons
+    private static final long FRAME_BUDGET_NANOS = 200_000;
+
+    @Test
+    public void processesAFrameWithinBudget() {
+        MotionDetector detector = new MotionDetector(WIDTH, HEIGHT, 0.5f);
+        byte[][] frames = new byte[WIDTH / BLOCK][];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = blockAt(i * BLOCK);
+        }
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            detector.process(frames[i % frames.length]);
+        }
+        long[] nanos = new long[MEASURED_FRAMES];
+        for (int i = 0; i < nanos.length; i++) {
+            long start = System.nanoTime();
+            detector.process(frames[i % frames.length]);
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        long median = nanos[nanos.length / 2];
+        assertTrue("Median frame took " + median + " ns (min " + nanos[0] + ", max " + nanos[nanos.length - 1]
+                + "), over its budget of " + FRAME_BUDGET_NANOS, median <= FRAME_BUDGET_NANOS);
+    }
+
+    private static byte[] blockAt(int x) {
+        byte[] luma = new byte[WIDTH * HEIGHT];
+        Arrays.fill(luma, (byte) 100);
+        for (int y = 16; y < 16 + BLOCK; y++) {
+            Arrays.fill(luma, y * WIDTH + x, y * WIDTH + x + BLOCK, (byte) 220);
+        }
+        return luma;
+    }
+}
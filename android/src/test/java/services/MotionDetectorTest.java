@@ -0,0 +1,169 @@
+package services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+// Feeds MotionDetector synthetic 64x48 luma sequences, the size the service downscales analysis
+// frames to: a flat gray scene with sensor noise, brightness steps and a block that flashes or
+// moves. Also checks the downscaling of padded and interleaved Y planes.
+public class MotionDetectorTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int BACKGROUND = 100;
+    private static final int BLOCK = 8;
+
+    @Test
+    public void ignoresNoiseAndBrightnessChanges() {
+        MotionDetector detector = new MotionDetector(WIDTH, HEIGHT, 1);
+        Random random = new Random(1);
+        for (int frame = 0; frame < 50; frame++) {
+            byte[] luma = scene(frame < 25 ? BACKGROUND : BACKGROUND + 40);
+            // Noise within the most sensitive pixel threshold
+            for (int i = 0; i < luma.length; i++) {
+                luma[i] = (byte) ((luma[i] & 0xFF) + random.nextInt(9) - 4);
+            }
+            assertFalse("frame " + frame, detector.process(luma));
+        }
+    }
+
+    @Test
+    public void pixelThresholdFollowsSensitivity() {
+        // A block that changes by 30 every frame passes the most sensitive threshold only, motion
+        // is seen from the second changed frame on
+        assertEquals(0, motionFrames(new MotionDetector(WIDTH, HEIGHT, 0), 30));
+        assertEquals(8, motionFrames(new MotionDetector(WIDTH, HEIGHT, 1), 30));
+        // A change of 60 passes both
+        assertEquals(8, motionFrames(new MotionDetector(WIDTH, HEIGHT, 0), 60));
+    }
+
+    @Test
+    public void areaThresholdFollowsSensitivity() {
+        // A 2x2 patch is 0.13% of the frame, over the most sensitive area and under the least
+        MotionDetector leastSensitive = new MotionDetector(WIDTH, HEIGHT, 0);
+        MotionDetector mostSensitive = new MotionDetector(WIDTH, HEIGHT, 1);
+        boolean leastSeen = false;
+        boolean mostSeen = false;
+        for (int frame = 0; frame < 10; frame++) {
+            byte[] luma = scene(BACKGROUND);
+            fill(luma, 30, 20, 2, frame % 2 == 0 ? BACKGROUND : BACKGROUND + 100);
+            leastSeen |= leastSensitive.process(luma);
+            mostSeen |= mostSensitive.process(luma.clone());
+        }
+        assertFalse(leastSeen);
+        assertTrue(mostSeen);
+    }
+
+    @Test
+    public void motionStartsOnTheSecondChangedFrameAndStopsOnAQuietOne() {
+        MotionDetector detector = new MotionDetector(WIDTH, HEIGHT, 0.5f);
+        assertFalse(detector.process(blockAt(0)));
+        // One changed frame is taken for noise
+        assertFalse(detector.process(blockAt(BLOCK)));
+        assertTrue(detector.process(blockAt(2 * BLOCK)));
+        assertTrue(detector.process(blockAt(3 * BLOCK)));
+        assertTrue(detector.getLastScore() > 0);
+        // A frame without change ends motion, a single changed frame after it does not restart it
+        assertFalse(detector.process(blockAt(3 * BLOCK)));
+        assertEquals(0, detector.getLastScore(), 0);
+        assertFalse(detector.process(blockAt(4 * BLOCK)));
+        assertTrue(detector.process(blockAt(5 * BLOCK)));
+    }
+
+    @Test
+    public void resetForgetsThePreviousFrame() {
+        MotionDetector detector = new MotionDetector(WIDTH, HEIGHT, 0.5f);
+        detector.process(blockAt(0));
+        detector.process(blockAt(BLOCK));
+        assertTrue(detector.process(blockAt(2 * BLOCK)));
+        detector.reset();
+        // The first frame after a reset only becomes the reference
+        assertFalse(detector.process(blockAt(4 * BLOCK)));
+        assertFalse(detector.process(blockAt(5 * BLOCK)));
+        assertTrue(detector.process(blockAt(6 * BLOCK)));
+    }
+
+    @Test
+    public void downscalesPaddedPlanes() {
+        int sourceWidth = 640;
+        int sourceHeight = 480;
+        int rowStride = 704;
+        ByteBuffer plane = ByteBuffer.allocate(rowStride * sourceHeight);
+        for (int y = 0; y < sourceHeight; y++) {
+            for (int x = 0; x < sourceWidth; x++) {
+                plane.put(y * rowStride + x, sourceValue(x, y));
+            }
+        }
+        byte[] out = new byte[WIDTH * HEIGHT];
+        FrameTap.downscaleLuma(plane, rowStride, 1, sourceWidth, sourceHeight, out, WIDTH, HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals(sourceValue(x * 10, y * 10), out[y * WIDTH + x]);
+            }
+        }
+    }
+
+    @Test
+    public void downscalesInterleavedPlanes() {
+        int sourceWidth = 320;
+        int sourceHeight = 240;
+        int pixelStride = 2;
+        int rowStride = sourceWidth * pixelStride;
+        ByteBuffer plane = ByteBuffer.allocate(rowStride * sourceHeight);
+        for (int y = 0; y < sourceHeight; y++) {
+            for (int x = 0; x < sourceWidth; x++) {
+                plane.put(y * rowStride + x * pixelStride, sourceValue(x, y));
+                // The other channel of the pair must never be read
+                plane.put(y * rowStride + x * pixelStride + 1, (byte) 0xFF);
+            }
+        }
+        byte[] out = new byte[WIDTH * HEIGHT];
+        FrameTap.downscaleLuma(plane, rowStride, pixelStride, sourceWidth, sourceHeight, out, WIDTH, HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals(sourceValue(x * 5, y * 5), out[y * WIDTH + x]);
+            }
+        }
+    }
+
+    // Number of frames with motion when a block flashes by change every other frame
+    private static int motionFrames(MotionDetector detector, int change) {
+        int frames = 0;
+        for (int frame = 0; frame < 10; frame++) {
+            byte[] luma = scene(BACKGROUND);
+            fill(luma, 20, 20, BLOCK, frame % 2 == 0 ? BACKGROUND : BACKGROUND + change);
+            if (detector.process(luma)) {
+                frames++;
+            }
+        }
+        return frames;
+    }
+
+    private static byte[] blockAt(int x) {
+        byte[] luma = scene(BACKGROUND);
+        fill(luma, x % (WIDTH - BLOCK + 1), 16, BLOCK, 220);
+        return luma;
+    }
+
+    private static byte[] scene(int value) {
+        byte[] luma = new byte[WIDTH * HEIGHT];
+        Arrays.fill(luma, (byte) value);
+        return luma;
+    }
+
+    private static void fill(byte[] luma, int left, int top, int size, int value) {
+        for (int y = top; y < top + size; y++) {
+            Arrays.fill(luma, y * WIDTH + left, y * WIDTH + left + size, (byte) value);
+        }
+    }
+
+    private static byte sourceValue(int x, int y) {
+        return (byte) (x / 5 * 3 + y / 5 * 7);
+    }
+}
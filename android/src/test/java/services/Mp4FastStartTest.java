@@ -0,0 +1,203 @@
+package services;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Runs Mp4FastStart on files built box by box: an ftyp, an mdat, the moov with one chunk offset
+// table and a free box after it. The samples are never parsed, so the mdat holds a byte pattern
+// and the chunk offsets point into it and into the free box.
+public class Mp4FastStartTest {
+    private static final int FTYP_SIZE = 20;
+    private static final int MDAT_PAYLOAD_SIZE = 64;
+    private static final int MDAT_OFFSET = FTYP_SIZE;
+
+    private File mFolder;
+
+    @Before
+    public void createFolder() throws IOException {
+        mFolder = Files.createTempDirectory("faststart").toFile();
+    }
+
+    @After
+    public void deleteFolder() {
+        File[] files = mFolder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mFolder.delete();
+    }
+
+    @Test
+    public void relocatesMoovAndShiftsStcoOffsets() throws IOException {
+        checkRelocation(false);
+    }
+
+    @Test
+    public void relocatesMoovAndShiftsCo64Offsets() throws IOException {
+        checkRelocation(true);
+    }
+
+    @Test
+    public void leavesFileAloneWhenMoovAlreadyComesFirst() throws IOException {
+        byte[] moov = moov(false, new long[]{100});
+        byte[] original = concat(ftyp(), moov, mdat());
+        File file = write("first.mp4", original);
+
+        assertFalse(Mp4FastStart.process(file));
+        assertArrayEquals(original, Files.readAllBytes(file.toPath()));
+        assertFalse(new File(mFolder, "first.mp4.faststart").exists());
+    }
+
+    @Test
+    public void leavesFileAloneWhenAShiftedOffsetOverflowsStco() throws IOException {
+        // A sparse file just under 4 GiB, the last chunk starts right before moov and moving it back
+        // by the size of moov takes it past what a 32-bit stco entry holds
+        long moovOffset = 0x100000000L - 16;
+        long lastChunk = moovOffset - 8;
+        byte[] moov = moov(false, new long[]{MDAT_OFFSET + 16, lastChunk});
+        File file = new File(mFolder, "large.mp4");
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            output.write(ftyp());
+            ByteBuffer mdatHeader = ByteBuffer.allocate(16);
+            mdatHeader.putInt(1).put(type("mdat")).putLong(moovOffset - MDAT_OFFSET);
+            output.write(mdatHeader.array());
+            output.seek(moovOffset);
+            output.write(moov);
+        }
+        long length = file.length();
+
+        assertFalse(Mp4FastStart.process(file));
+        assertEquals(length, file.length());
+        assertFalse(new File(mFolder, "large.mp4.faststart").exists());
+        byte[] moovAfter = new byte[moov.length];
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            input.seek(moovOffset);
+            input.readFully(moovAfter);
+        }
+        assertArrayEquals(moov, moovAfter);
+    }
+
+    // Offsets into the mdat move back by the size of moov, offsets past the old moov stay
+    private void checkRelocation(boolean wide) throws IOException {
+        byte[] ftyp = ftyp();
+        byte[] mdat = mdat();
+        long freeOffset = MDAT_OFFSET + mdat.length + moov(wide, new long[3]).length;
+        long[] offsets = {MDAT_OFFSET + 8, MDAT_OFFSET + 40, freeOffset + 8};
+        byte[] moov = moov(wide, offsets);
+        byte[] free = box("free", new byte[16]);
+        File file = write("recording.mp4", concat(ftyp, mdat, moov, free));
+
+        assertTrue(Mp4FastStart.process(file));
+
+        byte[] result = Files.readAllBytes(file.toPath());
+        assertEquals(Arrays.asList("ftyp", "moov", "mdat", "free"), topLevelTypes(result));
+        assertEquals(ftyp.length + moov.length + mdat.length + free.length, result.length);
+        assertArrayEquals(mdat, Arrays.copyOfRange(result, ftyp.length + moov.length, ftyp.length + moov.length + mdat.length));
+        long[] shifted = chunkOffsets(result, wide);
+        assertEquals(offsets[0] + moov.length, shifted[0]);
+        assertEquals(offsets[1] + moov.length, shifted[1]);
+        assertEquals(offsets[2], shifted[2]);
+        // The shifted offsets still point at the same samples
+        assertEquals(mdat[8], result[(int) shifted[0]]);
+        assertEquals(mdat[40], result[(int) shifted[1]]);
+        assertFalse(new File(mFolder, "recording.mp4.faststart").exists());
+    }
+
+    private File write(String name, byte[] data) throws IOException {
+        File file = new File(mFolder, name);
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    private static byte[] ftyp() {
+        ByteBuffer payload = ByteBuffer.allocate(FTYP_SIZE - 8);
+        payload.put(type("isom")).putInt(0).put(type("isom"));
+        return box("ftyp", payload.array());
+    }
+
+    // Every byte holds its own index, so a moved sample can be recognized
+    private static byte[] mdat() {
+        byte[] payload = new byte[MDAT_PAYLOAD_SIZE];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) (i + 1);
+        }
+        return box("mdat", payload);
+    }
+
+    private static byte[] moov(boolean wide, long[] offsets) {
+        ByteBuffer table = ByteBuffer.allocate(8 + offsets.length * (wide ? 8 : 4));
+        table.putInt(0).putInt(offsets.length);
+        for (long offset : offsets) {
+            if (wide) {
+                table.putLong(offset);
+            } else {
+                table.putInt((int) offset);
+            }
+        }
+        byte[] chunkOffsets = box(wide ? "co64" : "stco", table.array());
+        byte[] stbl = box("stbl", concat(box("stsd", new byte[8]), chunkOffsets));
+        return box("moov", concat(box("mvhd", new byte[20]), box("trak", box("mdia", box("minf", stbl)))));
+    }
+
+    private static byte[] box(String type, byte[] payload) {
+        return ByteBuffer.allocate(8 + payload.length).putInt(8 + payload.length).put(type(type)).put(payload).array();
+    }
+
+    private static byte[] type(String type) {
+        return type.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            output.write(part, 0, part.length);
+        }
+        return output.toByteArray();
+    }
+
+    private static List<String> topLevelTypes(byte[] file) {
+        List<String> types = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(file);
+        int offset = 0;
+        while (offset < file.length) {
+            types.add(new String(file, offset + 4, 4, StandardCharsets.ISO_8859_1));
+            offset += buffer.getInt(offset);
+        }
+        return types;
+    }
+
+    private static long[] chunkOffsets(byte[] file, boolean wide) {
+        byte[] name = type(wide ? "co64" : "stco");
+        ByteBuffer buffer = ByteBuffer.wrap(file);
+        for (int i = 0; i + 4 <= file.length; i++) {
+            if (Arrays.equals(name, Arrays.copyOfRange(file, i, i + 4))) {
+                int entries = buffer.getInt(i + 8);
+                long[] offsets = new long[entries];
+                for (int entry = 0; entry < entries; entry++) {
+                    offsets[entry] = wide ? buffer.getLong(i + 12 + entry * 8) : buffer.getInt(i + 12 + entry * 4) & 0xFFFFFFFFL;
+                }
+                return offsets;
+            }
+        }
+        throw new AssertionError("No chunk offset table");
+    }
+}
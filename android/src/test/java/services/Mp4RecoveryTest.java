@@ -0,0 +1,221 @@
+package services;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Runs Mp4Recovery on recordings written by FragmentedMp4Muxer and cut off the way a killed
+// process leaves them. The muxer gets a 30 fps video track with a key frame every half second and
+// fragments of 30 frames, released without stop() after 3.5 seconds it has written three fragments.
+// Runs with Robolectric for the MediaFormat the muxer reads its track from.
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class Mp4RecoveryTest {
+    private static final long FRAME_US = 1000000 / 30;
+    private static final int KEY_FRAME_INTERVAL = 15;
+    private static final long FRAGMENT_DURATION_US = 2 * KEY_FRAME_INTERVAL * FRAME_US;
+    private static final int FRAMES = 105;
+    private static final int WRITTEN_FRAGMENTS = 3;
+    private static final byte[] SPS = {0, 0, 0, 1, 0x67, 0x42, 0x00, 0x1E, (byte) 0xAB};
+    private static final byte[] PPS = {0, 0, 0, 1, 0x68, (byte) 0xCE, 0x3C, (byte) 0x80};
+
+    private File mFolder;
+
+    @Before
+    public void createFolder() throws IOException {
+        mFolder = Files.createTempDirectory("recovery").toFile();
+    }
+
+    @After
+    public void deleteFolder() {
+        File[] files = mFolder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mFolder.delete();
+    }
+
+    @Test
+    public void keepsCompleteFragmentsWhenCutInsideAMoof() throws IOException {
+        File file = mux("moof.mp4", false);
+        long lastMoof = boxOffsets(Files.readAllBytes(file.toPath()), "moof").get(WRITTEN_FRAGMENTS - 1);
+        checkRecovery(file, lastMoof + 20, WRITTEN_FRAGMENTS - 1);
+    }
+
+    @Test
+    public void keepsCompleteFragmentsWhenCutInsideAnMdat() throws IOException {
+        File file = mux("mdat.mp4", false);
+        byte[] data = Files.readAllBytes(file.toPath());
+        long lastMdat = boxOffsets(data, "mdat").get(WRITTEN_FRAGMENTS - 1);
+        checkRecovery(file, lastMdat + ByteBuffer.wrap(data).getInt((int) lastMdat) / 2, WRITTEN_FRAGMENTS - 1);
+    }
+
+    @Test
+    public void keepsCompleteFragmentsWhenCutOnAFragmentBoundary() throws IOException {
+        File file = mux("boundary.mp4", false);
+        long lastMoof = boxOffsets(Files.readAllBytes(file.toPath()), "moof").get(WRITTEN_FRAGMENTS - 1);
+        checkRecovery(file, lastMoof, WRITTEN_FRAGMENTS - 1);
+    }
+
+    @Test
+    public void keepsEveryFragmentOfAKilledRecording() throws IOException {
+        File file = mux("killed.mp4", false);
+        checkRecovery(file, file.length(), WRITTEN_FRAGMENTS);
+    }
+
+    @Test
+    public void leavesFinishedRecordingAlone() throws IOException {
+        File file = mux("finished.mp4", true);
+        byte[] original = Files.readAllBytes(file.toPath());
+
+        assertEquals(Mp4Recovery.RESULT_COMPLETE, Mp4Recovery.recover(file));
+        assertArrayEquals(original, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void reportsPlainFileWithoutMoovAsMissingItsIndex() throws IOException {
+        byte[] original = concat(box("ftyp", concat(type("isom"), new byte[4], type("isom"))), box("mdat", new byte[64]));
+        File file = new File(mFolder, "plain.mp4");
+        Files.write(file.toPath(), original);
+
+        assertEquals(Mp4Recovery.RESULT_NO_INDEX, Mp4Recovery.recover(file));
+        assertArrayEquals(original, Files.readAllBytes(file.toPath()));
+    }
+
+    // Cuts the file at length, recovers it and checks that the first fragments are kept as they
+    // were and indexed by the appended mfra box
+    private void checkRecovery(File file, long length, int fragments) throws IOException {
+        byte[] original = Files.readAllBytes(file.toPath());
+        List<Long> moofs = boxOffsets(original, "moof");
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            output.setLength(length);
+        }
+
+        assertEquals(Mp4Recovery.RESULT_RECOVERED, Mp4Recovery.recover(file));
+
+        byte[] recovered = Files.readAllBytes(file.toPath());
+        List<String> expectedTypes = new ArrayList<>(Arrays.asList("ftyp", "moov"));
+        for (int i = 0; i < fragments; i++) {
+            expectedTypes.add("moof");
+            expectedTypes.add("mdat");
+        }
+        expectedTypes.add("mfra");
+        assertEquals(expectedTypes, topLevelTypes(recovered));
+        int mfra = boxOffsets(recovered, "mfra").get(0).intValue();
+        assertArrayEquals(Arrays.copyOf(original, mfra), Arrays.copyOf(recovered, mfra));
+        assertEquals(moofs.subList(0, fragments), indexedMoofOffsets(recovered, mfra));
+        assertEquals(Mp4Recovery.RESULT_COMPLETE, Mp4Recovery.recover(file));
+    }
+
+    // Muxes FRAMES frames, stop() finishes the file and otherwise it is released like a killed
+    // recording that never wrote its last fragment and index
+    private File mux(String name, boolean stop) throws IOException {
+        File file = new File(mFolder, name);
+        MediaFormat format = MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_AVC, 320, 240);
+        format.setByteBuffer("csd-0", ByteBuffer.wrap(SPS));
+        format.setByteBuffer("csd-1", ByteBuffer.wrap(PPS));
+        FragmentedMp4Muxer muxer = new FragmentedMp4Muxer(file, null, FRAGMENT_DURATION_US, null, null);
+        int track = muxer.addTrack(format);
+        muxer.start();
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        for (int frame = 0; frame < FRAMES; frame++) {
+            byte[] sample = sample(frame);
+            int flags = frame % KEY_FRAME_INTERVAL == 0 ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+            info.set(0, sample.length, frame * FRAME_US, flags);
+            muxer.writeSampleData(track, ByteBuffer.wrap(sample), info);
+        }
+        if (stop) {
+            muxer.stop();
+        } else {
+            muxer.release();
+        }
+        return file;
+    }
+
+    // One length-prefixed NAL unit whose bytes are never zero, so it holds no start code
+    private static byte[] sample(int frame) {
+        int size = 100 + frame % 50;
+        ByteBuffer sample = ByteBuffer.allocate(4 + size).putInt(size);
+        sample.put((byte) (frame % KEY_FRAME_INTERVAL == 0 ? 0x65 : 0x41));
+        for (int i = 1; i < size; i++) {
+            sample.put((byte) (1 + (frame + i) % 200));
+        }
+        return sample.array();
+    }
+
+    // Moof offsets of the tfra box of the only track, at the start of the mfra box
+    private static List<Long> indexedMoofOffsets(byte[] file, int mfra) {
+        ByteBuffer buffer = ByteBuffer.wrap(file);
+        int tfra = mfra + 8;
+        assertEquals("tfra", new String(file, tfra + 4, 4, StandardCharsets.ISO_8859_1));
+        int entries = buffer.getInt(tfra + 20);
+        List<Long> offsets = new ArrayList<>();
+        for (int entry = 0; entry < entries; entry++) {
+            offsets.add(buffer.getLong(tfra + 24 + entry * 19 + 8));
+        }
+        return offsets;
+    }
+
+    private static byte[] box(String type, byte[] payload) {
+        return ByteBuffer.allocate(8 + payload.length).putInt(8 + payload.length).put(type(type)).put(payload).array();
+    }
+
+    private static byte[] type(String type) {
+        return type.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            output.write(part, 0, part.length);
+        }
+        return output.toByteArray();
+    }
+
+    // Stops at a box that runs past the end, like the cut off last box of a killed recording
+    private static List<String> topLevelTypes(byte[] file) {
+        List<String> types = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(file);
+        int offset = 0;
+        while (offset + 8 <= file.length && offset + buffer.getInt(offset) <= file.length) {
+            types.add(new String(file, offset + 4, 4, StandardCharsets.ISO_8859_1));
+            offset += buffer.getInt(offset);
+        }
+        return types;
+    }
+
+    private static List<Long> boxOffsets(byte[] file, String type) {
+        List<Long> offsets = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(file);
+        int offset = 0;
+        while (offset + 8 <= file.length && offset + buffer.getInt(offset) <= file.length) {
+            if (type.equals(new String(file, offset + 4, 4, StandardCharsets.ISO_8859_1))) {
+                offsets.add((long) offset);
+            }
+            offset += buffer.getInt(offset);
+        }
+        return offsets;
+    }
+}
@@ -0,0 +1,255 @@
+package services;
+
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.android.controller.ServiceController;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+// Measures the service's own state machine with backends that take no time: start, armed start and
+// stop latency, the main thread time spent delivering events and the bytes allocated per session.
+// The fakes answer at once, so what is measured is the service's thread hops, file work and
+// bookkeeping. Runs with the benchmark task, a median past its budget fails it. Starts are timed
+// up to the recorder's start() on the camera thread, not up to the test seeing the event.
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class StartupBenchmark {
+    private static final int WARMUP_SESSIONS = 3;
+    private static final int MEASURED_SESSIONS = 10;
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    // Medians of the measured sessions
+    private static final long START_BUDGET_MILLIS = 250;
+    private static final long ARMED_START_BUDGET_MILLIS = 50;
+    private static final long STOP_BUDGET_MILLIS = 150;
+    private static final long EVENT_DELIVERY_BUDGET_MICROS = 2000;
+    private static final long SESSION_ALLOCATION_BUDGET_BYTES = 16L * 1024 * 1024;
+
+    private final List<RecorderEvent> mEvents = new ArrayList<>();
+    private long mMainThreadNanos = 0;
+    private volatile FakeRecorderBackend mRecorder;
+
+    @Before
+    public void installFakes() {
+        RecorderBackends.install(new RecorderBackends.Factory() {
+            @NonNull
+            @Override
+            public CameraBackend createCamera(@NonNull Context context, @NonNull Handler cameraHandler) {
+                return new FakeCameraBackend(cameraHandler, 0, 0, 33);
+            }
+
+            @NonNull
+            @Override
+            public RecorderBackend createRecorder(@NonNull Context context, @NonNull String engine) {
+                mRecorder = new FakeRecorderBackend(0, 0, 0);
+                return mRecorder;
+            }
+
+            @NonNull
+            @Override
+            public StorageBackend createStorage(@NonNull Context context) {
+                return new FakeStorageBackend(64L * 1024 * 1024 * 1024);
+            }
+        });
+    }
+
+    @After
+    public void restoreBackends() {
+        RecorderBackends.install(null);
+    }
+
+    @Test
+    public void startAndStopStayWithinBudget() {
+        long[] startMillis = new long[MEASURED_SESSIONS];
+        long[] stopMillis = new long[MEASURED_SESSIONS];
+        long[] eventMicros = new long[MEASURED_SESSIONS];
+        long[] allocatedBytes = new long[MEASURED_SESSIONS];
+        for (int session = -WARMUP_SESSIONS; session < MEASURED_SESSIONS; session++) {
+            ServiceController<VideoRecorderService> controller = startService();
+            VideoRecorderService service = controller.get();
+            Map<Long, Long> allocatedBefore = allocatedBytesPerThread();
+            mMainThreadNanos = 0;
+            mEvents.clear();
+
+            long startNanos = System.nanoTime();
+            service.startVideoRecording();
+            awaitEvent(RecorderEvent.RECORDING);
+            long startedNanos = mRecorder.getStartedNanos();
+            long stopNanos = System.nanoTime();
+            AtomicBoolean stopped = new AtomicBoolean(false);
+            service.stopVideoRecording(fileName -> stopped.set(true));
+            await(stopped);
+            long stoppedNanos = System.nanoTime();
+
+            long allocated = allocatedSince(allocatedBefore);
+            int events = mEvents.size();
+            controller.destroy();
+            if (session >= 0) {
+                startMillis[session] = (startedNanos - startNanos) / 1000000;
+                stopMillis[session] = (stoppedNanos - stopNanos) / 1000000;
+                eventMicros[session] = mMainThreadNanos / 1000 / Math.max(1, events);
+                allocatedBytes[session] = allocated;
+            }
+        }
+        assertWithin("start", startMillis, START_BUDGET_MILLIS, "ms");
+        assertWithin("stop", stopMillis, STOP_BUDGET_MILLIS, "ms");
+        assertWithin("main thread per event", eventMicros, EVENT_DELIVERY_BUDGET_MICROS, "us");
+        // Not every JVM counts allocations per thread
+        if (allocatedBytesPerThread() != null) {
+            assertWithin("allocated per session", allocatedBytes, SESSION_ALLOCATION_BUDGET_BYTES, "bytes");
+        }
+    }
+
+    @Test
+    public void armedStartStaysWithinBudget() {
+        ServiceController<VideoRecorderService> controller = startService();
+        VideoRecorderService service = controller.get();
+        service.armRecorder();
+        awaitEvent(RecorderEvent.ARMED);
+        long[] startMillis = new long[MEASURED_SESSIONS];
+        for (int session = -WARMUP_SESSIONS; session < MEASURED_SESSIONS; session++) {
+            mEvents.clear();
+            long startNanos = System.nanoTime();
+            service.startVideoRecording();
+            awaitEvent(RecorderEvent.RECORDING);
+            if (session >= 0) {
+                startMillis[session] = (mRecorder.getStartedNanos() - startNanos) / 1000000;
+            }
+            // Stopping an armed recorder prepares it again
+            mEvents.clear();
+            service.stopVideoRecording(fileName -> {});
+            awaitEvent(RecorderEvent.ARMED);
+        }
+        service.disarmRecorder();
+        awaitEvent(RecorderEvent.STOPPED);
+        controller.destroy();
+        assertWithin("armed start", startMillis, ARMED_START_BUDGET_MILLIS, "ms");
+    }
+
+    private ServiceController<VideoRecorderService> startService() {
+        Intent intent = new Intent(RuntimeEnvironment.getApplication(), VideoRecorderService.class);
+        intent.putExtra("DirectoryName", "Benchmark");
+        intent.putExtra("CameraFacing", "Rear Camera");
+        intent.putExtra("NotificationTitle", "Benchmark");
+        intent.putExtra("NotificationText", "Recording");
+        ServiceController<VideoRecorderService> controller = Robolectric.buildService(VideoRecorderService.class, intent).create().startCommand(0, 1);
+        VideoRecorderService.LocalBinder binder = (VideoRecorderService.LocalBinder) controller.get().onBind(intent);
+        binder.setStateListener(mEvents::add);
+        return controller;
+    }
+
+    private void awaitEvent(String code) {
+        long deadline = System.nanoTime() + TIMEOUT_MILLIS * 1000000;
+        while (!hasEvent(code)) {
+            if (hasEvent(RecorderEvent.EXCEPTION)) {
+                throw new AssertionError("Service failed while waiting for " + code + ": " + mEvents);
+            }
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Timed out waiting for " + code + ", got " + mEvents);
+            }
+            runMainLooper();
+        }
+    }
+
+    private void await(AtomicBoolean done) {
+        long deadline = System.nanoTime() + TIMEOUT_MILLIS * 1000000;
+        while (!done.get()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Timed out, got " + mEvents);
+            }
+            runMainLooper();
+        }
+    }
+
+    // The test thread is the main thread, it runs what the service posted to it
+    private void runMainLooper() {
+        long startNanos = System.nanoTime();
+        shadowOf(Looper.getMainLooper()).idle();
+        mMainThreadNanos += System.nanoTime() - startNanos;
+        LockSupport.parkNanos(100000);
+    }
+
+    private boolean hasEvent(String code) {
+        for (RecorderEvent event : mEvents) {
+            if (event.code.equals(code)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Null when the JVM cannot count the bytes its threads allocate
+    @Nullable
+    private static Map<Long, Long> allocatedBytesPerThread() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            return null;
+        }
+        long[] ids = threads.getAllThreadIds();
+        long[] allocated = threads.getThreadAllocatedBytes(ids);
+        Map<Long, Long> perThread = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            perThread.put(ids[i], allocated[i]);
+        }
+        return perThread;
+    }
+
+    // Threads that ended in the meantime are not counted
+    private static long allocatedSince(@Nullable Map<Long, Long> before) {
+        Map<Long, Long> after = allocatedBytesPerThread();
+        if (before == null || after == null) {
+            return 0;
+        }
+        long total = 0;
+        for (Map.Entry<Long, Long> thread : after.entrySet()) {
+            Long previous = before.get(thread.getKey());
+            if (thread.getValue() > 0) {
+                total += thread.getValue() - (previous != null && previous > 0 ? previous : 0);
+            }
+        }
+        return total;
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static void assertWithin(String name, long[] values, long budget, String unit) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        long median = median(values);
+        assertTrue(name + " took a median of " + median + " " + unit + " (min " + sorted[0] + ", max "
+                + sorted[sorted.length - 1] + "), over its budget of " + budget, median <= budget);
+    }
+}
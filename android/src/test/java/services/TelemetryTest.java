@@ -0,0 +1,155 @@
+package services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+// Writes sidecars with TelemetryWriter and queries them with TelemetryReader. Accelerations are
+// added in two batches, each waited for until the flush thread appended it, so the sidecar holds
+// two acceleration blocks with a location block between them.
+public class TelemetryTest {
+    private static final long START_NANOS = 5_000_000_000L;
+    private static final long PERIOD_NANOS = 10_000_000;
+    private static final int BATCH = 10;
+    private static final long TIMEOUT_MILLIS = 5000;
+    private static final int ACCELERATION_BLOCK_SIZE = TelemetryReader.BLOCK_HEADER_SIZE + BATCH * TelemetryReader.recordSize(TelemetryReader.TYPE_ACCELERATION);
+    private static final int LOCATION_BLOCK_SIZE = TelemetryReader.BLOCK_HEADER_SIZE + TelemetryReader.recordSize(TelemetryReader.TYPE_LOCATION);
+
+    private File mFolder;
+    private TelemetryWriter mWriter;
+
+    @Before
+    public void createFolder() throws IOException {
+        mFolder = Files.createTempDirectory("telemetry").toFile();
+        mWriter = new TelemetryWriter();
+    }
+
+    @After
+    public void deleteFolder() {
+        mWriter.release();
+        File[] files = mFolder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mFolder.delete();
+    }
+
+    @Test
+    public void readsARangeInsideOneBlock() throws Exception {
+        TelemetryReader reader = TelemetryReader.open(record());
+
+        assertEquals(START_NANOS, reader.getStartNanos());
+        assertEquals(indices(2, 5), accelerations(reader, time(2), time(5)));
+        assertEquals(indices(12, 13), accelerations(reader, time(12), time(12) + 1));
+    }
+
+    @Test
+    public void readsARangeAcrossBlocks() throws Exception {
+        TelemetryReader reader = TelemetryReader.open(record());
+
+        assertEquals(indices(8, 13), accelerations(reader, time(8), time(13)));
+        assertEquals(indices(0, 2 * BATCH), accelerations(reader, Long.MIN_VALUE, Long.MAX_VALUE));
+        List<double[]> locations = new ArrayList<>();
+        reader.query(TelemetryReader.TYPE_LOCATION, Long.MIN_VALUE, Long.MAX_VALUE, (timestamp, values) -> locations.add(values.clone()));
+        assertEquals(1, locations.size());
+        assertEquals(52.5, locations.get(0)[0], 0);
+        assertEquals(Double.NaN, locations.get(0)[2], 0);
+    }
+
+    @Test
+    public void readsNothingFromAnEmptyRange() throws Exception {
+        TelemetryReader reader = TelemetryReader.open(record());
+
+        assertEquals(indices(0, 0), accelerations(reader, time(3), time(3)));
+        assertEquals(indices(0, 0), accelerations(reader, time(3) + 1, time(4)));
+        assertEquals(indices(0, 0), accelerations(reader, Long.MIN_VALUE, time(0)));
+        assertEquals(indices(0, 0), accelerations(reader, time(2 * BATCH), Long.MAX_VALUE));
+        assertEquals(0, reader.query(TelemetryReader.TYPE_FRAME, Long.MIN_VALUE, Long.MAX_VALUE, (timestamp, values) -> fail("No frames were added")));
+    }
+
+    @Test
+    public void ignoresTheTornLastBlockOfAKilledRecording() throws Exception {
+        File sidecar = record();
+        try (RandomAccessFile file = new RandomAccessFile(sidecar, "rw")) {
+            file.setLength(file.length() - ACCELERATION_BLOCK_SIZE / 2);
+        }
+        TelemetryReader reader = TelemetryReader.open(sidecar);
+        assertEquals(indices(0, BATCH), accelerations(reader, Long.MIN_VALUE, Long.MAX_VALUE));
+
+        try (RandomAccessFile file = new RandomAccessFile(sidecar, "rw")) {
+            file.setLength(TelemetryReader.HEADER_SIZE + ACCELERATION_BLOCK_SIZE + LOCATION_BLOCK_SIZE + TelemetryReader.BLOCK_HEADER_SIZE / 2);
+        }
+        reader = TelemetryReader.open(sidecar);
+        assertEquals(indices(0, BATCH), accelerations(reader, Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    // Records 2 * BATCH accelerations, one every PERIOD_NANOS with x set to its index, and a
+    // location after the first batch, each batch flushed into blocks of its own
+    private File record() throws Exception {
+        File sidecar = TelemetryReader.sidecarFor(new File(mFolder, "video.mp4"));
+        mWriter.start(sidecar, START_NANOS, 0);
+        // Records added before the sidecar is open are dropped
+        awaitLength(sidecar, TelemetryReader.HEADER_SIZE);
+        addAccelerations(0);
+        mWriter.addLocation(time(BATCH - 1) + 1, 52.5, 13.4, Double.NaN, 5);
+        awaitLength(sidecar, TelemetryReader.HEADER_SIZE + ACCELERATION_BLOCK_SIZE + LOCATION_BLOCK_SIZE);
+        addAccelerations(BATCH);
+        mWriter.stop();
+        awaitLength(sidecar, TelemetryReader.HEADER_SIZE + 2 * ACCELERATION_BLOCK_SIZE + LOCATION_BLOCK_SIZE);
+        return sidecar;
+    }
+
+    private void addAccelerations(int first) {
+        for (int i = first; i < first + BATCH; i++) {
+            mWriter.addAcceleration(time(i), i, -i, 9.81f);
+        }
+    }
+
+    private static long time(int index) {
+        return START_NANOS + index * PERIOD_NANOS;
+    }
+
+    // x of the accelerations in [fromNanos, toNanos), checked against their timestamps
+    private static List<Integer> accelerations(TelemetryReader reader, long fromNanos, long toNanos) {
+        List<Integer> found = new ArrayList<>();
+        int count = reader.query(TelemetryReader.TYPE_ACCELERATION, fromNanos, toNanos, (timestamp, values) -> {
+            int index = (int) values[0];
+            assertEquals(time(index), timestamp);
+            assertEquals(-index, values[1], 0);
+            found.add(index);
+        });
+        assertEquals(found.size(), count);
+        return found;
+    }
+
+    private static List<Integer> indices(int from, int to) {
+        List<Integer> indices = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            indices.add(i);
+        }
+        return indices;
+    }
+
+    // The flush thread appends twice a second
+    private static void awaitLength(File file, long length) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (file.length() != length) {
+            if (System.currentTimeMillis() > deadline) {
+                fail(file.getName() + " is " + file.length() + " bytes, expected " + length);
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -1,19 +1,57 @@
+import 'dart:typed_data';
+
 import 'flutter_bvr_platform_interface.dart';
 
 class FlutterBackgroundVideoRecorder {
   // Start recording service and record video
+  // options segments, buffers, encodes, uploads or encrypts the recording, see RecordingOptions
   Future<bool?> startVideoRecording(
       {required String folderName,
       required CameraFacing cameraFacing,
       required String notificationTitle,
       required String notificationText,
-      bool showToast = false}) {
+      bool showToast = false,
+      RecordingOptions options = const RecordingOptions()}) {
     return FlutterBackgroundVideoRecorderPlatform.instance.startVideoRecording(
         folderName: folderName,
         cameraFacing: cameraFacing,
         notificationTitle: notificationTitle,
         notificationText: notificationText,
-        showToast: showToast);
+        showToast: showToast,
+        options: options);
+  }
+
+  // Start recording service, open the camera and prepare the recorder without recording
+  // A following startVideoRecording() only has to start the prepared recorder
+  // The recorder is prepared again after every stopVideoRecording() until disarmRecorder()
+  Future<bool?> armRecorder(
+      {required String folderName,
+      required CameraFacing cameraFacing,
+      required String notificationTitle,
+      required String notificationText,
+      bool showToast = false,
+      RecordingOptions options = const RecordingOptions()}) {
+    return FlutterBackgroundVideoRecorderPlatform.instance.armRecorder(
+        folderName: folderName,
+        cameraFacing: cameraFacing,
+        notificationTitle: notificationTitle,
+        notificationText: notificationText,
+        showToast: showToast,
+        options: options);
+  }
+
+  // Release an armed recorder and stop service
+  Future<bool?> disarmRecorder() {
+    return FlutterBackgroundVideoRecorderPlatform.instance.disarmRecorder();
+  }
+
+  // Save the buffered video from preSeconds before to postSeconds after now
+  // Only available when recording was started with preEventBufferSeconds
+  // Completes with the clip's path once it has been written
+  Future<String?> saveClip(
+      {required int preSeconds, required int postSeconds}) {
+    return FlutterBackgroundVideoRecorderPlatform.instance
+        .saveClip(preSeconds: preSeconds, postSeconds: postSeconds);
   }
 
   // Stop video recording, release resources and stop service
@@ -27,10 +65,39 @@ class FlutterBackgroundVideoRecorder {
   ///    - 2: Recording has stopped
   ///    - 3: Recorder is being initialized and about to start recording
   ///    - 4: An exception has occurred in the recording service
+  ///    - 5: Recorder is armed and starts recording without initialization delay
   Stream<int> get recorderState {
     return FlutterBackgroundVideoRecorderPlatform.instance.recorderState;
   }
 
+  /// Get recorder events that carry data as a stream of maps
+  /// * The `event` key names the event, `sequence` and `timestampMillis` order them
+  ///    - segmentCompleted: `path`, `durationMillis` and `sizeBytes` of the finished segment
+  ///    - lowStorage and storageFull: `availableBytes` and `remainingSeconds`
+  ///    - secondaryRecordingCompleted: `path`, `cameraId`, `sizeBytes` and `startOffsetNanos` of
+  ///      the second camera's file
+  ///    - fastStartCompleted: `path`, `relocated` and `durationMillis` of a rewritten file
+  ///    - recordingRecovered: `path` and `recovered` of a fragmented file left by a killed recording
+  ///    - recordingIndexMissing: `path` and `sizeBytes` of a plain file left without its index
+  ///    - uploadProgress: `path`, `bytesSent` and `totalBytes`
+  ///    - uploadCompleted: `path` and `uploadUrl`
+  ///    - uploadFailed: `path`, `message` and `willRetry`
+  ///    - motionStarted: `path` of the clip being written
+  ///    - motionClipCompleted: `path` and `sizeBytes` of the finished clip
+  ///    - optionsIgnored: names of the conflicting options that were turned off in `options`
+  ///    - startupFailed: the `stage` that failed and a `message`
+  /// * See [FlutterBackgroundVideoRecorderPlatform.recorderEvents] for details
+  Stream<Map<String, dynamic>> get recorderEvents {
+    return FlutterBackgroundVideoRecorderPlatform.instance.recorderEvents;
+  }
+
+  /// Get downscaled grayscale analysis frames as a stream of maps
+  /// * `width`, `height`, `timestampNanos` and the `luma` plane as a Uint8List
+  /// * Only sent when [FrameTapOptions.dartFrameWidth] is set
+  Stream<Map<String, dynamic>> get analysisFrames {
+    return FlutterBackgroundVideoRecorderPlatform.instance.analysisFrames;
+  }
+
   // Get current state of video recorder
   // Once service starts, recording events can be called using [recorderState] getter
   // * States are denoted by integer numbers
@@ -39,7 +106,50 @@ class FlutterBackgroundVideoRecorder {
   //    - 2: Recording has stopped
   //    - 3: Recorder is being initialized and about to start recording
   //    - 4: An exception has occurred in the recording service
+  //    - 5: Recorder is armed and starts recording without initialization delay
   Future<int?> getVideoRecordingStatus() {
     return FlutterBackgroundVideoRecorderPlatform.instance.getRecordingStatus();
   }
+
+  // Get the latest camera setup durations in microseconds
+  // coldSetupMicros is measured when the camera had to be queried,
+  // warmSetupMicros when the cached camera capabilities were used
+  Future<Map<String, int>?> getCameraSetupTimings() {
+    return FlutterBackgroundVideoRecorderPlatform.instance
+        .getCameraSetupTimings();
+  }
+
+  // Get the free space of the recording folder and the recording time it leaves
+  Future<Map<String, int>?> getStorageForecast() {
+    return FlutterBackgroundVideoRecorderPlatform.instance.getStorageForecast();
+  }
+
+  // Get stage timing histograms, frame counts and write rates of the recorder
+  Future<Map<String, dynamic>?> getRecorderMetrics() {
+    return FlutterBackgroundVideoRecorderPlatform.instance.getRecorderMetrics();
+  }
+
+  // List the recordings of a folder newest first, a page at a time, from the recording catalog
+  Future<Map<String, dynamic>?> listRecordings(
+      {required String folderName, int offset = 0, int limit = 100}) {
+    return FlutterBackgroundVideoRecorderPlatform.instance
+        .listRecordings(folderName: folderName, offset: offset, limit: limit);
+  }
+
+  // Decrypt a range of an encrypted recording, a chunk at a time for playback or upload
+  Future<Map<String, dynamic>?> readDecrypted(
+      {required String path,
+      required Uint8List key,
+      int offset = 0,
+      int length = 1048576}) {
+    return FlutterBackgroundVideoRecorderPlatform.instance
+        .readDecrypted(path: path, key: key, offset: offset, length: length);
+  }
+
+  // Read a recording's frame, motion and location telemetry for a range of video time
+  Future<Map<String, dynamic>?> readTelemetry(
+      {required String path, int fromUs = 0, int? toUs}) {
+    return FlutterBackgroundVideoRecorderPlatform.instance
+        .readTelemetry(path: path, fromUs: fromUs, toUs: toUs);
+  }
 }
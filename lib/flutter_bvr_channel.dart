@@ -1,3 +1,5 @@
+import 'dart:typed_data';
+
 import 'package:flutter/services.dart';
 
 import 'flutter_bvr_platform_interface.dart';
@@ -12,6 +14,14 @@ class FlutterBVRChannel extends FlutterBackgroundVideoRecorderPlatform {
   static const EventChannel _eventChannel =
       EventChannel('flutter_background_video_recorder_event');
 
+  /// The event channel that carries recorder events with data.
+  static const EventChannel _infoEventChannel =
+      EventChannel('flutter_background_video_recorder_info_event');
+
+  /// The event channel that carries downscaled analysis frames.
+  static const EventChannel _frameEventChannel =
+      EventChannel('flutter_background_video_recorder_frames');
+
   /// Method used to get the most recent status of the video recorder
   @override
   Future<int> getRecordingStatus() async {
@@ -25,6 +35,22 @@ class FlutterBVRChannel extends FlutterBackgroundVideoRecorderPlatform {
     return _eventChannel.receiveBroadcastStream().map((value) => value as int);
   }
 
+  /// Stream of recorder events such as completed segments
+  @override
+  Stream<Map<String, dynamic>> get recorderEvents {
+    return _infoEventChannel
+        .receiveBroadcastStream()
+        .map((value) => Map<String, dynamic>.from(value as Map));
+  }
+
+  /// Stream of downscaled analysis frames
+  @override
+  Stream<Map<String, dynamic>> get analysisFrames {
+    return _frameEventChannel
+        .receiveBroadcastStream()
+        .map((value) => Map<String, dynamic>.from(value as Map));
+  }
+
   /// Method to start recording video
   @override
   Future<bool?> startVideoRecording(
@@ -32,18 +58,44 @@ class FlutterBVRChannel extends FlutterBackgroundVideoRecorderPlatform {
       required CameraFacing cameraFacing,
       required String notificationTitle,
       required String notificationText,
-      required bool showToast}) async {
+      required bool showToast,
+      RecordingOptions options = const RecordingOptions()}) async {
     return await _methodChannel.invokeMethod<bool?>(
       "startVideoRecording",
-      {
-        "videoFolderName": folderName,
-        "cameraFacing": cameraFacing == CameraFacing.frontCamera
-            ? "Front Camera"
-            : "Rear Camera",
-        "notificationTitle": notificationTitle,
-        "notificationText": notificationText,
-        "showToast": showToast ? 'true' : 'false'
-      },
+      _recordingArguments(folderName, cameraFacing, notificationTitle,
+          notificationText, showToast, options),
+    );
+  }
+
+  /// Method to prepare the recorder ahead of recording
+  @override
+  Future<bool?> armRecorder(
+      {required String folderName,
+      required CameraFacing cameraFacing,
+      required String notificationTitle,
+      required String notificationText,
+      required bool showToast,
+      RecordingOptions options = const RecordingOptions()}) async {
+    return await _methodChannel.invokeMethod<bool?>(
+      "armRecorder",
+      _recordingArguments(folderName, cameraFacing, notificationTitle,
+          notificationText, showToast, options),
+    );
+  }
+
+  /// Method to release an armed recorder
+  @override
+  Future<bool?> disarmRecorder() async {
+    return await _methodChannel.invokeMethod<bool?>("disarmRecorder");
+  }
+
+  /// Method to write a clip from the pre-event buffer
+  @override
+  Future<String?> saveClip(
+      {required int preSeconds, required int postSeconds}) async {
+    return await _methodChannel.invokeMethod<String?>(
+      "saveClip",
+      {"preSeconds": preSeconds, "postSeconds": postSeconds},
     );
   }
 
@@ -51,4 +103,76 @@ class FlutterBVRChannel extends FlutterBackgroundVideoRecorderPlatform {
   Future<String?> stopVideoRecording() async {
     return await _methodChannel.invokeMethod<String?>("stopVideoRecording");
   }
+
+  /// Method to get cold and warm camera setup durations
+  @override
+  Future<Map<String, int>?> getCameraSetupTimings() async {
+    return await _methodChannel
+        .invokeMapMethod<String, int>("getCameraSetupTimings");
+  }
+
+  /// Method to get the free space and recording time left
+  @override
+  Future<Map<String, int>?> getStorageForecast() async {
+    return await _methodChannel
+        .invokeMapMethod<String, int>("getStorageForecast");
+  }
+
+  /// Method to get the recorder's performance histograms
+  @override
+  Future<Map<String, dynamic>?> getRecorderMetrics() async {
+    return await _methodChannel
+        .invokeMapMethod<String, dynamic>("getRecorderMetrics");
+  }
+
+  /// Method to page through the recordings of a folder
+  @override
+  Future<Map<String, dynamic>?> listRecordings(
+      {required String folderName, int offset = 0, int limit = 100}) async {
+    return await _methodChannel.invokeMapMethod<String, dynamic>(
+      "listRecordings",
+      {"videoFolderName": folderName, "offset": offset, "limit": limit},
+    );
+  }
+
+  @override
+  Future<Map<String, dynamic>?> readDecrypted(
+      {required String path,
+      required Uint8List key,
+      int offset = 0,
+      int length = 1048576}) async {
+    return await _methodChannel.invokeMapMethod<String, dynamic>(
+      "readDecrypted",
+      {"path": path, "key": key, "offset": offset, "length": length},
+    );
+  }
+
+  @override
+  Future<Map<String, dynamic>?> readTelemetry(
+      {required String path, int fromUs = 0, int? toUs}) async {
+    return await _methodChannel.invokeMapMethod<String, dynamic>(
+      "readTelemetry",
+      {"path": path, "fromUs": fromUs, "toUs": toUs},
+    );
+  }
+
+  /// Arguments shared by startVideoRecording and armRecorder
+  static Map<String, dynamic> _recordingArguments(
+      String folderName,
+      CameraFacing cameraFacing,
+      String notificationTitle,
+      String notificationText,
+      bool showToast,
+      RecordingOptions options) {
+    return {
+      "videoFolderName": folderName,
+      "cameraFacing": cameraFacing == CameraFacing.frontCamera
+          ? "Front Camera"
+          : "Rear Camera",
+      "notificationTitle": notificationTitle,
+      "notificationText": notificationText,
+      "showToast": showToast ? 'true' : 'false',
+      ...options.toMap()
+    };
+  }
 }
@@ -1,9 +1,361 @@
+import 'dart:typed_data';
+
 import 'package:plugin_platform_interface/plugin_platform_interface.dart';
 
 import 'flutter_bvr_channel.dart';
 
 enum CameraFacing { rearCamera, frontCamera }
 
+enum VideoEncoder { h264, hevc }
+
+/// Rate control of the video encoder. Only the [RecordingEngine.mediaCodec]
+/// engine applies it, MediaRecorder always uses the encoder's default.
+enum BitRateMode { vbr, cbr, cq }
+
+/// How recordings are encoded. [mediaCodec] drives the encoders and the muxer
+/// directly and supports [BitRateMode].
+enum RecordingEngine { mediaRecorder, mediaCodec }
+
+/// Tracks to record. [videoOnly] leaves the microphone and audio encoder off,
+/// [audioOnly] never opens a camera and writes .m4a files, or .ogg files with
+/// [AudioCodec.opus].
+enum CaptureMode { audioVideo, videoOnly, audioOnly }
+
+/// Opus is only used for [CaptureMode.audioOnly] on Android 10 and later,
+/// otherwise AAC is recorded.
+enum AudioCodec { aac, opus }
+
+/// Video encoding settings, checked on the device against what the camera and
+/// encoders support and adjusted to the nearest supported values
+class QualityProfile {
+  const QualityProfile(
+      {this.width = 1920,
+      this.height = 1080,
+      this.frameRate = 30,
+      this.bitRate = 10000000,
+      this.encoder = VideoEncoder.h264,
+      this.iFrameInterval = 1,
+      this.bitRateMode = BitRateMode.vbr});
+
+  final int width;
+  final int height;
+  final int frameRate;
+  final int bitRate;
+  final VideoEncoder encoder;
+
+  /// Seconds between key frames
+  final int iFrameInterval;
+
+  /// With [BitRateMode.cq] the bit rate only sizes segments and storage forecasts
+  final BitRateMode bitRateMode;
+
+  Map<String, dynamic> toMap() => {
+        "width": width,
+        "height": height,
+        "frameRate": frameRate,
+        "bitRate": bitRate,
+        "encoder": encoder.name,
+        "iFrameInterval": iFrameInterval,
+        "bitRateMode": bitRateMode.name
+      };
+}
+
+/// Audio encoding settings, adjusted on the device to what its encoders support
+class AudioProfile {
+  const AudioProfile(
+      {this.codec = AudioCodec.aac,
+      this.sampleRate = 44100,
+      this.channelCount = 1,
+      this.bitRate = 128000});
+
+  final AudioCodec codec;
+
+  /// Opus records at 8000, 12000, 16000, 24000 or 48000 Hz
+  final int sampleRate;
+
+  /// 1 for mono, 2 for stereo
+  final int channelCount;
+  final int bitRate;
+
+  Map<String, dynamic> toMap() => {
+        "codec": codec.name,
+        "sampleRate": sampleRate,
+        "channelCount": channelCount,
+        "bitRate": bitRate
+      };
+}
+
+/// Background upload of finished recordings with the tus resumable upload
+/// protocol. Uploads continue across restarts of the app from where they stopped.
+class UploadOptions {
+  const UploadOptions(
+      {required this.endpoint,
+      this.headers = const {},
+      this.concurrency = 2,
+      this.maxBytesPerSecond = 0,
+      this.chunkSizeBytes = 4 * 1024 * 1024});
+
+  /// URL uploads are created at
+  final String endpoint;
+
+  /// Sent with every request, such as an authorization header
+  final Map<String, String> headers;
+
+  /// Files uploaded at the same time
+  final int concurrency;
+
+  /// Combined upload rate of all files, 0 for no limit
+  final int maxBytesPerSecond;
+
+  /// Bytes sent per request, an interrupted upload resends at most one chunk
+  final int chunkSizeBytes;
+
+  Map<String, dynamic> toMap() => {
+        "endpoint": endpoint,
+        "headers": headers,
+        "concurrency": concurrency,
+        "maxBytesPerSecond": maxBytesPerSecond,
+        "chunkSizeBytes": chunkSizeBytes
+      };
+}
+
+/// Low rate copy of the camera stream for analysis while recording. Frames
+/// that arrive while the previous one is still being handled are dropped.
+class FrameTapOptions {
+  const FrameTapOptions(
+      {this.frameRate = 5,
+      this.width = 640,
+      this.height = 480,
+      this.dartFrameWidth = 0});
+
+  /// Frames per second handed to the analysis listeners
+  final double frameRate;
+
+  /// Requested size of the YUV frames, snapped to a camera output size
+  final int width;
+  final int height;
+
+  /// Width of the grayscale frames sent to [analysisFrames], 0 sends none
+  final int dartFrameWidth;
+
+  Map<String, dynamic> toMap() => {
+        "frameRate": frameRate,
+        "width": width,
+        "height": height,
+        "dartFrameWidth": dartFrameWidth
+      };
+}
+
+/// Motion-triggered recording. The camera runs into the pre-event buffer and
+/// a clip is written while motion is seen in low rate analysis frames.
+class MotionTrigger {
+  const MotionTrigger(
+      {this.preRoll = const Duration(seconds: 3),
+      this.postRoll = const Duration(seconds: 5),
+      this.sensitivity = 0.5});
+
+  /// Video kept from before the motion started
+  final Duration preRoll;
+
+  /// Video kept after the motion ended, motion within it extends the clip
+  final Duration postRoll;
+
+  /// From 0, only large changes, to 1, the smallest changes
+  final double sensitivity;
+
+  Map<String, dynamic> toMap() => {
+        "preRollSeconds": preRoll.inSeconds,
+        "postRollSeconds": postRoll.inSeconds,
+        "sensitivity": sensitivity
+      };
+}
+
+/// Time-lapse recording. One frame is kept per capture interval and the kept
+/// frames play back at the playback frame rate, without audio.
+class TimeLapse {
+  const TimeLapse({required this.captureInterval, this.playbackFrameRate = 30});
+
+  /// Time between kept frames, longer than a playback frame
+  final Duration captureInterval;
+
+  /// Frame rate the file plays back at
+  final int playbackFrameRate;
+
+  Map<String, dynamic> toMap() => {
+        "captureIntervalMillis": captureInterval.inMilliseconds,
+        "playbackFrameRate": playbackFrameRate
+      };
+}
+
+/// Recording settings besides the folder, camera and notification, passed to
+/// [FlutterBackgroundVideoRecorderPlatform.startVideoRecording] and
+/// [FlutterBackgroundVideoRecorderPlatform.armRecorder]. Settings left null use
+/// the recorder's defaults.
+class RecordingOptions {
+  const RecordingOptions(
+      {this.preEventBufferSeconds,
+      this.segmentDuration,
+      this.segmentSizeBytes,
+      this.diskQuotaBytes,
+      this.qualityProfile,
+      this.adaptiveQuality,
+      this.minFreeBytes,
+      this.lowStorageWarning,
+      this.preallocateFiles,
+      this.broadcastEvents,
+      this.traceStages,
+      this.recordingEngine,
+      this.frameTap,
+      this.dualCamera,
+      this.captureMode,
+      this.audioProfile,
+      this.fastStart,
+      this.fragmentDuration,
+      this.upload,
+      this.motionTrigger,
+      this.timeLapse,
+      this.encryptionKey,
+      this.highSpeedFrameRate,
+      this.telemetry});
+
+  /// Keeps the last seconds of video in memory instead of recording to a file,
+  /// clips are then written with [FlutterBackgroundVideoRecorderPlatform.saveClip]
+  final int? preEventBufferSeconds;
+
+  /// Splits the recording into segments of about this length, without gaps
+  final Duration? segmentDuration;
+
+  /// Splits the recording into segments of about this size, without gaps
+  final int? segmentSizeBytes;
+
+  /// Deletes the oldest recordings in the folder when it grows past the quota
+  final int? diskQuotaBytes;
+
+  /// Resolution, frame rate, bit rate and encoder
+  final QualityProfile? qualityProfile;
+
+  /// Steps the quality down while the device is hot
+  final bool? adaptiveQuality;
+
+  /// Recording stops when free space drops below it, segmented recordings
+  /// delete their oldest segments first
+  final int? minFreeBytes;
+
+  /// Recording time left that triggers a lowStorage event
+  final Duration? lowStorageWarning;
+
+  /// Reserves disk space for each file up front
+  final bool? preallocateFiles;
+
+  /// Also sends state changes as RECORDING_RECEIVER broadcasts
+  final bool? broadcastEvents;
+
+  /// Marks the recorder's startup and stop stages in system traces
+  final bool? traceStages;
+
+  /// MediaRecorder or the MediaCodec engine, which applies the profile's
+  /// [BitRateMode]
+  final RecordingEngine? recordingEngine;
+
+  /// Low rate frames for analysis next to the recording
+  final FrameTapOptions? frameTap;
+
+  /// Also records the opposite camera, without audio, on devices that can
+  /// stream both cameras at once
+  final bool? dualCamera;
+
+  /// Audio and video, video only or audio only, the latter without a camera.
+  /// Only the camera or microphone permission the mode uses is requested
+  final CaptureMode? captureMode;
+
+  /// Audio encoding
+  final AudioProfile? audioProfile;
+
+  /// Rewrites every finished MP4 file with its index in front so playback can
+  /// start while it is still downloading, a fastStartCompleted event follows
+  /// each file
+  final bool? fastStart;
+
+  /// Writes MP4 files as fragments of about this length, so a recording that
+  /// is killed keeps all fragments but the last one. The mediaCodec engine is
+  /// used for fragmented files, and interrupted files are repaired on the next
+  /// start, see recordingRecovered. Plain files that were interrupted are
+  /// reported with recordingIndexMissing
+  final Duration? fragmentDuration;
+
+  /// Uploads every finished file, segments as soon as they complete. The
+  /// service keeps running after a stop until the queued uploads are done
+  final UploadOptions? upload;
+
+  /// Only writes clips while motion is seen, with a pre-roll and post-roll.
+  /// The frame tap provides the analysis frames, at 5 frames per second when
+  /// none is requested
+  final MotionTrigger? motionTrigger;
+
+  /// Keeps one frame per interval with the camera running at its lowest frame
+  /// rates. Time-lapse records the main camera's video only, with MediaRecorder
+  /// and into plain files
+  final TimeLapse? timeLapse;
+
+  /// At least 16 bytes, encrypts files with AES-GCM while they are written, in
+  /// chunks that are authenticated one by one. The files end in `.enc` and are
+  /// read with [FlutterBackgroundVideoRecorderPlatform.readDecrypted].
+  /// Encryption uses the mediaCodec engine and fragmented files, and turns off
+  /// pre-event buffering, motion triggering, dual camera and time-lapse. The
+  /// key is handed to the service in memory and not kept in its start intent,
+  /// so a service the system restarts does not record again until started
+  /// with the key
+  final Uint8List? encryptionKey;
+
+  /// Such as 120 or 240, records every frame of a constrained high speed
+  /// session for slow motion or the analysis of fast movement. The lowest fixed
+  /// high speed rate of at least the requested one is used, with the closest
+  /// size the camera offers at that rate, and the bit rate of [qualityProfile]
+  /// should be raised to match. High speed recording turns off the frame tap,
+  /// motion triggering, dual camera, time-lapse and adaptive quality, and
+  /// cameras without high speed video record at the profile's frame rate
+  final int? highSpeedFrameRate;
+
+  /// Writes every frame's exposure time, frame duration, ISO and focus
+  /// distance, the accelerometer and GPS fixes into a `.tlm` file next to each
+  /// recording, keyed by the frames' sensor timestamps and read with
+  /// [FlutterBackgroundVideoRecorderPlatform.readTelemetry]. Locations need the
+  /// app to hold the fine location permission. To keep recording them while
+  /// the app is in the background, declare the service with
+  /// `android:foregroundServiceType="camera|microphone|location"`, the location
+  /// columns are otherwise empty while the app is not visible. Telemetry is not
+  /// written with encryption, pre-event buffering, motion triggering,
+  /// time-lapse or audio only recording
+  final bool? telemetry;
+
+  Map<String, dynamic> toMap() => {
+        "preEventBufferSeconds": preEventBufferSeconds,
+        "segmentDurationSeconds": segmentDuration?.inSeconds,
+        "segmentSizeBytes": segmentSizeBytes,
+        "diskQuotaBytes": diskQuotaBytes,
+        "qualityProfile": qualityProfile?.toMap(),
+        "adaptiveQuality": adaptiveQuality,
+        "minFreeBytes": minFreeBytes,
+        "lowStorageWarningSeconds": lowStorageWarning?.inSeconds,
+        "preallocateFiles": preallocateFiles,
+        "broadcastEvents": broadcastEvents,
+        "traceStages": traceStages,
+        "recordingEngine": recordingEngine?.name,
+        "frameTap": frameTap?.toMap(),
+        "dualCamera": dualCamera,
+        "captureMode": captureMode?.name,
+        "audioProfile": audioProfile?.toMap(),
+        "fastStart": fastStart,
+        "fragmentDurationMillis": fragmentDuration?.inMilliseconds,
+        "uploadOptions": upload?.toMap(),
+        "motionTrigger": motionTrigger?.toMap(),
+        "timeLapse": timeLapse?.toMap(),
+        "encryptionKey": encryptionKey,
+        "highSpeedFrameRate": highSpeedFrameRate,
+        "telemetry": telemetry
+      };
+}
+
 abstract class FlutterBackgroundVideoRecorderPlatform
     extends PlatformInterface {
   /// Constructs a FlutterBackgroundVideoRecorderPlatform.
@@ -35,6 +387,7 @@ abstract class FlutterBackgroundVideoRecorderPlatform
   ///   - 2: Recording has stopped
   ///   - 3: Recorder is being initialized and about to start recording
   ///   - 4: An exception has occurred in the recording service
+  ///   - 5: Recorder is armed and starts recording without initialization delay
   Future<int?> getRecordingStatus() {
     throw UnimplementedError(
         'getVideoRecordingStatus() has not been implemented.');
@@ -47,23 +400,157 @@ abstract class FlutterBackgroundVideoRecorderPlatform
   ///    - 2: Recording has stopped
   ///    - 3: Recorder is being initialized and about to start recording
   ///    - 4: An exception has occurred in the recording service
+  ///    - 5: Recorder is armed and starts recording without initialization delay
   Stream<int> get recorderState {
     throw UnimplementedError('recorderState has not been implemented.');
   }
 
+  ///  * Gets a stream of recorder events that carry data, as maps.
+  ///  * Every event has an `event` key naming it, a `sequence` number that increases by one
+  ///    per recorder state change and the `timestampMillis` it happened at, since device boot
+  ///    - segmentCompleted: a segment was closed, with `path`, `durationMillis` and `sizeBytes`
+  ///    - lowStorage: the forecast dropped below the warning, with `availableBytes` and `remainingSeconds`
+  ///    - storageFull: free space fell below the minimum and recording stopped, with the same keys
+  ///    - secondaryRecordingCompleted: the second camera's file of a dual camera recording, with
+  ///      `path`, `cameraId`, `sizeBytes` and `startOffsetNanos` from the main recording's first frame
+  ///      when both cameras share a clock
+  ///    - fastStartCompleted: a finished file was rewritten with its index in front, with `path`,
+  ///      `relocated` and `durationMillis`. The file is complete and can be uploaded from here on
+  ///    - recordingRecovered: a file left behind by a recording that was killed was checked, with
+  ///      `path` and `recovered`, true when it was cut back to its last complete fragment and plays
+  ///    - recordingIndexMissing: a plain MP4 file left behind by a recording that was killed ends
+  ///      before its index was written, so it does not play. With `path` and `sizeBytes`, the file
+  ///      is kept for the app to delete or hand to a repair tool
+  ///    - uploadProgress: a chunk was uploaded, with `path`, `bytesSent` and `totalBytes`
+  ///    - uploadCompleted: a file is on the server, with `path` and `uploadUrl`
+  ///    - uploadFailed: an upload attempt failed, with `path`, `message` and `willRetry`. Files that
+  ///      keep failing are tried again on the next start
+  ///    - motionStarted: motion was seen and a clip is being written, with its `path`
+  ///    - motionClipCompleted: the clip ended after the post-roll, with `path` and `sizeBytes`
+  ///    - optionsIgnored: [RecordingOptions] that other options rule out were turned off before the
+  ///      recording started, with their names in `options`, such as `motionTrigger` and `telemetry`
+  ///      for an encrypted recording
+  ///    - startupFailed: the recorder could not be started, sent with the exception status, with the
+  ///      `stage` that failed (queryCamera, createFolder, createFile, prepareRecorder, openCamera or
+  ///      configureSession) and a `message`
+  Stream<Map<String, dynamic>> get recorderEvents {
+    throw UnimplementedError('recorderEvents has not been implemented.');
+  }
+
+  ///  * Gets a stream of downscaled analysis frames, enabled with [FrameTapOptions.dartFrameWidth]
+  ///  * Every frame is a map with `width`, `height`, `timestampNanos` and the 8-bit `luma` plane
+  Stream<Map<String, dynamic>> get analysisFrames {
+    throw UnimplementedError('analysisFrames has not been implemented.');
+  }
+
   /// Starts service and records video
   /// Must pass folder name, camera facing direction, notification title and notification text
+  /// Pass [options] to segment, buffer, encode, upload or encrypt the recording, see
+  /// [RecordingOptions]
   Future<bool?> startVideoRecording(
       {required String folderName,
       required CameraFacing cameraFacing,
       required String notificationTitle,
       required String notificationText,
-      required bool showToast}) {
+      required bool showToast,
+      RecordingOptions options = const RecordingOptions()}) {
     throw UnimplementedError('startVideoRecording() has not been implemented.');
   }
 
+  /// Starts service, opens the camera and prepares the recorder without recording
+  /// A following [startVideoRecording] starts recording almost immediately
+  /// The recorder stays armed after [stopVideoRecording] until [disarmRecorder] is called
+  Future<bool?> armRecorder(
+      {required String folderName,
+      required CameraFacing cameraFacing,
+      required String notificationTitle,
+      required String notificationText,
+      required bool showToast,
+      RecordingOptions options = const RecordingOptions()}) {
+    throw UnimplementedError('armRecorder() has not been implemented.');
+  }
+
+  /// Releases an armed recorder and stops the service
+  Future<bool?> disarmRecorder() {
+    throw UnimplementedError('disarmRecorder() has not been implemented.');
+  }
+
+  /// Writes a clip from [preSeconds] before to [postSeconds] after the call while buffering
+  /// Returns the path of the clip once it has been written
+  Future<String?> saveClip(
+      {required int preSeconds, required int postSeconds}) {
+    throw UnimplementedError('saveClip() has not been implemented.');
+  }
+
   // Stops recording video and releases the service
   Future<String?> stopVideoRecording() {
     throw UnimplementedError('stopVideoRecording() has not been implemented.');
   }
+
+  /// Gets the most recent camera setup durations in microseconds
+  ///   - coldSetupMicros: setup that had to query the camera service
+  ///   - warmSetupMicros: setup served from the camera capability cache
+  /// A value of -1 means that kind of setup has not happened yet
+  Future<Map<String, int>?> getCameraSetupTimings() {
+    throw UnimplementedError(
+        'getCameraSetupTimings() has not been implemented.');
+  }
+
+  ///  * Gets the free space of the recording folder while the service runs, null otherwise
+  ///    - availableBytes: free bytes on the volume
+  ///    - remainingSeconds: recording time left at the current bit rate before the minimum is reached
+  Future<Map<String, int>?> getStorageForecast() {
+    throw UnimplementedError('getStorageForecast() has not been implemented.');
+  }
+
+  ///  * Gets the recorder's performance figures since the app started
+  ///    - stages: histograms of openCamera, configureSession, firstFrame, start and stop, in microseconds
+  ///    - framesCaptured and framesDropped: camera frame counts
+  ///    - bytesWritten: bytes in finished recordings, and bytesPerSecond: a histogram of their write rates
+  ///  * A histogram is a map of count, sum, min, max, bounds and counts, where counts has one entry
+  ///    per bound plus a last one for values above the highest bound
+  Future<Map<String, dynamic>?> getRecorderMetrics() {
+    throw UnimplementedError('getRecorderMetrics() has not been implemented.');
+  }
+
+  ///  * Lists the recordings in a folder newest first, [limit] of them from [offset], works
+  ///    whether or not the recorder runs
+  ///    - total: number of recordings in the folder
+  ///    - recordings: maps with path, name, sizeBytes, durationMillis, width, height, codec and
+  ///      createdMillis. durationMillis is -1 for files that cannot be read, such as the one being
+  ///      recorded, width and height are 0 for audio-only recordings
+  ///  * Metadata is kept in a catalog, only files that are new or changed since the last call are read
+  Future<Map<String, dynamic>?> listRecordings(
+      {required String folderName, int offset = 0, int limit = 100}) {
+    throw UnimplementedError('listRecordings() has not been implemented.');
+  }
+
+  ///  * Decrypts up to [length] bytes, at most 8 MiB, from [offset] of a recording encrypted
+  ///    with [key], only the chunks covering the range are read, so files can be played or
+  ///    uploaded in pieces
+  ///    - data: the plaintext, shorter at the end of the file
+  ///    - length: plaintext length of the file
+  ///    - complete: false for a recording that was killed, readable up to its last sealed chunk
+  ///  * Fails when the key is wrong or a chunk was modified
+  Future<Map<String, dynamic>?> readDecrypted(
+      {required String path,
+      required Uint8List key,
+      int offset = 0,
+      int length = 1048576}) {
+    throw UnimplementedError('readDecrypted() has not been implemented.');
+  }
+
+  ///  * Reads the telemetry of the recording at [path] from [fromUs] up to [toUs] microseconds
+  ///    of video time, to the end when [toUs] is null. Each of frames, acceleration and
+  ///    locations holds:
+  ///    - timesUs: video time of each record in microseconds
+  ///    - values: the values of each record one after the other, 4 per frame (exposure time
+  ///      and frame duration in nanoseconds, ISO and focus distance in diopters, -1 when
+  ///      unknown), 3 per acceleration (x, y and z in m/s^2) and 4 per location (latitude,
+  ///      longitude, altitude and accuracy in meters, NaN when unknown)
+  ///  * Fails when the recording has no telemetry
+  Future<Map<String, dynamic>?> readTelemetry(
+      {required String path, int fromUs = 0, int? toUs}) {
+    throw UnimplementedError('readTelemetry() has not been implemented.');
+  }
 }